@@ -888,7 +888,13 @@ def maven_impl(mctx):
                     "version": "3",
                 }
             else:
-                lock_file = json.decode(lock_file_content)
+                # Only the artifacts are needed here, so there's no need to load the packages or the
+                # conflicts if they're kept in shards of their own
+                lock_file = v3_lock_file.load_shards(
+                    json.decode(lock_file_content),
+                    v3_lock_file.shard_reader(mctx, mctx.path(repo.get("lock_file"))),
+                    sections = [],
+                )
 
             if v3_lock_file.is_valid_lock_file(lock_file):
                 artifacts = v3_lock_file.get_artifacts(lock_file)
@@ -600,7 +600,10 @@ def _pinned_coursier_fetch_impl(repository_ctx):
             "version": "3",
         }
     else:
-        maven_install_json_content = json.decode(lock_file_content)
+        maven_install_json_content = v3_lock_file.load_shards(
+            json.decode(lock_file_content),
+            v3_lock_file.shard_reader(repository_ctx, repository_ctx.path(repository_ctx.attr.maven_install_json)),
+        )
 
     if v3_lock_file.is_valid_lock_file(maven_install_json_content):
         importer = v3_lock_file
@@ -690,7 +693,16 @@ def _pinned_coursier_fetch_impl(repository_ctx):
                     "Consider running 'bazel run %s'" % pin_target,
                 )
 
-    dep_tree_signature = importer.get_lock_file_hash(maven_install_json_content)
+    # Lock files with a digest of each artifact are checked using those, as they're much cheaper to
+    # compute than the hash of the whole dependency tree. The hash is still accepted on its own.
+    get_digests_fn = getattr(importer, "get_lock_file_digests", None)
+    lock_file_digests = get_digests_fn(maven_install_json_content) if get_digests_fn else None
+    if lock_file_digests != None:
+        dep_tree_signature = lock_file_digests
+        compute_signature_fn = importer.compute_lock_file_digests
+    else:
+        dep_tree_signature = importer.get_lock_file_hash(maven_install_json_content)
+        compute_signature_fn = importer.compute_lock_file_hash
 
     if dep_tree_signature == None:
         print_if_not_repinning(
@@ -699,11 +711,15 @@ def _pinned_coursier_fetch_impl(repository_ctx):
             "This feature ensures that the file is not modified manually. To generate this " +
             "signature, run 'bazel run %s'." % pin_target,
         )
-    elif importer.compute_lock_file_hash(maven_install_json_content) != dep_tree_signature:
+    elif compute_signature_fn(maven_install_json_content) != dep_tree_signature:
         # Then, validate that the signature provided matches the contents of the dependency_tree.
         # This is to stop users from manually modifying maven_install.json.
         legacy_hash_fn = getattr(importer, "compute_lock_file_hash_legacy", None)
-        is_legacy_hash = legacy_hash_fn != None and legacy_hash_fn(maven_install_json_content) == dep_tree_signature
+        is_legacy_hash = (
+            lock_file_digests == None and
+            legacy_hash_fn != None and
+            legacy_hash_fn(maven_install_json_content) == dep_tree_signature
+        )
         if is_legacy_hash:
             # The lock file was written by an older version of rules_jvm_external that used
             # repository insertion order when computing hashes. The file is valid but needs
@@ -713,7 +729,7 @@ def _pinned_coursier_fetch_impl(repository_ctx):
                 "and needs to be regenerated. To update, run 'bazel run %s'." % pin_target,
             )
         elif _get_fail_if_repin_required(repository_ctx):
-            computed_hash = importer.compute_lock_file_hash(maven_install_json_content)
+            computed_hash = compute_signature_fn(maven_install_json_content)
             to_print = importer.print_friendly_hash_difference(dep_tree_signature, computed_hash)
             fail(
                 "%s_install.json contains an invalid signature (%s) and may be corrupted. " % (
@@ -15,6 +15,10 @@ load("//private/lib:coordinates.bzl", "to_external_form", "to_key")
 
 _REQUIRED_KEYS = ["artifacts", "dependencies", "repositories"]
 
+# The version of the scheme used to calculate `__RESOLVED_ARTIFACTS_DIGESTS`. Lock files using any
+# other version are checked using `__RESOLVED_ARTIFACTS_HASH` instead.
+_DIGESTS_VERSION = 1
+
 def _is_valid_lock_file_v2(lock_file_contents):
     return _is_valid_lock_file(lock_file_contents, "2")
 
@@ -43,6 +47,66 @@ def _get_input_artifacts_hash(lock_file_contents):
 def _get_lock_file_hash(lock_file_contents):
     return lock_file_contents.get("__RESOLVED_ARTIFACTS_HASH")
 
+def _get_lock_file_digests(lock_file_contents):
+    digests = lock_file_contents.get("__RESOLVED_ARTIFACTS_DIGESTS")
+    if not digests or digests.get("version") != _DIGESTS_VERSION:
+        return None
+    return digests.get("digests")
+
+def _load_shards(lock_file_contents, read_shard, sections = None):
+    """Puts a lock file that was written as a manifest and shards back together.
+
+    The Java resolver writes lock files like this when `RJE_SHARDED_LOCK_FILE` is set, and
+    `LockFileShards` describes the layout. Lock files without shards are returned as they are.
+
+    Args:
+      lock_file_contents: The decoded lock file.
+      read_shard: A function returning the contents of a file, given its path relative to the
+        directory holding the lock file.
+      sections: The sections kept in shards of their own, such as `packages`, to load. `None` loads
+        all of them. Leaving out those that aren't needed saves decoding them.
+
+    Returns:
+      The lock file as it would have been written to a single file, less any sections left out.
+    """
+    shards = lock_file_contents.get("shards")
+    if not shards:
+        return lock_file_contents
+
+    loaded = {k: v for k, v in lock_file_contents.items() if k != "shards"}
+    for section, path in shards.get("sections", {}).items():
+        if sections == None or section in sections:
+            loaded[section] = json.decode(read_shard(path))
+
+    grouped = {}
+    repositories = {repo: [] for repo in lock_file_contents.get("repositories", {}).keys()}
+    for path in shards.get("groups", {}).values():
+        for section, entries in json.decode(read_shard(path)).items():
+            if section == "repositories":
+                for repo, artifacts in entries.items():
+                    repositories.setdefault(repo, []).extend(artifacts)
+            else:
+                grouped.setdefault(section, {}).update(entries)
+
+    for section, entries in grouped.items():
+        loaded[section] = {key: entries[key] for key in sorted(entries.keys())}
+    if "repositories" in loaded:
+        loaded["repositories"] = {repo: sorted(artifacts) for repo, artifacts in repositories.items()}
+    return loaded
+
+def _shard_reader(ctx, lock_file_path):
+    # Returns a `read_shard` for `_load_shards` that reads the shards of the lock file at
+    # `lock_file_path` using `ctx`, which may be a `repository_ctx` or `module_ctx`.
+    directory = lock_file_path.dirname
+
+    def read_shard(path):
+        shard = directory
+        for segment in path.split("/"):
+            shard = shard.get_child(segment)
+        return ctx.read(shard)
+
+    return read_shard
+
 def _print_friendly_hash_difference_v2(old_hash, new_hash):
     if old_hash == new_hash:
         return ""
@@ -178,6 +242,35 @@ def _compute_lock_file_hash_v3_legacy(lock_file_contents):
         lock_file_contents["repositories"].keys(),
     )
 
+def _compute_lock_file_digests(lock_file_contents):
+    # Unlike `__RESOLVED_ARTIFACTS_HASH`, the digest of an artifact only covers what the lock file
+    # says about that artifact, and not the digests of its dependencies. That's still enough to
+    # notice any edit, and means that each digest is the hash of a short string, calculated without
+    # walking the dependency graph. The Java resolver calculates the same thing in
+    # `ArtifactHasher.digest`.
+    repositories = {}
+    for repo, artifacts in lock_file_contents["repositories"].items():
+        for artifact in artifacts:
+            repositories.setdefault(artifact, []).append(repo)
+    dependencies = lock_file_contents["dependencies"]
+
+    digests = {}
+    for dep, dep_info in lock_file_contents["artifacts"].items():
+        common_info = {k: dep_info[k] for k in sorted(dep_info.keys()) if k != "shasums"}
+        jar_suffix = ":jar" if dep.count(":") == 1 else ""
+
+        for type, sha in dep_info["shasums"].items():
+            key = dep + (jar_suffix + ":" + type if type != "jar" else "")
+            digests[key] = hash(repr([
+                common_info,
+                key,
+                sha,
+                repositories.get(key, []),
+                dependencies.get(key, []),
+            ]))
+
+    return digests
+
 def _to_m2_path(unpacked):
     path = "{group}/{artifact}/{version}/{artifact}-{version}".format(
         artifact = unpacked["artifact"],
@@ -304,6 +397,11 @@ def _render_lock_file(lock_file_contents, input_hash):
         "{",
         "  \"__AUTOGENERATED_FILE_DO_NOT_MODIFY_THIS_FILE_MANUALLY\": \"THERE_IS_NO_DATA_ONLY_ZUUL\",",
         "  \"__INPUT_ARTIFACTS_HASH\": %s," % json.encode_indent(input_hash, prefix = "  ", indent = "  "),
+        "  \"__RESOLVED_ARTIFACTS_DIGESTS\": %s," % json.encode_indent(
+            {"digests": _compute_lock_file_digests(lock_file_contents), "version": _DIGESTS_VERSION},
+            prefix = "  ",
+            indent = "  ",
+        ),
         "  \"__RESOLVED_ARTIFACTS_HASH\": %s," % json.encode_indent(_compute_lock_file_hash_v3(lock_file_contents), prefix = "  ", indent = "  "),
     ]
     if lock_file_contents.get("conflict_resolution"):
@@ -342,6 +440,8 @@ v2_lock_file = struct(
     get_artifacts = _get_artifacts,
     get_netrc_entries = _get_netrc_entries,
     has_m2local = _has_m2local,
+    load_shards = _load_shards,
+    shard_reader = _shard_reader,
 )
 
 v3_lock_file = struct(
@@ -351,8 +451,12 @@ v3_lock_file = struct(
     print_friendly_hash_difference = _print_friendly_hash_difference_v3,
     compute_lock_file_hash = _compute_lock_file_hash_v3,
     compute_lock_file_hash_legacy = _compute_lock_file_hash_v3_legacy,
+    get_lock_file_digests = _get_lock_file_digests,
+    compute_lock_file_digests = _compute_lock_file_digests,
     get_artifacts = _get_artifacts,
     get_netrc_entries = _get_netrc_entries,
     render_lock_file = _render_lock_file,
     has_m2local = _has_m2local,
+    load_shards = _load_shards,
+    shard_reader = _shard_reader,
 )
@@ -0,0 +1,331 @@
+// Copyright 2026 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * An immutable, sorted set of strings that takes up far less memory than a {@link TreeSet}. We
+ * keep the package and class names of every jar we index around for the whole of a resolution, and
+ * across thousands of jars the same prefixes turn up millions of times.
+ *
+ * <p>There are two forms:
+ *
+ * <ul>
+ *   <li>{@link #interned(Collection)} keeps a sorted array of strings, each interned so that every
+ *       set holding the same string shares a single copy. Strings no set holds any more can still
+ *       be garbage collected. This suits package names, which are
+ *       short and repeat across jars.
+ *   <li>{@link #frontCoded(Collection)} splits the strings into blocks. The first string in each
+ *       block is kept as it is, and each of the others only as how much it shares with the string
+ *       before it and the characters that follow. This suits class names, which share long
+ *       prefixes with their neighbours.
+ * </ul>
+ *
+ * <p>Both are ordinary {@link SortedSet}s in every other respect, in the natural order of their
+ * strings, so they can be used wherever a {@code TreeSet} of the same strings was before.
+ */
+public final class CompactStringSet extends AbstractSet<String> implements SortedSet<String> {
+
+  private static final int BLOCK_SIZE = 16;
+  // Weak, so that a long-running process such as the metadata server only keeps the strings some
+  // set still holds
+  private static final Interner<String> INTERNED = Interners.newWeakInterner();
+  private static final CompactStringSet EMPTY = new CompactStringSet(new String[0], null, null, 0);
+
+  // Every string for an interned set, and the first string of each block for a front-coded one
+  private final String[] heads;
+  // For a front-coded set, the rest of each block's strings, encoded one after another. Null for
+  // an interned set.
+  private final byte[] tails;
+  private final int[] tailOffsets;
+  private final int size;
+
+  private CompactStringSet(String[] heads, byte[] tails, int[] tailOffsets, int size) {
+    this.heads = heads;
+    this.tails = tails;
+    this.tailOffsets = tailOffsets;
+    this.size = size;
+  }
+
+  /** A set of {@code strings} in which each string is shared with every other interned set. */
+  public static CompactStringSet interned(Collection<String> strings) {
+    if (strings instanceof CompactStringSet && ((CompactStringSet) strings).tails == null) {
+      return (CompactStringSet) strings;
+    }
+    String[] sorted = sortedUnique(strings);
+    if (sorted.length == 0) {
+      return EMPTY;
+    }
+    for (int i = 0; i < sorted.length; i++) {
+      sorted[i] = INTERNED.intern(sorted[i]);
+    }
+    return new CompactStringSet(sorted, null, null, sorted.length);
+  }
+
+  /** A set of {@code strings} in which each string is stored as a suffix of the one before. */
+  public static CompactStringSet frontCoded(Collection<String> strings) {
+    if (strings instanceof CompactStringSet && ((CompactStringSet) strings).tails != null) {
+      return (CompactStringSet) strings;
+    }
+    String[] sorted = sortedUnique(strings);
+    if (sorted.length == 0) {
+      return EMPTY;
+    }
+
+    int blocks = (sorted.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    String[] heads = new String[blocks];
+    int[] tailOffsets = new int[blocks + 1];
+    Encoder tails = new Encoder();
+    for (int block = 0; block < blocks; block++) {
+      int start = block * BLOCK_SIZE;
+      heads[block] = sorted[start];
+      tailOffsets[block] = tails.size();
+      for (int i = start + 1; i < Math.min(start + BLOCK_SIZE, sorted.length); i++) {
+        String previous = sorted[i - 1];
+        String current = sorted[i];
+        int shared = sharedPrefixLength(previous, current);
+        tails.writeVarInt(shared);
+        tails.writeVarInt(current.length() - shared);
+        for (int c = shared; c < current.length(); c++) {
+          tails.writeVarInt(current.charAt(c));
+        }
+      }
+    }
+    tailOffsets[blocks] = tails.size();
+    return new CompactStringSet(heads, tails.toByteArray(), tailOffsets, sorted.length);
+  }
+
+  // Visible for testing. How many strings are kept whole.
+  int wholeStrings() {
+    return heads.length;
+  }
+
+  // Visible for testing. How many bytes the strings that aren't kept whole are encoded in.
+  int encodedBytes() {
+    return tails == null ? 0 : tails.length;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    if (!(o instanceof String)) {
+      return false;
+    }
+    String wanted = (String) o;
+    int found = Arrays.binarySearch(heads, wanted);
+    if (found >= 0) {
+      return true;
+    }
+    if (tails == null) {
+      return false;
+    }
+    int block = -found - 2;
+    if (block < 0) {
+      return false;
+    }
+    BlockReader reader = new BlockReader(block);
+    while (reader.hasNext()) {
+      int comparison = reader.next().compareTo(wanted);
+      if (comparison == 0) {
+        return true;
+      }
+      if (comparison > 0) {
+        return false;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public Iterator<String> iterator() {
+    if (tails == null) {
+      return Arrays.asList(heads).iterator();
+    }
+    return new Iterator<>() {
+      private int block = 0;
+      private BlockReader reader;
+
+      @Override
+      public boolean hasNext() {
+        return (reader != null && reader.hasNext()) || block < heads.length;
+      }
+
+      @Override
+      public String next() {
+        if (reader != null && reader.hasNext()) {
+          return reader.next();
+        }
+        if (block >= heads.length) {
+          throw new NoSuchElementException();
+        }
+        reader = new BlockReader(block++);
+        return reader.previous;
+      }
+    };
+  }
+
+  @Override
+  public Comparator<? super String> comparator() {
+    return null;
+  }
+
+  @Override
+  public String first() {
+    if (size == 0) {
+      throw new NoSuchElementException();
+    }
+    return heads[0];
+  }
+
+  @Override
+  public String last() {
+    if (size == 0) {
+      throw new NoSuchElementException();
+    }
+    if (tails == null) {
+      return heads[heads.length - 1];
+    }
+    BlockReader reader = new BlockReader(heads.length - 1);
+    String last = reader.previous;
+    while (reader.hasNext()) {
+      last = reader.next();
+    }
+    return last;
+  }
+
+  // Ranges are rarely asked for, so rather than share storage they're copied into a set of the
+  // same form.
+
+  @Override
+  public SortedSet<String> subSet(String fromElement, String toElement) {
+    return sameForm(new TreeSet<>(this).subSet(fromElement, toElement));
+  }
+
+  @Override
+  public SortedSet<String> headSet(String toElement) {
+    return sameForm(new TreeSet<>(this).headSet(toElement));
+  }
+
+  @Override
+  public SortedSet<String> tailSet(String fromElement) {
+    return sameForm(new TreeSet<>(this).tailSet(fromElement));
+  }
+
+  private CompactStringSet sameForm(SortedSet<String> strings) {
+    return tails == null ? interned(strings) : frontCoded(strings);
+  }
+
+  private static String[] sortedUnique(Collection<String> strings) {
+    SortedSet<String> sorted;
+    if (strings instanceof SortedSet && ((SortedSet<String>) strings).comparator() == null) {
+      sorted = (SortedSet<String>) strings;
+    } else {
+      sorted = new TreeSet<>(strings);
+    }
+    return sorted.toArray(new String[0]);
+  }
+
+  private static int sharedPrefixLength(String left, String right) {
+    int max = Math.min(left.length(), right.length());
+    int i = 0;
+    while (i < max && left.charAt(i) == right.charAt(i)) {
+      i++;
+    }
+    return i;
+  }
+
+  /** Decodes the strings of one block, after its head. */
+  private class BlockReader {
+    private final int end;
+    private int position;
+    private String previous;
+
+    BlockReader(int block) {
+      this.position = tailOffsets[block];
+      this.end = tailOffsets[block + 1];
+      this.previous = heads[block];
+    }
+
+    boolean hasNext() {
+      return position < end;
+    }
+
+    String next() {
+      int shared = readVarInt();
+      int length = readVarInt();
+      char[] chars = new char[shared + length];
+      previous.getChars(0, shared, chars, 0);
+      for (int i = shared; i < chars.length; i++) {
+        chars[i] = (char) readVarInt();
+      }
+      previous = new String(chars);
+      return previous;
+    }
+
+    private int readVarInt() {
+      int value = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = tails[position++];
+        value |= (b & 0x7f) << shift;
+        shift += 7;
+      } while ((b & 0x80) != 0);
+      return value;
+    }
+  }
+
+  private static class Encoder {
+    private byte[] bytes = new byte[256];
+    private int size;
+
+    void writeVarInt(int value) {
+      while ((value & ~0x7f) != 0) {
+        write((value & 0x7f) | 0x80);
+        value >>>= 7;
+      }
+      write(value);
+    }
+
+    private void write(int b) {
+      if (size == bytes.length) {
+        bytes = Arrays.copyOf(bytes, size * 2);
+      }
+      bytes[size++] = (byte) b;
+    }
+
+    int size() {
+      return size;
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(bytes, size);
+    }
+  }
+}
@@ -0,0 +1,420 @@
+// Copyright 2026 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external;
+
+import static java.net.http.HttpClient.Redirect.NEVER;
+import static java.net.http.HttpClient.Redirect.NORMAL;
+
+import java.io.IOException;
+import java.net.Authenticator;
+import java.net.CookieHandler;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLContextSpi;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLServerSocketFactory;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+
+/**
+ * The HTTP client shared by everything in the process that talks to a repository.
+ *
+ * <p>Sharing one client means connections are pooled across components, and a single {@link
+ * SSLContext} lets TLS sessions be resumed rather than negotiated from scratch. Every TLS
+ * connection opened by a client from this class is counted per host, so we can tell how well the
+ * pooling is working.
+ *
+ * <p>Callers add their own {@code Authorization} headers, and the JDK would pass those on to
+ * whichever host a redirect points at. The shared client follows redirects itself instead, and
+ * only keeps the header when a redirect stays on the same scheme, host and port.
+ */
+public final class HttpClients {
+
+  private static final Logger LOG = Logger.getLogger(HttpClients.class.getName());
+  private static final Map<String, AtomicInteger> TLS_CONNECTIONS = new ConcurrentHashMap<>();
+  private static final SSLContext SSL_CONTEXT = createCountingSslContext();
+  private static volatile HttpClient shared;
+
+  private HttpClients() {
+    // Utility methods
+  }
+
+  /** Returns the process-wide client. It has no {@code Authenticator}. */
+  public static HttpClient shared() {
+    if (shared == null) {
+      synchronized (HttpClients.class) {
+        if (shared == null) {
+          shared = new RedirectingClient(newBuilder().followRedirects(NEVER).build());
+        }
+      }
+    }
+    return shared;
+  }
+
+  /**
+   * Returns a builder configured like the shared client, for callers that need something extra,
+   * such as an {@code Authenticator}. Clients built from it still share TLS sessions with the
+   * shared client, but not connections. They leave following redirects to the JDK, so should
+   * only be used where the JDK answers challenges itself rather than being sent credentials.
+   */
+  public static HttpClient.Builder newBuilder() {
+    HttpClient.Builder builder =
+        HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(300))
+            .followRedirects(NORMAL)
+            .proxy(ProxySelector.getDefault());
+    if (SSL_CONTEXT != null) {
+      builder.sslContext(SSL_CONTEXT);
+    }
+    return builder;
+  }
+
+  /** Whether requests to {@code uri} are made without going through a proxy. */
+  public static boolean isDirect(URI uri) {
+    ProxySelector selector = ProxySelector.getDefault();
+    if (selector == null) {
+      return true;
+    }
+    return selector.select(uri).stream().allMatch(proxy -> proxy.type() == Proxy.Type.DIRECT);
+  }
+
+  /**
+   * Starts opening a connection to each of the hosts serving {@code repositories}, so that the
+   * DNS lookups and handshakes happen in parallel before the first real request needs them. This
+   * doesn't wait for the connections to be made, and any failures are ignored: a host that
+   * can't be reached will be reported by whatever asks it for something.
+   */
+  public static void prewarm(Collection<URI> repositories) {
+    Set<URI> hosts = new LinkedHashSet<>();
+    for (URI repository : repositories) {
+      String scheme = repository.getScheme();
+      if (!"http".equals(scheme) && !"https".equals(scheme)) {
+        continue;
+      }
+      if (repository.getHost() == null || !isDirect(repository)) {
+        continue;
+      }
+      // Only the host and port are used, so any credentials in the repository URI stay out of
+      // both the request and the logs
+      int port = repository.getPort();
+      hosts.add(
+          URI.create(
+              scheme + "://" + repository.getHost() + (port == -1 ? "" : ":" + port) + "/"));
+    }
+
+    for (URI host : hosts) {
+      LOG.fine(String.format("Pre-warming connection to %s", host));
+      HttpRequest request =
+          HttpRequest.newBuilder(host)
+              .method("HEAD", HttpRequest.BodyPublishers.noBody())
+              .header("User-Agent", "rules_jvm_external resolver")
+              .timeout(Duration.ofSeconds(30))
+              .build();
+      shared()
+          .sendAsync(request, HttpResponse.BodyHandlers.discarding())
+          .exceptionally(
+              e -> {
+                LOG.fine(String.format("Unable to pre-warm connection to %s: %s", host, e));
+                return null;
+              });
+    }
+  }
+
+  /**
+   * Returns the number of TLS connections opened to each host so far, sorted by host. Each one
+   * starts with a handshake, but this can't tell a full handshake from a resumed session.
+   */
+  public static Map<String, Integer> getTlsConnectionCounts() {
+    Map<String, Integer> counts = new TreeMap<>();
+    TLS_CONNECTIONS.forEach((host, count) -> counts.put(host, count.get()));
+    return counts;
+  }
+
+  private static SSLContext createCountingSslContext() {
+    try {
+      SSLContext delegate = SSLContext.getDefault();
+      return new SSLContext(
+          new CountingSslContextSpi(delegate), delegate.getProvider(), delegate.getProtocol()) {};
+    } catch (NoSuchAlgorithmException e) {
+      LOG.warning("Unable to load the default SSL context: " + e);
+      return null;
+    }
+  }
+
+  /**
+   * Follows redirects much as {@link HttpClient.Redirect#NORMAL} would, but drops the {@code
+   * Authorization} header whenever a redirect leaves the origin the request was sent to.
+   */
+  private static class RedirectingClient extends HttpClient {
+    // The same limit as the JDK's own
+    private static final int MAX_REDIRECTS = 5;
+    private static final Set<Integer> REDIRECT_CODES = Set.of(301, 302, 303, 307, 308);
+
+    private final HttpClient delegate;
+
+    RedirectingClient(HttpClient delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler)
+        throws IOException, InterruptedException {
+      HttpRequest current = request;
+      for (int redirects = 0; ; redirects++) {
+        HttpResponse<T> response =
+            delegate.send(current, skippingRedirects(current, handler, redirects));
+        HttpRequest next = nextRequest(current, response, redirects);
+        if (next == null) {
+          return response;
+        }
+        current = next;
+      }
+    }
+
+    @Override
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(
+        HttpRequest request, HttpResponse.BodyHandler<T> handler) {
+      return sendAsync(request, handler, 0);
+    }
+
+    private <T> CompletableFuture<HttpResponse<T>> sendAsync(
+        HttpRequest request, HttpResponse.BodyHandler<T> handler, int redirects) {
+      return delegate
+          .sendAsync(request, skippingRedirects(request, handler, redirects))
+          .thenCompose(
+              response -> {
+                HttpRequest next = nextRequest(request, response, redirects);
+                return next == null
+                    ? CompletableFuture.completedFuture(response)
+                    : sendAsync(next, handler, redirects + 1);
+              });
+    }
+
+    @Override
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(
+        HttpRequest request,
+        HttpResponse.BodyHandler<T> handler,
+        HttpResponse.PushPromiseHandler<T> pushPromiseHandler) {
+      // Nothing here asks for pushed responses, so these aren't worth following redirects for
+      return delegate.sendAsync(request, handler, pushPromiseHandler);
+    }
+
+    // The body of a redirect that's about to be followed is of no interest to the caller
+    private static <T> HttpResponse.BodyHandler<T> skippingRedirects(
+        HttpRequest request, HttpResponse.BodyHandler<T> handler, int redirects) {
+      return info -> {
+        if (redirects < MAX_REDIRECTS
+            && redirectTarget(request, info.statusCode(), info.headers()) != null) {
+          return HttpResponse.BodySubscribers.replacing(null);
+        }
+        return handler.apply(info);
+      };
+    }
+
+    private static HttpRequest nextRequest(
+        HttpRequest request, HttpResponse<?> response, int redirects) {
+      if (redirects >= MAX_REDIRECTS) {
+        return null;
+      }
+      URI target = redirectTarget(request, response.statusCode(), response.headers());
+      if (target == null) {
+        return null;
+      }
+
+      URI from = request.uri();
+      boolean sameOrigin =
+          from.getScheme().equalsIgnoreCase(target.getScheme())
+              && from.getHost().equalsIgnoreCase(target.getHost())
+              && portOf(from) == portOf(target);
+      String method = request.method();
+      int status = response.statusCode();
+      boolean toGet =
+          !"GET".equals(method)
+              && !"HEAD".equals(method)
+              && (status == 303 || ((status == 301 || status == 302) && "POST".equals(method)));
+
+      HttpRequest.Builder builder =
+          HttpRequest.newBuilder(
+                  request,
+                  (name, value) ->
+                      (sameOrigin || !"Authorization".equalsIgnoreCase(name))
+                          && !(toGet && "Content-Type".equalsIgnoreCase(name)))
+              .uri(target);
+      if (toGet) {
+        builder.GET();
+      }
+      return builder.build();
+    }
+
+    private static URI redirectTarget(HttpRequest request, int status, HttpHeaders headers) {
+      if (!REDIRECT_CODES.contains(status)) {
+        return null;
+      }
+      Optional<String> location = headers.firstValue("Location");
+      if (location.isEmpty()) {
+        return null;
+      }
+      URI target;
+      try {
+        target = request.uri().resolve(location.get());
+      } catch (IllegalArgumentException e) {
+        return null;
+      }
+      String scheme = target.getScheme();
+      if (target.getHost() == null
+          || !("http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme))) {
+        return null;
+      }
+      // Never from https to http
+      boolean secure = "https".equalsIgnoreCase(request.uri().getScheme());
+      return secure && !"https".equalsIgnoreCase(scheme) ? null : target;
+    }
+
+    private static int portOf(URI uri) {
+      if (uri.getPort() != -1) {
+        return uri.getPort();
+      }
+      return "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+    }
+
+    @Override
+    public Redirect followRedirects() {
+      return NORMAL;
+    }
+
+    @Override
+    public Optional<CookieHandler> cookieHandler() {
+      return delegate.cookieHandler();
+    }
+
+    @Override
+    public Optional<Duration> connectTimeout() {
+      return delegate.connectTimeout();
+    }
+
+    @Override
+    public Optional<ProxySelector> proxy() {
+      return delegate.proxy();
+    }
+
+    @Override
+    public SSLContext sslContext() {
+      return delegate.sslContext();
+    }
+
+    @Override
+    public SSLParameters sslParameters() {
+      return delegate.sslParameters();
+    }
+
+    @Override
+    public Optional<Authenticator> authenticator() {
+      return delegate.authenticator();
+    }
+
+    @Override
+    public Version version() {
+      return delegate.version();
+    }
+
+    @Override
+    public Optional<Executor> executor() {
+      return delegate.executor();
+    }
+  }
+
+  /** Delegates to another context, counting the engines it creates for each host. */
+  private static class CountingSslContextSpi extends SSLContextSpi {
+    private final SSLContext delegate;
+
+    CountingSslContextSpi(SSLContext delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    protected void engineInit(KeyManager[] km, TrustManager[] tm, SecureRandom sr)
+        throws KeyManagementException {
+      delegate.init(km, tm, sr);
+    }
+
+    @Override
+    protected SSLSocketFactory engineGetSocketFactory() {
+      return delegate.getSocketFactory();
+    }
+
+    @Override
+    protected SSLServerSocketFactory engineGetServerSocketFactory() {
+      return delegate.getServerSocketFactory();
+    }
+
+    @Override
+    protected SSLEngine engineCreateSSLEngine() {
+      return delegate.createSSLEngine();
+    }
+
+    @Override
+    protected SSLEngine engineCreateSSLEngine(String host, int port) {
+      // The HTTP client creates one engine per connection
+      if (host != null) {
+        TLS_CONNECTIONS.computeIfAbsent(host, ignored -> new AtomicInteger()).incrementAndGet();
+      }
+      return delegate.createSSLEngine(host, port);
+    }
+
+    @Override
+    protected SSLSessionContext engineGetServerSessionContext() {
+      return delegate.getServerSessionContext();
+    }
+
+    @Override
+    protected SSLSessionContext engineGetClientSessionContext() {
+      return delegate.getClientSessionContext();
+    }
+
+    @Override
+    protected SSLParameters engineGetDefaultSSLParameters() {
+      return delegate.getDefaultSSLParameters();
+    }
+
+    @Override
+    protected SSLParameters engineGetSupportedSSLParameters() {
+      return delegate.getSupportedSSLParameters();
+    }
+  }
+}
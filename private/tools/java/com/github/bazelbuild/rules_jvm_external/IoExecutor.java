@@ -0,0 +1,159 @@
+// Copyright 2026 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.github.bazelbuild.rules_jvm_external;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs blocking network I/O, with no more than a fixed number of tasks running at once. The rest
+ * wait for a running task to finish, and are then started highest priority first, and in the order
+ * they were submitted when their priorities are the same. Tasks submitted through {@link
+ * #execute(Runnable)} have a priority of 0, and {@link #atPriority(long)} submits them with others.
+ *
+ * <p>Each task is started on a thread from an underlying executor. With virtual threads that's a
+ * new thread for every task, so the limit here is all that stops the tools from sending a
+ * repository more requests at once than {@code RJE_MAX_THREADS} allows.
+ */
+public final class IoExecutor extends AbstractExecutorService {
+
+  private final ExecutorService threads;
+  private final int maxRunning;
+  private final Semaphore permits;
+  private final PriorityBlockingQueue<Queued> queued = new PriorityBlockingQueue<>();
+  private final AtomicLong submitted = new AtomicLong();
+  private volatile boolean shutdown;
+
+  IoExecutor(int maxRunning, ExecutorService threads) {
+    this.threads = threads;
+    this.maxRunning = maxRunning;
+    this.permits = new Semaphore(maxRunning);
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    execute(task, 0);
+  }
+
+  /** Returns an executor that submits tasks to this one with the given {@code priority}. */
+  public Executor atPriority(long priority) {
+    return task -> execute(task, priority);
+  }
+
+  private void execute(Runnable task, long priority) {
+    if (shutdown) {
+      throw new RejectedExecutionException("Shut down");
+    }
+    queued.add(new Queued(task, priority, submitted.getAndIncrement()));
+    startQueued();
+  }
+
+  // Anything that queues a task or frees a permit calls this afterwards, so a task is never left
+  // waiting while there's a permit free
+  private void startQueued() {
+    while (!queued.isEmpty() && permits.tryAcquire()) {
+      Queued next = queued.poll();
+      if (next == null) {
+        // Someone else started it
+        permits.release();
+        continue;
+      }
+      try {
+        threads.execute(() -> run(next.task));
+      } catch (RejectedExecutionException e) {
+        // Only once shutdownNow has been called, which drops anything that hasn't started
+        permits.release();
+      }
+    }
+  }
+
+  private void run(Runnable task) {
+    try {
+      task.run();
+    } finally {
+      permits.release();
+      startQueued();
+      terminateIfFinished();
+    }
+  }
+
+  // Once shut down nothing more is queued, and only permit holders take from the queue, so an
+  // empty queue and every permit free means nothing else will ever run
+  private void terminateIfFinished() {
+    if (shutdown && queued.isEmpty() && permits.availablePermits() == maxRunning) {
+      threads.shutdown();
+    }
+  }
+
+  @Override
+  public void shutdown() {
+    shutdown = true;
+    terminateIfFinished();
+  }
+
+  @Override
+  public List<Runnable> shutdownNow() {
+    shutdown = true;
+    List<Runnable> notStarted = new ArrayList<>();
+    Queued task;
+    while ((task = queued.poll()) != null) {
+      notStarted.add(task.task);
+    }
+    threads.shutdownNow();
+    return notStarted;
+  }
+
+  @Override
+  public boolean isShutdown() {
+    return shutdown;
+  }
+
+  @Override
+  public boolean isTerminated() {
+    return threads.isTerminated();
+  }
+
+  @Override
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    return threads.awaitTermination(timeout, unit);
+  }
+
+  private static final class Queued implements Comparable<Queued> {
+    private final Runnable task;
+    private final long priority;
+    private final long order;
+
+    private Queued(Runnable task, long priority, long order) {
+      this.task = task;
+      this.priority = priority;
+      this.order = order;
+    }
+
+    @Override
+    public int compareTo(Queued other) {
+      int byPriority = Long.compare(other.priority, priority);
+      return byPriority != 0 ? byPriority : Long.compare(order, other.order);
+    }
+  }
+}
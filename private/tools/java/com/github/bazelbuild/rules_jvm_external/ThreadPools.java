@@ -0,0 +1,160 @@
+// Copyright 2026 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Threads for the tools' network and CPU bound work.
+ *
+ * <p>By default everything runs on platform threads, and callers size their own pools. When the
+ * {@code RJE_VIRTUAL_THREADS} environment variable is set and the JDK supports it (21 or later),
+ * blocking network I/O runs on virtual threads instead, so a thread is no longer tied up for a
+ * whole HTTP round trip. CPU-heavy work such as hashing and indexing is then moved onto a shared
+ * pool of platform threads sized to the machine, via {@link #runCpuBound(Callable)}.
+ *
+ * <p>The tools are built for Java 17, so virtual threads are created reflectively.
+ */
+public final class ThreadPools {
+
+  private static final Logger LOG = Logger.getLogger(ThreadPools.class.getName());
+  private static final ThreadFactory virtualThreads = findVirtualThreadFactory();
+  private static volatile ExecutorService cpuPool;
+
+  private ThreadPools() {
+    // Utility methods
+  }
+
+  public static boolean isUsingVirtualThreads() {
+    return virtualThreads != null;
+  }
+
+  /**
+   * Returns a factory for threads that spend most of their time waiting on the network. These are
+   * virtual threads if they are enabled, and daemon platform threads otherwise.
+   */
+  public static ThreadFactory newIoThreadFactory(String name) {
+    AtomicInteger count = new AtomicInteger();
+    return r -> {
+      ThreadFactory virtual = virtualThreads;
+      Thread thread = virtual != null ? virtual.newThread(r) : new Thread(r);
+      thread.setDaemon(true);
+      thread.setName(name + "-" + count.incrementAndGet());
+      return thread;
+    };
+  }
+
+  /**
+   * Returns an executor for blocking network I/O that runs at most {@code maxThreads} tasks at
+   * once, starting the rest in priority order. With virtual threads enabled each task is started
+   * on a thread of its own. Otherwise platform threads are reused.
+   */
+  public static IoExecutor newIoExecutor(int maxThreads, String name) {
+    return newIoExecutor(maxThreads, newIoThreadFactory(name), isUsingVirtualThreads());
+  }
+
+  // Visible for testing. The tools run on Java 17, so their tests have to stand something else in
+  // for virtual threads.
+  static IoExecutor newIoExecutor(int maxThreads, ThreadFactory factory, boolean virtual) {
+    if (virtual) {
+      return new IoExecutor(maxThreads, newThreadPerTaskExecutor(factory));
+    }
+    return new IoExecutor(maxThreads, Executors.newCachedThreadPool(factory));
+  }
+
+  /**
+   * Runs CPU-heavy work. If I/O is running on virtual threads, the work is handed to a pool of
+   * platform threads sized to the number of cores, so that any number of virtual threads can't
+   * oversubscribe the CPU. Otherwise the caller is already on a bounded platform pool and the work
+   * runs inline.
+   */
+  public static <T> T runCpuBound(Callable<T> work) throws Exception {
+    if (!isUsingVirtualThreads()) {
+      return work.call();
+    }
+
+    try {
+      return getCpuPool().submit(work).get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof Exception) {
+        throw (Exception) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw e;
+    }
+  }
+
+  private static ExecutorService getCpuPool() {
+    if (cpuPool == null) {
+      synchronized (ThreadPools.class) {
+        if (cpuPool == null) {
+          AtomicInteger count = new AtomicInteger();
+          cpuPool =
+              Executors.newFixedThreadPool(
+                  Runtime.getRuntime().availableProcessors(),
+                  r -> {
+                    Thread thread = new Thread(r);
+                    thread.setDaemon(true);
+                    thread.setName("cpu-" + count.incrementAndGet());
+                    return thread;
+                  });
+        }
+      }
+    }
+    return cpuPool;
+  }
+
+  private static ExecutorService newThreadPerTaskExecutor(ThreadFactory factory) {
+    try {
+      // Executors.newThreadPerTaskExecutor(factory), which is only there from Java 21
+      return (ExecutorService)
+          Executors.class
+              .getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+              .invoke(null, factory);
+    } catch (ReflectiveOperationException e) {
+      // Something is standing in for virtual threads on an older JDK. A cached pool, which lets
+      // idle threads go, is the nearest it has.
+      return Executors.newCachedThreadPool(factory);
+    }
+  }
+
+  private static ThreadFactory findVirtualThreadFactory() {
+    String env = System.getenv("RJE_VIRTUAL_THREADS");
+    if (env == null || !("1".equals(env) || Boolean.parseBoolean(env))) {
+      return null;
+    }
+
+    try {
+      // Thread.ofVirtual().factory()
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      return (ThreadFactory)
+          Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+    } catch (ReflectiveOperationException e) {
+      LOG.warning(
+          "RJE_VIRTUAL_THREADS is set, but this JDK does not support virtual threads."
+              + " Using platform threads instead.");
+      return null;
+    }
+  }
+}
@@ -15,28 +15,49 @@
 package com.github.bazelbuild.rules_jvm_external.jar;
 
 import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
 import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 
 public class IndexJar {
@@ -46,6 +67,10 @@ public class IndexJar {
 
   private static final String SERVICES_DIRECTORY_PREFIX = "META-INF/services/";
 
+  // How many jars past the next one to be handed on each core may index ahead of it. Their results
+  // wait in memory until it's done, so this bounds how much of the index is held at once.
+  private static final int JARS_AHEAD_PER_CORE = 4;
+
   public static void main(String[] args) throws IOException {
     if (args.length != 2 || !"--argsfile".equals(args[0])) {
       System.err.printf("Required args: --argsfile /path/to/argsfile%n");
@@ -53,84 +78,247 @@ public class IndexJar {
     }
 
     Path argsFile = Paths.get(args[1]);
-    Map<String, PerJarIndexResults> index = new IndexJar().index(Files.lines(argsFile));
-    System.out.println(new Gson().toJson(index));
+    Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+    new IndexJar().index(Files.readAllLines(argsFile), out);
+    out.write(System.lineSeparator());
+    out.flush();
   }
 
   public Map<String, PerJarIndexResults> index(Stream<String> source) {
-    TreeMap<String, PerJarIndexResults> index =
-        source
-            .parallel()
-            .map(
-                path -> {
-                  try {
-                    PerJarIndexResults results = index(Paths.get(path));
-                    return new AbstractMap.SimpleEntry<>(path, results);
-                  } catch (IOException e) {
-                    throw new UncheckedIOException(e);
-                  }
-                })
-            .collect(
-                Collectors.toMap(
-                    Map.Entry::getKey,
-                    Map.Entry::getValue,
-                    (left, right) -> {
-                      throw new RuntimeException("Duplicate keys detected but not expected");
-                    },
-                    TreeMap::new));
-
+    TreeMap<String, PerJarIndexResults> index = new TreeMap<>();
+    index(source.collect(Collectors.toList()), index::put);
     return index;
   }
 
+  /**
+   * Indexes the jars at {@code paths}, writing the results to {@code out} as a JSON object keyed by
+   * path. The output is exactly what serialising {@link #index(Stream)} with Gson would give, but
+   * each jar's results are written, and can be dropped, as soon as every jar before it is done.
+   */
+  public void index(Collection<String> paths, Writer out) throws IOException {
+    Gson gson = new Gson();
+    JsonWriter json = gson.newJsonWriter(out);
+    json.beginObject();
+    index(
+        paths,
+        (path, results) -> {
+          try {
+            json.name(path);
+            gson.toJson(results, PerJarIndexResults.class, json);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+    json.endObject();
+    json.flush();
+  }
+
+  private void index(Collection<String> paths, BiConsumer<String, PerJarIndexResults> consumer) {
+    int cores = Runtime.getRuntime().availableProcessors();
+    index(paths, cores, cores * JARS_AHEAD_PER_CORE, consumer);
+  }
+
+  /**
+   * Indexes the jars at {@code paths} on {@code threads} threads, handing the results to {@code
+   * consumer} in path order. Only jars within {@code window} places of the next one to be handed
+   * on are indexed, so no more than that many results are ever waiting to be handed on.
+   */
+  // Visible for testing
+  void index(
+      Collection<String> paths,
+      int threads,
+      int window,
+      BiConsumer<String, PerJarIndexResults> consumer) {
+    List<String> ordered = new ArrayList<>(paths);
+    ordered.sort(Comparator.naturalOrder());
+    for (int i = 1; i < ordered.size(); i++) {
+      if (ordered.get(i).equals(ordered.get(i - 1))) {
+        throw new RuntimeException("Duplicate keys detected but not expected");
+      }
+    }
+
+    // Within the window, the largest jars are started first, so that one big jar that happens to
+    // be handed out last doesn't leave every other core idle while it's indexed. That only holds
+    // within the window: a big jar whose path sorts near the end still can't start until the
+    // window reaches it. Sorting every jar by size would fix that, but then the results of
+    // everything indexed before a big jar would wait in memory until its turn came, which is
+    // what the window is there to stop.
+    ThreadPoolExecutor pool =
+        new ThreadPoolExecutor(
+            threads, threads, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>());
+    Deque<IndexTask> inFlight = new ArrayDeque<>();
+    try {
+      int next = Math.min(window, ordered.size());
+      Map<String, IndexTask> started = new HashMap<>();
+      for (String path : largestFirst(ordered.subList(0, next))) {
+        started.put(path, submit(pool, path));
+      }
+      ordered.subList(0, next).forEach(path -> inFlight.addLast(started.get(path)));
+
+      for (String path : ordered) {
+        consumer.accept(path, getResults(inFlight.removeFirst().result));
+        // The window moves on once its first jar has been handed on
+        if (next < ordered.size()) {
+          inFlight.addLast(submit(pool, ordered.get(next++)));
+        }
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  private IndexTask submit(ThreadPoolExecutor pool, String path) {
+    IndexTask task = new IndexTask(path, sizeOf(path));
+    pool.execute(task);
+    return task;
+  }
+
+  /** Indexes one jar. Waiting tasks are picked up largest first. */
+  private class IndexTask implements Runnable, Comparable<IndexTask> {
+    private final String path;
+    private final long size;
+    private final CompletableFuture<PerJarIndexResults> result = new CompletableFuture<>();
+
+    IndexTask(String path, long size) {
+      this.path = path;
+      this.size = size;
+    }
+
+    @Override
+    public void run() {
+      try {
+        result.complete(index(Paths.get(path)));
+      } catch (IOException e) {
+        result.completeExceptionally(new UncheckedIOException(e));
+      } catch (RuntimeException | Error e) {
+        result.completeExceptionally(e);
+      }
+    }
+
+    @Override
+    public int compareTo(IndexTask other) {
+      return Long.compare(other.size, size);
+    }
+  }
+
+  // Visible for testing
+  static List<String> largestFirst(Collection<String> paths) {
+    Map<String, Long> sizes = new HashMap<>();
+    for (String path : paths) {
+      sizes.put(path, sizeOf(path));
+    }
+    List<String> ordered = new ArrayList<>(paths);
+    ordered.sort(
+        Comparator.comparing((String path) -> sizes.get(path))
+            .reversed()
+            .thenComparing(Comparator.naturalOrder()));
+    return ordered;
+  }
+
+  private static long sizeOf(String path) {
+    try {
+      return Files.size(Paths.get(path));
+    } catch (IOException | InvalidPathException e) {
+      // Indexing the jar will report the problem
+      return 0;
+    }
+  }
+
+  private static PerJarIndexResults getResults(CompletableFuture<PerJarIndexResults> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw e;
+    }
+  }
+
   public PerJarIndexResults index(Path path) throws IOException {
-    SortedSet<String> packages = new TreeSet<>();
-    SortedSet<String> classes = new TreeSet<>();
-    SortedMap<String, SortedSet<String>> serviceImplementations = new TreeMap<>();
+    // Everything but the contents of a few entries can be read from the central directory, which
+    // saves inflating every entry in the jar just to find out its name.
+    Accumulator results = new Accumulator();
+    try (ZipFile zipFile = new ZipFile(path.toFile())) {
+      Enumeration<? extends ZipEntry> entries = zipFile.entries();
+      while (entries.hasMoreElements()) {
+        ZipEntry entry = entries.nextElement();
+        indexEntry(
+            entry.getName(),
+            buffer -> {
+              try (InputStream is = zipFile.getInputStream(entry)) {
+                buffer.readFrom(is);
+              }
+            },
+            results);
+      }
+    } catch (ZipException e) {
+      // Either there's no usable central directory, or one of the entries we needed to read is
+      // damaged. Fall back to reading the jar from the start, which gets as far as it can.
+      return indexStream(path);
+    }
+    return results.toResults();
+  }
+
+  // Visible for testing
+  PerJarIndexResults indexStream(Path path) throws IOException {
+    Accumulator results = new Accumulator();
     try (InputStream fis = new BufferedInputStream(Files.newInputStream(path));
         ZipInputStream zis = new ZipInputStream(fis)) {
       try {
         ZipEntry entry;
         while ((entry = zis.getNextEntry()) != null) {
-          if (entry.getName().startsWith(SERVICES_DIRECTORY_PREFIX)
-              && !SERVICES_DIRECTORY_PREFIX.equals(entry.getName())) {
-            String serviceInterface = entry.getName().substring(SERVICES_DIRECTORY_PREFIX.length());
-            SortedSet<String> implementingClasses = parseServiceImplementations(zis);
-            serviceImplementations.put(serviceInterface, implementingClasses);
-          }
-          if (!entry.getName().endsWith(".class")) {
-            continue;
-          }
-          if ("module-info.class".equals(entry.getName())
-              || entry.getName().endsWith("/module-info.class")) {
-            continue;
-          }
-          // package-info.class holds only package-level annotations and cannot
-          // be referenced from production code.
-          if ("package-info.class".equals(entry.getName())
-              || entry.getName().endsWith("/package-info.class")) {
-            continue;
-          }
-          // Skip inner classes, anonymous classes, and local classes (contain $)
-          if (isInnerClass(entry.getName())) {
-            continue;
-          }
-          String packageName = extractPackageName(entry.getName());
-          packages.add(packageName);
-          classes.add(extractClassName(entry.getName()));
-
-          // Kotlin top-level functions, properties, and type aliases are compiled into a synthetic
-          // file facade class and are otherwise invisible in the index. Fold their names in so they
-          // can be attributed to this artifact (notably for split packages).
-          if (isKotlinFileFacade(entry.getName())) {
-            for (String declaration : KotlinTopLevel.topLevelDeclarationNames(zis.readAllBytes())) {
-              classes.add(packageName.isEmpty() ? declaration : packageName + "." + declaration);
-            }
-          }
+          indexEntry(entry.getName(), buffer -> buffer.readFrom(zis), results);
         }
       } catch (ZipException e) {
         System.err.printf("Caught ZipException: %s%n", e);
       }
-      return new PerJarIndexResults(packages, classes, serviceImplementations);
+      return results.toResults();
+    }
+  }
+
+  private void indexEntry(String name, EntryContents contents, Accumulator results)
+      throws IOException {
+    if (name.startsWith(SERVICES_DIRECTORY_PREFIX) && !SERVICES_DIRECTORY_PREFIX.equals(name)) {
+      String serviceInterface = name.substring(SERVICES_DIRECTORY_PREFIX.length());
+      contents.readInto(results.buffer);
+      SortedSet<String> implementingClasses =
+          parseServiceImplementations(
+              new ByteArrayInputStream(results.buffer.bytes, 0, results.buffer.length));
+      results.serviceImplementations.put(serviceInterface, implementingClasses);
+    }
+    if (!name.endsWith(".class")) {
+      return;
+    }
+    if ("module-info.class".equals(name) || name.endsWith("/module-info.class")) {
+      return;
+    }
+    // package-info.class holds only package-level annotations and cannot
+    // be referenced from production code.
+    if ("package-info.class".equals(name) || name.endsWith("/package-info.class")) {
+      return;
+    }
+    // Skip inner classes, anonymous classes, and local classes (contain $)
+    if (isInnerClass(name)) {
+      return;
+    }
+    String packageName = extractPackageName(name);
+    results.packages.add(packageName);
+    results.classes.add(extractClassName(name));
+
+    // Kotlin top-level functions, properties, and type aliases are compiled into a synthetic
+    // file facade class and are otherwise invisible in the index. Fold their names in so they
+    // can be attributed to this artifact (notably for split packages).
+    if (isKotlinFileFacade(name)) {
+      contents.readInto(results.buffer);
+      for (String declaration :
+          KotlinTopLevel.topLevelDeclarationNames(results.buffer.bytes, results.buffer.length)) {
+        results.classes.add(packageName.isEmpty() ? declaration : packageName + "." + declaration);
+      }
     }
   }
 
@@ -208,4 +396,37 @@ public class IndexJar {
     String fileName = lastSlash == -1 ? zipEntryName : zipEntryName.substring(lastSlash + 1);
     return fileName.contains("$");
   }
+
+  @FunctionalInterface
+  private interface EntryContents {
+    void readInto(EntryBuffer buffer) throws IOException;
+  }
+
+  /** Holds the contents of one entry at a time, so a jar's entries can share the same array. */
+  private static class EntryBuffer {
+    private byte[] bytes = new byte[8192];
+    private int length;
+
+    void readFrom(InputStream is) throws IOException {
+      length = 0;
+      int read;
+      while ((read = is.read(bytes, length, bytes.length - length)) != -1) {
+        length += read;
+        if (length == bytes.length) {
+          bytes = Arrays.copyOf(bytes, bytes.length * 2);
+        }
+      }
+    }
+  }
+
+  private static class Accumulator {
+    private final SortedSet<String> packages = new TreeSet<>();
+    private final SortedSet<String> classes = new TreeSet<>();
+    private final SortedMap<String, SortedSet<String>> serviceImplementations = new TreeMap<>();
+    private final EntryBuffer buffer = new EntryBuffer();
+
+    PerJarIndexResults toResults() {
+      return new PerJarIndexResults(packages, classes, serviceImplementations);
+    }
+  }
 }
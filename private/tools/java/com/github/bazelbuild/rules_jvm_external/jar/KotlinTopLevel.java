@@ -15,7 +15,9 @@
 package com.github.bazelbuild.rules_jvm_external.jar;
 
 import java.lang.annotation.Annotation;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.SortedSet;
 import java.util.TreeSet;
@@ -46,18 +48,29 @@ class KotlinTopLevel {
 
   private static final int ASM_API = Opcodes.ASM9;
 
+  // Values of kotlin.Metadata.k
+  private static final int CLASS_KIND = 1;
+  private static final int FILE_FACADE_KIND = 2;
+  private static final int MULTI_FILE_CLASS_PART_KIND = 5;
+
   private KotlinTopLevel() {}
 
   /**
-   * Returns the simple names of top-level declarations if {@code classBytes} is a Kotlin file
-   * facade or multi-file class part, otherwise an empty set. Never throws: any class that cannot be
-   * parsed (for example one compiled for a newer bytecode version than the bundled ASM understands)
-   * yields an empty set.
+   * Returns the simple names of top-level declarations if the first {@code length} bytes of {@code
+   * classBytes} are a Kotlin file facade or multi-file class part, otherwise an empty set. Never
+   * throws: any class that cannot be parsed (for example one compiled for a newer bytecode version
+   * than the bundled ASM understands) yields an empty set.
    */
-  static SortedSet<String> topLevelDeclarationNames(byte[] classBytes) {
+  static SortedSet<String> topLevelDeclarationNames(byte[] classBytes, int length) {
+    // Most classes can be ruled out from the constant pool and annotations alone, which is far
+    // cheaper than having ASM visit the class and then decoding its metadata.
+    if (!mayDeclareTopLevel(classBytes, length)) {
+      return new TreeSet<>();
+    }
+
     SortedSet<String> names = new TreeSet<>();
     try {
-      Metadata metadata = readMetadata(classBytes);
+      Metadata metadata = readMetadata(classBytes, length);
       if (metadata == null) {
         return names;
       }
@@ -101,9 +114,24 @@ class KotlinTopLevel {
     return names;
   }
 
-  private static Metadata readMetadata(byte[] classBytes) {
+  /**
+   * Whether the class could be a Kotlin file facade or multi-file class part. This only walks the
+   * class file far enough to find the kind ({@code k}) of its {@code kotlin.Metadata} annotation,
+   * without copying anything out of it. Anything it can't make sense of is left for ASM to decide.
+   */
+  // Visible for testing
+  static boolean mayDeclareTopLevel(byte[] classBytes, int length) {
+    try {
+      int kind = new ClassScanner(classBytes, length).findMetadataKind();
+      return kind == FILE_FACADE_KIND || kind == MULTI_FILE_CLASS_PART_KIND;
+    } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+      return true;
+    }
+  }
+
+  private static Metadata readMetadata(byte[] classBytes, int length) {
     MetadataReader reader = new MetadataReader();
-    new ClassReader(classBytes)
+    new ClassReader(classBytes, 0, length)
         .accept(reader, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
     return reader.toMetadata();
   }
@@ -117,7 +145,7 @@ class KotlinTopLevel {
    */
   private static final class MetadataReader extends ClassVisitor {
     private boolean isKotlin = false;
-    private int kind = 1;
+    private int kind = CLASS_KIND;
     private int extraInt = 0;
     private String extraString = "";
     private String packageName = "";
@@ -246,4 +274,247 @@ class KotlinTopLevel {
       };
     }
   }
+
+  /**
+   * Reads just enough of a class file to find the kind of its {@code kotlin.Metadata} annotation,
+   * following https://docs.oracle.com/javase/specs/jvms/se17/html/jvms-4.html. Reading past the
+   * end of the class throws an {@link IndexOutOfBoundsException}, and anything else that doesn't
+   * look right throws an {@link IllegalArgumentException}.
+   */
+  private static final class ClassScanner {
+    private static final byte[] METADATA_DESCRIPTOR = ascii("Lkotlin/Metadata;");
+    private static final byte[] KIND = ascii("k");
+    private static final byte[] VISIBLE_ANNOTATIONS = ascii("RuntimeVisibleAnnotations");
+    private static final byte[] INVISIBLE_ANNOTATIONS = ascii("RuntimeInvisibleAnnotations");
+
+    private final byte[] bytes;
+    private final int length;
+    private int position;
+
+    // Constant pool indexes of the strings we look for, or 0 if the class doesn't use them
+    private int metadataDescriptor;
+    private int kindName;
+    private int visibleAnnotations;
+    private int invisibleAnnotations;
+
+    private ClassScanner(byte[] bytes, int length) {
+      this.bytes = bytes;
+      this.length = length;
+    }
+
+    /** Returns the kind, or 0 if the class has no {@code kotlin.Metadata} annotation. */
+    int findMetadataKind() {
+      if (u4() != 0xCAFEBABE) {
+        throw new IllegalArgumentException("Not a class file");
+      }
+      position += 4; // minor_version, major_version
+      int constantPoolCount = u2();
+      int constantPoolStart = position;
+      for (int index = 1; index < constantPoolCount; index++) {
+        int tag = u1();
+        if (tag == 1) {
+          int utf8Length = u2();
+          recordString(index, utf8Length);
+          position += utf8Length;
+        } else if (skipConstant(tag)) {
+          // Longs and doubles take up two entries
+          index++;
+        }
+      }
+      if (metadataDescriptor == 0) {
+        // Not Kotlin at all
+        return 0;
+      }
+
+      position += 6; // access_flags, this_class, super_class
+      int interfaces = u2();
+      position += 2 * interfaces;
+      skipMembers(); // fields
+      skipMembers(); // methods
+      for (int attributes = u2(); attributes > 0; attributes--) {
+        int name = u2();
+        int attributeLength = u4();
+        int end = position + attributeLength;
+        if (name == visibleAnnotations || name == invisibleAnnotations) {
+          int kindIndex = findKindIndex();
+          if (kindIndex == 0) {
+            // The annotation is there, but `k` has been left at its default
+            return CLASS_KIND;
+          } else if (kindIndex > 0) {
+            return readInteger(constantPoolStart, kindIndex);
+          }
+        }
+        position = end;
+      }
+      return 0;
+    }
+
+    /**
+     * Reads an annotations attribute, returning the constant pool index of {@code k} if the
+     * metadata annotation is there, 0 if it is but doesn't set {@code k}, and -1 if it isn't.
+     */
+    private int findKindIndex() {
+      for (int annotations = u2(); annotations > 0; annotations--) {
+        int type = u2();
+        int pairs = u2();
+        if (type != metadataDescriptor) {
+          for (; pairs > 0; pairs--) {
+            position += 2; // element_name_index
+            skipElementValue();
+          }
+          continue;
+        }
+        for (; pairs > 0; pairs--) {
+          int name = u2();
+          if (name == kindName && u1() == 'I') {
+            return u2();
+          } else if (name == kindName) {
+            // Not an int, so ASM will have to make sense of it
+            throw new IllegalArgumentException("Unexpected kind");
+          }
+          skipElementValue();
+        }
+        return 0;
+      }
+      return -1;
+    }
+
+    private int readInteger(int constantPoolStart, int wanted) {
+      position = constantPoolStart;
+      for (int index = 1; index < wanted; index++) {
+        int tag = u1();
+        if (tag == 1) {
+          int utf8Length = u2();
+          position += utf8Length;
+        } else if (skipConstant(tag)) {
+          index++;
+        }
+      }
+      if (u1() != 3) {
+        throw new IllegalArgumentException("Not an integer constant: " + wanted);
+      }
+      return u4();
+    }
+
+    private void recordString(int index, int utf8Length) {
+      // Only a few short names matter, so check the length before comparing any bytes
+      if (utf8Length == METADATA_DESCRIPTOR.length && matches(METADATA_DESCRIPTOR)) {
+        metadataDescriptor = index;
+      } else if (utf8Length == KIND.length && matches(KIND)) {
+        kindName = index;
+      } else if (utf8Length == VISIBLE_ANNOTATIONS.length && matches(VISIBLE_ANNOTATIONS)) {
+        visibleAnnotations = index;
+      } else if (utf8Length == INVISIBLE_ANNOTATIONS.length && matches(INVISIBLE_ANNOTATIONS)) {
+        invisibleAnnotations = index;
+      }
+    }
+
+    private boolean matches(byte[] expected) {
+      checkAvailable(expected.length);
+      return Arrays.equals(
+          bytes, position, position + expected.length, expected, 0, expected.length);
+    }
+
+    /** Skips a constant other than a UTF-8 string, returning whether it takes up two entries. */
+    private boolean skipConstant(int tag) {
+      switch (tag) {
+        case 7: // Class
+        case 8: // String
+        case 16: // MethodType
+        case 19: // Module
+        case 20: // Package
+          position += 2;
+          return false;
+        case 15: // MethodHandle
+          position += 3;
+          return false;
+        case 3: // Integer
+        case 4: // Float
+        case 9: // Fieldref
+        case 10: // Methodref
+        case 11: // InterfaceMethodref
+        case 12: // NameAndType
+        case 17: // Dynamic
+        case 18: // InvokeDynamic
+          position += 4;
+          return false;
+        case 5: // Long
+        case 6: // Double
+          position += 8;
+          return true;
+        default:
+          throw new IllegalArgumentException("Unknown constant pool tag: " + tag);
+      }
+    }
+
+    private void skipMembers() {
+      for (int members = u2(); members > 0; members--) {
+        position += 6; // access_flags, name_index, descriptor_index
+        for (int attributes = u2(); attributes > 0; attributes--) {
+          position += 2; // attribute_name_index
+          int attributeLength = u4();
+          position += attributeLength;
+        }
+      }
+    }
+
+    private void skipElementValue() {
+      int tag = u1();
+      switch (tag) {
+        case 'e':
+          position += 4;
+          break;
+        case '@':
+          position += 2;
+          for (int pairs = u2(); pairs > 0; pairs--) {
+            position += 2;
+            skipElementValue();
+          }
+          break;
+        case '[':
+          for (int values = u2(); values > 0; values--) {
+            skipElementValue();
+          }
+          break;
+        default:
+          // Constants, strings and classes are all a single index
+          position += 2;
+          break;
+      }
+    }
+
+    private int u1() {
+      checkAvailable(1);
+      return bytes[position++] & 0xff;
+    }
+
+    private int u2() {
+      checkAvailable(2);
+      int value = ((bytes[position] & 0xff) << 8) | (bytes[position + 1] & 0xff);
+      position += 2;
+      return value;
+    }
+
+    private int u4() {
+      checkAvailable(4);
+      int value =
+          ((bytes[position] & 0xff) << 24)
+              | ((bytes[position + 1] & 0xff) << 16)
+              | ((bytes[position + 2] & 0xff) << 8)
+              | (bytes[position + 3] & 0xff);
+      position += 4;
+      return value;
+    }
+
+    // The buffer may be longer than the class, so the array's own bounds checks aren't enough
+    private void checkAvailable(int count) {
+      if (position < 0 || position + count > length) {
+        throw new IndexOutOfBoundsException(position + count + " > " + length);
+      }
+    }
+
+    private static byte[] ascii(String value) {
+      return value.getBytes(StandardCharsets.US_ASCII);
+    }
+  }
 }
@@ -1,5 +1,6 @@
 package com.github.bazelbuild.rules_jvm_external.jar;
 
+import com.github.bazelbuild.rules_jvm_external.CompactStringSet;
 import java.util.SortedMap;
 import java.util.SortedSet;
 
@@ -12,8 +13,9 @@ public class PerJarIndexResults {
       SortedSet<String> packages,
       SortedSet<String> classes,
       SortedMap<String, SortedSet<String>> serviceImplementations) {
-    this.packages = packages;
-    this.classes = classes;
+    // Thousands of these are held for the whole of a resolution, so keep them small
+    this.packages = CompactStringSet.interned(packages);
+    this.classes = CompactStringSet.frontCoded(classes);
     this.serviceImplementations = serviceImplementations;
   }
 
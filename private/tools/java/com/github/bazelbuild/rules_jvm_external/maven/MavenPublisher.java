@@ -25,6 +25,8 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.concurrent.TimeUnit.MINUTES;
 
 import com.github.bazelbuild.rules_jvm_external.ByteStreams;
+import com.github.bazelbuild.rules_jvm_external.HttpClients;
+import com.github.bazelbuild.rules_jvm_external.ThreadPools;
 import com.github.bazelbuild.rules_jvm_external.maven.MavenSigning.SigningMetadata;
 import com.github.bazelbuild.rules_jvm_external.resolver.netrc.Netrc;
 import com.github.bazelbuild.rules_jvm_external.resolver.remote.HttpDownloader;
@@ -41,13 +43,13 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.io.StringReader;
 import java.io.UncheckedIOException;
 import java.math.BigInteger;
 import java.net.HttpURLConnection;
 import java.net.URI;
-import java.net.URL;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.nio.channels.Channels;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
@@ -69,7 +71,6 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
@@ -131,8 +132,9 @@ public class MavenPublisher {
         new SigningMetadata(gpgSign, useInMemoryPgpKeys, signingKey, signingPassword);
 
     final ExecutorService executorService =
-        Executors.newFixedThreadPool(
-            Optional.ofNullable(System.getenv("RJE_MAX_THREADS")).map(Integer::parseInt).orElse(8));
+        ThreadPools.newIoExecutor(
+            Optional.ofNullable(System.getenv("RJE_MAX_THREADS")).map(Integer::parseInt).orElse(8),
+            "publisher");
 
     try {
       run(
@@ -366,17 +368,25 @@ public class MavenPublisher {
         // Most Maven repositories (Artifactory, Nexus, etc.) automatically calculate checksums
         boolean isSnapshot = coords.version.contains("SNAPSHOT");
         if (!isSnapshot) {
+          // Hashing a large artifact is CPU bound, so it stays off the upload threads
+          String[] digests =
+              ThreadPools.runCpuBound(
+                  () ->
+                      new String[] {
+                        toMd5(toHash), toSha1(toHash), toSha256(toHash), toSha512(toHash)
+                      });
+
           Path md5 = Files.createTempFile(item.getFileName().toString(), ".md5");
-          Files.write(md5, toMd5(toHash).getBytes(UTF_8));
+          Files.write(md5, digests[0].getBytes(UTF_8));
 
           Path sha1 = Files.createTempFile(item.getFileName().toString(), ".sha1");
-          Files.write(sha1, toSha1(toHash).getBytes(UTF_8));
+          Files.write(sha1, digests[1].getBytes(UTF_8));
 
           Path sha256 = Files.createTempFile(item.getFileName().toString(), ".sha256");
-          Files.write(sha256, toSha256(toHash).getBytes(UTF_8));
+          Files.write(sha256, digests[2].getBytes(UTF_8));
 
           Path sha512 = Files.createTempFile(item.getFileName().toString(), ".sha512");
-          Files.write(sha512, toSha512(toHash).getBytes(UTF_8));
+          Files.write(sha512, digests[3].getBytes(UTF_8));
 
           hashUploads.add(upload(String.format("%s%s.md5", base, append), credentials, md5, executor));
           hashUploads.add(upload(String.format("%s%s.sha1", base, append), credentials, sha1, executor));
@@ -399,7 +409,9 @@ public class MavenPublisher {
         }
 
         return CompletableFuture.allOf(hashUploads.toArray(new CompletableFuture<?>[0]));
-      } catch (IOException | InterruptedException e) {
+      } catch (RuntimeException e) {
+        throw e;
+      } catch (Exception e) {
         throw new RuntimeException(e);
       }
     });
@@ -532,11 +544,10 @@ public class MavenPublisher {
       String targetUrl, Credentials credentials, Path toUpload) {
     return () -> {
       LOG.info(String.format("Uploading to %s", targetUrl));
-      URL url = new URL(targetUrl);
 
-      HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-      connection.setRequestMethod("PUT");
-      connection.setDoOutput(true);
+      HttpRequest.Builder request =
+          HttpRequest.newBuilder(URI.create(targetUrl))
+              .PUT(HttpRequest.BodyPublishers.ofFile(toUpload));
       if (credentials != null) {
         if (!credentials.hasRequestMetadataOnly()) {
           throw new RuntimeException("Unsupported credentials");
@@ -546,36 +557,30 @@ public class MavenPublisher {
               .getRequestMetadata()
               .forEach(
                   (k, l) -> {
-                    l.forEach(v -> connection.addRequestProperty(k, v));
+                    l.forEach(v -> request.header(k, v));
                   });
         }
       }
-      connection.setRequestProperty("Content-Length", "" + Files.size(toUpload));
 
-      try (OutputStream out = connection.getOutputStream()) {
-        try (InputStream is = Files.newInputStream(toUpload)) {
-          ByteStreams.copy(is, out);
-        }
+      // The shared client lets every upload to the repository reuse the same connections
+      HttpResponse<String> response =
+          HttpClients.shared().send(request.build(), HttpResponse.BodyHandlers.ofString());
+      int code = response.statusCode();
 
-        int code = connection.getResponseCode();
+      if (code == HttpURLConnection.HTTP_UNAUTHORIZED) {
+        throw new RuntimeException(response.headers().firstValue("WWW-Authenticate").orElse(null));
+      }
 
-        if (code == HttpURLConnection.HTTP_UNAUTHORIZED) {
-          throw new RuntimeException(connection.getHeaderField("WWW-Authenticate"));
+      if (code < 200 || code > 299) {
+        String body = response.body();
+        String message;
+        if (body != null && !body.isEmpty()) {
+          message = String.format("Unable to upload %s (%s) %s", targetUrl, code, body);
+        } else {
+          message = String.format("Unable to upload %s (%s)", targetUrl, code);
         }
 
-        if (code < 200 || code > 299) {
-          try (InputStream in = connection.getErrorStream()) {
-            String message;
-            if (in != null) {
-              String body = new String(ByteStreams.toByteArray(in));
-              message = String.format("Unable to upload %s (%s) %s", targetUrl, code, body);
-            } else {
-              message = String.format("Unable to upload %s (%s)", targetUrl, code);
-            }
-
-            throw new IOException(message);
-          }
-        }
+        throw new IOException(message);
       }
       LOG.info(String.format("Upload to %s complete.", targetUrl));
       return null;
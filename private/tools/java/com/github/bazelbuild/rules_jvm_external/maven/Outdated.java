@@ -1,11 +1,16 @@
 package com.github.bazelbuild.rules_jvm_external.maven;
 
+import com.github.bazelbuild.rules_jvm_external.HttpClients;
 import java.io.IOException;
-import java.net.URL;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
@@ -71,7 +76,7 @@ public class Outdated {
     }
     Document document;
     try {
-      document = documentBuilder.parse(new URL(url).openStream());
+      document = documentBuilder.parse(openStream(url));
     } catch (IOException | SAXException e) {
       verboseLog(String.format("Caught exception for %s: %s", url, e));
       return null;
@@ -79,6 +84,33 @@ public class Outdated {
     return getReleaseVersion(document, url);
   }
 
+  private static InputStream openStream(String url) throws IOException {
+    URI uri;
+    try {
+      uri = URI.create(url);
+    } catch (IllegalArgumentException e) {
+      throw new IOException(e);
+    }
+    if (!"http".equals(uri.getScheme()) && !"https".equals(uri.getScheme())) {
+      return uri.toURL().openStream();
+    }
+
+    // Use the shared client so that every check against a repository reuses one connection
+    HttpRequest request = HttpRequest.newBuilder(uri).GET().build();
+    try {
+      HttpResponse<InputStream> response =
+          HttpClients.shared().send(request, HttpResponse.BodyHandlers.ofInputStream());
+      if (response.statusCode() != 200) {
+        response.body().close();
+        throw new IOException(String.format("Got response %d", response.statusCode()));
+      }
+      return response.body();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    }
+  }
+
   private static boolean isPreRelease(String version) {
     String canonicalVersion = new ComparableVersion(version).getCanonical();
     verboseLog(
@@ -342,6 +374,16 @@ public class Outdated {
     }
     System.out.println();
 
+    List<URI> repositoryUris = new ArrayList<>();
+    for (String repository : repositories) {
+      try {
+        repositoryUris.add(URI.create(repository));
+      } catch (IllegalArgumentException e) {
+        // This is reported when the repository is checked for updates
+      }
+    }
+    HttpClients.prewarm(repositoryUris);
+
     if (boms.size() > 0) {
       System.out.println("BOMs");
       printUpdatesFor(boms, repositories, useLegacyOutputFormat);
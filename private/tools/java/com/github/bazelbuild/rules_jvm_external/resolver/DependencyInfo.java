@@ -14,6 +14,7 @@
 
 package com.github.bazelbuild.rules_jvm_external.resolver;
 
+import com.github.bazelbuild.rules_jvm_external.CompactStringSet;
 import com.github.bazelbuild.rules_jvm_external.Coordinates;
 import com.google.common.base.MoreObjects;
 import com.google.common.collect.ImmutableSet;
@@ -52,8 +53,8 @@ public class DependencyInfo {
     this.sha256 = sha256;
     this.dependencies = ImmutableSet.copyOf(new TreeSet<>(dependencies));
 
-    this.packages = ImmutableSet.copyOf(new TreeSet<>(packages));
-    this.classes = ImmutableSet.copyOf(new TreeSet<>(classes));
+    this.packages = CompactStringSet.interned(packages);
+    this.classes = CompactStringSet.frontCoded(classes);
     this.services = services;
   }
 
@@ -0,0 +1,56 @@
+// Copyright 2026 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.resolver;
+
+import static java.util.stream.Collectors.joining;
+
+import com.github.bazelbuild.rules_jvm_external.Coordinates;
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Thrown when resolving offline and some of what is needed isn't in the local caches. All the
+ * missing coordinates are gathered up, so they can be fetched in one go before trying again.
+ */
+public class OfflineResolutionException extends RuntimeException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final Set<Coordinates> missing;
+
+  public OfflineResolutionException(Collection<Coordinates> missing) {
+    super(describe(missing));
+    this.missing = Set.copyOf(missing);
+  }
+
+  public Set<Coordinates> getMissing() {
+    return missing;
+  }
+
+  private static String describe(Collection<Coordinates> missing) {
+    // Sorted, so that the report is the same from run to run
+    Set<Coordinates> sorted = new TreeSet<>(missing);
+    return sorted.stream()
+        .map(Coordinates::toString)
+        .collect(
+            joining(
+                "\n  * ",
+                String.format(
+                    "Unable to resolve offline. %d artifacts are not in the local caches:\n  * ",
+                    sorted.size()),
+                ""));
+  }
+}
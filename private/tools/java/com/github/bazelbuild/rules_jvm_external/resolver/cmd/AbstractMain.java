@@ -18,10 +18,14 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.stream.Collectors.joining;
 
 import com.github.bazelbuild.rules_jvm_external.Coordinates;
+import com.github.bazelbuild.rules_jvm_external.HttpClients;
+import com.github.bazelbuild.rules_jvm_external.IoExecutor;
+import com.github.bazelbuild.rules_jvm_external.ThreadPools;
 import com.github.bazelbuild.rules_jvm_external.jar.IndexJar;
 import com.github.bazelbuild.rules_jvm_external.jar.PerJarIndexResults;
 import com.github.bazelbuild.rules_jvm_external.resolver.Conflict;
 import com.github.bazelbuild.rules_jvm_external.resolver.DependencyInfo;
+import com.github.bazelbuild.rules_jvm_external.resolver.OfflineResolutionException;
 import com.github.bazelbuild.rules_jvm_external.resolver.ResolutionRequest;
 import com.github.bazelbuild.rules_jvm_external.resolver.ResolutionResult;
 import com.github.bazelbuild.rules_jvm_external.resolver.Resolver;
@@ -29,12 +33,16 @@ import com.github.bazelbuild.rules_jvm_external.resolver.events.EventListener;
 import com.github.bazelbuild.rules_jvm_external.resolver.events.LogEvent;
 import com.github.bazelbuild.rules_jvm_external.resolver.events.PhaseEvent;
 import com.github.bazelbuild.rules_jvm_external.resolver.lockfile.DependencyIndex;
+import com.github.bazelbuild.rules_jvm_external.resolver.lockfile.LockFileShards;
 import com.github.bazelbuild.rules_jvm_external.resolver.lockfile.V3LockFile;
 import com.github.bazelbuild.rules_jvm_external.resolver.netrc.Netrc;
+import com.github.bazelbuild.rules_jvm_external.resolver.remote.ArtifactCaches;
+import com.github.bazelbuild.rules_jvm_external.resolver.remote.CachingMetadataService;
 import com.github.bazelbuild.rules_jvm_external.resolver.remote.DownloadResult;
 import com.github.bazelbuild.rules_jvm_external.resolver.DependencyMetadata;
 import com.github.bazelbuild.rules_jvm_external.resolver.remote.Downloader;
 import com.github.bazelbuild.rules_jvm_external.resolver.remote.HttpDownloader;
+import com.github.bazelbuild.rules_jvm_external.resolver.remote.LocalCacheManager;
 import com.github.bazelbuild.rules_jvm_external.resolver.remote.LocalMetadataService;
 import com.github.bazelbuild.rules_jvm_external.resolver.MetadataService;
 import com.github.bazelbuild.rules_jvm_external.resolver.SpiLoader;
@@ -46,16 +54,22 @@ import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.graph.Graph;
 import com.google.gson.GsonBuilder;
 import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.net.URI;
 import java.util.Collection;
 import java.util.SortedMap;
 import java.util.SortedSet;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -64,52 +78,222 @@ import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.function.Supplier;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public abstract class AbstractMain {
 
+  // Lower than the artifacts the build itself needs, which are submitted at the default of 0
+  private static final long CLASSIFIED_PRIORITY = -1;
+
   public void doMain(String[] args) {
     Set<DependencyInfo> infos;
+    int exitCode;
     try (EventListener listener = HttpDownloader.defaultEventListener()) {
       ResolverConfig config = new ResolverConfig(listener, args);
 
       ResolutionRequest request = config.getResolutionRequest();
+      if (!request.isOffline()) {
+        HttpClients.prewarm(request.getRepositories());
+      }
 
       Resolver resolver = getResolver(config.getNetrc(), config.getMaxThreads(), listener);
 
-      ResolutionResult resolutionResult = resolver.resolve(request);
+      long maxCacheSize = LocalCacheManager.getMaxSizeFromEnvironment();
+      Path localCache = request.getLocalCache(resolver.getName());
+      ResolutionResult resolutionResult;
+      Prefetcher prefetcher = null;
+      Set<Path> usedFiles = ConcurrentHashMap.newKeySet();
+      try (LocalCacheManager cacheManager = LocalCacheManager.open(localCache, maxCacheSize)) {
+        prefetcher = startPrefetching(resolver, listener, config);
+        try {
+          resolutionResult = resolver.resolve(request);
+        } finally {
+          if (prefetcher != null) {
+            prefetcher.stop();
+          }
+        }
+
+        try {
+          infos =
+              fulfillDependencyInfos(resolver, listener, config, resolutionResult, usedFiles::add);
+        } finally {
+          usedFiles.forEach(cacheManager::recordAccess);
+        }
+      }
+      if (prefetcher != null && !prefetcher.getPrefetched().isEmpty()) {
+        Set<Coordinates> used = new HashSet<>();
+        infos.forEach(info -> used.add(info.getCoordinates()));
+        listener.onEvent(new LogEvent("prefetcher", prefetcher.report(used), null));
+      }
+      if (maxCacheSize >= 0) {
+        manageGradleCaches(usedFiles, localCache, maxCacheSize);
+      }
 
-      infos = fulfillDependencyInfos(resolver, listener, config, resolutionResult);
+      if (System.getenv("RJE_VERBOSE") != null) {
+        reportTlsConnections(listener);
+      }
 
       writeLockFile(listener, config, request, infos, resolutionResult.getConflicts());
       writeDependencyIndex(config, infos);
-
-      System.exit(0);
+      exitCode = 0;
+    } catch (ArtifactFetchException | OfflineResolutionException e) {
+      e.printStackTrace();
+      exitCode = 2;
+    } catch (InterruptedException e) {
+      e.printStackTrace();
+      exitCode = 5;
     } catch (Exception e) {
       e.printStackTrace();
-      System.exit(1);
+      exitCode = 1;
+    } finally {
+      // Artifacts are shared in the background, so make sure they've all been sent, and their
+      // staged copies removed, even if the pin itself failed
+      try {
+        ArtifactCaches.awaitUploads();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
     }
+    System.exit(exitCode);
   }
 
   public abstract Resolver getResolver(Netrc netrc, int maxThreads, EventListener listener);
 
-  private static Set<DependencyInfo> fulfillDependencyInfos(
+  private static void reportTlsConnections(EventListener listener) {
+    Map<String, Integer> connections = HttpClients.getTlsConnectionCounts();
+    if (connections.isEmpty()) {
+      return;
+    }
+    StringBuilder report = new StringBuilder("TLS connections opened per host:");
+    connections.forEach(
+        (host, count) -> report.append("\n  ").append(host).append(": ").append(count));
+    listener.onEvent(new LogEvent(LogEvent.Level.INFO, "downloader", report.toString(), null));
+  }
+
+  /**
+   * Starts fetching the artifacts in the previous lock file while the resolver runs, unless
+   * there's nothing to gain from it. Only the Maven resolver leaves its artifacts in the local
+   * cache where the downloader looks for them, and prefetched artifacts are only any use if they
+   * are kept there. Setting {@code RJE_PREFETCH} to {@code 0} or {@code false} turns this off.
+   *
+   * @return the running prefetcher, or null if none was started
+   */
+  private static Prefetcher startPrefetching(
+      Resolver resolver, EventListener listener, ResolverConfig config) {
+    ResolutionRequest request = config.getResolutionRequest();
+    String rjePrefetch = System.getenv("RJE_PREFETCH");
+    if (rjePrefetch != null && ("0".equals(rjePrefetch) || !Boolean.parseBoolean(rjePrefetch))) {
+      return null;
+    }
+    if (request.isOffline() || !isCachingDownloads() || !"maven".equals(resolver.getName())) {
+      return null;
+    }
+
+    List<DependencyInfo> previous = new ArrayList<>();
+    for (DependencyInfo info : config.getPreviousDependencyInfos()) {
+      // Without a hash, the artifact is only a POM, which the resolver fetches for itself
+      if (info.getSha256().isPresent()) {
+        previous.add(info);
+      }
+    }
+    if (previous.isEmpty()) {
+      return null;
+    }
+
+    Downloader downloader =
+        new Downloader(
+            config.getNetrc(),
+            request.getLocalCache(resolver.getName()),
+            request.getRepositories(),
+            listener,
+            true,
+            false,
+            Map.of(),
+            Downloader.parseMirrorGroups(System.getenv("RJE_MIRROR_GROUPS")),
+            ArtifactCaches.resolve(false),
+            request.getKnownSha256s());
+    // Leave most of the connections to the resolver
+    return Prefetcher.start(downloader, previous, Math.max(1, config.getMaxThreads() / 2));
+  }
+
+  /**
+   * Whether the lock file and dependency index are split into a manifest and shards, which is asked
+   * for by setting {@code RJE_SHARDED_LOCK_FILE} to {@code 1} or {@code true}.
+   */
+  private static boolean isShardingOutput() {
+    String rjeShardedLockFile = System.getenv("RJE_SHARDED_LOCK_FILE");
+    return "1".equals(rjeShardedLockFile) || Boolean.parseBoolean(rjeShardedLockFile);
+  }
+
+  private static boolean isCachingDownloads() {
+    String rjeUnsafeCache = System.getenv("RJE_UNSAFE_CACHE");
+    return rjeUnsafeCache == null || Boolean.parseBoolean(rjeUnsafeCache);
+  }
+
+  /**
+   * The Gradle resolver may keep what it downloads in a Gradle home of its own rather than in the
+   * local cache, so those homes need keeping to size too.
+   */
+  private static void manageGradleCaches(Set<Path> usedFiles, Path localCache, long maxCacheSize)
+      throws IOException {
+    Map<Path, List<Path>> used = new TreeMap<>();
+    for (Path file : usedFiles) {
+      Path path = file.toAbsolutePath().normalize();
+      if (path.startsWith(localCache.toAbsolutePath().normalize())) {
+        continue;
+      }
+      for (Path dir = path.getParent(); dir != null; dir = dir.getParent()) {
+        if (dir.getFileName() != null && "files-2.1".equals(dir.getFileName().toString())) {
+          used.computeIfAbsent(dir, ignored -> new ArrayList<>()).add(path);
+          break;
+        }
+      }
+    }
+
+    for (Map.Entry<Path, List<Path>> entry : used.entrySet()) {
+      try (LocalCacheManager cacheManager = LocalCacheManager.open(entry.getKey(), maxCacheSize)) {
+        entry.getValue().forEach(cacheManager::recordAccess);
+      }
+    }
+  }
+
+  /**
+   * Downloads and indexes every node of the resolution. Outstanding downloads are cancelled as soon
+   * as one fails unless {@link ResolverConfig#isReportAllMissing()} is set, in which case every
+   * node is attempted and all the failures are reported together. When resolving offline, every
+   * node is always attempted.
+   *
+   * @throws ArtifactFetchException if any node could not be fetched
+   * @throws OfflineResolutionException if resolving offline and any node isn't in the local caches
+   */
+  static Set<DependencyInfo> fulfillDependencyInfos(
+      Resolver resolver,
+      EventListener listener,
+      ResolverConfig config,
+      ResolutionResult resolutionResult)
+      throws InterruptedException {
+    return fulfillDependencyInfos(resolver, listener, config, resolutionResult, file -> {});
+  }
+
+  /**
+   * As {@link #fulfillDependencyInfos(Resolver, EventListener, ResolverConfig, ResolutionResult)},
+   * also passing every file that was used to {@code onUse}, whether it was already on disk or had
+   * to be downloaded. Files used before a failure are still passed on.
+   */
+  static Set<DependencyInfo> fulfillDependencyInfos(
       Resolver resolver,
       EventListener listener,
       ResolverConfig config,
-      ResolutionResult resolutionResult) {
+      ResolutionResult resolutionResult,
+      Consumer<Path> onUse)
+      throws InterruptedException {
     listener.onEvent(new PhaseEvent("Downloading dependencies"));
 
     ResolutionRequest request = config.getResolutionRequest();
-    String rjeUnsafeCache = System.getenv("RJE_UNSAFE_CACHE");
-    boolean cacheResults = true;
-    if (rjeUnsafeCache != null
-        && ("0".equals(rjeUnsafeCache) || !Boolean.parseBoolean(rjeUnsafeCache))) {
-      cacheResults = false;
-    }
+    boolean cacheResults = isCachingDownloads();
 
     Map<Coordinates, Path> knownPaths = new LinkedHashMap<>();
     resolutionResult
@@ -124,73 +308,189 @@ public abstract class AbstractMain {
             request.getRepositories(),
             listener,
             cacheResults,
-            knownPaths);
-
-    List<CompletableFuture<Set<DependencyInfo>>> futures = new LinkedList<>();
+            request.isOffline(),
+            knownPaths,
+            Downloader.parseMirrorGroups(System.getenv("RJE_MIRROR_GROUPS")),
+            ArtifactCaches.resolve(request.isOffline()),
+            request.getKnownSha256s());
 
     Graph<Coordinates> resolved = resolutionResult.getResolution();
 
-    ExecutorService downloadService =
-        Executors.newFixedThreadPool(
-            config.getMaxThreads(),
-            r -> {
-              Thread thread = new Thread(r);
-              thread.setDaemon(true);
-              thread.setName("downloader");
-              return thread;
-            });
-    try {
-      final MetadataService metadataService = resolveMetadataService(new LocalMetadataService(downloader), listener);
-      for (Coordinates coords : resolved.nodes()) {
-        Supplier<Set<DependencyInfo>> dependencyInfoSupplier =
-            () -> {
-              try {
-                return getDependencyInfos(
-                    metadataService,
-                    request.getRepositories(),
-                    coords,
-                    resolved.successors(coords),
-                    config.isFetchSources(),
-                    config.isFetchJavadoc());
-              } catch (UriNotFoundException e) {
-                List<Coordinates> path = new LinkedList<>();
-                path.add(coords);
-                Set<Coordinates> predecessors = resolved.predecessors(coords);
-                while (!predecessors.isEmpty()) {
-                  Coordinates next = predecessors.iterator().next();
-                  path.add(next);
-                  predecessors = resolved.predecessors(next);
-                }
-                Collections.reverse(path);
-                throw new UriNotFoundException(
-                    String.format(
-                        "Unable to download %s from any of %s. Required because: %s",
-                        coords,
-                        request.getRepositories(),
-                        path.stream().map(Object::toString).collect(joining(" -> "))));
-              }
-            };
-        futures.add(CompletableFuture.supplyAsync(dependencyInfoSupplier, downloadService));
+    // Everything the build needs is asked for in one go, most important first. Sources and javadoc
+    // are asked for at a lower priority, so that they only use threads which would otherwise be
+    // idle, and never delay the artifacts the build needs, even those whose lookups are only
+    // started later, such as when a metadata service falls back to looking locally.
+    List<Coordinates> primary = new ArrayList<>(resolved.nodes());
+    Map<Coordinates, Long> priorities = new HashMap<>();
+    for (Coordinates coords : primary) {
+      priorities.put(coords, primaryPriority(coords, knownPaths.get(coords)));
+    }
+    primary.sort(Comparator.comparing(priorities::get, Comparator.reverseOrder()));
+    // The sources and javadoc to fetch, and the node each belongs to
+    Map<Coordinates, Coordinates> classified = new LinkedHashMap<>();
+    for (Coordinates coords : primary) {
+      if (config.isFetchSources()) {
+        classified.put(coords.setClassifier("sources").setExtension("jar"), coords);
+      }
+      if (config.isFetchJavadoc()) {
+        classified.put(coords.setClassifier("javadoc").setExtension("jar"), coords);
+      }
+    }
+
+    // Work is started in priority order, no more than --max-threads of it at once
+    IoExecutor downloadService =
+        ThreadPools.newIoExecutor(config.getMaxThreads(), "downloader");
+    try (TaskScope<Set<DependencyInfo>> scope = new TaskScope<>(!config.isReportAllMissing())) {
+      final MetadataService metadataService =
+          resolveMetadataService(
+              cachingMetadata(new LocalMetadataService(downloader), request), listener);
+      Collection<URI> repositories = request.getRepositories();
+      Map<Coordinates, CompletableFuture<DependencyMetadata>> metadata =
+          new HashMap<>(metadataService.getAllMetadata(primary, repositories, downloadService));
+      if (!classified.isEmpty()) {
+        metadata.putAll(
+            metadataService.getAllMetadata(
+                classified.keySet(),
+                repositories,
+                downloadService.atPriority(CLASSIFIED_PRIORITY)));
+      }
+      // Offline, everything missing is gathered up so that it can all be fetched in one go
+      Set<Coordinates> missing = request.isOffline() ? ConcurrentHashMap.newKeySet() : null;
+      // Each lookup is added along with what it's derived from, so that cancelling it stops the
+      // lookup itself
+      for (Coordinates coords : primary) {
+        CompletableFuture<DependencyMetadata> lookup = metadata.get(coords);
+        scope.add(
+            explainingMissing(
+                coords,
+                coords,
+                missing,
+                resolved,
+                repositories,
+                lookup,
+                dm -> getDependencyInfo(dm, coords, resolved.successors(coords))),
+            lookup);
+      }
+      for (Map.Entry<Coordinates, Coordinates> entry : classified.entrySet()) {
+        Coordinates coords = entry.getKey();
+        CompletableFuture<DependencyMetadata> lookup = metadata.get(coords);
+        scope.add(
+            explainingMissing(
+                coords,
+                entry.getValue(),
+                missing,
+                resolved,
+                repositories,
+                lookup,
+                dm -> getClassifiedInfo(dm, coords)),
+            lookup);
       }
 
-      return futures.stream()
-          .map(
-              future -> {
-                try {
-                  return future.get();
-                } catch (InterruptedException e) {
-                  System.exit(5);
-                } catch (ExecutionException e) {
-                  e.getCause().printStackTrace();
-                  System.exit(2);
-                }
-                return null;
-              })
-          .flatMap(Set::stream)
-          .collect(ImmutableSet.toImmutableSet());
+      Set<DependencyInfo> infos =
+          scope.join().stream().flatMap(Set::stream).collect(ImmutableSet.toImmutableSet());
+      if (missing != null && !missing.isEmpty()) {
+        throw new OfflineResolutionException(missing);
+      }
+      return infos;
     } finally {
-      downloadService.shutdown();
+      downloadService.shutdownNow();
+      downloader.saveRepositoryStats();
+      // What the resolver left behind is in use even if its metadata was cached and nothing here
+      // needed to look at it
+      knownPaths.values().forEach(onUse);
+      downloader.getUsedFiles().forEach(onUse);
+    }
+  }
+
+  /**
+   * POMs are tiny, so they go first. Other artifacts are ordered by size where we know it (the
+   * Gradle resolver tells us where it put them), so that the biggest downloads start early and
+   * don't end up holding the whole phase up on their own.
+   */
+  private static long primaryPriority(Coordinates coords, Path knownPath) {
+    if ("pom".equals(coords.getExtension())) {
+      return Long.MAX_VALUE;
+    }
+    if (knownPath == null) {
+      return 0;
     }
+    try {
+      return Files.size(knownPath);
+    } catch (IOException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Turns the metadata of {@code requested} into what goes in the lock file once it's known. If it
+   * is missing, that's reported along with why it's needed. If {@code missingOffline} is given,
+   * missing artifacts are added to it instead.
+   */
+  private static CompletableFuture<Set<DependencyInfo>> explainingMissing(
+      Coordinates requested,
+      Coordinates node,
+      Set<Coordinates> missingOffline,
+      Graph<Coordinates> resolved,
+      Collection<URI> repositories,
+      CompletableFuture<DependencyMetadata> metadata,
+      Function<DependencyMetadata, Set<DependencyInfo>> toInfos) {
+    return metadata.handle(
+        (dm, failure) -> {
+          Throwable cause =
+              failure instanceof CompletionException && failure.getCause() != null
+                  ? failure.getCause()
+                  : failure;
+          if (cause == null) {
+            try {
+              return toInfos.apply(dm);
+            } catch (UriNotFoundException e) {
+              cause = e;
+            }
+          }
+          if (!(cause instanceof UriNotFoundException)) {
+            throw new CompletionException(cause);
+          }
+          if (missingOffline != null) {
+            missingOffline.add(requested);
+            return Set.of();
+          }
+          List<Coordinates> path = new LinkedList<>();
+          path.add(node);
+          Set<Coordinates> predecessors = resolved.predecessors(node);
+          while (!predecessors.isEmpty()) {
+            Coordinates next = predecessors.iterator().next();
+            path.add(next);
+            predecessors = resolved.predecessors(next);
+          }
+          Collections.reverse(path);
+          throw new UriNotFoundException(
+              String.format(
+                  "Unable to download %s from any of %s. Required because: %s",
+                  requested,
+                  repositories,
+                  path.stream().map(Object::toString).collect(joining(" -> "))));
+        });
+  }
+
+  /**
+   * Wraps {@code service} so that what it says about release artifacts is kept between pins, if
+   * {@code RJE_METADATA_CACHE} asks for that. It may be {@code 1} or {@code true} to use the
+   * default location, or the directory to use.
+   */
+  private static MetadataService cachingMetadata(
+      MetadataService service, ResolutionRequest request) {
+    String rjeMetadataCache = System.getenv("RJE_METADATA_CACHE");
+    if (rjeMetadataCache == null
+        || rjeMetadataCache.isBlank()
+        || "0".equals(rjeMetadataCache)
+        || "false".equalsIgnoreCase(rjeMetadataCache)) {
+      return service;
+    }
+    Path root =
+        "1".equals(rjeMetadataCache) || Boolean.parseBoolean(rjeMetadataCache)
+            ? CachingMetadataService.getDefaultRoot()
+            : Path.of(rjeMetadataCache);
+    return new CachingMetadataService(root, service, request.getKnownSha256s());
   }
 
   private static MetadataService resolveMetadataService(
@@ -208,17 +508,8 @@ public abstract class AbstractMain {
         });
   }
 
-  private static Set<DependencyInfo> getDependencyInfos(
-      MetadataService metadataService,
-      Collection<URI> repositories,
-      Coordinates coords,
-      Set<Coordinates> dependencies,
-      boolean fetchSources,
-      boolean fetchJavadoc) {
-    ImmutableSet.Builder<DependencyInfo> toReturn = ImmutableSet.builder();
-
-    DependencyMetadata dm = metadataService.getMetadata(coords, repositories);
-
+  private static Set<DependencyInfo> getDependencyInfo(
+      DependencyMetadata dm, Coordinates coords, Set<Coordinates> dependencies) {
     if (dm == null) {
       throw new UriNotFoundException("Unable to download from any repo: " + coords);
     }
@@ -236,7 +527,7 @@ public abstract class AbstractMain {
       }
     }
 
-    toReturn.add(
+    return ImmutableSet.of(
         new DependencyInfo(
             coords,
             resultRepos,
@@ -246,42 +537,23 @@ public abstract class AbstractMain {
             packages,
             classes,
             serviceImplementations));
+  }
 
-    if (fetchSources) {
-      Coordinates sourceCoords = coords.setClassifier("sources").setExtension("jar");
-      DependencyMetadata sdm = metadataService.getMetadata(sourceCoords, repositories);
-      if (sdm != null) {
-        toReturn.add(
-            new DependencyInfo(
-                sourceCoords,
-                sdm.getRepositories(),
-                Optional.empty(),
-                Optional.ofNullable(sdm.getSha256()),
-                ImmutableSet.of(),
-                ImmutableSet.of(),
-                ImmutableSet.of(),
-                ImmutableSortedMap.of()));
-      }
-    }
-
-    if (fetchJavadoc) {
-      Coordinates docCoords = coords.setClassifier("javadoc").setExtension("jar");
-      DependencyMetadata ddm = metadataService.getMetadata(docCoords, repositories);
-      if (ddm != null) {
-        toReturn.add(
-            new DependencyInfo(
-                docCoords,
-                ddm.getRepositories(),
-                Optional.empty(),
-                Optional.ofNullable(ddm.getSha256()),
-                ImmutableSet.of(),
-                ImmutableSet.of(),
-                ImmutableSet.of(),
-                ImmutableSortedMap.of()));
-      }
+  private static Set<DependencyInfo> getClassifiedInfo(DependencyMetadata dm, Coordinates coords) {
+    if (dm == null) {
+      return ImmutableSet.of();
     }
 
-    return toReturn.build();
+    return ImmutableSet.of(
+        new DependencyInfo(
+            coords,
+            dm.getRepositories(),
+            Optional.empty(),
+            Optional.ofNullable(dm.getSha256()),
+            ImmutableSet.of(),
+            ImmutableSet.of(),
+            ImmutableSet.of(),
+            ImmutableSortedMap.of()));
   }
 
   private static void writeLockFile(
@@ -299,38 +571,68 @@ public abstract class AbstractMain {
     // If a dependency index is being generated, we can omit packages from the lock file
     // since that information is available in the index file
     boolean includePackages = config.getDependencyIndexOutput() == null;
-    Map<String, Object> rendered =
-        new V3LockFile(request.getRepositories(), infos, conflicts, includePackages).render();
+    V3LockFile lockFile =
+        new V3LockFile(request.getRepositories(), infos, conflicts, includePackages);
 
-    Map<Object, Object> toReturn = new TreeMap<>(rendered);
-    // We don't need this, and having it will cause problems
-    toReturn.remove("files");
-
-    toReturn.put(
+    Map<String, Object> extra = new TreeMap<>();
+    extra.put(
         "__AUTOGENERATED_FILE_DO_NOT_MODIFY_THIS_FILE_MANUALLY", "THERE_IS_NO_DATA_ONLY_ZUUL");
 
+    // Shards are split out of the rendered lock file, so the hashes may as well come from that
+    // too. Otherwise the lock file is streamed out, and only what the hashes cover is rendered.
+    boolean sharded = isShardingOutput();
+    if (sharded && output == null) {
+      throw new IllegalArgumentException("A sharded lock file can only be written to --output");
+    }
+    Map<String, Object> rendered = sharded ? lockFile.render() : null;
+
     if (config.getInputHash() != null) {
-      toReturn.put("__INPUT_ARTIFACTS_HASH", config.getInputHash());
-      toReturn.put("__RESOLVED_ARTIFACTS_HASH", calculateArtifactHash(rendered));
+      Map<String, Object> hashed = sharded ? rendered : lockFile.renderHashedSections();
+      extra.put("__INPUT_ARTIFACTS_HASH", config.getInputHash());
+      extra.put("__RESOLVED_ARTIFACTS_DIGESTS", calculateArtifactDigests(hashed));
+      // Still written so that older versions of rules_jvm_external can check the lock file
+      extra.put("__RESOLVED_ARTIFACTS_HASH", calculateArtifactHash(hashed));
     }
 
-    String converted =
-        new GsonBuilder().setPrettyPrinting().serializeNulls().create().toJson(toReturn) + "\n";
+    if (sharded) {
+      // render() hands back a map of its own, so there's no need to copy it first
+      rendered.remove("files");
+      rendered.putAll(extra);
+      LockFileShards.write(output, rendered);
+      return;
+    }
 
     try (OutputStream os = output == null ? System.out : Files.newOutputStream(output);
-        BufferedOutputStream bos = new BufferedOutputStream(os)) {
-      bos.write(converted.getBytes(UTF_8));
+        Writer writer = new BufferedWriter(new OutputStreamWriter(os, UTF_8))) {
+      lockFile.write(writer, extra);
     }
   }
 
   private static void writeDependencyIndex(ResolverConfig config, Set<DependencyInfo> infos)
       throws IOException {
+    Path binaryOutput = config.getBinaryDependencyIndexOutput();
     Path output = config.getDependencyIndexOutput();
-    if (output == null) {
+    if (binaryOutput == null && output == null) {
       return;
     }
 
+    // Rendered once, for both forms
     Map<String, Object> rendered = new DependencyIndex(infos).render();
+    if (binaryOutput != null) {
+      try (OutputStream os = Files.newOutputStream(binaryOutput);
+          BufferedOutputStream bos = new BufferedOutputStream(os)) {
+        DependencyIndex.writeBinary(rendered, bos);
+      }
+    }
+
+    if (output == null) {
+      return;
+    }
+
+    if (isShardingOutput()) {
+      LockFileShards.write(output, rendered);
+      return;
+    }
 
     String converted =
         new GsonBuilder().setPrettyPrinting().serializeNulls().create().toJson(rendered) + "\n";
@@ -341,103 +643,18 @@ public abstract class AbstractMain {
     }
   }
 
-  @SuppressWarnings("unchecked")
   public static Map<String, Integer> calculateArtifactHash(Map<String, Object> rendered) {
-    Map<String, Map<String, Object>> allInfos = new LinkedHashMap<>();
-
-    Map<String, Map<String, Object>> artifacts =
-        sortMapRecursively((Map<?, ?>) rendered.get("artifacts"));
-    for (Map.Entry<String, Map<String, Object>> dep : artifacts.entrySet()) {
-      Map<String, Object> depInfo = dep.getValue();
-      Map<String, String> shasums = (Map<String, String>) depInfo.get("shasums");
-
-      Map<String, Object> commonInfo = new LinkedHashMap<>(depInfo);
-      commonInfo.remove("shasums");
-
-      boolean isJarType = dep.getKey().chars().filter(x -> x == ':').count() == 1;
-
-      for (Map.Entry<String, String> shaEntry : shasums.entrySet()) {
-        String type = shaEntry.getKey();
-        String sha = shaEntry.getValue();
-
-        String jarSuffix = isJarType ? ":jar" : "";
-        String suffix = (!type.equals("jar")) ? jarSuffix + ":" + type : "";
-
-        Map<String, Object> typeInfo = new LinkedHashMap<>();
-        typeInfo.put("standard", commonInfo);
-        typeInfo.put("sha", sha);
-        allInfos.put(dep.getKey() + suffix, typeInfo);
-      }
-    }
-
-    Map<String, Iterable<String>> repositories =
-        sortMapRecursively((Map<?, ?>) rendered.get("repositories"));
-    for (Map.Entry<String, Iterable<String>> repo : repositories.entrySet()) {
-      Iterable<String> repoArtifacts = repo.getValue();
-      for (String art : repoArtifacts) {
-        allInfos.get(art).put("repository", repo.getKey());
-      }
-    }
-
-    Map<String, Set<String>> dependencies =
-        sortMapRecursively((Map<?, ?>) rendered.get("dependencies"));
-    for (Map.Entry<String, Set<String>> dep : dependencies.entrySet()) {
-      allInfos.get(dep.getKey()).put("dependencies", dep.getValue());
-    }
-
-    Map<String, Integer> finalHash = new TreeMap<>();
-    allInfos.forEach((k, v) -> calculateFinalHash(k, allInfos, finalHash));
-
-    return finalHash;
-  }
-
-  @SuppressWarnings("unchecked")
-  private static int calculateFinalHash(
-      String curr, Map<String, Map<String, Object>> allInfos, Map<String, Integer> finalHash) {
-    StarlarkRepr repr = new StarlarkRepr();
-
-    if (finalHash.containsKey(curr)) {
-      return finalHash.get(curr);
-    }
-    if (!allInfos.containsKey(curr)) {
-      return 0;
-    }
-
-    finalHash.put(curr, repr.repr(allInfos.get(curr)).hashCode());
-
-    Set<String> deps =
-        (Set<String>) allInfos.get(curr).getOrDefault("dependencies", Collections.emptySet());
-    Map<String, Integer> hashedDeps = new TreeMap<>();
-    for (String dep : deps) {
-      hashedDeps.put(dep, calculateFinalHash(dep, allInfos, finalHash));
-    }
-
-    allInfos.get(curr).put("dependency_hashes", hashedDeps);
-    finalHash.put(curr, repr.repr(allInfos.get(curr)).hashCode());
-    return finalHash.get(curr);
+    return ArtifactHasher.hash(rendered);
   }
 
-  @SuppressWarnings("unchecked")
-  private static <T> Map<String, T> sortMapRecursively(Map<?, ?> map) {
-    TreeMap<String, T> sorted = new TreeMap<>();
-    for (Map.Entry<?, ?> entry : map.entrySet()) {
-      Object value = entry.getValue();
-      if (value instanceof Map) {
-        value = sortMapRecursively((Map<?, ?>) value);
-      } else if (value instanceof List) {
-        List<?> list = (List<?>) value;
-        List<Object> sortedList = new java.util.ArrayList<>();
-        for (Object item : list) {
-          if (item instanceof Map) {
-            sortedList.add(sortMapRecursively((Map<?, ?>) item));
-          } else {
-            sortedList.add(item);
-          }
-        }
-        value = sortedList;
-      }
-      sorted.put(String.valueOf(entry.getKey()), (T) value);
-    }
-    return sorted;
+  /**
+   * Calculates the digests of the artifacts in a lock file, along with the version of the scheme
+   * used to calculate them.
+   */
+  public static Map<String, Object> calculateArtifactDigests(Map<String, Object> rendered) {
+    Map<String, Object> digests = new TreeMap<>();
+    digests.put("digests", ArtifactHasher.digest(rendered));
+    digests.put("version", ArtifactHasher.DIGESTS_VERSION);
+    return digests;
   }
 }
@@ -0,0 +1,59 @@
+// Copyright 2026 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.resolver.cmd;
+
+import static java.util.stream.Collectors.joining;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Thrown when one or more artifacts of a resolution could not be fetched. Depending on how the
+ * fetch was run, this holds either the first failure seen or every failure.
+ */
+public class ArtifactFetchException extends RuntimeException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final List<Throwable> failures;
+
+  public ArtifactFetchException(List<Throwable> failures) {
+    super(describe(failures), failures.isEmpty() ? null : failures.get(0));
+    this.failures = List.copyOf(failures);
+    for (int i = 1; i < failures.size(); i++) {
+      addSuppressed(failures.get(i));
+    }
+  }
+
+  public List<Throwable> getFailures() {
+    return failures;
+  }
+
+  private static String describe(List<Throwable> failures) {
+    if (failures.size() == 1) {
+      return String.valueOf(failures.get(0).getMessage());
+    }
+
+    // Tasks finish in an arbitrary order, so sort to keep the report stable from run to run
+    return failures.stream()
+        .map(t -> String.valueOf(t.getMessage()))
+        .sorted(Comparator.naturalOrder())
+        .collect(
+            joining(
+                "\n  * ",
+                String.format("Unable to fetch %d artifacts:\n  * ", failures.size()),
+                ""));
+  }
+}
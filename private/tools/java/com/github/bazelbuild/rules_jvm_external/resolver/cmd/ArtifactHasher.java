@@ -0,0 +1,488 @@
+// Copyright 2026 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.resolver.cmd;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Calculates the {@code __RESOLVED_ARTIFACTS_HASH} of a rendered lock file, which must match what
+ * {@code _compute_final_hash} in {@code v3_lock_file.bzl} calculates when the lock file is read.
+ *
+ * <p>Each hash is the {@link String#hashCode()} of the Starlark {@code repr} of what the lock file
+ * says about an artifact, including the hashes of its dependencies. Rather than printing those
+ * (which can be large, and which repeat the same artifacts over and over) and then hashing the
+ * result, the characters that {@link StarlarkRepr} would print are fed straight into the hash. As
+ * the hash of two strings joined together is {@code h(a) * 31^len(b) + h(b)}, anything that is
+ * printed more than once, such as the quoted name of an artifact, is only hashed once and is then
+ * combined with whatever precedes it. The dependency graph is walked without recursion, so that
+ * long chains of dependencies can't overflow the stack.
+ *
+ * <p>It also calculates the {@code __RESOLVED_ARTIFACTS_DIGESTS} that supersede that hash, and
+ * which {@code _compute_lock_file_digests} checks. Each of those only covers what the lock file
+ * says about a single artifact, which is all that's needed to notice that it's been edited, so they
+ * can be checked in one pass without walking the dependency graph.
+ */
+final class ArtifactHasher {
+
+  /** The version of the scheme used by {@link #digest}, which is stored with the digests. */
+  static final int DIGESTS_VERSION = 1;
+
+  private static final Object ABSENT = new Object();
+
+  // In the order that the artifacts are visited in
+  private final Map<String, Node> nodes = new LinkedHashMap<>();
+  // The hash and length of each quoted string that's likely to be printed more than once
+  private final Map<String, Long> quoted = new HashMap<>();
+  // Values being printed, so that cycles can be elided the same way StarlarkRepr does
+  private Object[] printing = new Object[8];
+  private int depth;
+
+  private ArtifactHasher() {}
+
+  /** Calculates the hash of every artifact in a lock file rendered by {@code V3LockFile}. */
+  static Map<String, Integer> hash(Map<String, Object> rendered) {
+    ArtifactHasher hasher = new ArtifactHasher();
+    hasher.addArtifacts((Map<?, ?>) rendered.get("artifacts"));
+    hasher.addRepositories((Map<?, ?>) rendered.get("repositories"));
+    hasher.addDependencies((Map<?, ?>) rendered.get("dependencies"));
+    return hasher.hashAll();
+  }
+
+  /**
+   * Calculates the digest of every artifact in a lock file rendered by {@code V3LockFile}. This is
+   * the hash of the {@code repr} of a list holding the artifact's information (other than its
+   * hashes), its name, its hash, the repositories that list it and its dependencies, all in the
+   * order they're written to the lock file.
+   */
+  static Map<String, Integer> digest(Map<String, Object> rendered) {
+    Map<String, List<Object>> repositories = new HashMap<>();
+    ((Map<?, ?>) rendered.get("repositories"))
+        .forEach(
+            (repo, artifacts) -> {
+              for (Object artifact : (Iterable<?>) artifacts) {
+                repositories
+                    .computeIfAbsent(String.valueOf(artifact), k -> new ArrayList<>())
+                    .add(repo);
+              }
+            });
+    Map<?, ?> dependencies = (Map<?, ?>) rendered.get("dependencies");
+
+    ArtifactHasher hasher = new ArtifactHasher();
+    Map<String, Integer> digests = new TreeMap<>();
+    for (Map.Entry<?, ?> dep : ((Map<?, ?>) rendered.get("artifacts")).entrySet()) {
+      String key = String.valueOf(dep.getKey());
+      Map<?, ?> depInfo = (Map<?, ?>) dep.getValue();
+      Map<String, Object> commonInfo = new TreeMap<>(sorted(depInfo));
+      commonInfo.remove("shasums");
+
+      Accumulator head = new Accumulator();
+      head.append('[');
+      hasher.appendRepr(head, commonInfo, false);
+      head.append(", ");
+      long shared = head.fragment();
+
+      for (Map.Entry<?, ?> shaEntry : ((Map<?, ?>) depInfo.get("shasums")).entrySet()) {
+        String name = key + typeSuffix(key, String.valueOf(shaEntry.getKey()));
+        Accumulator leaf = new Accumulator(shared);
+        leaf.append(hasher.quoted(name));
+        leaf.append(", ");
+        hasher.appendRepr(leaf, shaEntry.getValue(), false);
+        leaf.append(", ");
+        hasher.appendRepr(leaf, repositories.getOrDefault(name, List.of()), false);
+        leaf.append(", ");
+        Object deps = dependencies.get(name);
+        hasher.appendRepr(leaf, deps != null ? deps : List.of(), false);
+        leaf.append(']');
+        digests.put(name, leaf.hash);
+      }
+    }
+    return digests;
+  }
+
+  private void addArtifacts(Map<?, ?> artifacts) {
+    for (Map.Entry<String, Object> dep : sorted(artifacts).entrySet()) {
+      Map<String, Object> depInfo = sorted((Map<?, ?>) dep.getValue());
+      Map<String, Object> commonInfo = new TreeMap<>(depInfo);
+      commonInfo.remove("shasums");
+
+      // Every type of the artifact shares everything that comes before its hash
+      Accumulator head = new Accumulator();
+      head.append("{\"standard\": ");
+      appendRepr(head, commonInfo, true);
+      head.append(", \"sha\": ");
+      long shared = head.fragment();
+
+      String key = dep.getKey();
+      for (Map.Entry<String, Object> shaEntry :
+          sorted((Map<?, ?>) depInfo.get("shasums")).entrySet()) {
+        String name = key + typeSuffix(key, shaEntry.getKey());
+        nodes.put(name, new Node(name, shared, shaEntry.getValue()));
+      }
+    }
+  }
+
+  private void addRepositories(Map<?, ?> repositories) {
+    for (Map.Entry<String, Object> repo : sorted(repositories).entrySet()) {
+      for (Object art : (Iterable<?>) repo.getValue()) {
+        nodes.get(art).repository = repo.getKey();
+      }
+    }
+  }
+
+  private void addDependencies(Map<?, ?> dependencies) {
+    for (Map.Entry<String, Object> dep : sorted(dependencies).entrySet()) {
+      nodes.get(dep.getKey()).dependencies = dep.getValue();
+    }
+  }
+
+  private Map<String, Integer> hashAll() {
+    // Each artifact is given a provisional hash, without the hashes of its dependencies, when it's
+    // first reached. Artifacts in a cycle see that instead of the final hash of the artifacts that
+    // are still being worked on, just as they would in a depth-first recursion.
+    Deque<Frame> stack = new ArrayDeque<>();
+    for (Node root : nodes.values()) {
+      if (root.visited) {
+        continue;
+      }
+      stack.push(begin(root));
+      while (!stack.isEmpty()) {
+        Frame frame = stack.peek();
+        if (frame.next < frame.deps.length) {
+          Node dep = nodes.get(frame.deps[frame.next]);
+          if (dep == null) {
+            frame.hashes[frame.next++] = 0;
+          } else if (dep.visited) {
+            frame.hashes[frame.next++] = dep.hash;
+          } else {
+            stack.push(begin(dep));
+          }
+          continue;
+        }
+
+        stack.pop();
+        frame.node.hash = finish(frame);
+        Frame parent = stack.peek();
+        if (parent != null) {
+          parent.hashes[parent.next++] = frame.node.hash;
+        }
+      }
+    }
+
+    Map<String, Integer> hashes = new TreeMap<>();
+    nodes.values().forEach(node -> hashes.put(node.name, node.hash));
+    return hashes;
+  }
+
+  private Frame begin(Node node) {
+    Accumulator info = new Accumulator(node.head);
+    appendRepr(info, node.sha, false);
+    if (node.repository != ABSENT) {
+      info.append(", \"repository\": ");
+      appendRepr(info, node.repository, false);
+    }
+    String[] deps = new String[0];
+    if (node.dependencies != ABSENT) {
+      info.append(", \"dependencies\": ");
+      appendRepr(info, node.dependencies, false);
+      deps = ((Collection<?>) node.dependencies).toArray(deps);
+    }
+    long prefix = info.fragment();
+
+    info.append('}');
+    node.visited = true;
+    node.hash = info.hash;
+    return new Frame(node, prefix, deps);
+  }
+
+  private int finish(Frame frame) {
+    Accumulator info = new Accumulator(frame.prefix);
+    info.append(", \"dependency_hashes\": {");
+    String[] deps = frame.deps;
+    int[] hashes = frame.hashes;
+    if (!isSorted(deps)) {
+      Map<String, Integer> hashedDeps = new TreeMap<>();
+      for (int i = 0; i < deps.length; i++) {
+        hashedDeps.put(deps[i], hashes[i]);
+      }
+      deps = hashedDeps.keySet().toArray(new String[0]);
+      hashes = hashedDeps.values().stream().mapToInt(Integer::intValue).toArray();
+    }
+    for (int i = 0; i < deps.length; i++) {
+      if (i > 0) {
+        info.append(", ");
+      }
+      info.append(quoted(deps[i]));
+      info.append(": ");
+      info.append(hashes[i]);
+    }
+    info.append("}}");
+    return info.hash;
+  }
+
+  /**
+   * Feeds the characters that {@link StarlarkRepr} prints for {@code o} into {@code acc}. When
+   * {@code sort} is set, maps are printed in the order of their keys, the same way as the lock file
+   * is sorted before it's hashed.
+   */
+  private void appendRepr(Accumulator acc, Object o, boolean sort) {
+    if (o == null) {
+      acc.append("None");
+      return;
+    } else if (o instanceof String) {
+      acc.append(quoted((String) o));
+      return;
+    } else if (o instanceof Boolean) {
+      acc.append((boolean) o ? "True" : "False");
+      return;
+    } else if (o instanceof Integer) {
+      acc.append((int) o);
+      return;
+    }
+
+    if (!push(o)) {
+      acc.append("...");
+      return;
+    }
+    try {
+      if (o instanceof Map) {
+        Map<?, ?> map = sort ? sorted((Map<?, ?>) o) : (Map<?, ?>) o;
+        acc.append('{');
+        String sep = "";
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+          acc.append(sep);
+          sep = ", ";
+          appendRepr(acc, entry.getKey(), false);
+          acc.append(": ");
+          appendRepr(acc, entry.getValue(), sort);
+        }
+        acc.append('}');
+      } else if (o instanceof Collection) {
+        // Only maps that are directly in a list are sorted
+        boolean sortItems = sort && o instanceof List;
+        acc.append('[');
+        String sep = "";
+        for (Object item : (Collection<?>) o) {
+          acc.append(sep);
+          sep = ", ";
+          appendRepr(acc, item, sortItems && item instanceof Map);
+        }
+        acc.append(']');
+      } else if (o instanceof Map.Entry) {
+        Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+        appendRepr(acc, entry.getKey(), false);
+        acc.append(": ");
+        appendRepr(acc, entry.getValue(), false);
+      } else {
+        acc.append(o.toString());
+      }
+    } finally {
+      printing[--depth] = null;
+    }
+  }
+
+  private boolean push(Object o) {
+    for (int i = 0; i < depth; i++) {
+      if (printing[i] == o) {
+        return false;
+      }
+    }
+    if (depth == printing.length) {
+      printing = Arrays.copyOf(printing, depth * 2);
+    }
+    printing[depth++] = o;
+    return true;
+  }
+
+  private long quoted(String s) {
+    Long fragment = quoted.get(s);
+    if (fragment == null) {
+      Accumulator acc = new Accumulator();
+      acc.append('"');
+      for (int i = 0; i < s.length(); i++) {
+        acc.appendEscaped(s.charAt(i));
+      }
+      acc.append('"');
+      fragment = acc.fragment();
+      quoted.put(s, fragment);
+    }
+    return fragment;
+  }
+
+  // How the name of each type of an artifact is formed from the artifact's key
+  private static String typeSuffix(String key, String type) {
+    if (type.equals("jar")) {
+      return "";
+    }
+    boolean isJarType = key.indexOf(':') >= 0 && key.indexOf(':') == key.lastIndexOf(':');
+    return (isJarType ? ":jar:" : ":") + type;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> sorted(Map<?, ?> map) {
+    if (map instanceof SortedMap
+        && ((SortedMap<?, ?>) map).comparator() == null
+        && (map.isEmpty() || ((SortedMap<?, ?>) map).firstKey() instanceof String)) {
+      return (Map<String, Object>) map;
+    }
+    Map<String, Object> sorted = new TreeMap<>();
+    map.forEach((key, value) -> sorted.put(String.valueOf(key), value));
+    return sorted;
+  }
+
+  private static boolean isSorted(String[] strings) {
+    for (int i = 1; i < strings.length; i++) {
+      if (strings[i - 1].compareTo(strings[i]) > 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static final class Node {
+    final String name;
+    // Everything before the artifact's hash, which is shared with its other types
+    final long head;
+    final Object sha;
+    Object repository = ABSENT;
+    Object dependencies = ABSENT;
+    boolean visited;
+    int hash;
+
+    Node(String name, long head, Object sha) {
+      this.name = name;
+      this.head = head;
+      this.sha = sha;
+    }
+  }
+
+  private static final class Frame {
+    final Node node;
+    // Everything except the dependency hashes and the closing brace
+    final long prefix;
+    final String[] deps;
+    final int[] hashes;
+    int next;
+
+    Frame(Node node, long prefix, String[] deps) {
+      this.node = node;
+      this.prefix = prefix;
+      this.deps = deps;
+      this.hashes = new int[deps.length];
+    }
+  }
+
+  /**
+   * Calculates {@link String#hashCode()} of whatever is appended to it, one character at a time.
+   * Something that has already been hashed is added as a fragment holding its hash and length.
+   */
+  static final class Accumulator {
+    int hash;
+    int length;
+
+    Accumulator() {}
+
+    Accumulator(long fragment) {
+      this.hash = (int) (fragment >>> 32);
+      this.length = (int) fragment;
+    }
+
+    void append(char c) {
+      hash = 31 * hash + c;
+      length++;
+    }
+
+    void append(String s) {
+      for (int i = 0; i < s.length(); i++) {
+        append(s.charAt(i));
+      }
+    }
+
+    void append(long fragment) {
+      int fragmentLength = (int) fragment;
+      hash = hash * pow31(fragmentLength) + (int) (fragment >>> 32);
+      length += fragmentLength;
+    }
+
+    // Prints the same digits as StringBuilder.append(int)
+    void append(int value) {
+      long remaining = value;
+      if (remaining < 0) {
+        append('-');
+        remaining = -remaining;
+      }
+      long divisor = 1;
+      while (divisor * 10 <= remaining) {
+        divisor *= 10;
+      }
+      for (; divisor > 0; divisor /= 10) {
+        append((char) ('0' + remaining / divisor % 10));
+      }
+    }
+
+    void appendEscaped(char c) {
+      switch (c) {
+        case '"':
+        case '\\':
+          append('\\');
+          append(c);
+          break;
+        case '\r':
+          append("\\r");
+          break;
+        case '\n':
+          append("\\n");
+          break;
+        case '\t':
+          append("\\t");
+          break;
+        default:
+          if (c < 32) {
+            append("\\x");
+            append(Character.forDigit(c >> 4, 16));
+            append(Character.forDigit(c & 0xf, 16));
+          } else {
+            append(c);
+          }
+      }
+    }
+
+    long fragment() {
+      return ((long) hash << 32) | (length & 0xffffffffL);
+    }
+
+    private static int pow31(int exponent) {
+      int result = 1;
+      int base = 31;
+      while (exponent != 0) {
+        if ((exponent & 1) != 0) {
+          result *= base;
+        }
+        base *= base;
+        exponent >>>= 1;
+      }
+      return result;
+    }
+  }
+}
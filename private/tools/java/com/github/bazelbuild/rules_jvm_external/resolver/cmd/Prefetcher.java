@@ -0,0 +1,141 @@
+// Copyright 2026 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.resolver.cmd;
+
+import com.github.bazelbuild.rules_jvm_external.Coordinates;
+import com.github.bazelbuild.rules_jvm_external.ThreadPools;
+import com.github.bazelbuild.rules_jvm_external.resolver.DependencyInfo;
+import com.github.bazelbuild.rules_jvm_external.resolver.remote.Downloader;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Downloads the artifacts in the lock file written by the last pin while the resolver works out
+ * what the new one should contain. The network is mostly idle while that happens, and most of the
+ * artifacts are usually the same, so by the time the resolution is done they are already in the
+ * local cache.
+ *
+ * <p>Only a few low-priority threads are used, so that the resolver's own requests aren't held up,
+ * and whatever hasn't been fetched once resolution finishes is abandoned: from then on, the
+ * resolution itself says what to download.
+ */
+final class Prefetcher {
+
+  private static final Logger LOG = Logger.getLogger(Prefetcher.class.getName());
+
+  private final Downloader downloader;
+  private final ExecutorService executor;
+  // The size of everything that was downloaded
+  private final Map<Coordinates, Long> prefetched = new ConcurrentHashMap<>();
+
+  private Prefetcher(Downloader downloader, int threads) {
+    this.downloader = downloader;
+    this.executor = Executors.newFixedThreadPool(threads, lowPriority());
+  }
+
+  /** Starts downloading {@code previous} in the background using up to {@code threads} threads. */
+  static Prefetcher start(Downloader downloader, Collection<DependencyInfo> previous, int threads) {
+    Prefetcher prefetcher = new Prefetcher(downloader, Math.max(1, threads));
+    for (DependencyInfo info : previous) {
+      prefetcher.executor.execute(
+          () -> prefetcher.prefetch(info.getCoordinates(), info.getRepositories()));
+    }
+    prefetcher.executor.shutdown();
+    return prefetcher;
+  }
+
+  /** Waits for every artifact to have been tried. */
+  void awaitCompletion() throws InterruptedException {
+    executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Abandons anything that hasn't been downloaded yet, and saves how the repositories performed.
+   * Downloads that are in flight are given a moment to finish.
+   */
+  void stop() throws InterruptedException {
+    executor.shutdownNow();
+    executor.awaitTermination(5, TimeUnit.SECONDS);
+    downloader.saveRepositoryStats();
+  }
+
+  /** The artifacts that were downloaded, and their sizes. */
+  Map<Coordinates, Long> getPrefetched() {
+    return Map.copyOf(prefetched);
+  }
+
+  /** Says how much of what was downloaded turned out to be part of the {@code used} artifacts. */
+  String report(Set<Coordinates> used) {
+    int hits = 0;
+    int wasted = 0;
+    long hitBytes = 0;
+    long wastedBytes = 0;
+    for (Map.Entry<Coordinates, Long> entry : prefetched.entrySet()) {
+      if (used.contains(entry.getKey())) {
+        hits++;
+        hitBytes += entry.getValue();
+      } else {
+        wasted++;
+        wastedBytes += entry.getValue();
+      }
+    }
+    return String.format(
+        "Prefetched %d artifacts from the previous lock file: %d used (%s), %d not needed (%s)",
+        hits + wasted, hits, describeSize(hitBytes), wasted, describeSize(wastedBytes));
+  }
+
+  private void prefetch(Coordinates coords, Set<URI> likelyRepos) {
+    if (Thread.currentThread().isInterrupted()) {
+      return;
+    }
+    try {
+      Path path = downloader.prefetch(coords, likelyRepos);
+      if (path != null) {
+        prefetched.put(coords, Files.size(path));
+      }
+    } catch (IOException | RuntimeException e) {
+      // Only speculative. If it's needed, it'll be downloaded (and any problem reported) later.
+      LOG.fine(String.format("Unable to prefetch %s: %s", coords, e));
+    }
+  }
+
+  private static ThreadFactory lowPriority() {
+    ThreadFactory delegate = ThreadPools.newIoThreadFactory("prefetcher");
+    return r -> {
+      Thread thread = delegate.newThread(r);
+      // Ignored by virtual threads, but there are only a few of them anyway
+      thread.setPriority(Thread.MIN_PRIORITY);
+      return thread;
+    };
+  }
+
+  private static String describeSize(long bytes) {
+    if (bytes < 1024 * 1024) {
+      return String.format("%.1f KiB", bytes / 1024.0);
+    }
+    return String.format("%.1f MiB", bytes / (1024.0 * 1024.0));
+  }
+}
@@ -15,21 +15,29 @@
 package com.github.bazelbuild.rules_jvm_external.resolver.cmd;
 
 import com.github.bazelbuild.rules_jvm_external.Coordinates;
+import com.github.bazelbuild.rules_jvm_external.resolver.DependencyInfo;
 import com.github.bazelbuild.rules_jvm_external.resolver.ResolutionRequest;
 import com.github.bazelbuild.rules_jvm_external.resolver.events.EventListener;
 import com.github.bazelbuild.rules_jvm_external.resolver.events.PhaseEvent;
+import com.github.bazelbuild.rules_jvm_external.resolver.lockfile.LockFileShards;
+import com.github.bazelbuild.rules_jvm_external.resolver.lockfile.V3LockFile;
 import com.github.bazelbuild.rules_jvm_external.resolver.netrc.Netrc;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 import java.io.IOException;
+import java.io.Reader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.logging.Logger;
 
 public class ResolverConfig {
 
+  private static final Logger LOG = Logger.getLogger(ResolverConfig.class.getName());
+
   // Limit the number of threads we use. The `5` is derived from the default number of threads Maven
   // uses
   // https://maven.apache.org/guides/mini/guide-configuring-maven.html#configuring-parallel-artifact-resolution
@@ -41,8 +49,11 @@ public class ResolverConfig {
   private final Netrc netrc;
   private final Path output;
   private final Path dependencyIndexOutput;
+  private final Path binaryDependencyIndexOutput;
   private final Map<String, Integer> inputHash;
   private final int maxThreads;
+  private final boolean reportAllMissing;
+  private final Set<DependencyInfo> previousDependencyInfos;
 
   public ResolverConfig(EventListener listener, String... args) throws IOException {
     Path configPath = null;
@@ -52,14 +63,27 @@ public class ResolverConfig {
     boolean fetchSources = false;
     boolean fetchJavadoc = false;
     int maxThreads = DEFAULT_MAX_THREADS;
+    boolean reportAllMissing = false;
     Path output = null;
     Path dependencyIndexOutput = null;
+    Path binaryDependencyIndexOutput = null;
     Path inputHashPath = null;
 
     if (System.getenv("RJE_MAX_THREADS") != null) {
       maxThreads = Integer.parseInt(System.getenv("RJE_MAX_THREADS"));
     }
 
+    String envReportAllMissing = System.getenv("RJE_REPORT_ALL_MISSING");
+    if (envReportAllMissing != null) {
+      reportAllMissing =
+          "1".equals(envReportAllMissing) || Boolean.parseBoolean(envReportAllMissing);
+    }
+
+    String envOffline = System.getenv("RJE_OFFLINE");
+    if (envOffline != null) {
+      request.useOfflineMode("1".equals(envOffline) || Boolean.parseBoolean(envOffline));
+    }
+
     request.useUnsafeSharedCache(true);
     String envUseUnsafeCache = System.getenv("RJE_UNSAFE_CACHE");
     if (envUseUnsafeCache != null) {
@@ -90,6 +114,10 @@ public class ResolverConfig {
           fetchJavadoc = true;
           break;
 
+        case "--offline":
+          request.useOfflineMode(true);
+          break;
+
         case "--output":
           i++;
           if (bazelWorkspaceDir == null) {
@@ -109,6 +137,15 @@ public class ResolverConfig {
           }
           break;
 
+        case "--binary-dependency-index-output":
+          i++;
+          if (bazelWorkspaceDir == null) {
+            binaryDependencyIndexOutput = Paths.get(args[i]);
+          } else {
+            binaryDependencyIndexOutput = Paths.get(bazelWorkspaceDir).resolve(args[i]);
+          }
+          break;
+
         case "--sources":
           fetchSources = true;
           break;
@@ -123,6 +160,10 @@ public class ResolverConfig {
           maxThreads = Integer.parseInt(args[i]);
           break;
 
+        case "--report-all-missing":
+          reportAllMissing = true;
+          break;
+
         case "--use_isolated_cache":
           request.useUnsafeSharedCache(false);
           break;
@@ -200,12 +241,39 @@ public class ResolverConfig {
       request.addRepository("https://repo1.maven.org/maven2/");
     }
 
+    // The lock file written by the last pin says what each artifact's hash was, which lets us
+    // look for them in caches that are addressed by content
+    this.previousDependencyInfos = readPreviousLockFile(output);
+    for (DependencyInfo info : previousDependencyInfos) {
+      info.getSha256().ifPresent(sha256 -> request.addKnownSha256(info.getCoordinates(), sha256));
+    }
+
     this.request = request;
     this.fetchSources = fetchSources;
     this.fetchJavadoc = fetchJavadoc;
     this.maxThreads = maxThreads;
+    this.reportAllMissing = reportAllMissing;
     this.output = output;
     this.dependencyIndexOutput = dependencyIndexOutput;
+    this.binaryDependencyIndexOutput = binaryDependencyIndexOutput;
+  }
+
+  private static Set<DependencyInfo> readPreviousLockFile(Path lockFile) {
+    if (lockFile == null || !Files.isRegularFile(lockFile)) {
+      return Set.of();
+    }
+    try {
+      if (LockFileShards.isSharded(lockFile)) {
+        return V3LockFile.create(LockFileShards.read(lockFile)).getDependencyInfos();
+      }
+      try (Reader reader = Files.newBufferedReader(lockFile)) {
+        return V3LockFile.create(reader).getDependencyInfos();
+      }
+    } catch (IOException | RuntimeException e) {
+      // Perhaps written by another resolver. We'll just have to download everything.
+      LOG.fine(String.format("Unable to read the previous lock file %s: %s", lockFile, e));
+      return Set.of();
+    }
   }
 
   public ResolutionRequest getResolutionRequest() {
@@ -228,6 +296,14 @@ public class ResolverConfig {
     return maxThreads;
   }
 
+  /**
+   * Whether every artifact that can't be fetched should be reported, rather than stopping at the
+   * first one.
+   */
+  public boolean isReportAllMissing() {
+    return reportAllMissing;
+  }
+
   public Map<String, Integer> getInputHash() {
     return inputHash;
   }
@@ -236,7 +312,20 @@ public class ResolverConfig {
     return output;
   }
 
+  /**
+   * The artifacts in the lock file written by the last pin, if it could be read. Most of them are
+   * likely to be in the new lock file too.
+   */
+  public Set<DependencyInfo> getPreviousDependencyInfos() {
+    return previousDependencyInfos;
+  }
+
   public Path getDependencyIndexOutput() {
     return dependencyIndexOutput;
   }
+
+  /** Where to write the dependency index in the form read by {@code BinaryDependencyIndex}. */
+  public Path getBinaryDependencyIndexOutput() {
+    return binaryDependencyIndexOutput;
+  }
 }
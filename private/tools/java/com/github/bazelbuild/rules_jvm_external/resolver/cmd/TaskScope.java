@@ -0,0 +1,117 @@
+// Copyright 2026 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.resolver.cmd;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A group of tasks that must all finish before the code that started them carries on.
+ *
+ * <p>Tasks are added as they are started and then joined together. In fail-fast mode the first
+ * failure cancels every task that is still outstanding. Otherwise every task runs to completion and
+ * all the failures are reported together. Closing the scope cancels anything still running, so no
+ * task outlives the block that created it.
+ *
+ * <p>A task is often derived from some other piece of work, such as a lookup made as part of a
+ * request for many results at once. Cancelling the derived future would leave that work running,
+ * so each task may be added along with the future it came from, and both are cancelled together.
+ */
+final class TaskScope<T> implements AutoCloseable {
+
+  private final boolean failFast;
+  private final List<CompletableFuture<T>> added = new ArrayList<>();
+  // What each task is derived from, cancelled along with it
+  private final List<Future<?>> sources = new ArrayList<>();
+  private final BlockingQueue<CompletableFuture<T>> completed = new LinkedBlockingQueue<>();
+
+  TaskScope(boolean failFast) {
+    this.failFast = failFast;
+  }
+
+  void add(CompletableFuture<T> task) {
+    add(task, task);
+  }
+
+  /**
+   * Adds {@code task}, which is derived from {@code source}, so that it is joined along with the
+   * rest of the scope. Should it need cancelling, {@code source} is cancelled too, interrupting it
+   * if it is running and its implementation of cancellation allows.
+   */
+  void add(CompletableFuture<T> task, Future<?> source) {
+    added.add(task);
+    sources.add(source);
+    task.whenComplete((result, failure) -> completed.add(task));
+  }
+
+  /**
+   * Waits for every task and returns their results in the order the tasks were added.
+   *
+   * @throws ArtifactFetchException if any task failed. In fail-fast mode this holds the first
+   *     failure only; otherwise it holds every failure.
+   */
+  List<T> join() throws InterruptedException {
+    List<Throwable> failures = new ArrayList<>();
+    for (int i = 0; i < added.size(); i++) {
+      Future<T> done = completed.take();
+      try {
+        done.get();
+      } catch (ExecutionException e) {
+        failures.add(e.getCause());
+        if (failFast) {
+          cancelOutstanding();
+          break;
+        }
+      }
+    }
+
+    if (!failures.isEmpty()) {
+      throw new ArtifactFetchException(failures);
+    }
+
+    List<T> results = new ArrayList<>(added.size());
+    for (Future<T> future : added) {
+      try {
+        results.add(future.get());
+      } catch (ExecutionException | CancellationException e) {
+        // Every task completed successfully above, so this can't happen
+        throw new IllegalStateException(e);
+      }
+    }
+    return results;
+  }
+
+  private void cancelOutstanding() {
+    // Newest first. Later tasks are likely to be queued behind earlier ones, and interrupting an
+    // earlier one first would free its thread to start a task that is about to be cancelled.
+    for (int i = added.size() - 1; i >= 0; i--) {
+      if (!added.get(i).isDone()) {
+        sources.get(i).cancel(true);
+        added.get(i).cancel(true);
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    cancelOutstanding();
+  }
+}
@@ -16,16 +16,31 @@ package com.github.bazelbuild.rules_jvm_external.resolver.events;
 
 public class LogEvent implements Event {
 
+  public enum Level {
+    INFO,
+    WARNING
+  }
+
+  private final Level level;
   private final String source;
   private final String message;
   private final String detail;
 
   public LogEvent(String source, String message, String detail) {
+    this(Level.WARNING, source, message, detail);
+  }
+
+  public LogEvent(Level level, String source, String message, String detail) {
+    this.level = level;
     this.source = source;
     this.message = message;
     this.detail = detail;
   }
 
+  public Level getLevel() {
+    return level;
+  }
+
   @Override
   public String toString() {
     StringBuilder str = new StringBuilder(source).append(": ").append(message);
@@ -77,8 +77,12 @@ public class GradleProject implements AutoCloseable {
     connection = connector.connect();
   }
 
-  /** Triggers dependency resolution by running the custom task to resolve gradle dependencies */
-  public GradleDependencyModel resolveDependencies(Map<String, String> gradleProperties) {
+  /**
+   * Triggers dependency resolution by running the custom task to resolve gradle dependencies. When
+   * {@code offline}, Gradle only uses what is already in its caches.
+   */
+  public GradleDependencyModel resolveDependencies(
+      Map<String, String> gradleProperties, boolean offline) {
     if (connection == null) {
       throw new IllegalStateException("Gradle connection not established. Call connect() first.");
     }
@@ -90,6 +94,9 @@ public class GradleProject implements AutoCloseable {
             .map(entry -> "-P" + entry.getKey() + "=" + entry.getValue())
             .collect(Collectors.toList());
     arguments.add("--init-script=" + this.initScript);
+    if (offline) {
+      arguments.add("--offline");
+    }
 
     return connection
         .model(GradleDependencyModel.class)
@@ -17,6 +17,7 @@ package com.github.bazelbuild.rules_jvm_external.resolver.gradle;
 import com.github.bazelbuild.rules_jvm_external.Coordinates;
 import com.github.bazelbuild.rules_jvm_external.resolver.Artifact;
 import com.github.bazelbuild.rules_jvm_external.resolver.Conflict;
+import com.github.bazelbuild.rules_jvm_external.resolver.OfflineResolutionException;
 import com.github.bazelbuild.rules_jvm_external.resolver.ResolutionRequest;
 import com.github.bazelbuild.rules_jvm_external.resolver.ResolutionResult;
 import com.github.bazelbuild.rules_jvm_external.resolver.ResolvedArtifact;
@@ -118,7 +119,7 @@ public class GradleResolver implements Resolver {
       Instant start = Instant.now();
       GradleDependencyModel resolved =
           project.resolveDependencies(
-              getGradleTaskProperties(repositories, project.getProjectDir()));
+              getGradleTaskProperties(repositories, project.getProjectDir()), request.isOffline());
       Instant end = Instant.now();
       if (isVerbose()) {
         System.out.println(
@@ -127,7 +128,7 @@ public class GradleResolver implements Resolver {
                 + " ms");
       }
       start = Instant.now();
-      ResolutionResult result = parseDependencies(dependencies, resolved);
+      ResolutionResult result = parseDependencies(dependencies, resolved, request.isOffline());
       end = Instant.now();
 
       if (isVerbose()) {
@@ -137,6 +138,8 @@ public class GradleResolver implements Resolver {
                 + " ms");
       }
       return result;
+    } catch (OfflineResolutionException e) {
+      throw e;
     } catch (Exception e) {
       throw new RuntimeException(e);
     }
@@ -159,7 +162,7 @@ public class GradleResolver implements Resolver {
   }
 
   private ResolutionResult parseDependencies(
-      List<GradleDependency> requestedDeps, GradleDependencyModel resolved)
+      List<GradleDependency> requestedDeps, GradleDependencyModel resolved, boolean offline)
       throws GradleDependencyResolutionException {
     MutableGraph<Coordinates> graph = GraphBuilder.directed().allowsSelfLoops(true).build();
 
@@ -251,6 +254,23 @@ public class GradleResolver implements Resolver {
             .map(c -> c.getGroupId() + ":" + c.getArtifactId())
             .collect(Collectors.toSet());
 
+    if (offline) {
+      // Anything Gradle couldn't find is missing from its caches, even if it's only needed
+      // transitively, so report the lot rather than warning as we do when online
+      Set<Coordinates> missing =
+          unresolvedDependencies.stream()
+              .filter(
+                  dep -> !resolvedGroupArtifacts.contains(dep.getGroup() + ":" + dep.getName()))
+              .map(
+                  dep ->
+                      new Coordinates(
+                          dep.getGroup() + ":" + dep.getName() + ":" + dep.getVersion()))
+              .collect(Collectors.toSet());
+      if (!missing.isEmpty()) {
+        throw new OfflineResolutionException(missing);
+      }
+    }
+
     for (GradleUnresolvedDependency dependency : unresolvedDependencies) {
       Coordinates coordinates =
           new Coordinates(
@@ -0,0 +1,415 @@
+// Copyright 2026 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.resolver.lockfile;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * A compact, binary form of a {@link DependencyIndex} that can be memory mapped and asked which
+ * artifact provides a class without reading the whole of it.
+ *
+ * <p>The file starts with a magic number, a version, and the offsets of five sections:
+ *
+ * <ol>
+ *   <li>The artifact keys. Everything else refers to artifacts by their index in this table, so
+ *       each key is only stored once.
+ *   <li>The packages found in only one artifact.
+ *   <li>For each of those packages, the index of its artifact.
+ *   <li>The fully qualified names of the classes in packages found in more than one artifact.
+ *   <li>For each of those classes, the indexes of the artifacts that contain it.
+ * </ol>
+ *
+ * <p>Each table of strings is sorted by its UTF-8 bytes and front coded in blocks of {@value
+ * #BLOCK_SIZE}: the first string of a block is stored whole, and each of the others as the length
+ * of the prefix it shares with the one before it plus what follows. The offset of each block is
+ * stored up front, so that a string is found with a binary search over the first string of each
+ * block followed by a scan of a single block.
+ *
+ * <p>Integers are big-endian. Lengths within a block are unsigned LEB128 varints.
+ */
+public final class BinaryDependencyIndex {
+
+  static final int MAGIC = 0x524a4549; // "RJEI"
+  static final int VERSION = 1;
+  static final int BLOCK_SIZE = 16;
+  private static final Comparator<String> UTF8_ORDER = BinaryDependencyIndex::compareUtf8;
+
+  private final ByteBuffer buffer;
+  private final StringTable artifacts;
+  private final StringTable packages;
+  private final int packageArtifacts;
+  private final StringTable classes;
+  private final int classArtifacts;
+
+  BinaryDependencyIndex(ByteBuffer buffer) throws IOException {
+    this.buffer = buffer;
+    if (buffer.limit() < 28 || buffer.getInt(0) != MAGIC) {
+      throw new IOException("Not a binary dependency index");
+    }
+    if (buffer.getInt(4) != VERSION) {
+      throw new IOException("Unsupported binary dependency index version: " + buffer.getInt(4));
+    }
+    this.artifacts = new StringTable(buffer, buffer.getInt(8));
+    this.packages = new StringTable(buffer, buffer.getInt(12));
+    this.packageArtifacts = buffer.getInt(16);
+    this.classes = new StringTable(buffer, buffer.getInt(20));
+    this.classArtifacts = buffer.getInt(24);
+  }
+
+  /** Maps the index at {@code path} into memory. */
+  public static BinaryDependencyIndex open(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      // The mapping stays valid once the channel is closed
+      return new BinaryDependencyIndex(
+          channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  /**
+   * Finds the artifacts that provide a class.
+   *
+   * @param className the fully qualified name of the class, such as {@code com.example.Foo}
+   * @return the keys of the artifacts, in order, or an empty list if none are known to
+   */
+  public List<String> findArtifacts(String className) {
+    Optional<String> fromPackage = findArtifactForPackage(getPackage(className));
+    if (fromPackage.isPresent()) {
+      return List.of(fromPackage.get());
+    }
+
+    int index = classes.indexOf(className);
+    if (index < 0) {
+      return List.of();
+    }
+    int start = buffer.getInt(classArtifacts + 4 * index);
+    int end = buffer.getInt(classArtifacts + 4 * (index + 1));
+    int pool = classArtifacts + 4 * (classes.size() + 1);
+    List<String> found = new ArrayList<>(end - start);
+    for (int i = start; i < end; i++) {
+      found.add(artifacts.get(buffer.getInt(pool + 4 * i)));
+    }
+    return found;
+  }
+
+  /**
+   * Finds the only artifact containing a package. Packages found in more than one artifact are
+   * indexed by class instead, and aren't found by this.
+   */
+  public Optional<String> findArtifactForPackage(String packageName) {
+    int index = packages.indexOf(packageName);
+    if (index < 0) {
+      return Optional.empty();
+    }
+    return Optional.of(artifacts.get(buffer.getInt(packageArtifacts + 4 * index)));
+  }
+
+  /** The keys of every artifact in the index, in order. */
+  public List<String> getArtifacts() {
+    List<String> all = new ArrayList<>(artifacts.size());
+    for (int i = 0; i < artifacts.size(); i++) {
+      all.add(artifacts.get(i));
+    }
+    return all;
+  }
+
+  /**
+   * Writes the {@code packages} and {@code split_package_classes} sections of a rendered {@link
+   * DependencyIndex} in the binary form.
+   */
+  static void write(Map<String, Object> rendered, OutputStream out) throws IOException {
+    Map<?, ?> packageSection = (Map<?, ?>) rendered.getOrDefault("packages", Map.of());
+    Map<?, ?> classSection = (Map<?, ?>) rendered.getOrDefault("split_package_classes", Map.of());
+
+    // The rendered index's own strings are used wherever they can be, and each is only turned into
+    // bytes as its table is written
+    TreeSet<String> artifactKeys = new TreeSet<>(UTF8_ORDER);
+    packageSection.keySet().forEach(key -> artifactKeys.add(String.valueOf(key)));
+    classSection.keySet().forEach(key -> artifactKeys.add(String.valueOf(key)));
+    Map<String, Integer> artifactIds = new HashMap<>();
+    for (String key : artifactKeys) {
+      artifactIds.put(key, artifactIds.size());
+    }
+
+    Map<String, Integer> packageToArtifact = new TreeMap<>(UTF8_ORDER);
+    for (Map.Entry<?, ?> entry : packageSection.entrySet()) {
+      Integer artifact = artifactIds.get(String.valueOf(entry.getKey()));
+      for (Object pkg : (Collection<?>) entry.getValue()) {
+        packageToArtifact.put(String.valueOf(pkg), artifact);
+      }
+    }
+    Map<String, int[]> classToArtifacts = new TreeMap<>(UTF8_ORDER);
+    for (Map.Entry<?, ?> entry : classSection.entrySet()) {
+      int artifact = artifactIds.get(String.valueOf(entry.getKey()));
+      for (Map.Entry<?, ?> pkg : ((Map<?, ?>) entry.getValue()).entrySet()) {
+        String prefix = String.valueOf(pkg.getKey()).isEmpty() ? "" : pkg.getKey() + ".";
+        for (Object simpleName : (Collection<?>) pkg.getValue()) {
+          // Most classes are only in a couple of artifacts, so these stay short
+          classToArtifacts.merge(
+              prefix + simpleName,
+              new int[] {artifact},
+              (existing, added) -> {
+                int[] merged = Arrays.copyOf(existing, existing.length + 1);
+                merged[existing.length] = added[0];
+                return merged;
+              });
+        }
+      }
+    }
+
+    byte[] artifactTable = StringTable.encode(artifactKeys);
+    byte[] packageTable = StringTable.encode(packageToArtifact.keySet());
+    ByteArrayOutputStream packageArtifacts = new ByteArrayOutputStream();
+    DataOutputStream packageData = new DataOutputStream(packageArtifacts);
+    for (int artifact : packageToArtifact.values()) {
+      packageData.writeInt(artifact);
+    }
+    byte[] classTable = StringTable.encode(classToArtifacts.keySet());
+    ByteArrayOutputStream classArtifacts = new ByteArrayOutputStream();
+    DataOutputStream classData = new DataOutputStream(classArtifacts);
+    int start = 0;
+    for (int[] containing : classToArtifacts.values()) {
+      classData.writeInt(start);
+      start += containing.length;
+    }
+    classData.writeInt(start);
+    for (int[] containing : classToArtifacts.values()) {
+      // Artifact ids follow the order of their keys
+      Arrays.sort(containing);
+      for (int artifact : containing) {
+        classData.writeInt(artifact);
+      }
+    }
+
+    DataOutputStream data = new DataOutputStream(out);
+    int offset = 28;
+    data.writeInt(MAGIC);
+    data.writeInt(VERSION);
+    data.writeInt(offset);
+    offset += artifactTable.length;
+    data.writeInt(offset);
+    offset += packageTable.length;
+    data.writeInt(offset);
+    offset += packageArtifacts.size();
+    data.writeInt(offset);
+    offset += classTable.length;
+    data.writeInt(offset);
+    data.write(artifactTable);
+    data.write(packageTable);
+    packageArtifacts.writeTo(data);
+    data.write(classTable);
+    classArtifacts.writeTo(data);
+    data.flush();
+  }
+
+  // Orders strings by their code points, which is the order of their UTF-8 bytes. Comparing them as
+  // strings would put characters outside the Basic Multilingual Plane before some inside it.
+  private static int compareUtf8(String left, String right) {
+    int length = Math.min(left.length(), right.length());
+    for (int i = 0; i < length; i++) {
+      char l = left.charAt(i);
+      char r = right.charAt(i);
+      if (l != r) {
+        if (l >= Character.MIN_SURROGATE && r >= Character.MIN_SURROGATE) {
+          // Surrogates sort after everything else in the Basic Multilingual Plane
+          l = (char) (l >= 0xe000 ? l - 0x800 : l + 0x2000);
+          r = (char) (r >= 0xe000 ? r - 0x800 : r + 0x2000);
+        }
+        return l - r;
+      }
+    }
+    return left.length() - right.length();
+  }
+
+  private static String getPackage(String className) {
+    int lastDot = className.lastIndexOf('.');
+    return lastDot == -1 ? "" : className.substring(0, lastDot);
+  }
+
+  /**
+   * A sorted, front-coded table of strings: the number of strings, the number of blocks, the offset
+   * of each block relative to the end of the offsets, and then the blocks themselves.
+   */
+  private static final class StringTable {
+    private final ByteBuffer buffer;
+    private final int size;
+    private final int blockCount;
+    private final int offsets;
+    private final int blocks;
+
+    StringTable(ByteBuffer buffer, int position) {
+      this.buffer = buffer;
+      this.size = buffer.getInt(position);
+      this.blockCount = buffer.getInt(position + 4);
+      this.offsets = position + 8;
+      this.blocks = offsets + 4 * blockCount;
+    }
+
+    int size() {
+      return size;
+    }
+
+    String get(int index) {
+      Cursor cursor = new Cursor(index / BLOCK_SIZE);
+      for (int i = index % BLOCK_SIZE; i > 0; i--) {
+        cursor.next();
+      }
+      return new String(cursor.current, 0, cursor.length, UTF_8);
+    }
+
+    /** Returns the index of {@code value}, or -1 if it isn't in the table. */
+    int indexOf(String value) {
+      byte[] key = value.getBytes(UTF_8);
+
+      // Find the last block starting with a string no greater than the key
+      int low = 0;
+      int high = blockCount - 1;
+      int block = -1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        int compared = new Cursor(mid).compareTo(key);
+        if (compared == 0) {
+          return mid * BLOCK_SIZE;
+        } else if (compared < 0) {
+          block = mid;
+          low = mid + 1;
+        } else {
+          high = mid - 1;
+        }
+      }
+      if (block < 0) {
+        return -1;
+      }
+
+      Cursor cursor = new Cursor(block);
+      int last = Math.min(size, (block + 1) * BLOCK_SIZE);
+      for (int index = block * BLOCK_SIZE + 1; index < last; index++) {
+        cursor.next();
+        int compared = cursor.compareTo(key);
+        if (compared == 0) {
+          return index;
+        } else if (compared > 0) {
+          return -1;
+        }
+      }
+      return -1;
+    }
+
+    static byte[] encode(Collection<String> sorted) throws IOException {
+      ByteArrayOutputStream blocks = new ByteArrayOutputStream();
+      List<Integer> offsets = new ArrayList<>();
+      byte[] previous = null;
+      int index = 0;
+      for (String string : sorted) {
+        byte[] value = string.getBytes(UTF_8);
+        if (index % BLOCK_SIZE == 0) {
+          offsets.add(blocks.size());
+          writeVarint(blocks, value.length);
+          blocks.write(value);
+        } else {
+          int shared = Arrays.mismatch(previous, value);
+          if (shared < 0) {
+            shared = value.length;
+          }
+          writeVarint(blocks, shared);
+          writeVarint(blocks, value.length - shared);
+          blocks.write(value, shared, value.length - shared);
+        }
+        previous = value;
+        index++;
+      }
+
+      ByteArrayOutputStream table = new ByteArrayOutputStream();
+      DataOutputStream data = new DataOutputStream(table);
+      data.writeInt(sorted.size());
+      data.writeInt(offsets.size());
+      for (int offset : offsets) {
+        data.writeInt(offset);
+      }
+      blocks.writeTo(data);
+      data.flush();
+      return table.toByteArray();
+    }
+
+    private static void writeVarint(OutputStream out, int value) throws IOException {
+      while ((value & ~0x7f) != 0) {
+        out.write((value & 0x7f) | 0x80);
+        value >>>= 7;
+      }
+      out.write(value);
+    }
+
+    /** Decodes the strings of a block one at a time, reusing a single buffer. */
+    private final class Cursor {
+      private byte[] current = new byte[64];
+      private int length;
+      private int position;
+
+      Cursor(int block) {
+        position = blocks + buffer.getInt(offsets + 4 * block);
+        length = 0;
+        append(readVarint());
+      }
+
+      void next() {
+        length = readVarint();
+        append(readVarint());
+      }
+
+      // Copies `count` bytes from the table onto the end of the current string
+      private void append(int count) {
+        if (length + count > current.length) {
+          current = Arrays.copyOf(current, Math.max(current.length * 2, length + count));
+        }
+        for (int i = 0; i < count; i++) {
+          current[length++] = buffer.get(position++);
+        }
+      }
+
+      int compareTo(byte[] key) {
+        return Arrays.compareUnsigned(current, 0, length, key, 0, key.length);
+      }
+
+      private int readVarint() {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+          byte b = buffer.get(position++);
+          value |= (b & 0x7f) << shift;
+          if ((b & 0x80) == 0) {
+            return value;
+          }
+        }
+      }
+    }
+  }
+}
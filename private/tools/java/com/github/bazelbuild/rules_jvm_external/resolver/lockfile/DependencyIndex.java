@@ -16,6 +16,8 @@ package com.github.bazelbuild.rules_jvm_external.resolver.lockfile;
 
 import com.github.bazelbuild.rules_jvm_external.Coordinates;
 import com.github.bazelbuild.rules_jvm_external.resolver.DependencyInfo;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
@@ -146,6 +148,23 @@ public class DependencyIndex {
     return index;
   }
 
+  /**
+   * Writes the index in the form read by {@link BinaryDependencyIndex}, which answers lookups
+   * without needing to parse the whole of it.
+   */
+  public void writeBinary(OutputStream out) throws IOException {
+    writeBinary(render(), out);
+  }
+
+  /**
+   * Writes an index that has already been rendered by {@link #render()} in the form read by {@link
+   * BinaryDependencyIndex}, so that it needn't be rendered again when it is also written as JSON.
+   */
+  public static void writeBinary(Map<String, Object> rendered, OutputStream out)
+      throws IOException {
+    BinaryDependencyIndex.write(rendered, out);
+  }
+
   private static String asKey(Coordinates coords) {
     return coords.asKey().toString();
   }
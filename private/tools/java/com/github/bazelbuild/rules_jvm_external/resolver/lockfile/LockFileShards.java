@@ -0,0 +1,309 @@
+// Copyright 2026 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.resolver.lockfile;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Splits a lock file or dependency index into a small manifest and a set of shards, so that
+ * whatever reads it only needs to decode the parts it uses.
+ *
+ * <p>Anything keyed by artifact ({@code artifacts}, {@code dependencies}, {@code services} and the
+ * artifacts listed under each of the {@code repositories}) is split up by group, with one shard per
+ * group. The package and class indexes and the conflicts each get a shard of their own. Everything
+ * else stays in the manifest, which keeps an empty entry for each section that was split up by
+ * group, so that it still looks like a lock file. It also gains a {@code shards} entry:
+ *
+ * <pre>
+ * "shards": {
+ *   "groups": {
+ *     "com.google.guava": "maven_install.shards/groups/com.google.guava.json"
+ *   },
+ *   "sections": {
+ *     "packages": "maven_install.shards/packages.json"
+ *   }
+ * }
+ * </pre>
+ *
+ * <p>Paths are relative to the directory holding the manifest. A group's shard holds an object
+ * with that group's part of each section, and a section's shard holds the section itself. Joining
+ * the shards back together gives exactly what would have been written to a single file.
+ */
+public final class LockFileShards {
+
+  private static final Gson GSON = new GsonBuilder().setPrettyPrinting().serializeNulls().create();
+  private static final Set<String> GROUPED =
+      Set.of("artifacts", "dependencies", "repositories", "services");
+  private static final Set<String> SEPARATE =
+      Set.of("conflict_resolution", "packages", "split_package_classes");
+
+  private LockFileShards() {
+    // Utility class
+  }
+
+  /** The directory that the shards of {@code manifest} are kept in. */
+  public static Path getShardDirectory(Path manifest) {
+    String name = manifest.getFileName().toString();
+    if (name.endsWith(".json")) {
+      name = name.substring(0, name.length() - ".json".length());
+    }
+    return manifest.resolveSibling(name + ".shards");
+  }
+
+  /**
+   * Writes {@code contents} as a manifest at {@code manifest} and shards in {@link
+   * #getShardDirectory(Path)}, removing any shards left over from before.
+   */
+  public static void write(Path manifest, Map<String, ?> contents) throws IOException {
+    Path directory = getShardDirectory(manifest);
+    Map<String, Object> shards = new TreeMap<>();
+    Map<String, Object> split = split(contents, directory.getFileName().toString(), shards);
+
+    Set<Path> written = new HashSet<>();
+    for (Map.Entry<String, Object> shard : shards.entrySet()) {
+      Path path = manifest.resolveSibling(shard.getKey());
+      Files.createDirectories(path.getParent());
+      writeJson(path, shard.getValue());
+      written.add(path);
+    }
+    if (Files.isDirectory(directory)) {
+      List<Path> stale;
+      try (Stream<Path> paths = Files.walk(directory)) {
+        stale =
+            paths
+                .filter(path -> Files.isRegularFile(path) && !written.contains(path))
+                .filter(path -> path.getFileName().toString().endsWith(".json"))
+                .collect(Collectors.toList());
+      }
+      for (Path path : stale) {
+        Files.delete(path);
+      }
+    }
+
+    // Last, so that the manifest never points at shards that aren't there yet
+    writeJson(manifest, split);
+  }
+
+  /** Reads the file at {@code manifest}, along with its shards if it has any. */
+  public static Map<String, Object> read(Path manifest) throws IOException {
+    return join(readJson(manifest), path -> readJson(manifest.resolveSibling(path)));
+  }
+
+  /**
+   * Whether the file at {@code path} is a manifest, rather than a whole lock file.
+   *
+   * <p>A manifest leaves the sections split up by group empty, and {@code artifacts} comes before
+   * nearly everything else in a lock file, so this can usually tell a whole lock file apart after
+   * reading only a few tokens of it, rather than skipping through all of it looking for {@code
+   * shards}.
+   */
+  public static boolean isSharded(Path path) throws IOException {
+    try (Reader reader = Files.newBufferedReader(path);
+        JsonReader json = new JsonReader(reader)) {
+      json.beginObject();
+      while (json.hasNext()) {
+        String name = json.nextName();
+        if ("shards".equals(name)) {
+          return true;
+        }
+        // The manifest keeps an entry for each of its repositories, so only the others are empty
+        if (GROUPED.contains(name)
+            && !"repositories".equals(name)
+            && json.peek() == JsonToken.BEGIN_OBJECT) {
+          json.beginObject();
+          if (json.hasNext()) {
+            return false;
+          }
+          json.endObject();
+        } else {
+          json.skipValue();
+        }
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Splits {@code contents} up, putting each shard in {@code shards} keyed by its path relative to
+   * the manifest.
+   *
+   * @param directory the path of the directory to put the shards in, relative to the manifest
+   * @return the manifest
+   */
+  static Map<String, Object> split(
+      Map<String, ?> contents, String directory, Map<String, Object> shards) {
+    Map<String, Object> manifest = new TreeMap<>();
+    Map<String, String> sections = new TreeMap<>();
+    Map<String, Map<String, Map<String, Object>>> groups = new TreeMap<>();
+
+    for (Map.Entry<String, ?> entry : contents.entrySet()) {
+      String name = entry.getKey();
+      Object value = entry.getValue();
+
+      if (SEPARATE.contains(name) && value != null) {
+        String path = directory + "/" + name + ".json";
+        shards.put(path, value);
+        sections.put(name, path);
+      } else if ("repositories".equals(name) && value instanceof Map) {
+        Map<String, Object> repos = new LinkedHashMap<>();
+        for (Map.Entry<?, ?> repo : ((Map<?, ?>) value).entrySet()) {
+          String repoName = String.valueOf(repo.getKey());
+          repos.put(repoName, List.of());
+          for (Object key : asCollection(repo.getValue())) {
+            @SuppressWarnings("unchecked")
+            List<Object> keys =
+                (List<Object>)
+                    getSection(groups, getGroup(key), name)
+                        .computeIfAbsent(repoName, k -> new ArrayList<>());
+            keys.add(key);
+          }
+        }
+        manifest.put(name, repos);
+      } else if (GROUPED.contains(name) && value instanceof Map) {
+        for (Map.Entry<?, ?> item : ((Map<?, ?>) value).entrySet()) {
+          getSection(groups, getGroup(item.getKey()), name)
+              .put(String.valueOf(item.getKey()), item.getValue());
+        }
+        manifest.put(name, Map.of());
+      } else {
+        manifest.put(name, value);
+      }
+    }
+
+    Map<String, String> groupPaths = new TreeMap<>();
+    for (Map.Entry<String, Map<String, Map<String, Object>>> group : groups.entrySet()) {
+      String path = directory + "/groups/" + group.getKey() + ".json";
+      shards.put(path, group.getValue());
+      groupPaths.put(group.getKey(), path);
+    }
+
+    Map<String, Object> index = new TreeMap<>();
+    index.put("groups", groupPaths);
+    index.put("sections", sections);
+    manifest.put("shards", index);
+    return manifest;
+  }
+
+  /**
+   * Puts a manifest and its shards back together. Anything without shards is returned as it is.
+   */
+  static Map<String, Object> join(Map<String, Object> manifest, ShardReader reader)
+      throws IOException {
+    if (!(manifest.get("shards") instanceof Map)) {
+      return manifest;
+    }
+    Map<?, ?> index = (Map<?, ?>) manifest.get("shards");
+
+    Map<String, Object> joined = new TreeMap<>(manifest);
+    joined.remove("shards");
+    for (Map.Entry<?, ?> section : asMap(index.get("sections")).entrySet()) {
+      joined.put(String.valueOf(section.getKey()), reader.read(String.valueOf(section.getValue())));
+    }
+
+    Map<String, Map<String, Object>> grouped = new TreeMap<>();
+    Map<String, Set<String>> repos = new LinkedHashMap<>();
+    asMap(manifest.get("repositories"))
+        .keySet()
+        .forEach(repo -> repos.put(String.valueOf(repo), new TreeSet<>()));
+    for (Object path : asMap(index.get("groups")).values()) {
+      Map<?, ?> group = asMap(reader.read(String.valueOf(path)));
+      for (Map.Entry<?, ?> section : group.entrySet()) {
+        if ("repositories".equals(section.getKey())) {
+          for (Map.Entry<?, ?> repo : asMap(section.getValue()).entrySet()) {
+            Set<String> keys =
+                repos.computeIfAbsent(String.valueOf(repo.getKey()), k -> new TreeSet<>());
+            asCollection(repo.getValue()).forEach(key -> keys.add(String.valueOf(key)));
+          }
+        } else {
+          Map<String, Object> entries =
+              grouped.computeIfAbsent(String.valueOf(section.getKey()), k -> new TreeMap<>());
+          asMap(section.getValue())
+              .forEach((key, value) -> entries.put(String.valueOf(key), value));
+        }
+      }
+    }
+    joined.putAll(grouped);
+    if (joined.containsKey("repositories")) {
+      Map<String, List<String>> repositories = new LinkedHashMap<>();
+      repos.forEach((repo, keys) -> repositories.put(repo, new ArrayList<>(keys)));
+      joined.put("repositories", repositories);
+    }
+    return joined;
+  }
+
+  private static Map<String, Object> getSection(
+      Map<String, Map<String, Map<String, Object>>> groups, String group, String section) {
+    return groups
+        .computeIfAbsent(group, g -> new TreeMap<>())
+        .computeIfAbsent(section, s -> new TreeMap<>());
+  }
+
+  // Keys look like `group:artifact[:extension[:classifier]]`
+  private static String getGroup(Object key) {
+    String asString = String.valueOf(key);
+    int index = asString.indexOf(':');
+    return index == -1 ? asString : asString.substring(0, index);
+  }
+
+  private static Map<?, ?> asMap(Object value) {
+    return value instanceof Map ? (Map<?, ?>) value : Map.of();
+  }
+
+  private static Collection<?> asCollection(Object value) {
+    return value instanceof Collection ? (Collection<?>) value : List.of();
+  }
+
+  private static Map<String, Object> readJson(Path path) throws IOException {
+    try (Reader reader = Files.newBufferedReader(path)) {
+      Map<String, Object> read =
+          GSON.fromJson(reader, new TypeToken<Map<String, Object>>() {}.getType());
+      return read == null ? Map.of() : read;
+    }
+  }
+
+  private static void writeJson(Path path, Object value) throws IOException {
+    try (Writer writer = Files.newBufferedWriter(path, UTF_8)) {
+      writer.write(GSON.toJson(value));
+      writer.write("\n");
+    }
+  }
+
+  @FunctionalInterface
+  interface ShardReader {
+    Object read(String path) throws IOException;
+  }
+}
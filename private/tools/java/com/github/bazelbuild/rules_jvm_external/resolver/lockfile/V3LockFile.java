@@ -20,19 +20,33 @@ import com.github.bazelbuild.rules_jvm_external.Coordinates;
 import com.github.bazelbuild.rules_jvm_external.resolver.Conflict;
 import com.github.bazelbuild.rules_jvm_external.resolver.DependencyInfo;
 import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /** Format resolution results into the v2 lock file format. */
@@ -68,61 +82,153 @@ public class V3LockFile {
     return conflicts;
   }
 
-  @SuppressWarnings("unchecked")
   public static V3LockFile create(String from) {
-    Map<?, ?> raw = new Gson().fromJson(from, Map.class);
+    try {
+      return create(new StringReader(from));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
 
-    Set<URI> repos = new LinkedHashSet<>();
-    Map<String, Collection<String>> allRepos =
-        (Map<String, Collection<String>>) raw.get("repositories");
-    if (allRepos == null) {
-      allRepos = Map.of();
+  /**
+   * Reads a lock file a token at a time, rather than parsing the whole of it into maps first, and
+   * indexes the artifacts by key so that each section is only read through once.
+   */
+  public static V3LockFile create(Reader from) throws IOException {
+    Map<String, List<String>> allRepos = new LinkedHashMap<>();
+    boolean isUsingM2Local = false;
+    Map<String, Map<String, String>> artifactShasums = new LinkedHashMap<>();
+    Map<String, String> artifactVersions = new HashMap<>();
+    Map<String, List<String>> rawDependencies = new LinkedHashMap<>();
+    Map<String, String> rawConflicts = new LinkedHashMap<>();
+
+    JsonReader json = new JsonReader(from);
+    json.beginObject();
+    while (json.hasNext()) {
+      switch (json.nextName()) {
+        case "artifacts":
+          readArtifacts(json, artifactShasums, artifactVersions);
+          break;
+
+        case "conflict_resolution":
+          readObject(json, name -> rawConflicts.put(name, readString(json)));
+          break;
+
+        case "dependencies":
+          readObject(json, name -> rawDependencies.put(name, readStrings(json)));
+          break;
+
+        case "m2local":
+          if (json.peek() == JsonToken.BOOLEAN) {
+            isUsingM2Local = json.nextBoolean();
+          } else {
+            json.skipValue();
+          }
+          break;
+
+        case "repositories":
+          readObject(json, name -> allRepos.put(name, readStrings(json)));
+          break;
+
+        default:
+          json.skipValue();
+      }
     }
+    json.endObject();
+
+    return create(
+        allRepos,
+        isUsingM2Local,
+        artifactShasums,
+        artifactVersions,
+        rawDependencies,
+        rawConflicts);
+  }
+
+  /**
+   * Reads a lock file that has already been parsed, such as one put back together from its
+   * shards, without turning it back into JSON first.
+   */
+  public static V3LockFile create(Map<String, ?> from) {
+    Map<String, List<String>> allRepos = new LinkedHashMap<>();
+    asMap(from.get("repositories"))
+        .forEach((name, keys) -> allRepos.put(String.valueOf(name), asStrings(keys)));
+
+    Map<String, Map<String, String>> artifactShasums = new LinkedHashMap<>();
+    Map<String, String> artifactVersions = new HashMap<>();
+    asMap(from.get("artifacts"))
+        .forEach(
+            (key, value) -> {
+              Map<?, ?> artifact = asMap(value);
+              Map<String, String> shasums = new LinkedHashMap<>();
+              asMap(artifact.get("shasums"))
+                  .forEach(
+                      (classifier, sha) -> shasums.put(String.valueOf(classifier), asString(sha)));
+              artifactShasums.put(String.valueOf(key), shasums);
+              artifactVersions.put(String.valueOf(key), asString(artifact.get("version")));
+            });
+
+    Map<String, List<String>> rawDependencies = new LinkedHashMap<>();
+    asMap(from.get("dependencies"))
+        .forEach((key, deps) -> rawDependencies.put(String.valueOf(key), asStrings(deps)));
+
+    Map<String, String> rawConflicts = new LinkedHashMap<>();
+    asMap(from.get("conflict_resolution"))
+        .forEach(
+            (requested, resolved) ->
+                rawConflicts.put(String.valueOf(requested), asString(resolved)));
+
+    return create(
+        allRepos,
+        Boolean.TRUE.equals(from.get("m2local")),
+        artifactShasums,
+        artifactVersions,
+        rawDependencies,
+        rawConflicts);
+  }
+
+  private static V3LockFile create(
+      Map<String, List<String>> allRepos,
+      boolean isUsingM2Local,
+      Map<String, Map<String, String>> artifactShasums,
+      Map<String, String> artifactVersions,
+      Map<String, List<String>> rawDependencies,
+      Map<String, String> rawConflicts) {
+    Set<URI> repos = new LinkedHashSet<>();
     allRepos.keySet().stream().map(URI::create).forEach(repos::add);
-    if (Boolean.TRUE.equals(raw.get("m2local"))) {
+    if (isUsingM2Local) {
       repos.add(M2_LOCAL_URI);
     }
 
     // Get all the coordinates out of the lock file
     Map<Coordinates, String> coords2Shasum = new LinkedHashMap<>();
-    Map<String, Coordinates> key2Coords = new LinkedHashMap<>();
-    Map<?, ?> artifactsMap = (Map<?, ?>) raw.get("artifacts");
-    if (artifactsMap == null) {
-      artifactsMap = Map.of();
-    }
-    for (Map.Entry<?, ?> entry : artifactsMap.entrySet()) {
-      String key = entry.getKey().toString();
-
-      Map<?, ?> entryData = (Map<?, ?>) entry.getValue();
-      String version = (String) entryData.get("version");
+    Map<String, Coordinates> key2Coords = new HashMap<>();
+    // Several artifacts may share a key, so this can't just be the inverse of key2Coords
+    Map<String, List<Coordinates>> coordsByKey = new HashMap<>();
+    for (Map.Entry<String, Map<String, String>> entry : artifactShasums.entrySet()) {
+      String key = entry.getKey();
+      String version = artifactVersions.get(key);
 
       String[] parts = key.split(":", 3);
       Coordinates baseCoords =
           parts.length == 2
               ? new Coordinates(parts[0], parts[1], null, null, version)
-              : new Coordinates(parts[0], parts[1], parts[3], null, version);
+              : new Coordinates(parts[0], parts[1], parts[2], null, version);
 
-      Map<?, ?> shasums = (Map<?, ?>) entryData.get("shasums");
-      if (shasums == null) {
-        shasums = Map.of();
-      }
-      for (Map.Entry<?, ?> shasum : shasums.entrySet()) {
+      for (Map.Entry<String, String> shasum : entry.getValue().entrySet()) {
         if (shasum.getValue() != null) {
-          Coordinates newCoords = baseCoords.setClassifier((String) shasum.getKey());
-          coords2Shasum.put(newCoords, (String) shasum.getValue());
+          Coordinates newCoords = baseCoords.setClassifier(shasum.getKey());
+          if (coords2Shasum.put(newCoords, shasum.getValue()) == null) {
+            coordsByKey.computeIfAbsent(newCoords.asKey(), k -> new ArrayList<>()).add(newCoords);
+          }
           key2Coords.put(newCoords.asKey(), newCoords);
         }
       }
     }
 
     // Map dependencies back
-    Map<String, Collection<String>> rawDependencies =
-        (Map<String, Collection<String>>) raw.get("dependencies");
-    if (rawDependencies == null) {
-      rawDependencies = Map.of();
-    }
-    Map<Coordinates, Set<Coordinates>> dependencies = new LinkedHashMap<>();
-    for (Map.Entry<String, Collection<String>> entry : rawDependencies.entrySet()) {
+    Map<Coordinates, Set<Coordinates>> dependencies = new HashMap<>();
+    for (Map.Entry<String, List<String>> entry : rawDependencies.entrySet()) {
       Coordinates coords = key2Coords.get(entry.getKey());
       if (coords == null) {
         System.err.println("Unable to find mapping for " + entry.getKey());
@@ -139,11 +245,11 @@ public class V3LockFile {
     }
 
     // Now find out which repositories contain which artifacts
-    Map<Coordinates, Set<URI>> coords2Repos = new LinkedHashMap<>();
-    for (Map.Entry<String, Collection<String>> entry : allRepos.entrySet()) {
+    Map<Coordinates, Set<URI>> coords2Repos = new HashMap<>();
+    for (Map.Entry<String, List<String>> entry : allRepos.entrySet()) {
       URI repo = URI.create(entry.getKey());
-      for (Coordinates coords : coords2Shasum.keySet()) {
-        if (entry.getValue().contains(coords.asKey())) {
+      for (String key : entry.getValue()) {
+        for (Coordinates coords : coordsByKey.getOrDefault(key, List.of())) {
           coords2Repos.computeIfAbsent(coords, k -> new HashSet<>()).add(repo);
         }
       }
@@ -167,10 +273,6 @@ public class V3LockFile {
 
     // Finally, gather the conflicts
     Set<Conflict> conflicts = new HashSet<>();
-    Map<String, String> rawConflicts = (Map<String, String>) raw.get("conflict_resolution");
-    if (rawConflicts == null) {
-      rawConflicts = Map.of();
-    }
     for (Map.Entry<String, String> entry : rawConflicts.entrySet()) {
       Coordinates requested = new Coordinates(entry.getKey());
       Coordinates resolved = new Coordinates(entry.getValue());
@@ -180,77 +282,104 @@ public class V3LockFile {
     return new V3LockFile(repos, infos, conflicts, true);
   }
 
+  private static void readArtifacts(
+      JsonReader json,
+      Map<String, Map<String, String>> artifactShasums,
+      Map<String, String> artifactVersions)
+      throws IOException {
+    readObject(
+        json,
+        key -> {
+          Map<String, String> shasums = new LinkedHashMap<>();
+          artifactShasums.put(key, shasums);
+          readObject(
+              json,
+              field -> {
+                if ("version".equals(field)) {
+                  artifactVersions.put(key, readString(json));
+                } else if ("shasums".equals(field)) {
+                  readObject(json, classifier -> shasums.put(classifier, readString(json)));
+                } else {
+                  json.skipValue();
+                }
+              });
+        });
+  }
+
+  // Calls readEntry with the name of each entry in an object, which must then read the value. A
+  // null is read as if it were an empty object.
+  private static void readObject(JsonReader json, EntryReader readEntry) throws IOException {
+    if (json.peek() == JsonToken.NULL) {
+      json.nextNull();
+      return;
+    }
+    json.beginObject();
+    while (json.hasNext()) {
+      readEntry.read(json.nextName());
+    }
+    json.endObject();
+  }
+
+  private static List<String> readStrings(JsonReader json) throws IOException {
+    List<String> strings = new ArrayList<>();
+    if (json.peek() == JsonToken.NULL) {
+      json.nextNull();
+      return strings;
+    }
+    json.beginArray();
+    while (json.hasNext()) {
+      strings.add(readString(json));
+    }
+    json.endArray();
+    return strings;
+  }
+
+  private static String readString(JsonReader json) throws IOException {
+    if (json.peek() == JsonToken.NULL) {
+      json.nextNull();
+      return null;
+    }
+    return json.nextString();
+  }
+
+  private static Map<?, ?> asMap(Object value) {
+    return value instanceof Map ? (Map<?, ?>) value : Map.of();
+  }
+
+  private static List<String> asStrings(Object value) {
+    List<String> strings = new ArrayList<>();
+    if (value instanceof Collection) {
+      ((Collection<?>) value).forEach(item -> strings.add(asString(item)));
+    }
+    return strings;
+  }
+
+  private static String asString(Object value) {
+    return value == null ? null : String.valueOf(value);
+  }
+
+  @FunctionalInterface
+  private interface EntryReader {
+    void read(String name) throws IOException;
+  }
+
   public Map<String, Object> render() {
     Set<URI> repositories = new LinkedHashSet<>(allRepos);
 
     boolean isUsingM2Local = repositories.stream().anyMatch(M2_LOCAL_URI::equals);
 
-    Map<String, Map<String, Object>> artifacts = new TreeMap<>();
-    Map<String, Set<String>> deps = new TreeMap<>();
     Map<String, Set<String>> packages = new TreeMap<>();
     Map<String, Map<String, SortedSet<String>>> services = new TreeMap<>();
-    Map<String, Set<String>> repos = new LinkedHashMap<>();
-    repositories.stream()
-        .filter(r -> !M2_LOCAL_URI.equals(r))
-        .forEach(r -> repos.put(stripAuthenticationInformation(r), new TreeSet<>()));
-
     Set<String> skipped = new TreeSet<>();
     Map<String, String> files = new TreeMap<>();
 
     infos.forEach(
         info -> {
-          Coordinates coords = info.getCoordinates();
-          String key = coords.asKey();
-
-          // The short key is the group:artifact[:extension] tuple. The classifier
-          // is used as a key in the shasum dict, and the version is also stored
-          // in the same dict as the shasums. In the common case where we have
-          // multiple `jar` artifacts, this means that we group all the classifiers
-          // together.
-          String shortKey = coords.getGroupId() + ":" + coords.getArtifactId();
-          if (coords.getExtension() != null
-              && !coords.getExtension().isEmpty()
-              && !"jar".equals(coords.getExtension())) {
-            shortKey += ":" + coords.getExtension();
-          }
+          String key = info.getCoordinates().asKey();
 
           if (info.getSha256().isEmpty()) {
             skipped.add(key);
           }
-
-          Map<String, Object> artifactValue =
-              artifacts.computeIfAbsent(shortKey, k -> new TreeMap<>());
-          artifactValue.put("version", coords.getVersion());
-
-          String classifier;
-          if (coords.getClassifier() == null || coords.getClassifier().isEmpty()) {
-            classifier = "jar";
-          } else {
-            classifier = coords.getClassifier();
-          }
-          @SuppressWarnings("unchecked")
-          Map<String, String> shasums =
-              (Map<String, String>) artifactValue.computeIfAbsent("shasums", k -> new TreeMap<>());
-          if (info.getSha256().isPresent()) {
-            shasums.put(classifier, info.getSha256().get());
-          } else {
-            shasums.putIfAbsent(classifier, null);
-          }
-
-          info.getRepositories()
-              .forEach(
-                  repo -> {
-                    repos
-                        .getOrDefault(stripAuthenticationInformation(repo), new TreeSet<>())
-                        .add(key);
-                  });
-
-          deps.put(
-              key,
-              info.getDependencies().stream()
-                  .map(Coordinates::asKey)
-                  .map(Object::toString)
-                  .collect(Collectors.toCollection(TreeSet::new)));
           if (renderPackages) {
             packages.put(key, info.getPackages());
           }
@@ -263,8 +392,8 @@ public class V3LockFile {
         });
 
     Map<String, Object> lock = new LinkedHashMap<>();
-    lock.put("artifacts", ensureArtifactsAllHaveAtLeastOneShaSum(artifacts));
-    lock.put("dependencies", removeEmptyItems(deps));
+    lock.put("artifacts", renderArtifacts());
+    lock.put("dependencies", renderDependencies());
     if (renderPackages) {
       lock.put("packages", removeEmptyItems(packages));
     }
@@ -272,9 +401,7 @@ public class V3LockFile {
     if (isUsingM2Local) {
       lock.put("m2local", true);
     }
-    // repos is a LinkedHashSet which is iterated in insertion order.
-    // Meaning the order from the Starlark repositories array will be preserved.
-    lock.put("repositories", repos);
+    lock.put("repositories", renderRepositories(repositories));
 
     lock.put("skipped", skipped);
     if (conflicts != null && !conflicts.isEmpty()) {
@@ -293,6 +420,337 @@ public class V3LockFile {
     return lock;
   }
 
+  /**
+   * Renders just the {@code artifacts}, {@code dependencies} and {@code repositories} sections,
+   * exactly as {@link #render()} does. They are all that the lock file's hashes and digests cover,
+   * so those can be calculated without working out everything else, such as the packages.
+   */
+  public Map<String, Object> renderHashedSections() {
+    Map<String, Object> lock = new LinkedHashMap<>();
+    lock.put("artifacts", renderArtifacts());
+    lock.put("dependencies", renderDependencies());
+    lock.put("repositories", renderRepositories(new LinkedHashSet<>(allRepos)));
+    return lock;
+  }
+
+  private Map<String, Map<String, Object>> renderArtifacts() {
+    Map<String, Map<String, Object>> artifacts = new TreeMap<>();
+    for (DependencyInfo info : infos) {
+      Coordinates coords = info.getCoordinates();
+
+      // The short key is the group:artifact[:extension] tuple. The classifier
+      // is used as a key in the shasum dict, and the version is also stored
+      // in the same dict as the shasums. In the common case where we have
+      // multiple `jar` artifacts, this means that we group all the classifiers
+      // together.
+      String shortKey = getShortKey(coords);
+
+      Map<String, Object> artifactValue = artifacts.computeIfAbsent(shortKey, k -> new TreeMap<>());
+      artifactValue.put("version", coords.getVersion());
+
+      String classifier;
+      if (coords.getClassifier() == null || coords.getClassifier().isEmpty()) {
+        classifier = "jar";
+      } else {
+        classifier = coords.getClassifier();
+      }
+      @SuppressWarnings("unchecked")
+      Map<String, String> shasums =
+          (Map<String, String>) artifactValue.computeIfAbsent("shasums", k -> new TreeMap<>());
+      if (info.getSha256().isPresent()) {
+        shasums.put(classifier, info.getSha256().get());
+      } else {
+        shasums.putIfAbsent(classifier, null);
+      }
+    }
+    return ensureArtifactsAllHaveAtLeastOneShaSum(artifacts);
+  }
+
+  private Map<String, Set<String>> renderDependencies() {
+    Map<String, Set<String>> deps = new TreeMap<>();
+    for (DependencyInfo info : infos) {
+      deps.put(
+          info.getCoordinates().asKey(),
+          info.getDependencies().stream()
+              .map(Coordinates::asKey)
+              .map(Object::toString)
+              .collect(Collectors.toCollection(TreeSet::new)));
+    }
+    return removeEmptyItems(deps);
+  }
+
+  private Map<String, Set<String>> renderRepositories(Set<URI> repositories) {
+    Map<String, Set<String>> repos = new LinkedHashMap<>();
+    repositories.stream()
+        .filter(r -> !M2_LOCAL_URI.equals(r))
+        .forEach(r -> repos.put(stripAuthenticationInformation(r), new TreeSet<>()));
+    for (DependencyInfo info : infos) {
+      String key = info.getCoordinates().asKey();
+      info.getRepositories()
+          .forEach(
+              repo -> {
+                repos.getOrDefault(stripAuthenticationInformation(repo), new TreeSet<>()).add(key);
+              });
+    }
+    // repos is a LinkedHashMap which is iterated in insertion order.
+    // Meaning the order from the Starlark repositories array will be preserved.
+    return repos;
+  }
+
+  /**
+   * Writes the lock file as JSON, along with the given extra top level entries. This is exactly
+   * what pretty printing the output of {@link #render()} (without the {@code files}, which aren't
+   * kept in the lock file) and the extra entries with Gson would give, but each section is written
+   * as it's worked out from the dependency infos, rather than building the whole document in
+   * memory first.
+   */
+  public void write(Writer writer, Map<String, ?> extra) throws IOException {
+    List<Row> rows = new ArrayList<>(infos.size());
+    for (DependencyInfo info : infos) {
+      rows.add(new Row(rows.size(), info));
+    }
+
+    // The last info for each key wins, just as when the sections are put in maps
+    List<Row> byKey = new ArrayList<>(rows);
+    byKey.sort(Comparator.comparing((Row row) -> row.key).thenComparingInt(row -> row.position));
+    List<Row> byShortKey = new ArrayList<>(rows);
+    byShortKey.sort(
+        Comparator.comparing((Row row) -> row.shortKey)
+            .thenComparing(row -> row.classifier)
+            .thenComparingInt(row -> row.position));
+
+    Set<URI> repositories = new LinkedHashSet<>(allRepos);
+    Map<String, Section> sections = new TreeMap<>();
+    sections.put("artifacts", json -> writeArtifacts(json, byShortKey));
+    if (conflicts != null && !conflicts.isEmpty()) {
+      sections.put("conflict_resolution", this::writeConflicts);
+    }
+    sections.put(
+        "dependencies",
+        json ->
+            writeLastOfEachKey(
+                json,
+                byKey,
+                info ->
+                    info.getDependencies().stream()
+                        .map(Coordinates::asKey)
+                        .map(Object::toString)
+                        .collect(Collectors.toCollection(TreeSet::new)),
+                V3LockFile::writeStrings));
+    if (repositories.stream().anyMatch(M2_LOCAL_URI::equals)) {
+      sections.put("m2local", json -> json.value(true));
+    }
+    if (renderPackages) {
+      sections.put(
+          "packages",
+          json ->
+              writeLastOfEachKey(
+                  json, byKey, DependencyInfo::getPackages, V3LockFile::writeStrings));
+    }
+    sections.put("repositories", json -> writeRepositories(json, repositories, byKey));
+    sections.put(
+        "services",
+        json ->
+            writeLastOfEachKey(
+                json,
+                byKey,
+                DependencyInfo::getServices,
+                (out, services) -> {
+                  out.beginObject();
+                  for (Map.Entry<String, SortedSet<String>> entry : services.entrySet()) {
+                    out.name(entry.getKey());
+                    writeStrings(out, entry.getValue());
+                  }
+                  out.endObject();
+                }));
+    sections.put("skipped", json -> writeSkipped(json, byKey));
+    sections.put("version", json -> json.value("3"));
+
+    Gson gson = new GsonBuilder().serializeNulls().create();
+    extra.forEach(
+        (name, value) ->
+            sections.put(
+                name,
+                json -> {
+                  if (value == null) {
+                    json.nullValue();
+                  } else {
+                    gson.toJson(value, value.getClass(), json);
+                  }
+                }));
+
+    // Configured the same way as Gson's own writer when pretty printing
+    JsonWriter json = new JsonWriter(writer);
+    json.setIndent("  ");
+    json.setHtmlSafe(true);
+    json.setSerializeNulls(true);
+    json.beginObject();
+    for (Map.Entry<String, Section> section : sections.entrySet()) {
+      json.name(section.getKey());
+      section.getValue().write(json);
+    }
+    json.endObject();
+    json.flush();
+    writer.write("\n");
+    writer.flush();
+  }
+
+  private static void writeArtifacts(JsonWriter json, List<Row> byShortKey) throws IOException {
+    json.beginObject();
+    int start = 0;
+    while (start < byShortKey.size()) {
+      String shortKey = byShortKey.get(start).shortKey;
+      int end = start;
+      Row latest = byShortKey.get(start);
+      while (end < byShortKey.size() && byShortKey.get(end).shortKey.equals(shortKey)) {
+        if (byShortKey.get(end).position > latest.position) {
+          latest = byShortKey.get(end);
+        }
+        end++;
+      }
+
+      json.name(shortKey).beginObject();
+      json.name("shasums").beginObject();
+      for (int i = start; i < end; ) {
+        String classifier = byShortKey.get(i).classifier;
+        // A known hash replaces an earlier one, but a missing hash never replaces anything
+        String sha256 = null;
+        for (; i < end && byShortKey.get(i).classifier.equals(classifier); i++) {
+          sha256 = byShortKey.get(i).info.getSha256().orElse(sha256);
+        }
+        json.name(classifier).value(sha256);
+      }
+      json.endObject();
+      json.name("version").value(latest.info.getCoordinates().getVersion());
+      json.endObject();
+      start = end;
+    }
+    json.endObject();
+  }
+
+  private void writeConflicts(JsonWriter json) throws IOException {
+    Map<String, String> rendered = new TreeMap<>();
+    for (Conflict conflict : conflicts) {
+      rendered.put(conflict.getRequested().toString(), conflict.getResolved().toString());
+    }
+    json.beginObject();
+    for (Map.Entry<String, String> entry : rendered.entrySet()) {
+      json.name(entry.getKey()).value(entry.getValue());
+    }
+    json.endObject();
+  }
+
+  private static <T> void writeLastOfEachKey(
+      JsonWriter json,
+      List<Row> byKey,
+      Function<DependencyInfo, T> getValue,
+      ValueWriter<T> writeValue)
+      throws IOException {
+    json.beginObject();
+    for (int i = 0; i < byKey.size(); i++) {
+      Row row = byKey.get(i);
+      if (i + 1 < byKey.size() && byKey.get(i + 1).key.equals(row.key)) {
+        continue;
+      }
+      T value = getValue.apply(row.info);
+      boolean isEmpty =
+          value instanceof Collection
+              ? ((Collection<?>) value).isEmpty()
+              : ((Map<?, ?>) value).isEmpty();
+      if (!isEmpty) {
+        json.name(row.key);
+        writeValue.write(json, value);
+      }
+    }
+    json.endObject();
+  }
+
+  private void writeRepositories(JsonWriter json, Set<URI> repositories, List<Row> byKey)
+      throws IOException {
+    Map<String, List<String>> repos = new LinkedHashMap<>();
+    repositories.stream()
+        .filter(r -> !M2_LOCAL_URI.equals(r))
+        .forEach(r -> repos.put(stripAuthenticationInformation(r), new ArrayList<>()));
+    for (Row row : byKey) {
+      for (URI repo : row.info.getRepositories()) {
+        List<String> keys = repos.get(stripAuthenticationInformation(repo));
+        // Rows are in order, so a key can only be a duplicate of the one before it
+        if (keys != null && (keys.isEmpty() || !keys.get(keys.size() - 1).equals(row.key))) {
+          keys.add(row.key);
+        }
+      }
+    }
+
+    json.beginObject();
+    for (Map.Entry<String, List<String>> entry : repos.entrySet()) {
+      json.name(entry.getKey());
+      writeStrings(json, entry.getValue());
+    }
+    json.endObject();
+  }
+
+  private static void writeSkipped(JsonWriter json, List<Row> byKey) throws IOException {
+    json.beginArray();
+    String last = null;
+    for (Row row : byKey) {
+      if (row.info.getSha256().isEmpty() && !row.key.equals(last)) {
+        json.value(row.key);
+        last = row.key;
+      }
+    }
+    json.endArray();
+  }
+
+  private static void writeStrings(JsonWriter json, Collection<String> strings)
+      throws IOException {
+    json.beginArray();
+    for (String string : strings) {
+      json.value(string);
+    }
+    json.endArray();
+  }
+
+  @FunctionalInterface
+  private interface Section {
+    void write(JsonWriter json) throws IOException;
+  }
+
+  @FunctionalInterface
+  private interface ValueWriter<T> {
+    void write(JsonWriter json, T value) throws IOException;
+  }
+
+  // A dependency info, along with what it's called in each section of the lock file
+  private static final class Row {
+    final int position;
+    final DependencyInfo info;
+    final String key;
+    final String shortKey;
+    final String classifier;
+
+    Row(int position, DependencyInfo info) {
+      this.position = position;
+      this.info = info;
+      Coordinates coords = info.getCoordinates();
+      this.key = coords.asKey();
+      this.shortKey = getShortKey(coords);
+      this.classifier =
+          coords.getClassifier() == null || coords.getClassifier().isEmpty()
+              ? "jar"
+              : coords.getClassifier();
+    }
+  }
+
+  private static String getShortKey(Coordinates coords) {
+    String shortKey = coords.getGroupId() + ":" + coords.getArtifactId();
+    if (coords.getExtension() != null
+        && !coords.getExtension().isEmpty()
+        && !"jar".equals(coords.getExtension())) {
+      shortKey += ":" + coords.getExtension();
+    }
+    return shortKey;
+  }
+
   private Map<String, Map<String, Object>> ensureArtifactsAllHaveAtLeastOneShaSum(
       Map<String, Map<String, Object>> artifacts) {
     for (Map<String, Object> item : artifacts.values()) {
@@ -334,7 +792,7 @@ public class V3LockFile {
                 TreeMap::new));
   }
 
-  private String stripAuthenticationInformation(URI uri) {
+  private static String stripAuthenticationInformation(URI uri) {
     try {
       URI stripped =
           new URI(
@@ -14,12 +14,29 @@
 
 package com.github.bazelbuild.rules_jvm_external.resolver.maven;
 
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import com.github.bazelbuild.rules_jvm_external.resolver.ArtifactCache;
 import com.github.bazelbuild.rules_jvm_external.resolver.DownloadService;
+import com.github.bazelbuild.rules_jvm_external.resolver.remote.ArtifactCaches;
+import com.github.bazelbuild.rules_jvm_external.resolver.remote.ResettableChannel;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import org.eclipse.aether.repository.RemoteRepository;
 import org.eclipse.aether.spi.connector.transport.GetTask;
 import org.eclipse.aether.spi.connector.transport.PeekTask;
@@ -29,10 +46,26 @@ import org.eclipse.aether.spi.connector.transport.Transporter;
 class HttpDownloaderTransporter implements Transporter {
   private final DownloadService downloadService;
   private final URI baseUri;
+  private final ArtifactCache artifactCache;
+  private final Map<String, String> knownSha256s;
 
   public HttpDownloaderTransporter(DownloadService downloadService, RemoteRepository repository) {
+    this(downloadService, repository, ArtifactCaches.NONE, Map.of());
+  }
+
+  /**
+   * @param knownSha256s the hashes of files recorded by an earlier pin, keyed by their path in the
+   *     repository. These files are looked for in {@code artifactCache} first.
+   */
+  public HttpDownloaderTransporter(
+      DownloadService downloadService,
+      RemoteRepository repository,
+      ArtifactCache artifactCache,
+      Map<String, String> knownSha256s) {
     this.downloadService = downloadService;
     this.baseUri = URI.create(repository.getUrl());
+    this.artifactCache = artifactCache;
+    this.knownSha256s = knownSha256s;
   }
 
   private URI getAbsoluteUri(URI relative) {
@@ -82,21 +115,130 @@ class HttpDownloaderTransporter implements Transporter {
   @Override
   public void get(GetTask task) throws Exception {
     URI uri = getAbsoluteUri(task.getLocation());
-    Path downloaded = downloadService.get(uri);
-    if (downloaded == null) {
+    String relPath = task.getLocation().getPath();
+    String knownSha256 = knownSha256s.get(relPath.startsWith("/") ? relPath.substring(1) : relPath);
+
+    boolean found;
+    try {
+      if (task.getDataFile() != null) {
+        Path dest = task.getDataFile().toPath();
+        if (dest.getParent() != null) {
+          Files.createDirectories(dest.getParent());
+        }
+        if (ArtifactCaches.fetch(artifactCache, knownSha256, dest)) {
+          return;
+        }
+        if (knownSha256 == null || artifactCache == ArtifactCaches.NONE) {
+          found = downloadService.getAsync(uri, dest).get() != null;
+        } else {
+          // Something the lock file records, so worth sharing. It's hashed as it arrives rather
+          // than read back afterwards.
+          try (HashingChannel channel = new HashingChannel(dest)) {
+            found = downloadService.getAsync(uri, channel).get();
+            if (found) {
+              ArtifactCaches.store(artifactCache, channel.hash(), dest);
+            }
+          }
+        }
+      } else if (knownSha256 != null && copyFromCache(knownSha256, task)) {
+        return;
+      } else {
+        // The content is wanted in memory, so there's no need for it to touch the disk at all
+        MemoryChannel channel = new MemoryChannel();
+        found = downloadService.getAsync(uri, channel).get();
+        if (found) {
+          try (OutputStream out = task.newOutputStream()) {
+            channel.buffer.writeTo(out);
+          }
+        }
+      }
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+    }
+
+    if (!found) {
       throw new FileNotFoundException("Resource not found: " + uri);
     }
+  }
 
-    if (task.getDataFile() != null) {
-      Path dest = task.getDataFile().toPath();
-      if (dest.getParent() != null) {
-        Files.createDirectories(dest.getParent());
+  private boolean copyFromCache(String sha256, GetTask task) throws Exception {
+    Path temp = Files.createTempFile("resolver", "cached");
+    try {
+      if (!ArtifactCaches.fetch(artifactCache, sha256, temp)) {
+        return false;
+      }
+      try (OutputStream out = task.newOutputStream()) {
+        Files.copy(temp, out);
       }
-      Files.copy(downloaded, dest, StandardCopyOption.REPLACE_EXISTING);
+      return true;
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  /** Writes to a file, hashing everything written. Starting again also starts the hash again. */
+  private static class HashingChannel implements ResettableChannel {
+    private final FileChannel file;
+    private Hasher hasher = Hashing.sha256().newHasher();
+
+    HashingChannel(Path path) throws IOException {
+      this.file = FileChannel.open(path, CREATE, WRITE, TRUNCATE_EXISTING);
+    }
+
+    String hash() {
+      return hasher.hash().toString();
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+      ByteBuffer written = src.duplicate();
+      int count = file.write(src);
+      written.limit(written.position() + count);
+      hasher.putBytes(written);
+      return count;
+    }
+
+    @Override
+    public void reset() throws IOException {
+      file.truncate(0);
+      file.position(0);
+      hasher = Hashing.sha256().newHasher();
+    }
+
+    @Override
+    public boolean isOpen() {
+      return file.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+      file.close();
+    }
+  }
+
+  /** Collects what's written in memory. Starting again empties the buffer. */
+  private static class MemoryChannel implements ResettableChannel {
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private final WritableByteChannel channel = Channels.newChannel(buffer);
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+      return channel.write(src);
+    }
+
+    @Override
+    public void reset() {
+      buffer.reset();
+    }
+
+    @Override
+    public boolean isOpen() {
+      return channel.isOpen();
     }
 
-    if (!"file".equals(uri.getScheme())) {
-      Files.deleteIfExists(downloaded);
+    @Override
+    public void close() throws IOException {
+      channel.close();
     }
   }
 
@@ -14,12 +14,15 @@
 
 package com.github.bazelbuild.rules_jvm_external.resolver.maven;
 
+import com.github.bazelbuild.rules_jvm_external.resolver.ArtifactCache;
 import com.github.bazelbuild.rules_jvm_external.resolver.DownloadService;
+import com.github.bazelbuild.rules_jvm_external.resolver.remote.ArtifactCaches;
 import java.io.FileNotFoundException;
 import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.util.Map;
 import org.eclipse.aether.RepositorySystemSession;
 import org.eclipse.aether.repository.RemoteRepository;
 import org.eclipse.aether.spi.connector.transport.GetTask;
@@ -39,9 +42,24 @@ import org.eclipse.aether.transfer.NoTransporterException;
  */
 public class HttpDownloaderTransporterFactory implements TransporterFactory {
   private final DownloadService downloadService;
+  private final ArtifactCache artifactCache;
+  private final Map<String, String> knownSha256s;
 
   public HttpDownloaderTransporterFactory(DownloadService downloadService) {
+    this(downloadService, ArtifactCaches.NONE, Map.of());
+  }
+
+  /**
+   * @param knownSha256s the hashes of files recorded by an earlier pin, keyed by their path in a
+   *     repository. These files are looked for in {@code artifactCache} before being downloaded.
+   */
+  public HttpDownloaderTransporterFactory(
+      DownloadService downloadService,
+      ArtifactCache artifactCache,
+      Map<String, String> knownSha256s) {
     this.downloadService = downloadService;
+    this.artifactCache = artifactCache;
+    this.knownSha256s = Map.copyOf(knownSha256s);
   }
 
   @Override
@@ -56,7 +74,8 @@ public class HttpDownloaderTransporterFactory implements TransporterFactory {
     if ("http".equalsIgnoreCase(scheme)
         || "https".equalsIgnoreCase(scheme)
         || "file".equalsIgnoreCase(scheme)) {
-      return new HttpDownloaderTransporter(downloadService, repository);
+      return new HttpDownloaderTransporter(
+          downloadService, repository, artifactCache, knownSha256s);
     }
     throw new NoTransporterException(repository);
   }
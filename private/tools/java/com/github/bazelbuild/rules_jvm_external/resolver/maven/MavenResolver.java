@@ -16,6 +16,7 @@ package com.github.bazelbuild.rules_jvm_external.resolver.maven;
 
 import com.github.bazelbuild.rules_jvm_external.Coordinates;
 import com.github.bazelbuild.rules_jvm_external.resolver.Conflict;
+import com.github.bazelbuild.rules_jvm_external.resolver.OfflineResolutionException;
 import com.github.bazelbuild.rules_jvm_external.resolver.ResolutionRequest;
 import com.github.bazelbuild.rules_jvm_external.resolver.ResolutionResult;
 import com.github.bazelbuild.rules_jvm_external.resolver.ResolvedArtifact;
@@ -38,6 +39,7 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import org.apache.maven.artifact.versioning.ComparableVersion;
@@ -67,6 +69,8 @@ import org.eclipse.aether.repository.RemoteRepository;
 import org.eclipse.aether.resolution.ArtifactDescriptorException;
 import org.eclipse.aether.resolution.ArtifactDescriptorRequest;
 import org.eclipse.aether.resolution.ArtifactDescriptorResult;
+import org.eclipse.aether.resolution.ArtifactResolutionException;
+import org.eclipse.aether.resolution.ArtifactResult;
 import org.eclipse.aether.spi.connector.RepositoryConnectorFactory;
 import org.eclipse.aether.spi.connector.transport.TransporterFactory;
 import org.eclipse.aether.transfer.ArtifactNotFoundException;
@@ -79,6 +83,7 @@ import org.eclipse.aether.util.graph.traverser.StaticDependencyTraverser;
 import org.eclipse.aether.util.graph.visitor.DependencyGraphDumper;
 import org.eclipse.aether.util.graph.visitor.TreeDependencyVisitor;
 import com.github.bazelbuild.rules_jvm_external.resolver.DownloadService;
+import com.github.bazelbuild.rules_jvm_external.resolver.remote.ArtifactCaches;
 import com.github.bazelbuild.rules_jvm_external.resolver.remote.HttpDownloader;
 
 public class MavenResolver implements Resolver {
@@ -163,7 +168,7 @@ public class MavenResolver implements Resolver {
             .map(this::createExclusion)
             .collect(Collectors.toSet());
 
-    RepositorySystem system = createRepositorySystem();
+    RepositorySystem system = createRepositorySystem(request);
     ConsoleRepositoryListener consoleLogListener = new ConsoleRepositoryListener(listener);
     ErrorReportingListener errorListener = new ErrorReportingListener();
     CoordinateGatheringListener coordinatesListener = new CoordinateGatheringListener();
@@ -172,7 +177,8 @@ public class MavenResolver implements Resolver {
             system,
             new ClassicDependencyManager(),
             new CompoundListener(consoleLogListener, errorListener, coordinatesListener),
-            request.getLocalCache("maven"));
+            request.getLocalCache("maven"),
+            request.isOffline());
 
     List<RemoteRepository> repositories = new ArrayList<>(repos.size());
     repositories.add(createRemoteRepoFromLocalM2Cache(request.getLocalCache("maven")));
@@ -180,8 +186,10 @@ public class MavenResolver implements Resolver {
 
     List<Dependency> bomsWithGlobalExclusions = addGlobalExclusions(globalExclusions, boms);
     consoleLogListener.setPhase("Resolving " + bomsWithGlobalExclusions.size() + " BOM artifacts");
+    Set<Coordinates> missingOffline = new TreeSet<>();
     List<Dependency> bomDependencies =
-        resolveArtifactsFromBoms(system, session, repositories, bomsWithGlobalExclusions);
+        resolveArtifactsFromBoms(
+            system, session, repositories, bomsWithGlobalExclusions, missingOffline);
 
     List<Dependency> managedDependencies = createManagedDependencies(bomDependencies, dependencies);
 
@@ -201,7 +209,8 @@ public class MavenResolver implements Resolver {
             system,
             derived,
             new CompoundListener(consoleLogListener, errorListener, coordinatesListener),
-            request.getLocalCache("maven"));
+            request.getLocalCache("maven"),
+            request.isOffline());
 
     List<Dependency> depsWithGlobalExclusions = addGlobalExclusions(globalExclusions, dependencies);
     consoleLogListener.setPhase(
@@ -210,7 +219,13 @@ public class MavenResolver implements Resolver {
             + " artifact(s)");
     List<DependencyNode> resolvedDependencies =
         resolveBaseDependencies(
-            system, session, repositories, fakeRoot, managedDependencies, depsWithGlobalExclusions);
+            system,
+            session,
+            repositories,
+            fakeRoot,
+            managedDependencies,
+            depsWithGlobalExclusions,
+            missingOffline);
 
     if (System.getenv("RJE_VERBOSE") != null) {
       DependencyGraphDumper graphDumper = new DependencyGraphDumper(System.err::println);
@@ -229,6 +244,14 @@ public class MavenResolver implements Resolver {
     }
 
     List<Exception> exceptions = errorListener.getExceptions();
+    if (session.isOffline()) {
+      // Rather than stopping at the first thing that isn't cached, report everything that isn't
+      // once anything else has been dealt with, just as it would be online
+      exceptions =
+          exceptions.stream()
+              .filter(e -> !findMissingArtifacts(e, missingOffline))
+              .collect(Collectors.toList());
+    }
     if (!exceptions.isEmpty()) {
       for (Exception e : exceptions) {
         if (e instanceof ModelBuildingException) {
@@ -268,6 +291,9 @@ public class MavenResolver implements Resolver {
         }
       }
     }
+    if (!missingOffline.isEmpty()) {
+      throw new OfflineResolutionException(missingOffline);
+    }
 
     Graph<Coordinates> dependencyGraph =
         buildDependencyGraph(coordinatesListener.getRemappings(), resolvedDependencies);
@@ -492,7 +518,8 @@ public class MavenResolver implements Resolver {
       RepositorySystem system,
       RepositorySystemSession session,
       List<RemoteRepository> repositories,
-      List<Dependency> boms) {
+      List<Dependency> boms,
+      Set<Coordinates> missingOffline) {
     // Use LinkedHashSet to maintain order of how BOMS were declared
     Set<Dependency> managedDependencies = new LinkedHashSet<>();
 
@@ -505,7 +532,10 @@ public class MavenResolver implements Resolver {
         // take precedence over dependencies from later BOMs
         managedDependencies.addAll(result.getManagedDependencies());
       } catch (ArtifactDescriptorException e) {
-        throw new RuntimeException(e);
+        if (!session.isOffline()) {
+          throw new RuntimeException(e);
+        }
+        findMissingArtifacts(e, missingOffline);
       }
     }
 
@@ -598,9 +628,13 @@ public class MavenResolver implements Resolver {
       RepositorySystem system,
       DependencyManager dependencyManager,
       RepositoryListener listener,
-      Path localCache) {
+      Path localCache,
+      boolean offline) {
     DefaultRepositorySystemSession session = MavenRepositorySystemUtils.newSession();
 
+    // Only `file:` repositories, which includes the local cache, are used when offline
+    session.setOffline(offline);
+
     LocalRepository localRepository = new LocalRepository(localCache.toAbsolutePath().toString());
     session.setLocalRepositoryManager(system.newLocalRepositoryManager(session, localRepository));
 
@@ -650,12 +684,18 @@ public class MavenResolver implements Resolver {
     return session;
   }
 
-  private RepositorySystem createRepositorySystem() {
+  private RepositorySystem createRepositorySystem(ResolutionRequest request) {
+    Map<String, String> knownSha256s = new HashMap<>();
+    request
+        .getKnownSha256s()
+        .forEach((coords, sha256) -> knownSha256s.put(coords.toRepoPath(), sha256));
+
     DefaultServiceLocator locator = MavenRepositorySystemUtils.newServiceLocator();
     locator.addService(RepositoryConnectorFactory.class, BasicRepositoryConnectorFactory.class);
     locator.setServices(
         TransporterFactory.class,
-        new HttpDownloaderTransporterFactory(downloadService),
+        new HttpDownloaderTransporterFactory(
+            downloadService, ArtifactCaches.resolve(request.isOffline()), knownSha256s),
         new FileTransporterFactory());
 
     return locator.getService(RepositorySystem.class);
@@ -667,7 +707,8 @@ public class MavenResolver implements Resolver {
       Collection<RemoteRepository> repositories,
       Artifact root,
       List<Dependency> managedDependencies,
-      List<Dependency> allDependencies) {
+      List<Dependency> allDependencies,
+      Set<Coordinates> missingOffline) {
     CollectRequest collectRequest = new CollectRequest();
     collectRequest.setRootArtifact(root);
     collectRequest.setRequestContext(JavaScopes.RUNTIME);
@@ -686,8 +727,16 @@ public class MavenResolver implements Resolver {
       throw new RuntimeException(e);
     }
 
-    if (!collectResult.getExceptions().isEmpty()) {
-      Exception exception = collectResult.getExceptions().get(0);
+    List<Exception> exceptions = collectResult.getExceptions();
+    if (session.isOffline()) {
+      // Whatever isn't cached is reported once resolution is over. Anything else fails now.
+      exceptions =
+          exceptions.stream()
+              .filter(e -> !findMissingArtifacts(e, missingOffline))
+              .collect(Collectors.toList());
+    }
+    if (!exceptions.isEmpty()) {
+      Exception exception = exceptions.get(0);
       if (exception instanceof RuntimeException) {
         throw (RuntimeException) exception;
       }
@@ -721,6 +770,33 @@ public class MavenResolver implements Resolver {
     return collectResult.getRoot().getChildren();
   }
 
+  /**
+   * Adds whatever {@code failure} says couldn't be found to {@code missing}. Offline, aether
+   * reports anything that isn't cached as not found.
+   *
+   * @return whether {@code failure} was only because something couldn't be found. If not, it
+   *     needs reporting as it would be online.
+   */
+  private static boolean findMissingArtifacts(Throwable failure, Set<Coordinates> missing) {
+    for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+      if (cause instanceof ArtifactNotFoundException) {
+        Artifact artifact = ((ArtifactNotFoundException) cause).getArtifact();
+        missing.add(MavenCoordinates.asCoordinates(artifact));
+        return true;
+      }
+      if (cause instanceof ArtifactResolutionException) {
+        boolean onlyMissing = true;
+        for (ArtifactResult result : ((ArtifactResolutionException) cause).getResults()) {
+          for (Exception e : result.getExceptions()) {
+            onlyMissing &= findMissingArtifacts(e, missing);
+          }
+        }
+        return onlyMissing;
+      }
+    }
+    return false;
+  }
+
   private RemoteRepository createRemoteRepoFromLocalM2Cache(Path localCache) {
     return remoteRepositoryFactory.createFor(localCache.toUri());
   }
@@ -0,0 +1,185 @@
+// Copyright 2026 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.resolver.remote;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import com.github.bazelbuild.rules_jvm_external.HttpClients;
+import com.github.bazelbuild.rules_jvm_external.ThreadPools;
+import com.github.bazelbuild.rules_jvm_external.resolver.ArtifactCache;
+import com.github.bazelbuild.rules_jvm_external.resolver.SpiLoader;
+import com.google.common.hash.Hashing;
+import com.google.common.io.MoreFiles;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/** Finds the {@link ArtifactCache} to use, and uses it safely. */
+public final class ArtifactCaches {
+
+  private static final Logger LOG = Logger.getLogger(ArtifactCaches.class.getName());
+  private static final ExecutorService UPLOADS =
+      ThreadPools.newIoExecutor(2, "artifact-cache-upload");
+  private static final Queue<Future<?>> PENDING = new ConcurrentLinkedQueue<>();
+
+  /** A cache that never holds anything. */
+  public static final ArtifactCache NONE =
+      new ArtifactCache() {
+        @Override
+        public boolean get(String sha256, Path destination) {
+          return false;
+        }
+
+        @Override
+        public void put(String sha256, Path file) {
+          // Nothing to do
+        }
+      };
+
+  private ArtifactCaches() {
+    // Utility methods
+  }
+
+  /**
+   * Returns the cache registered via SPI, if there is one. Otherwise returns a cache that speaks
+   * the HTTP protocol of Bazel's remote caches if {@code RJE_REMOTE_CACHE} is set, or {@link
+   * #NONE}. Offline, nothing is cached.
+   */
+  public static ArtifactCache resolve(boolean offline) {
+    if (offline) {
+      return NONE;
+    }
+
+    ArtifactCache defaultCache = NONE;
+    String remote = System.getenv("RJE_REMOTE_CACHE");
+    if (remote != null && !remote.isBlank()) {
+      String upload = System.getenv("RJE_REMOTE_CACHE_UPLOAD");
+      boolean uploading = upload == null || "1".equals(upload) || Boolean.parseBoolean(upload);
+      defaultCache =
+          new BazelRemoteArtifactCache(URI.create(remote.trim()), HttpClients.shared(), uploading);
+    }
+    ArtifactCache fallback = defaultCache;
+    return SpiLoader.load(ArtifactCache.class, defaultCache, cache -> cache.initialize(fallback));
+  }
+
+  /**
+   * Fetches the content whose SHA-256 is {@code sha256} from {@code cache} into {@code
+   * destination}. Nothing is written to {@code destination} unless the content has that hash, and
+   * failures are treated as the cache not having the content.
+   *
+   * @return whether {@code destination} now holds the content
+   */
+  public static boolean fetch(ArtifactCache cache, String sha256, Path destination) {
+    if (cache == NONE || sha256 == null) {
+      return false;
+    }
+
+    Path temp = null;
+    try {
+      Path dir = destination.toAbsolutePath().getParent();
+      Files.createDirectories(dir);
+      temp = Files.createTempFile(dir, destination.getFileName().toString(), ".part");
+      if (!cache.get(sha256, temp)) {
+        return false;
+      }
+      String actual = MoreFiles.asByteSource(temp).hash(Hashing.sha256()).toString();
+      if (!actual.equals(sha256)) {
+        LOG.warning(
+            String.format("Ignoring cached %s, which has a SHA-256 of %s", sha256, actual));
+        return false;
+      }
+      Files.move(temp, destination, REPLACE_EXISTING, ATOMIC_MOVE);
+      temp = null;
+      return true;
+    } catch (IOException | RuntimeException e) {
+      LOG.fine(String.format("Unable to fetch %s from the artifact cache: %s", sha256, e));
+      return false;
+    } finally {
+      if (temp != null) {
+        try {
+          Files.deleteIfExists(temp);
+        } catch (IOException e) {
+          // Only a temporary file
+        }
+      }
+    }
+  }
+
+  /**
+   * Shares {@code file}, which has just been downloaded from a repository, by adding it to {@code
+   * cache} under {@code sha256}, the hash of what was downloaded. This is the only way anything is
+   * added to the cache, so what's shared never depends on who downloaded it.
+   *
+   * <p>Nothing waits on the upload, which happens in the background from a link to (or, failing
+   * that, a copy of) the file, so the caller is free to move or delete the file as soon as this
+   * returns. Failures are logged and otherwise ignored. {@link #awaitUploads()} waits for the
+   * uploads to finish.
+   */
+  public static void store(ArtifactCache cache, String sha256, Path file) {
+    if (cache == NONE || sha256 == null) {
+      return;
+    }
+    Path staged;
+    try {
+      staged = stage(file);
+    } catch (IOException | RuntimeException e) {
+      LOG.fine(String.format("Unable to add %s to the artifact cache: %s", file, e));
+      return;
+    }
+    PENDING.add(
+        UPLOADS.submit(
+            () -> {
+              try {
+                cache.put(sha256, staged);
+              } catch (IOException | RuntimeException e) {
+                LOG.fine(String.format("Unable to add %s to the artifact cache: %s", file, e));
+              } finally {
+                Files.deleteIfExists(staged);
+              }
+              return null;
+            }));
+  }
+
+  /** Waits for every upload started by {@link #store(ArtifactCache, String, Path)} to finish. */
+  public static void awaitUploads() throws InterruptedException {
+    Future<?> upload;
+    while ((upload = PENDING.poll()) != null) {
+      try {
+        upload.get();
+      } catch (ExecutionException e) {
+        // Already logged
+      }
+    }
+  }
+
+  private static Path stage(Path file) throws IOException {
+    Path dir = file.toAbsolutePath().getParent();
+    Path staged = Files.createTempFile(dir, file.getFileName().toString(), ".upload");
+    Files.delete(staged);
+    try {
+      return Files.createLink(staged, file);
+    } catch (IOException | UnsupportedOperationException e) {
+      return Files.copy(file, staged);
+    }
+  }
+}
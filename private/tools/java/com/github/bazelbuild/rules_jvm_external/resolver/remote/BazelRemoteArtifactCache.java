@@ -0,0 +1,126 @@
+// Copyright 2026 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.resolver.remote;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import com.github.bazelbuild.rules_jvm_external.resolver.ArtifactCache;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Base64;
+
+/**
+ * An {@link ArtifactCache} backed by the content-addressed store of a Bazel remote cache that
+ * speaks HTTP, such as bazel-remote. Content is read with a {@code GET} and written with a {@code
+ * PUT} to {@code <base>/cas/<sha256>}. Credentials in the base URL are sent using basic auth.
+ */
+public class BazelRemoteArtifactCache implements ArtifactCache {
+
+  private final URI base;
+  private final HttpClient client;
+  private final boolean uploading;
+  private final String authorization;
+
+  /**
+   * @param base the URL of the cache, which may include credentials
+   * @param uploading whether to add artifacts to the cache, or only read from it
+   */
+  public BazelRemoteArtifactCache(URI base, HttpClient client, boolean uploading) {
+    this.base = withoutUserInfo(base);
+    this.client = client;
+    this.uploading = uploading;
+    this.authorization =
+        base.getUserInfo() == null
+            ? null
+            : "Basic "
+                + Base64.getEncoder().encodeToString(base.getRawUserInfo().getBytes(UTF_8));
+  }
+
+  @Override
+  public boolean get(String sha256, Path destination) throws IOException {
+    HttpRequest request = newRequest(sha256).GET().build();
+    HttpResponse<InputStream> response = send(request, HttpResponse.BodyHandlers.ofInputStream());
+    try (InputStream body = response.body()) {
+      if (response.statusCode() == 404) {
+        return false;
+      }
+      if (response.statusCode() != 200) {
+        throw new IOException(
+            String.format("Unexpected status %d from %s", response.statusCode(), request.uri()));
+      }
+      Files.copy(body, destination, REPLACE_EXISTING);
+      return true;
+    }
+  }
+
+  @Override
+  public void put(String sha256, Path file) throws IOException {
+    if (!uploading) {
+      return;
+    }
+    HttpRequest request = newRequest(sha256).PUT(HttpRequest.BodyPublishers.ofFile(file)).build();
+    HttpResponse<Void> response = send(request, HttpResponse.BodyHandlers.discarding());
+    if (response.statusCode() / 100 != 2) {
+      throw new IOException(
+          String.format("Unexpected status %d from %s", response.statusCode(), request.uri()));
+    }
+  }
+
+  private HttpRequest.Builder newRequest(String sha256) {
+    String path = base.getPath() == null ? "" : base.getPath();
+    if (!path.endsWith("/")) {
+      path += "/";
+    }
+    HttpRequest.Builder builder =
+        HttpRequest.newBuilder(base.resolve(path + "cas/" + sha256))
+            .header("User-Agent", "rules_jvm_external resolver")
+            .timeout(Duration.ofMinutes(5));
+    if (authorization != null) {
+      builder.header("Authorization", authorization);
+    }
+    return builder;
+  }
+
+  private <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler)
+      throws IOException {
+    try {
+      return client.send(request, handler);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    }
+  }
+
+  private static URI withoutUserInfo(URI uri) {
+    if (uri.getUserInfo() == null) {
+      return uri;
+    }
+    try {
+      return new URI(
+          uri.getScheme(), null, uri.getHost(), uri.getPort(), uri.getPath(), null, null);
+    } catch (URISyntaxException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+}
@@ -0,0 +1,312 @@
+// Copyright 2026 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.resolver.remote;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import com.github.bazelbuild.rules_jvm_external.Coordinates;
+import com.github.bazelbuild.rules_jvm_external.resolver.DependencyMetadata;
+import com.github.bazelbuild.rules_jvm_external.resolver.MetadataService;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.logging.Logger;
+
+/**
+ * A {@link MetadataService} that remembers what another one said about each release artifact, so
+ * that it's only downloaded, hashed and indexed once per machine rather than once per pin. Release
+ * artifacts never change, so an entry stays valid for as long as the same repositories are asked
+ * for the artifact and, where the previous lock file recorded a hash for it, the hash matches.
+ * Snapshots are never cached.
+ *
+ * <p>Each entry is a small binary file in a tree laid out like a Maven repository, under a
+ * directory named for the version of the format. Anything that can't be read is treated as a
+ * miss, and the wrapped service is asked instead.
+ *
+ * <p>To use this via SPI, register it as a {@code MetadataService}. It then caches in {@link
+ * #getDefaultRoot()} and wraps the default service.
+ */
+public class CachingMetadataService implements MetadataService {
+
+  private static final Logger LOG = Logger.getLogger(CachingMetadataService.class.getName());
+  // Bump this whenever the format of an entry, or what the wrapped service puts in one, changes
+  private static final int FORMAT_VERSION = 1;
+  private static final int MAGIC = 0x524a454d; // "RJEM"
+
+  private final Path root;
+  private final Map<Coordinates, String> knownSha256s;
+  private MetadataService delegate;
+
+  /** Used when loaded via SPI, when the service to wrap is given to {@link #initialize}. */
+  public CachingMetadataService() {
+    this(getDefaultRoot(), null, Map.of());
+  }
+
+  /**
+   * @param root the directory to keep the cache in, which may be shared with other processes
+   * @param delegate the service to ask about artifacts that aren't cached
+   * @param knownSha256s the hashes of artifacts recorded by an earlier pin. Cached metadata for a
+   *     different file is ignored.
+   */
+  public CachingMetadataService(
+      Path root, MetadataService delegate, Map<Coordinates, String> knownSha256s) {
+    this.root = root.resolve("v" + FORMAT_VERSION);
+    this.delegate = delegate;
+    this.knownSha256s = knownSha256s != null ? Map.copyOf(knownSha256s) : Map.of();
+  }
+
+  /**
+   * Where metadata is cached unless told otherwise: {@code rules_jvm_external/metadata} in the
+   * user's cache directory.
+   */
+  public static Path getDefaultRoot() {
+    String xdg = System.getenv("XDG_CACHE_HOME");
+    Path cacheHome =
+        xdg != null && !xdg.isBlank()
+            ? Paths.get(xdg)
+            : Paths.get(System.getProperty("user.home"), ".cache");
+    return cacheHome.resolve("rules_jvm_external").resolve("metadata");
+  }
+
+  @Override
+  public void initialize(MetadataService defaultService) {
+    if (delegate == null) {
+      delegate = defaultService;
+    }
+  }
+
+  @Override
+  public DependencyMetadata getMetadata(Coordinates coords, Collection<URI> repositories) {
+    checkInitialized();
+    List<URI> repos = List.copyOf(new LinkedHashSet<>(repositories));
+    DependencyMetadata cached = lookup(coords, repos);
+    if (cached != null) {
+      return cached;
+    }
+    return store(coords, repos, delegate.getMetadata(coords, repositories));
+  }
+
+  /** Answers what it can from the cache, and asks the wrapped service about everything else. */
+  @Override
+  public Map<Coordinates, CompletableFuture<DependencyMetadata>> getAllMetadata(
+      Collection<Coordinates> coords, Collection<URI> repositories, Executor executor) {
+    checkInitialized();
+    List<URI> repos = List.copyOf(new LinkedHashSet<>(repositories));
+    Map<Coordinates, DependencyMetadata> cached = new LinkedHashMap<>();
+    List<Coordinates> misses = new ArrayList<>();
+    for (Coordinates coord : coords) {
+      DependencyMetadata metadata = lookup(coord, repos);
+      if (metadata != null) {
+        cached.put(coord, metadata);
+      } else {
+        misses.add(coord);
+      }
+    }
+
+    Map<Coordinates, CompletableFuture<DependencyMetadata>> fetched =
+        misses.isEmpty() ? Map.of() : delegate.getAllMetadata(misses, repositories, executor);
+    Map<Coordinates, CompletableFuture<DependencyMetadata>> results = new LinkedHashMap<>();
+    for (Coordinates coord : coords) {
+      DependencyMetadata metadata = cached.get(coord);
+      if (metadata != null) {
+        results.put(coord, CompletableFuture.completedFuture(metadata));
+        continue;
+      }
+      CompletableFuture<DependencyMetadata> lookup = fetched.get(coord);
+      CompletableFuture<DependencyMetadata> stored =
+          lookup.thenApply(found -> store(coord, repos, found));
+      // Cancelling what we hand back has to stop the lookup too, or it would carry on regardless
+      stored.whenComplete(
+          (found, failure) -> {
+            if (stored.isCancelled()) {
+              lookup.cancel(true);
+            }
+          });
+      results.put(coord, stored);
+    }
+    return results;
+  }
+
+  private void checkInitialized() {
+    if (delegate == null) {
+      throw new IllegalStateException("No metadata service to fall back to has been given");
+    }
+  }
+
+  private DependencyMetadata lookup(Coordinates coords, List<URI> repos) {
+    if (coords.getVersion().endsWith("-SNAPSHOT")) {
+      return null;
+    }
+    DependencyMetadata cached = read(getEntry(coords, repos), repos);
+    String known = knownSha256s.get(coords);
+    if (cached != null && (known == null || known.equals(cached.getSha256()))) {
+      return cached;
+    }
+    return null;
+  }
+
+  private DependencyMetadata store(
+      Coordinates coords, List<URI> repos, DependencyMetadata metadata) {
+    if (metadata != null && !coords.getVersion().endsWith("-SNAPSHOT")) {
+      write(getEntry(coords, repos), repos, metadata);
+    }
+    return metadata;
+  }
+
+  // The repositories are part of the key because they decide which of them the lock file says
+  // the artifact comes from. They are hashed, so that no credentials end up on disk.
+  private Path getEntry(Coordinates coords, List<URI> repos) {
+    Hasher hasher = Hashing.sha256().newHasher();
+    for (URI repo : repos) {
+      hasher.putString(withoutUserInfo(repo).toString(), UTF_8).putByte((byte) 0);
+    }
+    String reposKey = hasher.hash().toString().substring(0, 16);
+    return root.resolve(coords.toRepoPath() + "." + reposKey);
+  }
+
+  private static DependencyMetadata read(Path entry, List<URI> repos) {
+    if (!Files.exists(entry)) {
+      return null;
+    }
+    try (InputStream is = Files.newInputStream(entry);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(is))) {
+      if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+        return null;
+      }
+      String sha256 = in.readBoolean() ? in.readUTF() : null;
+
+      Set<URI> foundIn = new LinkedHashSet<>();
+      int repoCount = in.readInt();
+      for (int i = 0; i < repoCount; i++) {
+        foundIn.add(repos.get(in.readInt()));
+      }
+      Set<String> packages = readStrings(in);
+      Set<String> classes = readStrings(in);
+      Map<String, Set<String>> services = new TreeMap<>();
+      int serviceCount = in.readInt();
+      for (int i = 0; i < serviceCount; i++) {
+        services.put(in.readUTF(), readStrings(in));
+      }
+      return new DependencyMetadata(sha256, foundIn, packages, classes, services);
+    } catch (IOException | RuntimeException e) {
+      LOG.fine(String.format("Unable to read cached metadata from %s: %s", entry, e));
+      return null;
+    }
+  }
+
+  private static void write(Path entry, List<URI> repos, DependencyMetadata metadata) {
+    List<Integer> foundIn = new ArrayList<>();
+    for (URI repo : metadata.getRepositories()) {
+      int index = repos.indexOf(repo);
+      if (index < 0) {
+        // Not one we asked about, so there's no way to describe it without the URL itself
+        return;
+      }
+      foundIn.add(index);
+    }
+
+    Path temp = null;
+    try {
+      Files.createDirectories(entry.getParent());
+      temp = Files.createTempFile(entry.getParent(), entry.getFileName().toString(), ".part");
+      try (OutputStream os = Files.newOutputStream(temp);
+          DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os))) {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeBoolean(metadata.getSha256() != null);
+        if (metadata.getSha256() != null) {
+          out.writeUTF(metadata.getSha256());
+        }
+        out.writeInt(foundIn.size());
+        for (int index : foundIn) {
+          out.writeInt(index);
+        }
+        writeStrings(out, metadata.getPackages());
+        writeStrings(out, metadata.getClasses());
+        Map<String, ? extends Set<String>> services = new TreeMap<>(metadata.getServices());
+        out.writeInt(services.size());
+        for (Map.Entry<String, ? extends Set<String>> service : services.entrySet()) {
+          out.writeUTF(service.getKey());
+          writeStrings(out, service.getValue());
+        }
+      }
+      Files.move(temp, entry, REPLACE_EXISTING, ATOMIC_MOVE);
+      temp = null;
+    } catch (IOException | RuntimeException e) {
+      LOG.fine(String.format("Unable to cache metadata in %s: %s", entry, e));
+    } finally {
+      if (temp != null) {
+        try {
+          Files.deleteIfExists(temp);
+        } catch (IOException e) {
+          // Only a temporary file
+        }
+      }
+    }
+  }
+
+  private static Set<String> readStrings(DataInputStream in) throws IOException {
+    int count = in.readInt();
+    Set<String> strings = new TreeSet<>();
+    for (int i = 0; i < count; i++) {
+      strings.add(in.readUTF());
+    }
+    return strings;
+  }
+
+  private static void writeStrings(DataOutputStream out, Set<String> strings)
+      throws IOException {
+    out.writeInt(strings.size());
+    for (String string : new TreeSet<>(strings)) {
+      out.writeUTF(string);
+    }
+  }
+
+  private static URI withoutUserInfo(URI uri) {
+    if (uri.getUserInfo() == null) {
+      return uri;
+    }
+    try {
+      return new URI(
+          uri.getScheme(), null, uri.getHost(), uri.getPort(), uri.getPath(), null, null);
+    } catch (URISyntaxException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+}
@@ -0,0 +1,279 @@
+// Copyright 2026 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.resolver.remote;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.github.bazelbuild.rules_jvm_external.resolver.DownloadService;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * A read-only view of the cache Coursier keeps of everything it has downloaded. Other tools may
+ * have filled it long before we run, so looking there first can save a lot of downloading.
+ *
+ * <p>Coursier keeps each file at {@code <cache>/<scheme>/<host>/<path>}, so where a file is tells
+ * us which repository it came from. A file is only used once its hash has been checked, against
+ * the checksum Coursier saved beside it or, if there isn't one, the checksum the repository
+ * publishes. Nothing in the cache is ever changed.
+ *
+ * <p>The same file is asked for several times during a resolution, so whether it could be trusted
+ * is remembered for as long as its size and modification time stay the same, rather than hashing
+ * it, and perhaps fetching its checksum, every time.
+ */
+class CoursierCache {
+
+  private static final Logger LOG = Logger.getLogger(CoursierCache.class.getName());
+
+  private final Path root;
+  private final DownloadService checksumSource;
+  private final Map<Path, Verification> verified = new ConcurrentHashMap<>();
+
+  /**
+   * @param root the versioned cache directory, such as {@code ~/.cache/coursier/v1}
+   * @param checksumSource where to fetch checksums Coursier didn't save, or {@code null} to only
+   *     use files whose checksums are in the cache
+   */
+  CoursierCache(Path root, DownloadService checksumSource) {
+    this.root = root;
+    this.checksumSource = checksumSource;
+  }
+
+  /** Finds the cache the same way Coursier does, or returns {@code null} if there isn't one. */
+  static Path findRoot() {
+    String fromEnv = System.getenv("COURSIER_CACHE");
+    if (fromEnv != null && !fromEnv.isBlank()) {
+      return Paths.get(fromEnv);
+    }
+    String fromProperty = System.getProperty("coursier.cache");
+    if (fromProperty != null && !fromProperty.isBlank()) {
+      return Paths.get(fromProperty);
+    }
+
+    Path home = Paths.get(System.getProperty("user.home"));
+    List<Path> candidates = new ArrayList<>();
+    // Where older versions of Coursier kept everything
+    candidates.add(home.resolve(".coursier").resolve("cache").resolve("v1"));
+    String os = System.getProperty("os.name", "").toLowerCase(Locale.ROOT);
+    if (os.contains("mac")) {
+      candidates.add(home.resolve("Library/Caches/Coursier/v1"));
+    } else if (os.contains("windows")) {
+      String localAppData = System.getenv("LOCALAPPDATA");
+      if (localAppData != null) {
+        candidates.add(Paths.get(localAppData, "Coursier", "cache", "v1"));
+      }
+    } else {
+      String xdg = System.getenv("XDG_CACHE_HOME");
+      Path cacheHome = xdg != null && !xdg.isBlank() ? Paths.get(xdg) : home.resolve(".cache");
+      candidates.add(cacheHome.resolve("coursier").resolve("v1"));
+    }
+
+    return candidates.stream().filter(Files::isDirectory).findFirst().orElse(null);
+  }
+
+  /**
+   * Returns the cached copy of {@code path} downloaded from {@code repository}, or {@code null} if
+   * there isn't one we can trust.
+   */
+  Path find(URI repository, String path) {
+    if (root == null) {
+      return null;
+    }
+    String scheme = repository.getScheme();
+    if (!"http".equals(scheme) && !"https".equals(scheme)) {
+      return null;
+    }
+    // Coursier refreshes snapshots after a while, so its copy may be out of date
+    if (path.contains("-SNAPSHOT")) {
+      return null;
+    }
+
+    for (Path candidate : getCandidates(repository, path)) {
+      if (Files.isRegularFile(candidate) && isVerified(repository, path, candidate)) {
+        LOG.fine(String.format("Using %s from the Coursier cache", candidate));
+        return candidate;
+      }
+    }
+    return null;
+  }
+
+  /** Where Coursier would have stored {@code path} from {@code repository}. */
+  List<Path> getCandidates(URI repository, String path) {
+    String host = repository.getHost();
+    if (repository.getPort() != -1) {
+      host += "%3A" + repository.getPort();
+    }
+    String relative = join(repository, path).substring(1);
+
+    Path schemeDir = root.resolve(repository.getScheme());
+    List<Path> candidates = new ArrayList<>();
+    // Coursier puts the user name in the path when it has credentials for the repository
+    String userInfo = repository.getUserInfo();
+    if (userInfo != null) {
+      String user = userInfo.split(":", 2)[0];
+      candidates.add(schemeDir.resolve(user + "@" + host).resolve(relative));
+    }
+    candidates.add(schemeDir.resolve(host).resolve(relative));
+    return candidates;
+  }
+
+  private boolean isVerified(URI repository, String path, Path file) {
+    BasicFileAttributes attributes;
+    try {
+      attributes = Files.readAttributes(file, BasicFileAttributes.class);
+    } catch (IOException e) {
+      LOG.fine(String.format("Unable to verify %s: %s", file, e));
+      return false;
+    }
+
+    Verification previous = verified.get(file);
+    if (previous != null && previous.matches(attributes)) {
+      return previous.trusted;
+    }
+    boolean trusted = verify(repository, path, file);
+    verified.put(file, new Verification(attributes, trusted));
+    return trusted;
+  }
+
+  private boolean verify(URI repository, String path, Path file) {
+    try {
+      String expected = readChecksum(file.resolveSibling(file.getFileName() + ".sha256"));
+      String algorithm = "SHA-256";
+      if (expected == null) {
+        expected = readChecksum(file.resolveSibling(file.getFileName() + ".sha1"));
+        algorithm = "SHA-1";
+      }
+      if (expected == null) {
+        expected = fetchChecksum(repository, path + ".sha1");
+        algorithm = "SHA-1";
+      }
+      if (expected == null) {
+        return false;
+      }
+
+      String actual = hash(file, algorithm);
+      if (!actual.equals(expected)) {
+        LOG.fine(String.format("Ignoring %s: expected %s but was %s", file, expected, actual));
+        return false;
+      }
+      return true;
+    } catch (IOException | RuntimeException e) {
+      LOG.fine(String.format("Unable to verify %s: %s", file, e));
+      return false;
+    }
+  }
+
+  private static String hash(Path file, String algorithm) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance(algorithm);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IOException(e);
+    }
+    byte[] buffer = new byte[8192];
+    try (InputStream in = Files.newInputStream(file)) {
+      int count;
+      while ((count = in.read(buffer)) > 0) {
+        digest.update(buffer, 0, count);
+      }
+    }
+    // Padded, since the digest's leading zeros are lost on the way through BigInteger
+    String format = "%0" + digest.getDigestLength() * 2 + "x";
+    return String.format(format, new BigInteger(1, digest.digest()));
+  }
+
+  private String fetchChecksum(URI repository, String path) throws IOException {
+    if (checksumSource == null) {
+      return null;
+    }
+    URI uri;
+    try {
+      uri =
+          new URI(
+              repository.getScheme(),
+              repository.getUserInfo(),
+              repository.getHost(),
+              repository.getPort(),
+              join(repository, path),
+              null,
+              null);
+    } catch (URISyntaxException e) {
+      throw new IOException(e);
+    }
+
+    Path downloaded = checksumSource.get(uri);
+    if (downloaded == null) {
+      return null;
+    }
+    try {
+      return readChecksum(downloaded);
+    } finally {
+      Files.deleteIfExists(downloaded);
+    }
+  }
+
+  /** Whether a file could be trusted when it was last that size and last modified then. */
+  private static class Verification {
+    private final long size;
+    private final FileTime lastModified;
+    private final boolean trusted;
+
+    Verification(BasicFileAttributes attributes, boolean trusted) {
+      this.size = attributes.size();
+      this.lastModified = attributes.lastModifiedTime();
+      this.trusted = trusted;
+    }
+
+    boolean matches(BasicFileAttributes attributes) {
+      return size == attributes.size() && lastModified.equals(attributes.lastModifiedTime());
+    }
+  }
+
+  private static String join(URI repository, String path) {
+    String base = repository.getPath() == null ? "" : repository.getPath();
+    if (!base.endsWith("/")) {
+      base += "/";
+    }
+    return base + path;
+  }
+
+  /** Checksum files hold either just the hash, or the hash and a file name as sha1sum writes. */
+  private static String readChecksum(Path file) throws IOException {
+    if (!Files.isRegularFile(file)) {
+      return null;
+    }
+    String content = new String(Files.readAllBytes(file), UTF_8).trim();
+    if (content.isEmpty()) {
+      return null;
+    }
+    return content.split("\\s+")[0].toLowerCase(Locale.ROOT);
+  }
+}
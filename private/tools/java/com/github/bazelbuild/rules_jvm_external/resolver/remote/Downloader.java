@@ -14,12 +14,13 @@
 
 package com.github.bazelbuild.rules_jvm_external.resolver.remote;
 
-import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
-
 import com.github.bazelbuild.rules_jvm_external.Coordinates;
+import com.github.bazelbuild.rules_jvm_external.ThreadPools;
+import com.github.bazelbuild.rules_jvm_external.resolver.ArtifactCache;
 import com.github.bazelbuild.rules_jvm_external.resolver.DownloadService;
 import com.github.bazelbuild.rules_jvm_external.resolver.events.EventListener;
 import com.github.bazelbuild.rules_jvm_external.resolver.netrc.Netrc;
+import com.github.bazelbuild.rules_jvm_external.resolver.remote.RepositoryStats.Kind;
 import com.google.common.hash.Hashing;
 import java.io.BufferedInputStream;
 import java.io.IOException;
@@ -31,11 +32,24 @@ import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 import org.apache.maven.model.Model;
 import org.apache.maven.model.io.xpp3.MavenXpp3Reader;
 import org.codehaus.plexus.util.ReaderFactory;
@@ -52,10 +66,21 @@ public class Downloader {
       Set.of("jar", "tar.gz", "tar.bz2", "tar", "zip", "exe", "dll", "so");
   private static final Set<String> NO_FALLBACK_CLASSIFIERS = Set.of("sources", "javadoc");
   private final Path localRepository;
-  private final Set<URI> repos;
+  // In the order the user gave them, which is the order they're recorded in the lock file
+  private final List<URI> repos;
   private final boolean cacheDownloads;
+  private final boolean offline;
   private final DownloadService downloadService;
   private final Map<Coordinates, Path> knownPaths;
+  private final Path statsPath;
+  private final RepositoryStats stats;
+  // The other repositories that serve the same content as each repository
+  private final Map<URI, List<URI>> mirrors;
+  private final CoursierCache coursierCache;
+  private final ArtifactCache artifactCache;
+  private final Map<Coordinates, String> knownSha256s;
+  // Every file handed back by download(), so that the caches holding them know they're in use
+  private final Set<Path> used = ConcurrentHashMap.newKeySet();
 
   public Downloader(
       Netrc netrc,
@@ -64,11 +89,92 @@ public class Downloader {
       EventListener listener,
       boolean cacheDownloads,
       Map<Coordinates, Path> knownPaths) {
+    this(
+        netrc,
+        localRepository,
+        repositories,
+        listener,
+        cacheDownloads,
+        false,
+        knownPaths,
+        parseMirrorGroups(System.getenv("RJE_MIRROR_GROUPS")));
+  }
+
+  public Downloader(
+      Netrc netrc,
+      Path localRepository,
+      Collection<URI> repositories,
+      EventListener listener,
+      boolean cacheDownloads,
+      boolean offline,
+      Map<Coordinates, Path> knownPaths,
+      Collection<? extends Collection<URI>> mirrorGroups) {
+    this(
+        netrc,
+        localRepository,
+        repositories,
+        listener,
+        cacheDownloads,
+        offline,
+        knownPaths,
+        mirrorGroups,
+        ArtifactCaches.NONE,
+        Map.of());
+  }
+
+  /**
+   * @param offline only use what is already in {@code localRepository}, {@code knownPaths} or
+   *     Coursier's cache, and never contact a repository
+   * @param mirrorGroups groups of repositories that serve identical content. If a download from
+   *     one of them is slower than usual, the same file is requested from another in the same
+   *     group, and whichever answers first is used.
+   * @param artifactCache where to look for artifacts whose hash is in {@code knownSha256s} before
+   *     downloading them, and where to add anything downloaded
+   * @param knownSha256s the hashes of artifacts recorded by an earlier pin
+   */
+  public Downloader(
+      Netrc netrc,
+      Path localRepository,
+      Collection<URI> repositories,
+      EventListener listener,
+      boolean cacheDownloads,
+      boolean offline,
+      Map<Coordinates, Path> knownPaths,
+      Collection<? extends Collection<URI>> mirrorGroups,
+      ArtifactCache artifactCache,
+      Map<Coordinates, String> knownSha256s) {
     this.localRepository = localRepository;
-    this.repos = Set.copyOf(repositories);
+    this.repos = List.copyOf(new LinkedHashSet<>(repositories));
     this.cacheDownloads = cacheDownloads;
+    this.offline = offline;
     this.downloadService = HttpDownloader.resolve(netrc, listener);
     this.knownPaths = knownPaths != null ? Map.copyOf(knownPaths) : Map.of();
+    this.statsPath = localRepository.resolve(".rules_jvm_external").resolve("repository-stats");
+    this.stats = RepositoryStats.load(statsPath);
+    this.mirrors = findMirrors(this.repos, mirrorGroups);
+    // A run that doesn't share what it downloads doesn't use what others have downloaded either.
+    // Checksums missing from Coursier's cache can only be fetched when we're allowed to go online.
+    this.coursierCache =
+        new CoursierCache(
+            cacheDownloads ? CoursierCache.findRoot() : null, offline ? null : downloadService);
+    this.artifactCache = offline ? ArtifactCaches.NONE : artifactCache;
+    this.knownSha256s = knownSha256s != null ? Map.copyOf(knownSha256s) : Map.of();
+  }
+
+  /**
+   * Saves how each repository performed, so that the next run can start with the fastest. Call
+   * this once all downloads are done.
+   */
+  public void saveRepositoryStats() {
+    stats.save(statsPath);
+  }
+
+  /**
+   * Returns every file that {@link #download(Coordinates)} has found or fetched so far, wherever
+   * it was found.
+   */
+  public Set<Path> getUsedFiles() {
+    return Set.copyOf(used);
   }
 
   public DownloadResult download(Coordinates coords) {
@@ -117,12 +223,67 @@ public class Downloader {
       }
     }
 
+    if (offline) {
+      throw new UriNotFoundException("Not in the local cache: " + coords);
+    }
     throw new UriNotFoundException("Unable to download from any repo: " + coords);
   }
 
-  private DownloadResult performDownload(Coordinates coordsToUse, String path) {
-    Set<URI> repos = new LinkedHashSet<>();
+  /**
+   * Speculatively downloads {@code coords} into the local repository, so that a later call to
+   * {@link #download(Coordinates)} finds it there. The repositories in {@code likelyRepos} are
+   * tried first. Unlike {@code download}, only the file itself is fetched: no other repository is
+   * asked whether it has it, and no fallbacks are tried.
+   *
+   * @return the downloaded file, or null if nothing needed downloading or it couldn't be found
+   */
+  public Path prefetch(Coordinates coords, Collection<URI> likelyRepos) {
+    if (offline || !cacheDownloads || knownPaths.containsKey(coords)) {
+      return null;
+    }
 
+    String path = coords.toRepoPath();
+    Path destination = localRepository.resolve(path);
+    if (Files.exists(destination)) {
+      return null;
+    }
+    for (URI repo : repos) {
+      if (coursierCache.find(repo, path) != null) {
+        return null;
+      }
+    }
+
+    if (ArtifactCaches.fetch(artifactCache, knownSha256s.get(coords), destination)) {
+      return destination;
+    }
+
+    Set<URI> likely = new HashSet<>();
+    likelyRepos.forEach(repo -> likely.add(normalize(repo)));
+    List<URI> order = new ArrayList<>();
+    List<URI> others = new ArrayList<>();
+    for (URI repo : stats.order(repos, Kind.ofFetch(path))) {
+      if (likely.contains(normalize(repo))) {
+        order.add(repo);
+      } else {
+        others.add(repo);
+      }
+    }
+    order.addAll(others);
+
+    Map<URI, Boolean> outcomes = new ConcurrentHashMap<>();
+    for (URI repo : order) {
+      if (outcomes.containsKey(repo)) {
+        continue;
+      }
+      Path fetched = fetch(repo, path, outcomes);
+      if (fetched != null) {
+        return fetched;
+      }
+    }
+    return null;
+  }
+
+  private DownloadResult findOrFetch(Coordinates coordsToUse, String path) {
     Path pathInRepo = null;
     Path knownPath = knownPaths.get(coordsToUse);
 
@@ -139,36 +300,98 @@ public class Downloader {
       }
     }
 
+    // Other tools may have downloaded the file already. Its place in Coursier's cache tells us
+    // which repository it came from.
+    URI fromCoursier = null;
+    if (pathInRepo == null) {
+      for (URI repo : repos) {
+        Path cached = coursierCache.find(repo, path);
+        if (cached != null) {
+          pathInRepo = cached;
+          fromCoursier = repo;
+          break;
+        }
+      }
+    }
+
     String rjeAssumePresent = System.getenv("RJE_ASSUME_PRESENT");
     boolean assumedDownloaded = false;
     if (rjeAssumePresent != null) {
       assumedDownloaded = "1".equals(rjeAssumePresent) || Boolean.parseBoolean(rjeAssumePresent);
     }
 
-    boolean downloaded = false;
-    for (URI repo : this.repos) {
+    if (offline) {
       if (pathInRepo == null) {
-        LOG.fine(String.format("Downloading %s%n", coordsToUse));
-        pathInRepo = downloadService.get(buildUri(repo, path));
+        // Repositories on the local disk, such as m2local, can still be used
+        for (URI repo : repos) {
+          if ("file".equals(repo.getScheme())) {
+            Path local = downloadService.get(buildUri(repo, path));
+            if (local != null) {
+              return new DownloadResult(coordsToUse, Set.of(repo), local, calculateSha256(local));
+            }
+          }
+        }
+        return null;
+      }
+      if (fromCoursier != null) {
+        return new DownloadResult(
+            coordsToUse, Set.of(fromCoursier), pathInRepo, calculateSha256(pathInRepo));
+      }
+      return new DownloadResult(
+          coordsToUse, findCachedFrom(pathInRepo), pathInRepo, calculateSha256(pathInRepo));
+    }
+
+    // An artifact whose hash we know may already be in the shared cache. We still ask the
+    // repositories whether they have it below, just as we would for anything cached locally.
+    String knownSha256 =
+        path.equals(coordsToUse.toRepoPath()) ? knownSha256s.get(coordsToUse) : null;
+    if (pathInRepo == null && knownSha256 != null && artifactCache != ArtifactCaches.NONE) {
+      pathInRepo = fetchFromArtifactCache(knownSha256, path);
+      if (pathInRepo != null) {
+        LOG.fine(String.format("Fetched %s from the artifact cache", coordsToUse));
+      }
+    }
+
+    // What we've learned about which repositories have the file
+    Map<URI, Boolean> outcomes = new ConcurrentHashMap<>();
+    if (fromCoursier != null) {
+      outcomes.put(fromCoursier, true);
+    }
+    boolean fetched = false;
+    if (pathInRepo == null) {
+      // Fetch from whichever repository is likely to supply the file soonest...
+      LOG.fine(String.format("Downloading %s", coordsToUse));
+      for (URI repo : stats.order(this.repos, Kind.ofFetch(path))) {
+        if (outcomes.containsKey(repo)) {
+          continue;
+        }
+        pathInRepo = fetch(repo, path, outcomes);
         if (pathInRepo != null) {
+          fetched = true;
+          break;
+        }
+      }
+    }
+
+    // ...but record every repository that has it in the order the user gave, so that the lock
+    // file doesn't depend on how fast each repository happened to be
+    Set<URI> repos = new LinkedHashSet<>();
+    boolean downloaded = false;
+    for (URI repo : this.repos) {
+      Boolean known = outcomes.get(repo);
+      if (known != null) {
+        if (known) {
           repos.add(repo);
           downloaded = true;
-
-          Path cachedResult = localRepository.resolve(path);
-          if (cacheDownloads && !cachedResult.equals(pathInRepo)) {
-            try {
-              Files.createDirectories(cachedResult.getParent());
-              Files.copy(pathInRepo, cachedResult, REPLACE_EXISTING);
-            } catch (IOException e) {
-              throw new UncheckedIOException(e);
-            }
-          }
         }
+      } else if (pathInRepo == null) {
+        // Nowhere had the file, so there's nothing to attribute
+        break;
       } else if (assumedDownloaded) {
-        LOG.fine(String.format("Assuming %s is cached%n", coordsToUse));
+        LOG.fine(String.format("Assuming %s is cached", coordsToUse));
         downloaded = true;
-      } else if (downloadService.head(buildUri(repo, path))) {
-        LOG.fine(String.format("Checking head of %s%n", coordsToUse));
+      } else if (head(repo, path)) {
+        LOG.fine(String.format("Checking head of %s", coordsToUse));
         repos.add(repo);
         downloaded = true;
       }
@@ -179,8 +402,252 @@ public class Downloader {
     }
 
     String sha256 = calculateSha256(pathInRepo);
+    if (fetched) {
+      ArtifactCaches.store(artifactCache, sha256, pathInRepo);
+    }
+
+    return new DownloadResult(coordsToUse, repos, pathInRepo, sha256);
+  }
+
+  /**
+   * Works out which repositories a cached file came from without asking them. Maven notes the ids
+   * of the repositories it downloads each file from, and the Maven resolver uses the URL as the id.
+   * Anything else might have come from any of the repositories, so they are all given, in order,
+   * and whichever has it will be used when the lock file is used.
+   */
+  private Set<URI> findCachedFrom(Path file) {
+    Path remotes = file.resolveSibling("_remote.repositories");
+    Set<String> ids = new HashSet<>();
+    if (Files.exists(remotes)) {
+      String prefix = file.getFileName() + ">";
+      try {
+        for (String line : Files.readAllLines(remotes)) {
+          if (line.startsWith(prefix) && line.endsWith("=")) {
+            ids.add(line.substring(prefix.length(), line.length() - 1));
+          }
+        }
+      } catch (IOException e) {
+        LOG.fine(String.format("Unable to read %s: %s", remotes, e));
+      }
+    }
 
-    return new DownloadResult(coordsToUse, Set.copyOf(repos), pathInRepo, sha256);
+    Set<URI> cachedFrom = new LinkedHashSet<>();
+    for (URI repo : repos) {
+      if (ids.contains(repo.toString())) {
+        cachedFrom.add(repo);
+      }
+    }
+    return cachedFrom.isEmpty() ? new LinkedHashSet<>(repos) : cachedFrom;
+  }
+
+  private boolean head(URI repo, String path) {
+    long start = System.nanoTime();
+    boolean found = downloadService.head(buildUri(repo, path));
+    stats.record(repo, Kind.HEAD, found, elapsedMillis(start));
+    return found;
+  }
+
+  private Path fetch(URI repo, String path, Map<URI, Boolean> outcomes) {
+    if (!cacheDownloads) {
+      long start = System.nanoTime();
+      Path downloaded = downloadService.get(buildUri(repo, path));
+      stats.record(repo, Kind.ofFetch(path), downloaded != null, elapsedMillis(start));
+      outcomes.put(repo, downloaded != null);
+      return downloaded;
+    }
+
+    // Stream straight into the local repository rather than copying it there afterwards
+    Path destination = localRepository.resolve(path);
+    try {
+      Files.createDirectories(destination.getParent());
+      CompletableFuture<Path> primary = fetchAsync(repo, path, destination, outcomes);
+      try {
+        // Only compared with requests of the same kind, so that fetching a large jar isn't taken
+        // as a sign that the repository is struggling
+        Kind kind = Kind.ofFetch(path);
+        URI mirror = findHedge(repo, kind, outcomes);
+        long threshold = stats.getP95LatencyMillis(repo, kind);
+        if (mirror == null || threshold < 0) {
+          return primary.get();
+        }
+        try {
+          return primary.get(threshold, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+          LOG.fine(
+              String.format(
+                  "%s is slower than usual (%dms). Also trying %s", repo, threshold, mirror));
+          // Both write to a temporary file and then rename it into place, so the loser can't leave
+          // a partial file behind, and overwriting the winner's copy with its own is harmless.
+          CompletableFuture<Path> hedge = fetchAsync(mirror, path, destination, outcomes);
+          try {
+            return firstFound(primary, hedge).get();
+          } finally {
+            // Stop whichever is still going rather than download the file twice
+            primary.cancel(true);
+            hedge.cancel(true);
+          }
+        }
+      } catch (InterruptedException e) {
+        // Don't leave the download running for a caller that has given up on it
+        primary.cancel(true);
+        throw e;
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof IOException) {
+        throw new UncheckedIOException((IOException) cause);
+      }
+      throw new RuntimeException(cause);
+    }
+  }
+
+  /** Fetches {@code path} from {@code repo}. Cancelling the result stops the download. */
+  private CompletableFuture<Path> fetchAsync(
+      URI repo, String path, Path destination, Map<URI, Boolean> outcomes) {
+    long start = System.nanoTime();
+    CompletableFuture<Path> download = downloadService.getAsync(buildUri(repo, path), destination);
+    CompletableFuture<Path> result =
+        download.whenComplete(
+            (downloaded, e) -> {
+              if (e == null) {
+                stats.record(repo, Kind.ofFetch(path), downloaded != null, elapsedMillis(start));
+                outcomes.put(repo, downloaded != null);
+              }
+            });
+    result.whenComplete(
+        (ignored, e) -> {
+          if (result.isCancelled()) {
+            download.cancel(true);
+          }
+        });
+    return result;
+  }
+
+  /** Returns the mirror of {@code repo} to hedge with, or null if there isn't one to try. */
+  private URI findHedge(URI repo, Kind kind, Map<URI, Boolean> outcomes) {
+    List<URI> candidates =
+        mirrors.getOrDefault(repo, List.of()).stream()
+            .filter(mirror -> !outcomes.containsKey(mirror))
+            .collect(Collectors.toList());
+    if (candidates.isEmpty()) {
+      return null;
+    }
+    return stats.order(candidates, kind).get(0);
+  }
+
+  /**
+   * Completes with the first of {@code futures} to find the file. If none do, completes with the
+   * first failure, or {@code null} if there were no failures.
+   */
+  @SafeVarargs
+  private static CompletableFuture<Path> firstFound(CompletableFuture<Path>... futures) {
+    CompletableFuture<Path> first = new CompletableFuture<>();
+    AtomicInteger outstanding = new AtomicInteger(futures.length);
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    BiConsumer<Path, Throwable> onDone =
+        (downloaded, e) -> {
+          if (downloaded != null) {
+            first.complete(downloaded);
+            return;
+          }
+          if (e != null) {
+            failure.compareAndSet(null, e);
+          }
+          if (outstanding.decrementAndGet() == 0) {
+            if (failure.get() != null) {
+              first.completeExceptionally(failure.get());
+            } else {
+              first.complete(null);
+            }
+          }
+        };
+    for (CompletableFuture<Path> future : futures) {
+      future.whenComplete(onDone);
+    }
+    return first;
+  }
+
+  private static Map<URI, List<URI>> findMirrors(
+      List<URI> repositories, Collection<? extends Collection<URI>> mirrorGroups) {
+    Map<URI, List<URI>> mirrors = new HashMap<>();
+    if (mirrorGroups == null) {
+      return mirrors;
+    }
+
+    for (Collection<URI> group : mirrorGroups) {
+      Set<URI> normalized =
+          group.stream().map(Downloader::normalize).collect(Collectors.toSet());
+      // Only repositories the user asked for may be used, and they may be spelt with credentials
+      List<URI> members =
+          repositories.stream()
+              .filter(repo -> normalized.contains(normalize(repo)))
+              .collect(Collectors.toList());
+      for (URI member : members) {
+        List<URI> others = new ArrayList<>(members);
+        others.remove(member);
+        mirrors.computeIfAbsent(member, ignored -> new ArrayList<>()).addAll(others);
+      }
+    }
+    return mirrors;
+  }
+
+  /**
+   * Parses mirror groups separated by semicolons, each a list of repository URLs separated by
+   * commas. For example: {@code https://a.example/m2,https://b.example/m2;https://c.example/m2}
+   */
+  public static List<List<URI>> parseMirrorGroups(String value) {
+    if (value == null || value.isBlank()) {
+      return List.of();
+    }
+
+    List<List<URI>> groups = new ArrayList<>();
+    for (String group : value.split(";")) {
+      List<URI> members = new ArrayList<>();
+      for (String member : group.split(",")) {
+        if (!member.isBlank()) {
+          members.add(URI.create(member.trim()));
+        }
+      }
+      if (members.size() > 1) {
+        groups.add(members);
+      }
+    }
+    return groups;
+  }
+
+  private static URI normalize(URI uri) {
+    String str = withoutUserInfo(uri).toString();
+    return URI.create(str.endsWith("/") ? str.substring(0, str.length() - 1) : str);
+  }
+
+  private static URI withoutUserInfo(URI uri) {
+    if (uri.getUserInfo() == null) {
+      return uri;
+    }
+    try {
+      return new URI(
+          uri.getScheme(),
+          null,
+          uri.getHost(),
+          uri.getPort(),
+          uri.getPath(),
+          uri.getQuery(),
+          uri.getFragment());
+    } catch (URISyntaxException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static long elapsedMillis(long startNanos) {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
   }
 
   private URI buildUri(URI baseUri, String pathInRepo) {
@@ -208,6 +675,14 @@ public class Downloader {
     return performDownload(coords, coords.toRepoPath());
   }
 
+  private DownloadResult performDownload(Coordinates coordsToUse, String path) {
+    DownloadResult result = findOrFetch(coordsToUse, path);
+    if (result != null) {
+      result.getPath().ifPresent(used::add);
+    }
+    return result;
+  }
+
   private boolean isFallbackAvailable(Coordinates coords) {
     String extension = coords.getExtension();
     if (extension.isEmpty() || "jar".equals(extension)) {
@@ -229,12 +704,50 @@ public class Downloader {
     return path.getFileName().toString().endsWith(".pom") && !"pom".equals(coords.getExtension());
   }
 
+  /**
+   * Fetches the file at {@code path} from the artifact cache, into the local repository if
+   * downloads are kept there and a temporary file otherwise.
+   *
+   * @return where the file was put, or null if the cache doesn't have it
+   */
+  private Path fetchFromArtifactCache(String sha256, String path) {
+    if (cacheDownloads) {
+      Path destination = localRepository.resolve(path);
+      return ArtifactCaches.fetch(artifactCache, sha256, destination) ? destination : null;
+    }
+
+    Path temp = null;
+    try {
+      temp = Files.createTempFile("resolver", "download");
+      if (ArtifactCaches.fetch(artifactCache, sha256, temp)) {
+        Path fetched = temp;
+        temp = null;
+        return fetched;
+      }
+      return null;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      if (temp != null) {
+        try {
+          Files.deleteIfExists(temp);
+        } catch (IOException e) {
+          LOG.fine(String.format("Unable to delete %s: %s", temp, e));
+        }
+      }
+    }
+  }
+
   private String calculateSha256(Path path) {
     try {
-      byte[] bytes = Files.readAllBytes(path);
-      return Hashing.sha256().hashBytes(bytes).toString();
+      return ThreadPools.runCpuBound(
+          () -> Hashing.sha256().hashBytes(Files.readAllBytes(path)).toString());
     } catch (IOException e) {
       throw new UncheckedIOException(e);
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new RuntimeException(e);
     }
   }
 }
@@ -0,0 +1,204 @@
+// Copyright 2026 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.resolver.remote;
+
+import java.io.ByteArrayOutputStream;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Decodes a gzip-encoded response body as it arrives, passing the decoded bytes on to another
+ * subscriber. Each chunk received produces exactly one (possibly empty) chunk for the downstream
+ * subscriber, so demand can be passed straight through.
+ */
+class GzipDecodingSubscriber<T> implements HttpResponse.BodySubscriber<T> {
+
+  private static final int FHCRC = 2;
+  private static final int FEXTRA = 4;
+  private static final int FNAME = 8;
+  private static final int FCOMMENT = 16;
+
+  private final HttpResponse.BodySubscriber<T> downstream;
+  private final Inflater inflater = new Inflater(true);
+  private final CRC32 crc = new CRC32();
+  private final byte[] output = new byte[16 * 1024];
+  // Holds the header until it has all arrived, and then the trailer
+  private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+  private boolean inHeader = true;
+  // What the inflater was last given, so we can find the trailer once it has finished
+  private byte[] input;
+  private int inputEnd;
+  private Flow.Subscription subscription;
+  private boolean failed;
+
+  GzipDecodingSubscriber(HttpResponse.BodySubscriber<T> downstream) {
+    this.downstream = downstream;
+  }
+
+  @Override
+  public CompletionStage<T> getBody() {
+    return downstream.getBody();
+  }
+
+  @Override
+  public void onSubscribe(Flow.Subscription subscription) {
+    this.subscription = subscription;
+    downstream.onSubscribe(subscription);
+  }
+
+  @Override
+  public void onNext(List<ByteBuffer> buffers) {
+    if (failed) {
+      return;
+    }
+
+    List<ByteBuffer> decoded = new ArrayList<>();
+    try {
+      for (ByteBuffer buffer : buffers) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        decode(bytes, decoded);
+      }
+    } catch (ZipException | DataFormatException e) {
+      fail(e);
+      return;
+    }
+    downstream.onNext(decoded);
+  }
+
+  @Override
+  public void onError(Throwable throwable) {
+    inflater.end();
+    if (!failed) {
+      downstream.onError(throwable);
+    }
+  }
+
+  @Override
+  public void onComplete() {
+    if (failed) {
+      return;
+    }
+    inflater.end();
+
+    byte[] trailer = pending.toByteArray();
+    if (inHeader || trailer.length < 8) {
+      fail(new ZipException("Truncated gzip response"));
+      return;
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(trailer).order(ByteOrder.LITTLE_ENDIAN);
+    if ((buffer.getInt(0) & 0xffffffffL) != crc.getValue()) {
+      fail(new ZipException("Corrupt gzip response: CRC mismatch"));
+      return;
+    }
+    downstream.onComplete();
+  }
+
+  private void decode(byte[] bytes, List<ByteBuffer> decoded)
+      throws ZipException, DataFormatException {
+    if (inHeader) {
+      pending.write(bytes, 0, bytes.length);
+      byte[] soFar = pending.toByteArray();
+      int headerLength = getHeaderLength(soFar);
+      if (headerLength < 0) {
+        return;
+      }
+      inHeader = false;
+      pending = new ByteArrayOutputStream();
+      setInput(soFar, headerLength);
+    } else if (inflater.finished()) {
+      pending.write(bytes, 0, bytes.length);
+      return;
+    } else {
+      setInput(bytes, 0);
+    }
+
+    while (!inflater.finished() && !inflater.needsInput()) {
+      int count = inflater.inflate(output);
+      if (count > 0) {
+        crc.update(output, 0, count);
+        decoded.add(ByteBuffer.wrap(output.clone(), 0, count));
+      } else if (inflater.needsDictionary()) {
+        throw new ZipException("Unsupported gzip response: needs a dictionary");
+      }
+    }
+
+    if (inflater.finished()) {
+      // Whatever the inflater didn't read is the start of the trailer
+      int remaining = inflater.getRemaining();
+      pending.write(input, inputEnd - remaining, remaining);
+    }
+  }
+
+  private void setInput(byte[] bytes, int offset) {
+    input = bytes;
+    inputEnd = bytes.length;
+    inflater.setInput(bytes, offset, bytes.length - offset);
+  }
+
+  /** Returns the length of the gzip header at the start of {@code bytes}, or -1 if incomplete. */
+  private static int getHeaderLength(byte[] bytes) throws ZipException {
+    if (bytes.length < 10) {
+      return -1;
+    }
+    if ((bytes[0] & 0xff) != 0x1f || (bytes[1] & 0xff) != 0x8b || bytes[2] != 8) {
+      throw new ZipException("Not in gzip format");
+    }
+
+    int flags = bytes[3] & 0xff;
+    int index = 10;
+    if ((flags & FEXTRA) != 0) {
+      if (bytes.length < index + 2) {
+        return -1;
+      }
+      index += 2 + ((bytes[index] & 0xff) | ((bytes[index + 1] & 0xff) << 8));
+    }
+    if ((flags & FNAME) != 0) {
+      index = skipZeroTerminated(bytes, index);
+    }
+    if ((flags & FCOMMENT) != 0 && index >= 0) {
+      index = skipZeroTerminated(bytes, index);
+    }
+    if ((flags & FHCRC) != 0 && index >= 0) {
+      index += 2;
+    }
+    return index >= 0 && index <= bytes.length ? index : -1;
+  }
+
+  private static int skipZeroTerminated(byte[] bytes, int index) {
+    for (int i = index; i < bytes.length; i++) {
+      if (bytes[i] == 0) {
+        return i + 1;
+      }
+    }
+    return -1;
+  }
+
+  private void fail(Exception e) {
+    failed = true;
+    inflater.end();
+    subscription.cancel();
+    downstream.onError(e);
+  }
+}
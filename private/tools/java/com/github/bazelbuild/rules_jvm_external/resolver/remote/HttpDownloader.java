@@ -17,8 +17,16 @@ package com.github.bazelbuild.rules_jvm_external.resolver.remote;
 import static com.github.bazelbuild.rules_jvm_external.resolver.events.DownloadEvent.Stage.COMPLETE;
 import static com.github.bazelbuild.rules_jvm_external.resolver.events.DownloadEvent.Stage.STARTING;
 import static java.net.HttpURLConnection.HTTP_NOT_FOUND;
-import static java.net.http.HttpClient.Redirect.ALWAYS;
-
+import static java.net.HttpURLConnection.HTTP_UNAUTHORIZED;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.github.bazelbuild.rules_jvm_external.HttpClients;
 import com.github.bazelbuild.rules_jvm_external.resolver.DownloadService;
 import com.github.bazelbuild.rules_jvm_external.resolver.SpiLoader;
 import com.github.bazelbuild.rules_jvm_external.resolver.events.DownloadEvent;
@@ -33,19 +41,33 @@ import java.io.UncheckedIOException;
 import java.net.Authenticator;
 import java.net.ConnectException;
 import java.net.PasswordAuthentication;
-import java.net.ProxySelector;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Duration;
+import java.util.Base64;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 import java.util.logging.Logger;
 
 public class HttpDownloader implements AutoCloseable, DownloadService {
@@ -53,49 +75,63 @@ public class HttpDownloader implements AutoCloseable, DownloadService {
   private static final int MAX_RETRY_COUNT = 3;
   private static final Set<Integer> RETRY_RESPONSE_CODES = Set.of(500, 502, 503, 504);
   private static final Set<Integer> UNAUTHENTICATED_RESPONSE_CODES = Set.of(401, 403, 407);
+  private static final Set<String> COMPRESSIBLE_EXTENSIONS = Set.of(".pom", ".xml", ".module");
   private static final Logger LOG = Logger.getLogger(HttpDownloader.class.getName());
-  private final HttpClient client;
   private final EventListener listener;
+  private final Netrc netrc;
   private final Set<String> authenticationFailed = Collections.synchronizedSet(new HashSet<>());
+  // Hosts that have asked us to authenticate. Every later request to them carries credentials
+  // up front, rather than waiting to be challenged again.
+  private final Set<String> challengedHosts = ConcurrentHashMap.newKeySet();
+  // Only created if a request needs to go through a proxy
+  private volatile HttpClient proxyClient;
 
   public HttpDownloader(Netrc netrc, EventListener listener) {
     this.listener = listener;
-
-    HttpClient.Builder builder =
-        HttpClient.newBuilder()
-            .connectTimeout(Duration.ofSeconds(300))
-            .followRedirects(ALWAYS)
-            .proxy(ProxySelector.getDefault());
-    Authenticator authenticator =
-        new Authenticator() {
-          @Override
-          protected PasswordAuthentication getPasswordAuthentication() {
-            String host = getRequestingHost();
-            Netrc.Credential credential = netrc.getCredential(host);
-            if (credential == null) {
-              // By returning `null` here, we will cause the `AuthenticationFilter` to throw
-              // an exception, which we can catch and deal with later. If we don't do this,
-              // then the JDK HttpClient will attempt to retry the authentication request up
-              // to (by default) 3 times, which is not the behaviour we want.
-              return null;
-            }
-
-            String userName = credential.account();
-            if (userName == null || userName.isEmpty()) {
-              userName = credential.login();
-            }
-
-            return new PasswordAuthentication(userName, credential.password().toCharArray());
-          }
-        };
-    builder = builder.authenticator(authenticator);
-    this.client = builder.build();
+    this.netrc = netrc;
   }
 
   public HttpDownloader(Netrc netrc) {
     this(netrc, defaultEventListener());
   }
 
+  /**
+   * Direct connections use the process-wide client, and we answer servers' challenges ourselves.
+   * A proxy may need to challenge us too, and only the JDK's `Authenticator` can answer that, so
+   * proxied requests use a client of their own. The JDK drops any `Authorization` header we set
+   * ourselves on a client with an `Authenticator`, so that client never sends credentials up
+   * front.
+   */
+  private HttpClient clientFor(HttpRequest request) {
+    if (HttpClients.isDirect(request.uri())) {
+      return HttpClients.shared();
+    }
+    if (proxyClient == null) {
+      synchronized (this) {
+        if (proxyClient == null) {
+          proxyClient = HttpClients.newBuilder().authenticator(createAuthenticator()).build();
+        }
+      }
+    }
+    return proxyClient;
+  }
+
+  private Authenticator createAuthenticator() {
+    return new Authenticator() {
+      @Override
+      protected PasswordAuthentication getPasswordAuthentication() {
+        String host = getRequestingHost();
+        challengedHosts.add(host);
+
+        // By returning `null` when there are no credentials, we will cause the
+        // `AuthenticationFilter` to throw an exception, which we can catch and deal with later.
+        // If we don't do this, then the JDK HttpClient will attempt to retry the authentication
+        // request up to (by default) 3 times, which is not the behaviour we want.
+        return toPasswordAuthentication(netrc.getCredential(host));
+      }
+    };
+  }
+
   public static EventListener defaultEventListener() {
     boolean termAvailable = !Objects.equals(System.getenv().get("TERM"), "dumb");
     boolean consoleAvailable = System.console() != null;
@@ -117,7 +153,7 @@ public class HttpDownloader implements AutoCloseable, DownloadService {
       return null;
     }
 
-    HttpRequest request = startPreparingRequest(uriToGet).GET().build();
+    HttpRequest request = prepareGet(uriToGet);
 
     try {
       Path path = Files.createTempFile("resolver", "download");
@@ -134,6 +170,128 @@ public class HttpDownloader implements AutoCloseable, DownloadService {
     }
   }
 
+  @Override
+  public CompletableFuture<Path> getAsync(URI uri, Path destination) {
+    if ("file".equals(uri.getScheme())) {
+      return DownloadService.super.getAsync(uri, destination);
+    }
+
+    HttpRequest request = prepareGet(uri);
+
+    // Download next to the destination and then move into place, so that nothing ever sees a
+    // partially written file, and the content is still only written to disk once.
+    Path partial;
+    try {
+      partial =
+          Files.createTempFile(
+              destination.toAbsolutePath().getParent(),
+              destination.getFileName().toString(),
+              ".part");
+    } catch (IOException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+
+    // Cancelling the download abandons whatever is left of the body, rather than fetching the
+    // rest of it only to throw it away
+    AtomicBoolean cancelled = new AtomicBoolean();
+    AtomicReference<CancellableSubscriber<Path>> current = new AtomicReference<>();
+    HttpResponse.BodyHandler<Path> handler =
+        info -> {
+          if (!isSuccessful(info.statusCode())) {
+            return HttpResponse.BodySubscribers.replacing(null);
+          }
+          CancellableSubscriber<Path> subscriber =
+              new CancellableSubscriber<>(
+                  HttpResponse.BodySubscribers.ofFile(partial, CREATE, WRITE, TRUNCATE_EXISTING),
+                  cancelled);
+          current.set(subscriber);
+          return subscriber;
+        };
+
+    CompletableFuture<Path> download =
+        makeRequestAsync(request, handler)
+            .handle(
+                (response, error) -> {
+                  try {
+                    if (error != null || !isSuccessful(response)) {
+                      Files.deleteIfExists(partial);
+                      if (error != null) {
+                        throw error instanceof CompletionException
+                            ? (CompletionException) error
+                            : new CompletionException(error);
+                      }
+                      return null;
+                    }
+                    Files.move(partial, destination, REPLACE_EXISTING, ATOMIC_MOVE);
+                    return destination;
+                  } catch (IOException e) {
+                    throw new CompletionException(e);
+                  }
+                });
+
+    // Kept apart from the download, so that cancelling the result still leaves the download to
+    // tidy up after itself
+    CompletableFuture<Path> result = new CompletableFuture<>();
+    download.whenComplete(
+        (downloaded, e) -> {
+          if (e != null) {
+            result.completeExceptionally(e);
+          } else {
+            result.complete(downloaded);
+          }
+        });
+    result.whenComplete(
+        (ignored, e) -> {
+          if (result.isCancelled()) {
+            cancelled.set(true);
+            CancellableSubscriber<Path> subscriber = current.get();
+            if (subscriber != null) {
+              subscriber.abandon();
+            }
+          }
+        });
+    return result;
+  }
+
+  @Override
+  public CompletableFuture<Boolean> getAsync(URI uri, WritableByteChannel channel) {
+    if ("file".equals(uri.getScheme())) {
+      return DownloadService.super.getAsync(uri, channel);
+    }
+
+    HttpRequest request = prepareGet(uri);
+
+    // A retry after some of the body has been written has to start the channel again from scratch
+    AtomicBoolean written = new AtomicBoolean();
+    HttpResponse.BodyHandler<Boolean> handler =
+        info -> {
+          if (!isSuccessful(info.statusCode())) {
+            return HttpResponse.BodySubscribers.replacing(false);
+          }
+          if (written.getAndSet(true)) {
+            rewind(channel, uri);
+          }
+          return new ChannelSubscriber(channel);
+        };
+
+    return makeRequestAsync(request, handler)
+        .thenApply(response -> isSuccessful(response) && Boolean.TRUE.equals(response.body()));
+  }
+
+  private static void rewind(WritableByteChannel channel, URI uri) {
+    try {
+      if (channel instanceof ResettableChannel) {
+        ((ResettableChannel) channel).reset();
+      } else if (channel instanceof SeekableByteChannel) {
+        ((SeekableByteChannel) channel).position(0).truncate(0);
+      } else {
+        throw new IOException("Unable to retry a partially streamed download of " + uri);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
   @Override
   public boolean head(URI uri) {
     if ("file".equals(uri.getScheme())) {
@@ -149,83 +307,241 @@ public class HttpDownloader implements AutoCloseable, DownloadService {
     return isSuccessful(response);
   }
 
+  private HttpRequest prepareGet(URI uri) {
+    HttpRequest.Builder builder = startPreparingRequest(uri).GET();
+    // Metadata compresses well and makes up most of the requests made during resolution. Checksum
+    // sidecars are left alone, as a short hex digest only gets longer when gzipped.
+    if (isCompressible(uri)) {
+      builder.header("Accept-Encoding", "gzip");
+    }
+    return builder.build();
+  }
+
+  private static boolean isCompressible(URI uri) {
+    String path = uri.getPath();
+    if (path == null) {
+      return false;
+    }
+    return COMPRESSIBLE_EXTENSIONS.stream().anyMatch(path::endsWith);
+  }
+
   private HttpRequest.Builder startPreparingRequest(URI uri) {
-    return HttpRequest.newBuilder()
-        .uri(uri)
-        .header("User-Agent", "rules_jvm_external resolver")
-        .timeout(Duration.ofMinutes(10));
+    HttpRequest.Builder builder =
+        HttpRequest.newBuilder()
+            .uri(uri)
+            .header("User-Agent", "rules_jvm_external resolver")
+            .timeout(Duration.ofMinutes(10));
+
+    addPreemptiveCredentials(builder, uri);
+    return builder;
+  }
+
+  /**
+   * Waiting to be challenged for credentials costs an extra round trip per request, so send them
+   * straight away to hosts we know will want them.
+   *
+   * @return whether any credentials were added
+   */
+  private boolean addPreemptiveCredentials(HttpRequest.Builder builder, URI uri) {
+    PasswordAuthentication credentials = getPreemptiveCredentials(uri);
+    if (credentials == null) {
+      return false;
+    }
+    String token = credentials.getUserName() + ":" + new String(credentials.getPassword());
+    builder.header(
+        "Authorization", "Basic " + Base64.getEncoder().encodeToString(token.getBytes(UTF_8)));
+    return true;
+  }
+
+  private PasswordAuthentication getPreemptiveCredentials(URI uri) {
+    if (!HttpClients.isDirect(uri)) {
+      return null;
+    }
+
+    // Credentials given in the repository URL are always meant to be used
+    String userInfo = uri.getUserInfo();
+    if (userInfo != null && userInfo.contains(":")) {
+      int index = userInfo.indexOf(':');
+      return new PasswordAuthentication(
+          userInfo.substring(0, index), userInfo.substring(index + 1).toCharArray());
+    }
+
+    String host = uri.getHost();
+    if (host == null) {
+      return null;
+    }
+
+    // A netrc entry for the host says it wants authenticating. The default entry may be meant
+    // for some other host, so only use that once we've been asked for credentials.
+    Netrc.Credential credential = netrc.credentials().get(host);
+    if (credential == null && challengedHosts.contains(host)) {
+      credential = netrc.defaultCredential();
+    }
+    return toPasswordAuthentication(credential);
+  }
+
+  private static PasswordAuthentication toPasswordAuthentication(Netrc.Credential credential) {
+    if (credential == null) {
+      return null;
+    }
+
+    String userName = credential.account();
+    if (userName == null || userName.isEmpty()) {
+      userName = credential.login();
+    }
+
+    return new PasswordAuthentication(userName, credential.password().toCharArray());
   }
 
   private <X> HttpResponse<X> makeRequest(
       HttpRequest request, HttpResponse.BodyHandler<X> handler) {
-    return doRequest(0, request, handler);
+    CompletableFuture<HttpResponse<X>> response = makeRequestAsync(request, handler);
+    try {
+      return response.get();
+    } catch (InterruptedException e) {
+      response.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new RuntimeException(cause);
+    }
+  }
+
+  private <X> CompletableFuture<HttpResponse<X>> makeRequestAsync(
+      HttpRequest request, HttpResponse.BodyHandler<X> handler) {
+    if (request.headers().firstValue("Accept-Encoding").isEmpty()) {
+      return doRequest(0, request, handler);
+    }
+
+    // The JDK client leaves decoding to us. We only do it when we asked for an encoding, since
+    // some servers wrongly mark already compressed artifacts as being gzip encoded.
+    HttpResponse.BodyHandler<X> decoding =
+        info -> {
+          HttpResponse.BodySubscriber<X> subscriber = handler.apply(info);
+          boolean gzipped =
+              info.headers().firstValue("Content-Encoding").filter("gzip"::equalsIgnoreCase)
+                  .isPresent();
+          return gzipped ? new GzipDecodingSubscriber<>(subscriber) : subscriber;
+        };
+    return doRequest(0, request, decoding);
   }
 
-  private <X> HttpResponse<X> doRequest(
+  private <X> CompletableFuture<HttpResponse<X>> doRequest(
       int attemptCount, HttpRequest request, HttpResponse.BodyHandler<X> handler) {
     listener.onEvent(new DownloadEvent(STARTING, request.method(), request.uri().toString()));
     LOG.fine(String.format("Downloading (attempt %d): %s", attemptCount, request.uri()));
 
     // Slight pause, in case a previous attempt overwhelmed a server. We may be about to do it
-    // again,
-    // but this might just help a little.
-    try {
-      Thread.sleep(attemptCount * 500L);
-    } catch (InterruptedException e) {
-      Thread.currentThread().interrupt();
-      throw new RuntimeException(e);
+    // again, but this might just help a little.
+    CompletableFuture<Void> pause =
+        attemptCount == 0
+            ? CompletableFuture.completedFuture(null)
+            : CompletableFuture.runAsync(
+                () -> {},
+                CompletableFuture.delayedExecutor(attemptCount * 500L, MILLISECONDS));
+
+    return pause
+        .thenCompose(ignored -> clientFor(request).sendAsync(request, handler))
+        .handle(
+            (response, error) -> {
+              LOG.fine(String.format("Downloaded (attempt %d): %s", attemptCount, request.uri()));
+              listener.onEvent(
+                  new DownloadEvent(COMPLETE, request.method(), request.uri().toString()));
+
+              if (error == null) {
+                return onResponse(attemptCount, request, handler, response);
+              }
+              return onFailure(attemptCount, request, handler, unwrap(error));
+            })
+        .thenCompose(Function.identity());
+  }
+
+  private <X> CompletableFuture<HttpResponse<X>> onResponse(
+      int attemptCount,
+      HttpRequest request,
+      HttpResponse.BodyHandler<X> handler,
+      HttpResponse<X> response) {
+    LOG.fine(String.format("%s -> Got response %d", request.uri(), response.statusCode()));
+
+    // Do we want to retry the request?
+    if (RETRY_RESPONSE_CODES.contains(response.statusCode())) {
+      return doRequest(attemptCount + 1, request, handler);
     }
-    try {
-      HttpResponse<X> response = client.send(request, handler);
-      LOG.fine(String.format("%s -> Got response %d%n", request.uri(), response.statusCode()));
 
-      // Do we want to retry the request?
-      if (RETRY_RESPONSE_CODES.contains(response.statusCode())) {
-        return doRequest(++attemptCount, request, handler);
+    // After a redirect, this is the request to wherever it pointed, which will have been sent
+    // without any credentials meant for the original host
+    HttpRequest answered = response.request();
+    if (response.statusCode() == HTTP_UNAUTHORIZED
+        && answered.headers().firstValue("Authorization").isEmpty()
+        && HttpClients.isDirect(answered.uri())) {
+      // We've been challenged for credentials we didn't send. Remember that the host wants them,
+      // and if we have any, try again with them.
+      challengedHosts.add(answered.uri().getHost());
+      HttpRequest.Builder retry = HttpRequest.newBuilder(answered, (name, value) -> true);
+      if (addPreemptiveCredentials(retry, answered.uri())) {
+        return doRequest(attemptCount, retry.build(), handler);
       }
+    }
 
-      if (UNAUTHENTICATED_RESPONSE_CODES.contains(response.statusCode())) {
-        logFailedAuthenticationIfRequired(request);
-        return new EmptyResponse<>(request, response.statusCode());
-      }
+    if (UNAUTHENTICATED_RESPONSE_CODES.contains(response.statusCode())) {
+      logFailedAuthenticationIfRequired(request);
+      return CompletableFuture.completedFuture(
+          new EmptyResponse<>(request, response.statusCode()));
+    }
+
+    return CompletableFuture.completedFuture(response);
+  }
 
-      return response;
-    } catch (ConnectException e) {
+  private <X> CompletableFuture<HttpResponse<X>> onFailure(
+      int attemptCount,
+      HttpRequest request,
+      HttpResponse.BodyHandler<X> handler,
+      Throwable error) {
+    if (error instanceof ConnectException) {
       // Unable to connect to the remote server. Report the URL as not being found
       LOG.fine(String.format("Unable to connect to remote server: %s", request.uri()));
-      return new EmptyResponse<>(request, HTTP_NOT_FOUND);
-    } catch (IOException e) {
-      LOG.fine(String.format("Attempt %d failed for %s", attemptCount, request.uri()));
-
-      // We may have failed because of an authentication error. The `AuthenticationFilter`
-      // doesn't make it easy to detect this case (because it will only return a response
-      // with the unauthenticated error code if we'd not used _any_ authenticator in our
-      // HttpClient, so we have to examine the exception's error message and hope for the
-      // best. This is very, very nasty
-      if ("No credentials provided".equals(e.getMessage())) {
-        logFailedAuthenticationIfRequired(request);
-        return new EmptyResponse<>(request, 401);
-      }
+      return CompletableFuture.completedFuture(new EmptyResponse<>(request, HTTP_NOT_FOUND));
+    }
 
-      // There are many reasons we may have seen an IOException. One is when an HTTP/2 server sends
-      // a `GOAWAY` frame.
-      // Don't panic. Just have another go.
+    if (!(error instanceof IOException)) {
+      return CompletableFuture.failedFuture(error);
+    }
 
-      if (attemptCount < MAX_RETRY_COUNT) {
-        listener.onEvent(new DownloadEvent(COMPLETE, request.method(), request.uri().toString()));
-        return doRequest(++attemptCount, request, handler);
-      }
+    LOG.fine(String.format("Attempt %d failed for %s", attemptCount, request.uri()));
 
-      // But in all other cases, get very upset.
-      throw new UncheckedIOException(e);
-    } catch (InterruptedException e) {
-      LOG.fine(String.format("Attempt %d interrupted for %s", attemptCount, request.uri()));
-      Thread.currentThread().interrupt();
-      throw new RuntimeException(e);
-    } finally {
-      LOG.fine(String.format("Downloaded (attempt %d): %s", attemptCount, request.uri()));
-      listener.onEvent(new DownloadEvent(COMPLETE, request.method(), request.uri().toString()));
+    // We may have failed because of an authentication error. The `AuthenticationFilter`
+    // doesn't make it easy to detect this case (because it will only return a response
+    // with the unauthenticated error code if we'd not used _any_ authenticator in our
+    // HttpClient, so we have to examine the exception's error message and hope for the
+    // best. This is very, very nasty
+    if ("No credentials provided".equals(error.getMessage())) {
+      logFailedAuthenticationIfRequired(request);
+      return CompletableFuture.completedFuture(new EmptyResponse<>(request, 401));
     }
+
+    // There are many reasons we may have seen an IOException. One is when an HTTP/2 server sends
+    // a `GOAWAY` frame.
+    // Don't panic. Just have another go.
+    if (attemptCount < MAX_RETRY_COUNT) {
+      return doRequest(attemptCount + 1, request, handler);
+    }
+
+    // But in all other cases, get very upset.
+    return CompletableFuture.failedFuture(new UncheckedIOException((IOException) error));
+  }
+
+  private static Throwable unwrap(Throwable error) {
+    if (error instanceof CompletionException && error.getCause() != null) {
+      return error.getCause();
+    }
+    return error;
   }
 
   private void logFailedAuthenticationIfRequired(HttpRequest request) {
@@ -242,7 +558,11 @@ public class HttpDownloader implements AutoCloseable, DownloadService {
   }
 
   private boolean isSuccessful(HttpResponse<?> response) {
-    return response.statusCode() > 199 && response.statusCode() < 300;
+    return isSuccessful(response.statusCode());
+  }
+
+  private static boolean isSuccessful(int statusCode) {
+    return statusCode > 199 && statusCode < 300;
   }
 
   @Override
@@ -250,7 +570,114 @@ public class HttpDownloader implements AutoCloseable, DownloadService {
     listener.close();
   }
 
+  /** Writes a response body to a channel as it arrives. */
+  private static class ChannelSubscriber implements HttpResponse.BodySubscriber<Boolean> {
+    private final WritableByteChannel channel;
+    private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+    private Flow.Subscription subscription;
+
+    ChannelSubscriber(WritableByteChannel channel) {
+      this.channel = channel;
+    }
+
+    @Override
+    public CompletionStage<Boolean> getBody() {
+      return result;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      this.subscription = subscription;
+      subscription.request(1);
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> buffers) {
+      try {
+        for (ByteBuffer buffer : buffers) {
+          while (buffer.hasRemaining()) {
+            channel.write(buffer);
+          }
+        }
+        subscription.request(1);
+      } catch (IOException e) {
+        subscription.cancel();
+        result.completeExceptionally(e);
+      }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      result.completeExceptionally(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+      result.complete(true);
+    }
+  }
+
+  /**
+   * Passes a response body on to another subscriber, unless the download is cancelled, when the
+   * rest of the body is abandoned and the other subscriber fails with a {@link
+   * CancellationException}.
+   */
+  private static class CancellableSubscriber<T> implements HttpResponse.BodySubscriber<T> {
+    private final HttpResponse.BodySubscriber<T> delegate;
+    private final AtomicBoolean cancelled;
+    private final AtomicBoolean finished = new AtomicBoolean();
+    private volatile Flow.Subscription subscription;
+
+    CancellableSubscriber(HttpResponse.BodySubscriber<T> delegate, AtomicBoolean cancelled) {
+      this.delegate = delegate;
+      this.cancelled = cancelled;
+    }
+
+    @Override
+    public CompletionStage<T> getBody() {
+      return delegate.getBody();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      this.subscription = subscription;
+      delegate.onSubscribe(subscription);
+      // The download may have been cancelled before the response arrived
+      if (cancelled.get()) {
+        abandon();
+      }
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> item) {
+      if (!finished.get()) {
+        delegate.onNext(item);
+      }
+    }
 
+    @Override
+    public void onError(Throwable throwable) {
+      if (finished.compareAndSet(false, true)) {
+        delegate.onError(throwable);
+      }
+    }
+
+    @Override
+    public void onComplete() {
+      if (finished.compareAndSet(false, true)) {
+        delegate.onComplete();
+      }
+    }
+
+    void abandon() {
+      Flow.Subscription subscription = this.subscription;
+      if (subscription == null || !finished.compareAndSet(false, true)) {
+        return;
+      }
+      subscription.cancel();
+      delegate.onError(new CancellationException());
+    }
+  }
 
   public static DownloadService resolve(Netrc netrc, EventListener listener) {
     HttpDownloader defaultDownloader = new HttpDownloader(netrc, listener);
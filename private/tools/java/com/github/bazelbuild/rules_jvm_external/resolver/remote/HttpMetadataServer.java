@@ -0,0 +1,242 @@
+// Copyright 2026 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.resolver.remote;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.github.bazelbuild.rules_jvm_external.Coordinates;
+import com.github.bazelbuild.rules_jvm_external.ThreadPools;
+import com.github.bazelbuild.rules_jvm_external.resolver.DependencyMetadata;
+import com.github.bazelbuild.rules_jvm_external.resolver.MetadataService;
+import com.github.bazelbuild.rules_jvm_external.resolver.netrc.Netrc;
+import com.github.bazelbuild.rules_jvm_external.resolver.ui.NullListener;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * A reference server for {@link HttpMetadataService}, which answers requests for the metadata of
+ * many artifacts at once using a {@link MetadataService} of its own.
+ *
+ * <p>A request is a {@code POST} to {@code <base>/metadata} of a JSON object holding a list of
+ * {@code repositories} and a list of {@code coordinates}. The response is a stream of JSON
+ * objects, one per line, each written as soon as the answer for one artifact is known. Each has the
+ * artifact's {@code coordinates} and a {@code status}, which is one of:
+ *
+ * <ul>
+ *   <li>{@code found}, along with the artifact's {@code sha256}, the {@code repositories} it was
+ *       found in (given as indexes into the requested repositories), and the {@code packages},
+ *       {@code classes} and {@code services} it contains
+ *   <li>{@code absent}, when there is nothing to say about the artifact
+ *   <li>{@code not-found}, when the artifact couldn't be found anywhere, with a {@code message}
+ *   <li>{@code error}, when something else went wrong, with a {@code message}
+ * </ul>
+ *
+ * <p>Requests include any credentials in the repository URLs, so the server only listens on the
+ * loopback address.
+ */
+public class HttpMetadataServer implements AutoCloseable {
+
+  private static final Logger LOG = Logger.getLogger(HttpMetadataServer.class.getName());
+  private static final Gson GSON = new GsonBuilder().disableHtmlEscaping().create();
+
+  private final Function<List<URI>, MetadataService> services;
+  private final HttpServer server;
+  private final ExecutorService handlers;
+  private final ExecutorService workers;
+
+  /**
+   * @param port the port to listen on, or 0 to pick any free port
+   * @param services creates the service that answers requests that name each list of repositories
+   * @param threads how many artifacts to work on at once
+   */
+  public HttpMetadataServer(int port, Function<List<URI>, MetadataService> services, int threads)
+      throws IOException {
+    this.services = services;
+    this.server =
+        HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    this.handlers = Executors.newCachedThreadPool(ThreadPools.newIoThreadFactory("metadata-http"));
+    this.workers = ThreadPools.newIoExecutor(threads, "metadata-server");
+    server.setExecutor(handlers);
+    server.createContext("/metadata", this::handle);
+    server.start();
+  }
+
+  /**
+   * Returns a factory for services that find artifacts the same way the resolvers do, keeping what
+   * they download in {@code localRepository}.
+   */
+  public static Function<List<URI>, MetadataService> localMetadataServices(
+      Netrc netrc, Path localRepository) {
+    Map<List<URI>, MetadataService> services = new ConcurrentHashMap<>();
+    return repositories ->
+        services.computeIfAbsent(
+            List.copyOf(repositories),
+            repos ->
+                new LocalMetadataService(
+                    new Downloader(
+                        netrc, localRepository, repos, new NullListener(), true, Map.of())));
+  }
+
+  /** The URL that {@link HttpMetadataService} should be given to talk to this server. */
+  public URI getUri() {
+    return URI.create("http://localhost:" + server.getAddress().getPort() + "/");
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    workers.shutdownNow();
+    handlers.shutdownNow();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      if (!"POST".equals(exchange.getRequestMethod())) {
+        exchange.sendResponseHeaders(405, -1);
+        return;
+      }
+
+      List<URI> repositories = new ArrayList<>();
+      List<Coordinates> coords = new ArrayList<>();
+      try (Reader reader = new InputStreamReader(exchange.getRequestBody(), UTF_8)) {
+        JsonObject request = JsonParser.parseReader(reader).getAsJsonObject();
+        for (JsonElement repo : request.getAsJsonArray("repositories")) {
+          repositories.add(URI.create(repo.getAsString()));
+        }
+        for (JsonElement coord : request.getAsJsonArray("coordinates")) {
+          coords.add(new Coordinates(coord.getAsString()));
+        }
+      } catch (RuntimeException e) {
+        exchange.sendResponseHeaders(400, -1);
+        return;
+      }
+
+      Map<Coordinates, CompletableFuture<DependencyMetadata>> results =
+          services.apply(repositories).getAllMetadata(coords, repositories, workers);
+
+      exchange.getResponseHeaders().add("Content-Type", "application/x-ndjson");
+      exchange.sendResponseHeaders(200, 0);
+      OutputStream out = exchange.getResponseBody();
+      List<CompletableFuture<?>> written = new ArrayList<>();
+      for (Map.Entry<Coordinates, CompletableFuture<DependencyMetadata>> entry :
+          results.entrySet()) {
+        Coordinates requested = entry.getKey();
+        written.add(
+            entry
+                .getValue()
+                .handle((metadata, failure) -> render(requested, repositories, metadata, failure))
+                .thenAccept(line -> write(out, line)));
+      }
+      CompletableFuture.allOf(written.toArray(new CompletableFuture<?>[0])).join();
+    } catch (RuntimeException e) {
+      LOG.warning("Unable to answer a request for metadata: " + e);
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private static String render(
+      Coordinates coords, List<URI> repositories, DependencyMetadata metadata, Throwable failure) {
+    Map<String, Object> line = new LinkedHashMap<>();
+    line.put("coordinates", coords.toString());
+    Throwable cause =
+        failure instanceof CompletionException && failure.getCause() != null
+            ? failure.getCause()
+            : failure;
+    if (cause instanceof UriNotFoundException) {
+      line.put("status", "not-found");
+      line.put("message", cause.getMessage());
+    } else if (cause != null) {
+      line.put("status", "error");
+      line.put("message", String.valueOf(cause));
+    } else if (metadata == null) {
+      line.put("status", "absent");
+    } else {
+      line.put("status", "found");
+      line.put("sha256", metadata.getSha256());
+      List<Integer> foundIn = new ArrayList<>();
+      for (URI repo : metadata.getRepositories()) {
+        foundIn.add(repositories.indexOf(repo));
+      }
+      line.put("repositories", foundIn);
+      line.put("packages", new TreeSet<>(metadata.getPackages()));
+      line.put("classes", new TreeSet<>(metadata.getClasses()));
+      Map<String, Object> services = new TreeMap<>();
+      metadata.getServices().forEach((name, impls) -> services.put(name, new TreeSet<>(impls)));
+      line.put("services", services);
+    }
+    return GSON.toJson(line) + "\n";
+  }
+
+  private static void write(OutputStream out, String line) {
+    synchronized (out) {
+      try {
+        out.write(line.getBytes(UTF_8));
+        out.flush();
+      } catch (IOException e) {
+        // The client has gone away. The remaining answers will fail the same way.
+        LOG.fine("Unable to send metadata: " + e);
+      }
+    }
+  }
+
+  /**
+   * Serves metadata on the given port, keeping downloads in {@code ~/.m2/repository} or the
+   * directory given as the second argument.
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1 || args.length > 2) {
+      System.err.println("Usage: HttpMetadataServer <port> [local repository]");
+      System.exit(1);
+    }
+    Path localRepository =
+        args.length > 1
+            ? Paths.get(args[1])
+            : Paths.get(System.getProperty("user.home"), ".m2", "repository");
+    HttpMetadataServer server =
+        new HttpMetadataServer(
+            Integer.parseInt(args[0]),
+            localMetadataServices(Netrc.fromUserHome(), localRepository),
+            Runtime.getRuntime().availableProcessors());
+    System.err.println("Serving metadata at " + server.getUri());
+  }
+}
@@ -0,0 +1,250 @@
+// Copyright 2026 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.resolver.remote;
+
+import com.github.bazelbuild.rules_jvm_external.Coordinates;
+import com.github.bazelbuild.rules_jvm_external.HttpClients;
+import com.github.bazelbuild.rules_jvm_external.resolver.DependencyMetadata;
+import com.github.bazelbuild.rules_jvm_external.resolver.MetadataService;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
+
+/**
+ * A {@link MetadataService} that asks a server, such as {@link HttpMetadataServer}, for the
+ * metadata of every artifact in a single request, and hands out each answer as soon as it
+ * arrives.
+ *
+ * <p>When loaded via SPI, the server's URL is taken from {@code RJE_METADATA_SERVICE_URL}. If that
+ * isn't set, every request is passed to the default service instead.
+ *
+ * <p>Credentials in repository URLs are never sent to the server, which has to find its own, for
+ * example in its {@code .netrc}.
+ */
+public class HttpMetadataService implements MetadataService {
+
+  private static final Gson GSON = new Gson();
+
+  private final URI base;
+  private final HttpClient client;
+  private MetadataService fallback;
+
+  /** Used when loaded via SPI. */
+  public HttpMetadataService() {
+    this(findBase(), HttpClients.shared());
+  }
+
+  /** @param base the URL of the server, or null to use the default service instead */
+  public HttpMetadataService(URI base, HttpClient client) {
+    this.base = base;
+    this.client = client;
+  }
+
+  @Override
+  public void initialize(MetadataService defaultService) {
+    fallback = defaultService;
+  }
+
+  @Override
+  public DependencyMetadata getMetadata(Coordinates coords, Collection<URI> repositories) {
+    if (base == null) {
+      return fallback.getMetadata(coords, repositories);
+    }
+    CompletableFuture<DependencyMetadata> result =
+        getAllMetadata(List.of(coords), repositories, Runnable::run).get(coords);
+    try {
+      return result.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  @Override
+  public Map<Coordinates, CompletableFuture<DependencyMetadata>> getAllMetadata(
+      Collection<Coordinates> coords, Collection<URI> repositories, Executor executor) {
+    if (base == null) {
+      return fallback.getAllMetadata(coords, repositories, executor);
+    }
+
+    Map<Coordinates, CompletableFuture<DependencyMetadata>> results = new LinkedHashMap<>();
+    coords.forEach(c -> results.put(c, new CompletableFuture<>()));
+    List<URI> repos = List.copyOf(new LinkedHashSet<>(repositories));
+    executor.execute(() -> fetch(results, repos));
+    return results;
+  }
+
+  private void fetch(
+      Map<Coordinates, CompletableFuture<DependencyMetadata>> results, List<URI> repos) {
+    Map<String, Object> body = new LinkedHashMap<>();
+    List<String> repoNames = new ArrayList<>();
+    // The server answers by index into this list, so only the credentials need leaving out
+    repos.forEach(repo -> repoNames.add(withoutUserInfo(repo).toString()));
+    body.put("repositories", repoNames);
+    List<String> coordNames = new ArrayList<>();
+    results.keySet().forEach(c -> coordNames.add(c.toString()));
+    body.put("coordinates", coordNames);
+
+    HttpRequest request =
+        HttpRequest.newBuilder(base.resolve("metadata"))
+            .header("Content-Type", "application/json")
+            .timeout(Duration.ofMinutes(30))
+            .POST(HttpRequest.BodyPublishers.ofString(GSON.toJson(body)))
+            .build();
+
+    RuntimeException failure = null;
+    try {
+      HttpResponse<Stream<String>> response =
+          client.send(request, HttpResponse.BodyHandlers.ofLines());
+      try (Stream<String> lines = response.body()) {
+        if (response.statusCode() != 200) {
+          throw new IOException(
+              String.format("Unexpected status %d from %s", response.statusCode(), request.uri()));
+        }
+        lines
+            .filter(line -> !line.isBlank())
+            .map(line -> JsonParser.parseString(line).getAsJsonObject())
+            .forEach(line -> complete(results, repos, line));
+      }
+    } catch (IOException e) {
+      failure = new UncheckedIOException(e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      failure = new RuntimeException(e);
+    } catch (RuntimeException e) {
+      failure = e;
+    }
+
+    // Anything still waiting for an answer won't be getting one. Completing the rest is a no-op.
+    for (Map.Entry<Coordinates, CompletableFuture<DependencyMetadata>> entry :
+        results.entrySet()) {
+      entry
+          .getValue()
+          .completeExceptionally(
+              failure != null
+                  ? failure
+                  : new UncheckedIOException(
+                      new IOException("No metadata was returned for " + entry.getKey())));
+    }
+  }
+
+  private static void complete(
+      Map<Coordinates, CompletableFuture<DependencyMetadata>> results,
+      List<URI> repos,
+      JsonObject line) {
+    CompletableFuture<DependencyMetadata> result =
+        results.get(new Coordinates(line.get("coordinates").getAsString()));
+    if (result == null) {
+      return;
+    }
+
+    String status = line.get("status").getAsString();
+    switch (status) {
+      case "found":
+        Set<URI> foundIn = new LinkedHashSet<>();
+        for (JsonElement index : line.getAsJsonArray("repositories")) {
+          foundIn.add(repos.get(index.getAsInt()));
+        }
+        Map<String, Set<String>> services = new TreeMap<>();
+        line.getAsJsonObject("services")
+            .entrySet()
+            .forEach(entry -> services.put(entry.getKey(), toSet(entry.getValue())));
+        JsonElement sha256 = line.get("sha256");
+        result.complete(
+            new DependencyMetadata(
+                sha256 == null || sha256.isJsonNull() ? null : sha256.getAsString(),
+                foundIn,
+                toSet(line.get("packages")),
+                toSet(line.get("classes")),
+                services));
+        break;
+
+      case "absent":
+        result.complete(null);
+        break;
+
+      case "not-found":
+        result.completeExceptionally(new UriNotFoundException(line.get("message").getAsString()));
+        break;
+
+      default:
+        result.completeExceptionally(
+            new UncheckedIOException(
+                new IOException(
+                    String.format(
+                        "Unable to get metadata for %s: %s",
+                        line.get("coordinates").getAsString(), line.get("message")))));
+    }
+  }
+
+  private static Set<String> toSet(JsonElement array) {
+    Set<String> strings = new TreeSet<>();
+    if (array != null && array.isJsonArray()) {
+      array.getAsJsonArray().forEach(element -> strings.add(element.getAsString()));
+    }
+    return strings;
+  }
+
+  private static URI withoutUserInfo(URI uri) {
+    if (uri.getUserInfo() == null) {
+      return uri;
+    }
+    try {
+      return new URI(
+          uri.getScheme(),
+          null,
+          uri.getHost(),
+          uri.getPort(),
+          uri.getPath(),
+          uri.getQuery(),
+          uri.getFragment());
+    } catch (URISyntaxException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  private static URI findBase() {
+    String url = System.getenv("RJE_METADATA_SERVICE_URL");
+    if (url == null || url.isBlank()) {
+      return null;
+    }
+    url = url.trim();
+    return URI.create(url.endsWith("/") ? url : url + "/");
+  }
+}
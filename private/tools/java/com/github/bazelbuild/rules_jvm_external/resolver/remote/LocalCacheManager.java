@@ -0,0 +1,344 @@
+// Copyright 2026 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.resolver.remote;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Keeps a local repository, such as {@code ~/.m2/repository}, under a size limit by removing the
+ * artifacts that have gone longest without being used.
+ *
+ * <p>When each artifact was last used is kept in a small index next to the repository rather than
+ * taken from the file system, since access times are often not recorded. Artifacts that aren't in
+ * the index yet count as used when they were last modified.
+ *
+ * <p>Several pins may share a repository. Each holds a shared lock on the repository for as long
+ * as it is open, and artifacts are only removed by a pin that can take that lock for itself, so
+ * nothing is removed from under a pin that's still running. Files are moved out of the repository
+ * with an atomic rename before being deleted, so nobody ever sees half of one.
+ */
+public class LocalCacheManager implements AutoCloseable {
+
+  private static final Logger LOG = Logger.getLogger(LocalCacheManager.class.getName());
+  private static final String HEADER = "# rules_jvm_external access times v1";
+  private static final Pattern SIZE = Pattern.compile("(\\d+)\\s*([kmgt]?)b?");
+  // Gradle keeps each file in a directory named after its SHA-1, below the version directory
+  private static final Pattern SHA1 = Pattern.compile("[0-9a-f]{40}");
+
+  private final Path root;
+  private final long maxBytes;
+  private final Path stateDir;
+  private final Map<String, Long> accessed = new ConcurrentHashMap<>();
+  private FileChannel inUseChannel;
+  private FileLock inUse;
+
+  private LocalCacheManager(Path root, long maxBytes) {
+    this.root = root.toAbsolutePath().normalize();
+    this.maxBytes = maxBytes;
+    this.stateDir = this.root.resolve(".rules_jvm_external");
+  }
+
+  /**
+   * Starts managing {@code root}, waiting for any other pin that is removing artifacts from it to
+   * finish. A {@code maxBytes} below zero means the repository may grow without limit, and nothing
+   * is done at all.
+   */
+  public static LocalCacheManager open(Path root, long maxBytes) throws IOException {
+    LocalCacheManager manager = new LocalCacheManager(root, maxBytes);
+    if (maxBytes >= 0) {
+      Files.createDirectories(manager.stateDir);
+      Path lock = manager.stateDir.resolve("in-use.lock");
+      manager.inUseChannel = FileChannel.open(lock, CREATE, READ, WRITE);
+      manager.inUse = manager.inUseChannel.lock(0, Long.MAX_VALUE, true);
+    }
+    return manager;
+  }
+
+  /** Returns the limit set by {@code RJE_MAX_CACHE_SIZE}, or -1 if there isn't one. */
+  public static long getMaxSizeFromEnvironment() {
+    String value = System.getenv("RJE_MAX_CACHE_SIZE");
+    if (value == null || value.isBlank()) {
+      return -1;
+    }
+    return parseSize(value);
+  }
+
+  /** Parses a size such as {@code 500m}, in bytes or with a k, m, g or t (binary) suffix. */
+  static long parseSize(String value) {
+    Matcher matcher = SIZE.matcher(value.trim().toLowerCase(Locale.ROOT));
+    if (!matcher.matches()) {
+      throw new IllegalArgumentException("Unable to parse cache size: " + value);
+    }
+    long size = Long.parseLong(matcher.group(1));
+    int shift = "kmgt".indexOf(matcher.group(2).isEmpty() ? ' ' : matcher.group(2).charAt(0));
+    return shift < 0 ? size : size << (10 * (shift + 1));
+  }
+
+  /** Notes that {@code file} was used. Files outside the repository are ignored. */
+  public void recordAccess(Path file) {
+    recordAccess(file, System.currentTimeMillis());
+  }
+
+  void recordAccess(Path file, long millis) {
+    if (maxBytes < 0) {
+      return;
+    }
+    String unit = getUnit(file.toAbsolutePath().normalize());
+    if (unit != null) {
+      accessed.merge(unit, millis, Math::max);
+    }
+  }
+
+  /**
+   * Saves what was used and, if no other pin is using the repository and it has grown too big,
+   * removes the artifacts that have gone longest without being used. Nothing used since this was
+   * opened is removed, even if that leaves the repository over the limit. Failures are logged
+   * rather than thrown, since the pin itself has succeeded by now.
+   */
+  @Override
+  public void close() {
+    if (maxBytes < 0) {
+      return;
+    }
+
+    try (FileChannel ignored = inUseChannel) {
+      updateIndex(accessed, Set.of());
+      // Give up our share first, or we'd always find the repository in use
+      inUse.release();
+      FileLock exclusive = tryLock(inUseChannel);
+      if (exclusive == null) {
+        LOG.fine(String.format("%s is in use by another pin. Not evicting anything.", root));
+        return;
+      }
+      try {
+        evict();
+      } finally {
+        exclusive.release();
+      }
+    } catch (IOException e) {
+      LOG.warning(String.format("Unable to manage the size of %s: %s", root, e));
+    }
+  }
+
+  private void evict() throws IOException {
+    Path evicting = stateDir.resolve("evicting");
+    // Anything still here was being deleted when a previous pin stopped
+    deleteRecursively(evicting);
+
+    Map<String, Unit> units = scan();
+    long total = units.values().stream().mapToLong(unit -> unit.bytes).sum();
+    Map<String, Long> index = readIndex();
+    // Forget about anything someone else has already removed
+    Set<String> forgotten =
+        index.keySet().stream().filter(key -> !units.containsKey(key)).collect(Collectors.toSet());
+    if (total <= maxBytes) {
+      updateIndex(Map.of(), forgotten);
+      return;
+    }
+
+    List<Unit> oldestFirst = new ArrayList<>(units.values());
+    oldestFirst.forEach(unit -> unit.lastUsed = index.getOrDefault(unit.name, unit.lastModified));
+    oldestFirst.sort(
+        Comparator.<Unit>comparingLong(unit -> unit.lastUsed).thenComparing(unit -> unit.name));
+
+    Files.createDirectories(evicting);
+    int count = 0;
+    for (Unit unit : oldestFirst) {
+      if (total <= maxBytes) {
+        break;
+      }
+      if (accessed.containsKey(unit.name)) {
+        continue;
+      }
+      for (Path file : unit.files) {
+        try {
+          Files.move(file, evicting.resolve(String.valueOf(count++)), ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+          // Already gone
+        }
+      }
+      removeEmptyDirectories(unit.files);
+      total -= unit.bytes;
+      forgotten.add(unit.name);
+      LOG.fine(String.format("Evicted %s (%d bytes)", unit.name, unit.bytes));
+    }
+    deleteRecursively(evicting);
+    updateIndex(Map.of(), forgotten);
+  }
+
+  /** Finds every artifact in the repository, and how big it is. */
+  private Map<String, Unit> scan() throws IOException {
+    Map<String, Unit> units = new HashMap<>();
+    try (Stream<Path> files = Files.walk(root)) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        if (!Files.isRegularFile(file)) {
+          continue;
+        }
+        String name = getUnit(file);
+        if (name == null) {
+          continue;
+        }
+        Unit unit = units.computeIfAbsent(name, Unit::new);
+        unit.files.add(file);
+        unit.bytes += Files.size(file);
+        unit.lastModified = Math.max(unit.lastModified, Files.getLastModifiedTime(file).toMillis());
+      }
+    }
+    return units;
+  }
+
+  /**
+   * Returns the name of the artifact {@code file} belongs to, which is the directory holding it
+   * relative to the repository, or {@code null} if it isn't part of an artifact.
+   */
+  private String getUnit(Path file) {
+    if (!file.startsWith(root)) {
+      return null;
+    }
+    Path dir = root.relativize(file).getParent();
+    if (dir == null || dir.getName(0).toString().startsWith(".")) {
+      return null;
+    }
+    if (dir.getNameCount() > 1 && SHA1.matcher(dir.getFileName().toString()).matches()) {
+      dir = dir.getParent();
+    }
+    List<String> parts = new ArrayList<>();
+    dir.forEach(part -> parts.add(part.toString()));
+    return String.join("/", parts);
+  }
+
+  private void removeEmptyDirectories(List<Path> files) throws IOException {
+    Set<Path> dirs = new HashSet<>();
+    files.forEach(file -> dirs.add(file.getParent()));
+    for (Path dir : dirs) {
+      while (dir != null && !dir.equals(root) && dir.startsWith(root)) {
+        try {
+          Files.delete(dir);
+        } catch (DirectoryNotEmptyException | NoSuchFileException e) {
+          break;
+        }
+        dir = dir.getParent();
+      }
+    }
+  }
+
+  /**
+   * Adds {@code accesses} to the saved index and drops {@code removed} from it. Other pins may be
+   * doing the same, so this holds a lock while it reads and replaces the index.
+   */
+  private void updateIndex(Map<String, Long> accesses, Set<String> removed) throws IOException {
+    Files.createDirectories(stateDir);
+    try (FileChannel channel = FileChannel.open(stateDir.resolve("index.lock"), CREATE, WRITE);
+        FileLock ignored = channel.lock()) {
+      Map<String, Long> index = readIndex();
+      accesses.forEach((unit, millis) -> index.merge(unit, millis, Math::max));
+      index.keySet().removeAll(removed);
+
+      StringBuilder content = new StringBuilder(HEADER).append("\n");
+      // Sorted, so that the file doesn't churn needlessly
+      new TreeMap<>(index)
+          .forEach((unit, millis) -> content.append(unit).append("\t").append(millis).append("\n"));
+      Path temp = Files.createTempFile(stateDir, "access-times", ".tmp");
+      Files.write(temp, content.toString().getBytes(UTF_8));
+      Files.move(temp, stateDir.resolve("access-times"), REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+  }
+
+  private Map<String, Long> readIndex() {
+    Map<String, Long> index = new HashMap<>();
+    Path path = stateDir.resolve("access-times");
+    if (!Files.exists(path)) {
+      return index;
+    }
+    try {
+      List<String> lines = Files.readAllLines(path, UTF_8);
+      if (lines.isEmpty() || !HEADER.equals(lines.get(0))) {
+        // Written by some other version. Modification times will do until it's rewritten.
+        return index;
+      }
+      for (String line : lines.subList(1, lines.size())) {
+        int tab = line.lastIndexOf('\t');
+        if (tab > 0) {
+          index.put(line.substring(0, tab), Long.parseLong(line.substring(tab + 1)));
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      LOG.fine(String.format("Unable to read access times from %s: %s", path, e));
+      return new HashMap<>();
+    }
+    return index;
+  }
+
+  private static FileLock tryLock(FileChannel channel) throws IOException {
+    try {
+      return channel.tryLock();
+    } catch (OverlappingFileLockException e) {
+      // Another manager in this process has the repository open
+      return null;
+    }
+  }
+
+  private static void deleteRecursively(Path dir) throws IOException {
+    if (!Files.exists(dir)) {
+      return;
+    }
+    try (Stream<Path> paths = Files.walk(dir)) {
+      for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+        Files.deleteIfExists(path);
+      }
+    }
+  }
+
+  private static class Unit {
+    private final String name;
+    private final List<Path> files = new ArrayList<>();
+    private long bytes;
+    private long lastModified;
+    private long lastUsed;
+
+    private Unit(String name) {
+      this.name = name;
+    }
+  }
+}
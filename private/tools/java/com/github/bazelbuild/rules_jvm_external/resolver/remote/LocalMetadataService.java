@@ -15,6 +15,7 @@
 package com.github.bazelbuild.rules_jvm_external.resolver.remote;
 
 import com.github.bazelbuild.rules_jvm_external.Coordinates;
+import com.github.bazelbuild.rules_jvm_external.ThreadPools;
 import com.github.bazelbuild.rules_jvm_external.jar.IndexJar;
 import com.github.bazelbuild.rules_jvm_external.jar.PerJarIndexResults;
 import com.github.bazelbuild.rules_jvm_external.resolver.DependencyMetadata;
@@ -23,6 +24,7 @@ import com.google.common.collect.ImmutableSet;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.net.URI;
+import java.nio.file.Path;
 import java.util.Collection;
 import java.util.Optional;
 import java.util.TreeMap;
@@ -44,10 +46,15 @@ public class LocalMetadataService implements MetadataService {
 
     PerJarIndexResults indexResults;
     if (result.getPath().isPresent()) {
+      Path path = result.getPath().get();
       try {
-        indexResults = new IndexJar().index(result.getPath().get());
+        indexResults = ThreadPools.runCpuBound(() -> new IndexJar().index(path));
       } catch (IOException e) {
         throw new UncheckedIOException(e);
+      } catch (RuntimeException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new RuntimeException(e);
       }
     } else {
       indexResults = new PerJarIndexResults(new TreeSet<>(), new TreeSet<>(), new TreeMap<>());
@@ -0,0 +1,230 @@
+// Copyright 2026 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.resolver.remote;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+/**
+ * How quickly each repository answers, and how often it has what we ask for. These are kept
+ * between runs so that each run can start by asking the repository most likely to answer quickly.
+ *
+ * <p>Latencies are kept separately for each {@link Kind} of request, since fetching a large jar
+ * takes far longer than checking whether a POM is there, and mixing the two would make any
+ * repository serving jars look slow when it's answering perfectly normally.
+ */
+public class RepositoryStats {
+
+  private static final Logger LOG = Logger.getLogger(RepositoryStats.class.getName());
+  private static final String HEADER = "# rules_jvm_external repository stats v2";
+  // Enough samples for a meaningful 95th percentile, while still following changes quickly
+  private static final int MAX_SAMPLES = 100;
+
+  private final Map<URI, Stats> stats = new HashMap<>();
+
+  /** The kinds of request whose latencies are kept apart from each other. */
+  public enum Kind {
+    /** Asking whether a file is there without fetching it. */
+    HEAD,
+    /** Fetching something small, such as a POM, Maven metadata or a checksum. */
+    METADATA,
+    /** Fetching anything else, such as a jar, whose size may vary enormously. */
+    ARTIFACT;
+
+    private static final List<String> METADATA_SUFFIXES =
+        List.of(".pom", ".module", ".xml", ".md5", ".sha1", ".sha256", ".sha512");
+
+    /** The kind of request that fetches {@code path}. */
+    public static Kind ofFetch(String path) {
+      return METADATA_SUFFIXES.stream().anyMatch(path::endsWith) ? METADATA : ARTIFACT;
+    }
+  }
+
+  /** Loads the stats saved at {@code path}, or returns empty stats if they can't be read. */
+  public static RepositoryStats load(Path path) {
+    RepositoryStats loaded = new RepositoryStats();
+    if (!Files.exists(path)) {
+      return loaded;
+    }
+
+    try {
+      List<String> lines = Files.readAllLines(path, UTF_8);
+      if (lines.isEmpty() || !HEADER.equals(lines.get(0))) {
+        // Written by some other version. Start again rather than guess.
+        return loaded;
+      }
+      for (String line : lines.subList(1, lines.size())) {
+        // The latencies of each kind of request follow the counts, in the order the kinds are
+        // declared
+        String[] parts = line.split("\t", -1);
+        if (parts.length < 3) {
+          continue;
+        }
+        Stats repo = new Stats();
+        repo.requests = Long.parseLong(parts[1]);
+        repo.hits = Long.parseLong(parts[2]);
+        for (Kind kind : Kind.values()) {
+          int index = 3 + kind.ordinal();
+          if (parts.length > index && !parts[index].isEmpty()) {
+            Arrays.stream(parts[index].split(","))
+                .map(Long::parseLong)
+                .forEach(latency -> repo.addLatency(kind, latency));
+          }
+        }
+        loaded.stats.put(URI.create(parts[0]), repo);
+      }
+    } catch (IOException | RuntimeException e) {
+      LOG.fine(String.format("Unable to read repository stats from %s: %s", path, e));
+      return new RepositoryStats();
+    }
+    return loaded;
+  }
+
+  /** Saves the stats to {@code path}, replacing whatever was there. Failures are ignored. */
+  public synchronized void save(Path path) {
+    StringBuilder content = new StringBuilder(HEADER).append("\n");
+    // Sorted, so that the file doesn't churn needlessly
+    new TreeMap<>(stats)
+        .forEach(
+            (uri, repo) -> {
+              content.append(uri).append("\t").append(repo.requests).append("\t").append(repo.hits);
+              for (Kind kind : Kind.values()) {
+                Deque<Long> latencies = repo.latencies.get(kind);
+                content.append("\t");
+                latencies.forEach(latency -> content.append(latency).append(","));
+                if (!latencies.isEmpty()) {
+                  content.setLength(content.length() - 1);
+                }
+              }
+              content.append("\n");
+            });
+
+    try {
+      Files.createDirectories(path.toAbsolutePath().getParent());
+      Path temp = Files.createTempFile(path.toAbsolutePath().getParent(), "stats", ".tmp");
+      Files.write(temp, content.toString().getBytes(UTF_8));
+      Files.move(temp, path, REPLACE_EXISTING, ATOMIC_MOVE);
+    } catch (IOException e) {
+      LOG.fine(String.format("Unable to save repository stats to %s: %s", path, e));
+    }
+  }
+
+  /**
+   * Records a {@code kind} of request to {@code repository}, whether it had the file, and how long
+   * it took. Repositories are told apart without any credentials their URIs hold.
+   */
+  public synchronized void record(URI repository, Kind kind, boolean found, long latencyMillis) {
+    Stats repo = stats.computeIfAbsent(withoutUserInfo(repository), ignored -> new Stats());
+    repo.requests++;
+    if (found) {
+      repo.hits++;
+    }
+    repo.addLatency(kind, latencyMillis);
+  }
+
+  /**
+   * Returns the latency that 95% of {@code kind} requests to {@code repository} beat, or -1 if
+   * we've not made any yet.
+   */
+  public synchronized long getP95LatencyMillis(URI repository, Kind kind) {
+    Stats repo = stats.get(withoutUserInfo(repository));
+    if (repo == null || repo.latencies.get(kind).isEmpty()) {
+      return -1;
+    }
+    long[] sorted = repo.latencies.get(kind).stream().mapToLong(Long::longValue).sorted().toArray();
+    return sorted[(int) Math.ceil(sorted.length * 0.95) - 1];
+  }
+
+  /**
+   * Orders {@code repositories} so that the one expected to answer a {@code kind} of request
+   * soonest comes first. That's a mix of how fast a repository is and how likely it is to have the
+   * file. Until we've heard from every repository, they are left in the order given.
+   */
+  public synchronized List<URI> order(List<URI> repositories, Kind kind) {
+    List<URI> ordered = new ArrayList<>(repositories);
+    if (ordered.stream().anyMatch(uri -> !stats.containsKey(withoutUserInfo(uri)))) {
+      return ordered;
+    }
+    // A stable sort, so ties keep the order given
+    ordered.sort(
+        Comparator.comparingDouble(uri -> stats.get(withoutUserInfo(uri)).expectedCost(kind)));
+    return ordered;
+  }
+
+  // Credentials must never end up in the saved stats
+  private static URI withoutUserInfo(URI uri) {
+    if (uri.getUserInfo() == null) {
+      return uri;
+    }
+    try {
+      return new URI(
+          uri.getScheme(),
+          null,
+          uri.getHost(),
+          uri.getPort(),
+          uri.getPath(),
+          uri.getQuery(),
+          uri.getFragment());
+    } catch (URISyntaxException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static class Stats {
+    private long requests;
+    private long hits;
+    private final Map<Kind, Deque<Long>> latencies = new EnumMap<>(Kind.class);
+
+    private Stats() {
+      for (Kind kind : Kind.values()) {
+        latencies.put(kind, new ArrayDeque<>());
+      }
+    }
+
+    private void addLatency(Kind kind, long latencyMillis) {
+      Deque<Long> samples = latencies.get(kind);
+      samples.addLast(latencyMillis);
+      if (samples.size() > MAX_SAMPLES) {
+        samples.removeFirst();
+      }
+    }
+
+    private double expectedCost(Kind kind) {
+      long[] sorted = latencies.get(kind).stream().mapToLong(Long::longValue).sorted().toArray();
+      double median = sorted.length == 0 ? 0 : sorted[sorted.length / 2];
+      // Smoothed, so a repository isn't written off after a single miss
+      double hitRate = (hits + 1.0) / (requests + 2.0);
+      return (median + 1) / hitRate;
+    }
+  }
+}
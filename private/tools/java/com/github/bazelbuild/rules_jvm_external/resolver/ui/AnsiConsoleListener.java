@@ -39,7 +39,7 @@ public class AnsiConsoleListener implements EventListener {
   private static final String MOVE_UP = "\r\u001b[1A";
   private final ScheduledExecutorService executor;
   private String phase = "Starting";
-  private final List<String> logMessages = new ArrayList<>();
+  private final List<LogEvent> logMessages = new ArrayList<>();
   private final List<String> downloading = new ArrayList<>();
   private final List<String> lastPrinted = new LinkedList<>();
 
@@ -61,7 +61,7 @@ public class AnsiConsoleListener implements EventListener {
       }
 
       if (event instanceof LogEvent) {
-        logMessages.add(event.toString());
+        logMessages.add((LogEvent) event);
       }
 
       if (event instanceof PhaseEvent) {
@@ -76,10 +76,15 @@ public class AnsiConsoleListener implements EventListener {
 
       int width = getConsoleWidth();
 
-      for (String message : logMessages) {
-        AnsiConsole.err().print(ansi().fg(Ansi.Color.YELLOW));
-        AnsiConsole.err().print("[WARNING]: " + message + "\n");
-        AnsiConsole.err().print(ansi().fg(Ansi.Color.DEFAULT));
+      for (LogEvent message : logMessages) {
+        boolean warning = message.getLevel() == LogEvent.Level.WARNING;
+        if (warning) {
+          AnsiConsole.err().print(ansi().fg(Ansi.Color.YELLOW));
+        }
+        AnsiConsole.err().print("[" + message.getLevel() + "]: " + message + "\n");
+        if (warning) {
+          AnsiConsole.err().print(ansi().fg(Ansi.Color.DEFAULT));
+        }
       }
       logMessages.clear();
 
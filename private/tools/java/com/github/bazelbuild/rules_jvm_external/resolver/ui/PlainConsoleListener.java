@@ -36,7 +36,7 @@ public class PlainConsoleListener implements EventListener {
     }
 
     if (event instanceof LogEvent) {
-      System.err.println("[WARNING]: " + event);
+      System.err.println("[" + ((LogEvent) event).getLevel() + "]: " + event);
     }
 
     if (event instanceof PhaseEvent) {
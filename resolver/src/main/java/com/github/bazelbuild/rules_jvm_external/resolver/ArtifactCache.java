@@ -0,0 +1,60 @@
+// Copyright 2026 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.resolver;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Service defining a cache of artifacts, addressed by the SHA-256 of their content, that may be
+ * shared between machines. Artifacts whose hash is already known, usually from the lock file
+ * written by a previous pin, are looked for here before being downloaded from a repository, and
+ * anything downloaded from a repository is added to it.
+ *
+ * Custom implementations of this SPI can be registered on the classpath. Whatever is read from
+ * the cache is checked against the hash it was asked for before it is used, so an implementation
+ * doesn't need to do that itself.
+ */
+public interface ArtifactCache {
+  /**
+   * Writes the content whose SHA-256 is {@code sha256} to {@code destination}, replacing anything
+   * that is already there.
+   *
+   * @param sha256 the lower-case, hex-encoded SHA-256 of the content
+   * @param destination where to write the content. Its parent directory exists.
+   * @return whether the cache held the content
+   */
+  boolean get(String sha256, Path destination) throws IOException;
+
+  /**
+   * Adds {@code file} to the cache.
+   *
+   * @param sha256 the lower-case, hex-encoded SHA-256 of {@code file}
+   * @param file the content to add
+   */
+  void put(String sha256, Path file) throws IOException;
+
+  /**
+   * Initializes the cache.
+   *
+   * If this cache is a custom implementation loaded via SPI, this method will be called with the
+   * cache that would otherwise have been used, which may be one that caches nothing at all.
+   *
+   * @param defaultCache the default artifact cache
+   */
+  default void initialize(ArtifactCache defaultCache) {
+    // no-op by default
+  }
+}
@@ -14,6 +14,7 @@
 
 package com.github.bazelbuild.rules_jvm_external.resolver;
 
+import com.github.bazelbuild.rules_jvm_external.CompactStringSet;
 import java.net.URI;
 import java.util.Collection;
 import java.util.Map;
@@ -34,8 +35,8 @@ public class DependencyMetadata {
       Map<String, ? extends Set<String>> services) {
     this.sha256 = sha256;
     this.repositories = repositories == null ? java.util.Set.of() : java.util.Set.copyOf(repositories);
-    this.packages = packages == null ? java.util.Set.of() : java.util.Set.copyOf(packages);
-    this.classes = classes == null ? java.util.Set.of() : java.util.Set.copyOf(classes);
+    this.packages = packages == null ? java.util.Set.of() : CompactStringSet.interned(packages);
+    this.classes = classes == null ? java.util.Set.of() : CompactStringSet.frontCoded(classes);
     if (services == null) {
       this.services = java.util.Map.of();
     } else {
@@ -14,8 +14,16 @@
 
 package com.github.bazelbuild.rules_jvm_external.resolver;
 
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.IOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Service defining operations to download files and inspect remote URIs.
@@ -31,6 +39,66 @@ public interface DownloadService {
    */
   Path get(URI uri);
 
+  /**
+   * Downloads the content of the specified URI to {@code destination}, replacing anything that is
+   * already there. The parent directory of {@code destination} must exist.
+   *
+   * The default implementation calls {@link #get(URI)} on the calling thread and copies the result,
+   * so existing implementations support this without changes. Implementations that can write
+   * straight to the destination should override this so the content is only written once.
+   *
+   * @param uri the URI of the resource to download
+   * @param destination where to write the resource
+   * @return a future holding {@code destination}, or null if the resource could not be found
+   */
+  default CompletableFuture<Path> getAsync(URI uri, Path destination) {
+    try {
+      Path downloaded = get(uri);
+      if (downloaded == null) {
+        return CompletableFuture.completedFuture(null);
+      }
+      if (!downloaded.equals(destination)) {
+        Files.copy(downloaded, destination, REPLACE_EXISTING);
+      }
+      return CompletableFuture.completedFuture(destination);
+    } catch (IOException | RuntimeException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+
+  /**
+   * Streams the content of the specified URI into {@code channel}. The channel is not closed.
+   *
+   * The default implementation calls {@link #get(URI)} on the calling thread and copies the result
+   * into the channel.
+   *
+   * @param uri the URI of the resource to download
+   * @param channel where to write the resource
+   * @return a future holding true once the resource has been written, or false if it could not be
+   *     found
+   */
+  default CompletableFuture<Boolean> getAsync(URI uri, WritableByteChannel channel) {
+    try {
+      Path downloaded = get(uri);
+      if (downloaded == null) {
+        return CompletableFuture.completedFuture(false);
+      }
+      try (FileChannel source = FileChannel.open(downloaded)) {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        while (source.read(buffer) != -1) {
+          buffer.flip();
+          while (buffer.hasRemaining()) {
+            channel.write(buffer);
+          }
+          buffer.clear();
+        }
+      }
+      return CompletableFuture.completedFuture(true);
+    } catch (IOException | RuntimeException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+
   /**
    * Checks if the resource at the specified URI exists.
    *
@@ -17,10 +17,69 @@ package com.github.bazelbuild.rules_jvm_external.resolver;
 import com.github.bazelbuild.rules_jvm_external.Coordinates;
 import java.net.URI;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.function.Supplier;
 
 public interface MetadataService {
   DependencyMetadata getMetadata(Coordinates coords, Collection<URI> repositories);
 
+  /**
+   * Looks up the metadata of many artifacts at once. Each result is available as soon as it is
+   * known, rather than once they all are, so the caller can get on with using the first results
+   * while the rest are still being worked out. This allows an implementation to batch or pipeline
+   * its requests, or to plan its I/O, which isn't possible one artifact at a time.
+   *
+   * <p>Cancelling one of the returned futures should stop the work it is waiting on, if nothing
+   * else is waiting on it too.
+   *
+   * <p>The default implementation calls {@link #getMetadata(Coordinates, Collection)} for each
+   * artifact on {@code executor}, in the order they are given. Cancelling a future stops the
+   * lookup from starting, or interrupts it if it already has.
+   *
+   * @param coords the artifacts to look up, most important first
+   * @param executor may be used to do the work
+   * @return a future for each of {@code coords}, completed the way {@code getMetadata} would have
+   *     returned or thrown
+   */
+  default Map<Coordinates, CompletableFuture<DependencyMetadata>> getAllMetadata(
+      Collection<Coordinates> coords, Collection<URI> repositories, Executor executor) {
+    Map<Coordinates, CompletableFuture<DependencyMetadata>> results = new LinkedHashMap<>();
+    for (Coordinates coord : coords) {
+      results.computeIfAbsent(coord, c -> submit(() -> getMetadata(c, repositories), executor));
+    }
+    return results;
+  }
+
+  /**
+   * Runs {@code supplier} on {@code executor}. Unlike {@link CompletableFuture#supplyAsync}, the
+   * returned future interrupts the supplier if it is cancelled while it's running.
+   */
+  private static <T> CompletableFuture<T> submit(Supplier<T> supplier, Executor executor) {
+    CompletableFuture<T> result = new CompletableFuture<>();
+    FutureTask<Void> task =
+        new FutureTask<>(
+            () -> {
+              try {
+                result.complete(supplier.get());
+              } catch (Throwable t) {
+                result.completeExceptionally(t);
+              }
+            },
+            null);
+    result.whenComplete(
+        (value, failure) -> {
+          if (result.isCancelled()) {
+            task.cancel(true);
+          }
+        });
+    executor.execute(task);
+    return result;
+  }
+
   /**
    * Initializes the metadata service.
    *
@@ -26,8 +26,10 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -39,7 +41,9 @@ public class ResolutionRequest {
   private final List<Artifact> dependencies = new ArrayList<>();
   private final List<Artifact> boms = new ArrayList<>();
   private final Set<Coordinates> globalExclusions = new HashSet<>();
+  private final Map<Coordinates, String> knownSha256s = new HashMap<>();
   private boolean useUnsafeSharedCache;
+  private boolean offline;
   private Path userHome;
   private boolean isUsingM2Local;
 
@@ -123,6 +127,26 @@ public class ResolutionRequest {
     return this;
   }
 
+  /**
+   * Resolve using only what is already in the local caches, without contacting any repository.
+   * Anything that isn't cached is reported as missing.
+   */
+  public ResolutionRequest useOfflineMode(boolean offline) {
+    this.offline = offline;
+    return this;
+  }
+
+  /**
+   * Records the SHA-256 of an artifact as an earlier pin saw it, usually read from the existing
+   * lock file. This is only used to look the artifact up in caches that are addressed by content.
+   */
+  public ResolutionRequest addKnownSha256(Coordinates coordinates, String sha256) {
+    Objects.requireNonNull(coordinates, "Coordinates");
+    Objects.requireNonNull(sha256, "SHA-256");
+    knownSha256s.put(coordinates, sha256);
+    return this;
+  }
+
   public ResolutionRequest replaceDependencies(Collection<Artifact> amended) {
     ResolutionRequest toReturn = new ResolutionRequest();
 
@@ -131,6 +155,8 @@ public class ResolutionRequest {
     getBoms().stream().map(Objects::toString).forEach(toReturn::addBom);
     getGlobalExclusions().forEach(toReturn::exclude);
     toReturn.useUnsafeSharedCache = isUseUnsafeSharedCache();
+    toReturn.offline = isOffline();
+    toReturn.knownSha256s.putAll(getKnownSha256s());
     toReturn.userHome = userHome;
     toReturn.isUsingM2Local = isUsingM2Local();
 
@@ -153,10 +179,18 @@ public class ResolutionRequest {
     return Collections.unmodifiableSet(globalExclusions);
   }
 
+  public Map<Coordinates, String> getKnownSha256s() {
+    return Collections.unmodifiableMap(knownSha256s);
+  }
+
   public boolean isUseUnsafeSharedCache() {
     return useUnsafeSharedCache;
   }
 
+  public boolean isOffline() {
+    return offline;
+  }
+
   public boolean isUsingM2Local() {
     return isUsingM2Local;
   }
@@ -0,0 +1,164 @@
+// Copyright 2026 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.function.Function;
+import org.junit.Test;
+
+public class CompactStringSetTest {
+
+  @Test
+  public void shouldBehaveLikeATreeSet() {
+    for (int seed = 0; seed < 50; seed++) {
+      Random random = new Random(seed);
+      TreeSet<String> expected = new TreeSet<>();
+      for (int i = random.nextInt(200); i > 0; i--) {
+        expected.add(randomClassName(random));
+      }
+      List<String> probes = new ArrayList<>(expected);
+      for (int i = 0; i < 50; i++) {
+        probes.add(randomClassName(random));
+      }
+      probes.add("");
+      probes.add("\uffff");
+
+      for (Function<List<String>, SortedSet<String>> factory :
+          List.<Function<List<String>, SortedSet<String>>>of(
+              CompactStringSet::interned, CompactStringSet::frontCoded)) {
+        // Out of order and with duplicates
+        List<String> input = new ArrayList<>(expected);
+        input.addAll(expected);
+        Collections.shuffle(input, random);
+        SortedSet<String> actual = factory.apply(input);
+
+        String message = "Seed " + seed;
+        assertEquals(message, expected.size(), actual.size());
+        assertEquals(message, new ArrayList<>(expected), new ArrayList<>(actual));
+        assertEquals(message, expected, actual);
+        assertEquals(message, actual, expected);
+        assertEquals(message, expected.hashCode(), actual.hashCode());
+        for (String probe : probes) {
+          assertEquals(message + " " + probe, expected.contains(probe), actual.contains(probe));
+        }
+        if (!expected.isEmpty()) {
+          assertEquals(message, expected.first(), actual.first());
+          assertEquals(message, expected.last(), actual.last());
+          String from = probes.get(random.nextInt(probes.size()));
+          String to = probes.get(random.nextInt(probes.size()));
+          if (from.compareTo(to) > 0) {
+            String swap = from;
+            from = to;
+            to = swap;
+          }
+          assertEquals(message, expected.subSet(from, to), actual.subSet(from, to));
+          assertEquals(message, expected.headSet(to), actual.headSet(to));
+          assertEquals(message, expected.tailSet(from), actual.tailSet(from));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void shouldHandleNamesOutsideAscii() {
+    TreeSet<String> expected =
+        new TreeSet<>(List.of("com.example.Café", "com.example.Cafés", "中.文"));
+    SortedSet<String> actual = CompactStringSet.frontCoded(expected);
+
+    assertEquals(new ArrayList<>(expected), new ArrayList<>(actual));
+    assertTrue(actual.contains("com.example.Cafés"));
+    assertFalse(actual.contains("com.example.Cafe"));
+  }
+
+  @Test
+  public void shouldShareInternedStrings() {
+    SortedSet<String> first = CompactStringSet.interned(List.of(new String("com.example.shared")));
+    SortedSet<String> second = CompactStringSet.interned(List.of(new String("com.example.shared")));
+
+    assertSame(first.first(), second.first());
+  }
+
+  @Test
+  public void shouldNotCopyASetThatIsAlreadyCompact() {
+    CompactStringSet interned = CompactStringSet.interned(List.of("com.example"));
+    CompactStringSet frontCoded = CompactStringSet.frontCoded(List.of("com.example.Foo"));
+
+    assertSame(interned, CompactStringSet.interned(interned));
+    assertSame(frontCoded, CompactStringSet.frontCoded(frontCoded));
+  }
+
+  @Test
+  public void shouldBeEmptyWhenGivenNothing() {
+    SortedSet<String> empty = CompactStringSet.frontCoded(List.of());
+
+    assertTrue(empty.isEmpty());
+    assertFalse(empty.iterator().hasNext());
+    assertFalse(empty.contains("anything"));
+    try {
+      empty.first();
+      throw new AssertionError("Expected an exception");
+    } catch (NoSuchElementException expected) {
+      // Expected
+    }
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void shouldBeImmutable() {
+    CompactStringSet.frontCoded(List.of("com.example.Foo")).add("com.example.Bar");
+  }
+
+  @Test
+  public void shouldOnlyKeepTheFirstClassNameOfEachBlockWhole() {
+    List<String> names = new ArrayList<>();
+    int chars = 0;
+    for (int i = 0; i < 500; i++) {
+      String name = "org.example.project.module.SomeFairlyDescriptiveClassName" + i;
+      names.add(name);
+      chars += name.length();
+    }
+
+    CompactStringSet set = CompactStringSet.frontCoded(names);
+
+    // 500 names in blocks of 16
+    assertEquals(32, set.wholeStrings());
+    // The rest are little more than the digits that tell them apart
+    assertTrue(
+        set.encodedBytes() + " bytes for " + chars + " characters",
+        set.encodedBytes() * 10 < chars);
+  }
+
+  private static String randomClassName(Random random) {
+    StringBuilder name = new StringBuilder("com.example");
+    for (int i = random.nextInt(4); i > 0; i--) {
+      name.append('.').append((char) ('a' + random.nextInt(3)));
+    }
+    name.append('.').append((char) ('A' + random.nextInt(26)));
+    for (int i = random.nextInt(6); i > 0; i--) {
+      name.append((char) ('a' + random.nextInt(26)));
+    }
+    return name.toString();
+  }
+}
@@ -0,0 +1,185 @@
+// Copyright 2026 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class ThreadPoolsTest {
+
+  @Test
+  public void ioThreadsShouldBeNamedDaemons() {
+    ThreadFactory factory = ThreadPools.newIoThreadFactory("fetcher");
+
+    Thread first = factory.newThread(() -> {});
+    Thread second = factory.newThread(() -> {});
+
+    assertTrue(first.isDaemon());
+    assertEquals("fetcher-1", first.getName());
+    assertEquals("fetcher-2", second.getName());
+  }
+
+  @Test
+  public void ioExecutorShouldRunSubmittedTasks() throws Exception {
+    ExecutorService executor = ThreadPools.newIoExecutor(2, "io-test");
+    try {
+      String threadName = executor.submit(() -> Thread.currentThread().getName()).get();
+      assertTrue(threadName, threadName.startsWith("io-test-"));
+    } finally {
+      executor.shutdown();
+      executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+  }
+
+  @Test
+  public void ioExecutorShouldOnlyRunAsManyTasksAtOnceAsItIsAllowed() throws Exception {
+    ExecutorService executor = ThreadPools.newIoExecutor(2, "io-test");
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger mostRunning = new AtomicInteger();
+    List<Future<?>> tasks = new ArrayList<>();
+    try {
+      for (int i = 0; i < 8; i++) {
+        tasks.add(
+            executor.submit(
+                () -> {
+                  mostRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                  Thread.sleep(50);
+                  running.decrementAndGet();
+                  return null;
+                }));
+      }
+      for (Future<?> task : tasks) {
+        task.get(10, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdown();
+      assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    assertEquals(2, mostRunning.get());
+  }
+
+  @Test
+  public void ioExecutorShouldKeepToItsLimitOnVirtualThreads() throws Exception {
+    // Stands in for virtual threads, which the JDK the tests run on may not have
+    AtomicInteger created = new AtomicInteger();
+    ExecutorService executor =
+        ThreadPools.newIoExecutor(
+            1,
+            r -> {
+              created.incrementAndGet();
+              return new Thread(r);
+            },
+            true);
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger mostRunning = new AtomicInteger();
+    List<Future<?>> tasks = new ArrayList<>();
+    try {
+      for (int i = 0; i < 4; i++) {
+        tasks.add(
+            executor.submit(
+                () -> {
+                  mostRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                  Thread.sleep(20);
+                  running.decrementAndGet();
+                  return null;
+                }));
+      }
+      for (Future<?> task : tasks) {
+        task.get(10, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdown();
+      assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    assertEquals(1, mostRunning.get());
+    assertTrue(created.get() > 0);
+  }
+
+  @Test
+  public void ioExecutorShouldStartTheHighestPriorityTaskNext() throws Exception {
+    IoExecutor executor = ThreadPools.newIoExecutor(1, "io-test");
+    CountDownLatch blocked = new CountDownLatch(1);
+    List<String> started = Collections.synchronizedList(new ArrayList<>());
+    try {
+      // Holds the only thread while everything else queues up behind it
+      executor.execute(
+          () -> {
+            try {
+              blocked.await();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          });
+      executor.atPriority(-1).execute(() -> started.add("low"));
+      executor.execute(() -> started.add("first"));
+      executor.atPriority(1).execute(() -> started.add("high"));
+      executor.execute(() -> started.add("second"));
+      blocked.countDown();
+    } finally {
+      executor.shutdown();
+      assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    assertEquals(List.of("high", "first", "second", "low"), started);
+  }
+
+  @Test
+  public void cpuBoundWorkShouldReturnItsResult() throws Exception {
+    assertEquals("hashed", ThreadPools.runCpuBound(() -> "hashed"));
+  }
+
+  @Test
+  public void cpuBoundWorkShouldRunOffTheCallingThreadOnlyWithVirtualThreads() throws Exception {
+    Thread caller = Thread.currentThread();
+    Thread worker = ThreadPools.runCpuBound(Thread::currentThread);
+
+    if (ThreadPools.isUsingVirtualThreads()) {
+      assertNotEquals(caller, worker);
+    } else {
+      assertSame(caller, worker);
+    }
+  }
+
+  @Test
+  public void cpuBoundWorkShouldRethrowTheOriginalException() throws Exception {
+    IOException thrown = new IOException("unreadable jar");
+    try {
+      ThreadPools.runCpuBound(
+          () -> {
+            throw thrown;
+          });
+      fail("Expected an exception");
+    } catch (IOException e) {
+      assertSame(thrown, e);
+    }
+  }
+}
@@ -22,17 +22,26 @@ import static org.junit.Assume.assumeFalse;
 import com.google.devtools.build.runfiles.Runfiles;
 import com.google.gson.Gson;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Reader;
+import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
 import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 import org.junit.BeforeClass;
@@ -196,6 +205,275 @@ public class IndexJarTest {
     assertFalse(classes.toString(), classes.contains("com.example.kotlin.privateFunction"));
   }
 
+  @Test
+  public void centralDirectoryMatchesReadingTheWholeJar() throws Exception {
+    Path jar = Files.createTempFile("index-jar-central-directory", ".jar");
+    try {
+      Files.write(jar, corpusJar());
+      assertSameAsStreaming(jar);
+
+      PerJarIndexResults results = new IndexJar().index(jar);
+      assertEquals(
+          sortedSet("", "com.example", "com.example.deeply.nested.pkg", "com.example.multi"),
+          results.getPackages());
+      assertEquals(
+          sortedSet(
+              "Unpackaged",
+              "com.example.Foo",
+              "com.example.deeply.nested.pkg.Bar",
+              "com.example.multi.Versioned"),
+          results.getClasses());
+      assertEquals(
+          sortedSet("com.example.Foo"),
+          results.getServiceImplementations().get("com.example.Service"));
+    } finally {
+      Files.deleteIfExists(jar);
+    }
+  }
+
+  @Test
+  public void corruptLocalHeaderOnAnEntryWhoseContentsAreNeeded() throws Exception {
+    Path jar = Files.createTempFile("index-jar-corrupt-header", ".jar");
+    try {
+      byte[] bytes = corpusJar();
+      corruptLocalHeader(bytes, "META-INF/services/com.example.Service");
+      Files.write(jar, bytes);
+
+      assertSameAsStreaming(jar);
+    } finally {
+      Files.deleteIfExists(jar);
+    }
+  }
+
+  @Test
+  public void corruptLocalHeaderOnAnEntryWhoseContentsAreNotNeeded() throws Exception {
+    Path jar = Files.createTempFile("index-jar-corrupt-header", ".jar");
+    try {
+      byte[] bytes = corpusJar();
+      corruptLocalHeader(bytes, "com/example/deeply/nested/pkg/Bar.class");
+      Files.write(jar, bytes);
+
+      // Reading the jar from the start stops at the damaged entry, but the central directory
+      // still lists everything, just as the JVM sees it when loading classes from the jar.
+      PerJarIndexResults streamed = new IndexJar().indexStream(jar);
+      PerJarIndexResults results = new IndexJar().index(jar);
+      assertTrue(results.getClasses().containsAll(streamed.getClasses()));
+      assertTrue(results.getClasses().contains("com.example.deeply.nested.pkg.Bar"));
+      assertTrue(results.getClasses().contains("com.example.multi.Versioned"));
+    } finally {
+      Files.deleteIfExists(jar);
+    }
+  }
+
+  @Test
+  public void truncatedJarWithoutACentralDirectory() throws Exception {
+    Path jar = Files.createTempFile("index-jar-truncated", ".jar");
+    try {
+      byte[] bytes = corpusJar();
+      // Keep everything up to the local header of the last class, dropping the central directory
+      Files.write(jar, Arrays.copyOf(bytes, indexOfLocalHeader(bytes, "Unpackaged.class")));
+
+      PerJarIndexResults results = new IndexJar().index(jar);
+      assertSameAsStreaming(jar);
+      assertTrue(results.getClasses().contains("com.example.multi.Versioned"));
+      assertFalse(results.getClasses().contains("Unpackaged"));
+    } finally {
+      Files.deleteIfExists(jar);
+    }
+  }
+
+  @Test
+  public void realJarsMatchReadingTheWholeJar() throws Exception {
+    for (String runfileJar :
+        new String[] {
+          "hamcrest_core_for_test/file/hamcrest-core-1.3.jar",
+          "gson_for_test/file/gson-2.9.0.jar",
+          "junit_platform_commons_for_test/file/junit-platform-commons-1.8.2.jar",
+          "lombok_for_test/file/lombok-1.18.22.jar",
+          "rules_jvm_external/tests/com/github/bazelbuild/rules_jvm_external/jar/kotlin_top_level_fixture.jar",
+        }) {
+      assertSameAsStreaming(Paths.get(Runfiles.create().rlocation(runfileJar)));
+    }
+  }
+
+  @Test
+  public void writesTheSameJsonAsGsonInPathOrder() throws Exception {
+    Path dir = Files.createTempDirectory("index-jar-output");
+    try {
+      List<String> paths = new ArrayList<>();
+      for (int i = 0; i < 20; i++) {
+        Path jar = dir.resolve("jar-" + i + ".jar");
+        try (OutputStream os = Files.newOutputStream(jar);
+            ZipOutputStream zos = new ZipOutputStream(os)) {
+          writeEntry(zos, "META-INF/services/com.example.Service", "com.example.Impl" + i + "\n");
+          // Vary the sizes, so that the jars aren't indexed in path order
+          writeEntry(zos, "com/example/resource.txt", "x".repeat((i * 7919) % 20 * 1024));
+          for (int j = 0; j <= i % 5; j++) {
+            writeEmptyEntry(zos, "com/example/p" + j + "/Class" + i + ".class");
+          }
+        }
+        paths.add(jar.toString());
+      }
+      Collections.shuffle(paths, new Random(0));
+
+      StringWriter written = new StringWriter();
+      new IndexJar().index(paths, written);
+
+      String expected = new Gson().toJson(new IndexJar().index(paths.stream()));
+      assertEquals(expected, written.toString());
+    } finally {
+      try (Stream<Path> files = Files.list(dir)) {
+        for (Path file : (Iterable<Path>) files::iterator) {
+          Files.delete(file);
+        }
+      }
+      Files.delete(dir);
+    }
+  }
+
+  @Test
+  public void startsWithTheLargestJars() throws Exception {
+    Path dir = Files.createTempDirectory("index-jar-order");
+    try {
+      Path small = Files.write(dir.resolve("a-small.jar"), new byte[10]);
+      Path large = Files.write(dir.resolve("b-large.jar"), new byte[1000]);
+      Path medium = Files.write(dir.resolve("c-medium.jar"), new byte[100]);
+      Path alsoMedium = Files.write(dir.resolve("d-medium.jar"), new byte[100]);
+      String missing = dir.resolve("missing.jar").toString();
+
+      assertEquals(
+          List.of(
+              large.toString(),
+              medium.toString(),
+              alsoMedium.toString(),
+              small.toString(),
+              missing),
+          IndexJar.largestFirst(
+              List.of(
+                  missing,
+                  small.toString(),
+                  alsoMedium.toString(),
+                  medium.toString(),
+                  large.toString())));
+    } finally {
+      try (Stream<Path> files = Files.list(dir)) {
+        for (Path file : (Iterable<Path>) files::iterator) {
+          Files.delete(file);
+        }
+      }
+      Files.delete(dir);
+    }
+  }
+
+  @Test
+  public void onlyIndexesAFewJarsAheadOfTheNextToBeHandedOn() throws Exception {
+    Path dir = Files.createTempDirectory("index-jar-window");
+    try {
+      List<String> paths = new ArrayList<>();
+      for (int i = 0; i < 30; i++) {
+        Path jar = dir.resolve(String.format("jar-%02d.jar", i));
+        try (OutputStream os = Files.newOutputStream(jar);
+            ZipOutputStream zos = new ZipOutputStream(os)) {
+          // Later jars are bigger, so would all be started first if nothing held them back
+          writeEntry(zos, "com/example/resource.txt", "x".repeat(i * 1024));
+        }
+        paths.add(jar.toString());
+      }
+      Collections.shuffle(paths, new Random(0));
+
+      AtomicInteger started = new AtomicInteger();
+      AtomicInteger handedOn = new AtomicInteger();
+      AtomicInteger mostAhead = new AtomicInteger();
+      IndexJar indexer =
+          new IndexJar() {
+            @Override
+            public PerJarIndexResults index(Path path) throws IOException {
+              mostAhead.accumulateAndGet(started.incrementAndGet() - handedOn.get(), Math::max);
+              return super.index(path);
+            }
+          };
+      List<String> order = new ArrayList<>();
+      indexer.index(
+          paths,
+          2,
+          3,
+          (path, results) -> {
+            order.add(path);
+            handedOn.incrementAndGet();
+          });
+
+      assertEquals(new ArrayList<>(new TreeSet<>(paths)), order);
+      assertEquals(30, started.get());
+      assertTrue("Indexed " + mostAhead.get() + " jars at once", mostAhead.get() <= 3);
+    } finally {
+      try (Stream<Path> files = Files.list(dir)) {
+        for (Path file : (Iterable<Path>) files::iterator) {
+          Files.delete(file);
+        }
+      }
+      Files.delete(dir);
+    }
+  }
+
+  private void assertSameAsStreaming(Path jar) throws IOException {
+    PerJarIndexResults expected = new IndexJar().indexStream(jar);
+    PerJarIndexResults actual = new IndexJar().index(jar);
+    assertEquals(jar.toString(), expected.getPackages(), actual.getPackages());
+    assertEquals(jar.toString(), expected.getClasses(), actual.getClasses());
+    assertEquals(
+        jar.toString(),
+        expected.getServiceImplementations(),
+        actual.getServiceImplementations());
+  }
+
+  private byte[] corpusJar() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ZipOutputStream zos = new ZipOutputStream(bytes)) {
+      writeEntry(zos, "META-INF/MANIFEST.MF", "Manifest-Version: 1.0\n");
+      writeEmptyEntry(zos, "META-INF/services/");
+      writeEntry(zos, "META-INF/services/com.example.Service", "# Comment\ncom.example.Foo\n");
+      writeEmptyEntry(zos, "com/");
+      writeEmptyEntry(zos, "com/example/");
+      writeEmptyEntry(zos, "com/example/Foo.class");
+      writeEmptyEntry(zos, "com/example/Foo$Inner.class");
+      writeEmptyEntry(zos, "com/example/package-info.class");
+      writeEntry(zos, "com/example/large-resource.bin", "x".repeat(1 << 16));
+      writeEmptyEntry(zos, "com/example/deeply/nested/pkg/Bar.class");
+      writeEmptyEntry(zos, "module-info.class");
+      writeEmptyEntry(zos, "META-INF/versions/9/module-info.class");
+      writeEmptyEntry(zos, "META-INF/versions/11/com/example/multi/Versioned.class");
+      writeEmptyEntry(zos, "Unpackaged.class");
+    }
+    return bytes.toByteArray();
+  }
+
+  private void writeEntry(ZipOutputStream zos, String name, String contents) throws IOException {
+    zos.putNextEntry(new ZipEntry(name));
+    zos.write(contents.getBytes(StandardCharsets.UTF_8));
+    zos.closeEntry();
+  }
+
+  private static void corruptLocalHeader(byte[] jar, String name) {
+    // Break the signature, which is what readers check first
+    jar[indexOfLocalHeader(jar, name)] = 0;
+  }
+
+  private static int indexOfLocalHeader(byte[] jar, String name) {
+    byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+    // A local header is the 4 byte signature, 22 bytes of fixed fields, two lengths and the name
+    for (int i = 0; i + 30 + nameBytes.length <= jar.length; i++) {
+      if (jar[i] == 'P'
+          && jar[i + 1] == 'K'
+          && jar[i + 2] == 3
+          && jar[i + 3] == 4
+          && Arrays.equals(
+              Arrays.copyOfRange(jar, i + 30, i + 30 + nameBytes.length), nameBytes)) {
+        return i;
+      }
+    }
+    throw new AssertionError("No local header for " + name);
+  }
+
   private static class Lockfile {
     public TreeMap<String, TreeMap<String, TreeSet<String>>> services;
   }
@@ -0,0 +1,230 @@
+// Copyright 2026 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.jar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+
+import com.google.devtools.build.runfiles.Runfiles;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+public class KotlinTopLevelTest {
+
+  // rules_kotlin's kotlin_top_level_fixture output can't be opened via NIO on
+  // Windows CI. See the broader rules_kotlin-on-Windows caveat in .bazelrc.
+  @BeforeClass
+  public static void checkPlatform() {
+    assumeFalse(System.getProperty("os.name").toLowerCase().contains("win"));
+  }
+
+  @Test
+  public void preFilterAgreesWithAsmOnGeneratedClasses() {
+    for (int seed = 0; seed < 500; seed++) {
+      Random random = new Random(seed);
+      Integer kind = random.nextInt(4) == 0 ? null : random.nextInt(7);
+      byte[] bytes = generateClass(random, random.nextInt(5) != 0, kind);
+
+      boolean expected = isFacadeOrPart(bytes);
+      assertEquals(
+          "Seed " + seed, expected, KotlinTopLevel.mayDeclareTopLevel(bytes, bytes.length));
+
+      // Reused buffers are usually longer than the class they hold
+      byte[] padded = Arrays.copyOf(bytes, bytes.length + random.nextInt(100));
+      Arrays.fill(padded, bytes.length, padded.length, (byte) random.nextInt());
+      assertEquals(
+          "Seed " + seed, expected, KotlinTopLevel.mayDeclareTopLevel(padded, bytes.length));
+    }
+  }
+
+  @Test
+  public void preFilterRulesOutClassesWithoutMetadata() {
+    Random random = new Random(0);
+    byte[] plainClass = generateClass(random, false, null);
+    assertFalse(KotlinTopLevel.mayDeclareTopLevel(plainClass, plainClass.length));
+
+    byte[] kotlinClass = generateClass(random, true, null);
+    assertFalse(KotlinTopLevel.mayDeclareTopLevel(kotlinClass, kotlinClass.length));
+
+    byte[] facade = generateClass(random, true, 2);
+    assertTrue(KotlinTopLevel.mayDeclareTopLevel(facade, facade.length));
+
+    byte[] multiFileClassPart = generateClass(random, true, 5);
+    assertTrue(KotlinTopLevel.mayDeclareTopLevel(multiFileClassPart, multiFileClassPart.length));
+  }
+
+  @Test
+  public void preFilterLeavesAnythingItCannotReadToAsm() {
+    byte[] facade = generateClass(new Random(0), true, 2);
+    for (int length = 0; length < facade.length; length++) {
+      assertTrue(
+          "Truncated to " + length,
+          KotlinTopLevel.mayDeclareTopLevel(Arrays.copyOf(facade, length), length));
+    }
+
+    byte[] notAClass = "Not a class".getBytes(StandardCharsets.UTF_8);
+    assertTrue(KotlinTopLevel.mayDeclareTopLevel(notAClass, notAClass.length));
+  }
+
+  @Test
+  public void preFilterAgreesWithAsmOnCompiledKotlin() throws IOException {
+    Path jar =
+        Paths.get(
+            Runfiles.create()
+                .rlocation(
+                    "rules_jvm_external/tests/com/github/bazelbuild/rules_jvm_external/jar/kotlin_top_level_fixture.jar"));
+    int checked = 0;
+    try (ZipFile zipFile = new ZipFile(jar.toFile())) {
+      Enumeration<? extends ZipEntry> entries = zipFile.entries();
+      while (entries.hasMoreElements()) {
+        ZipEntry entry = entries.nextElement();
+        if (!entry.getName().endsWith(".class")) {
+          continue;
+        }
+        byte[] bytes;
+        try (InputStream is = zipFile.getInputStream(entry)) {
+          bytes = is.readAllBytes();
+        }
+        assertEquals(
+            entry.getName(),
+            isFacadeOrPart(bytes),
+            KotlinTopLevel.mayDeclareTopLevel(bytes, bytes.length));
+        checked++;
+      }
+    }
+    assertTrue(checked > 0);
+  }
+
+  /**
+   * Generates a class with an assortment of constants, members and annotations, optionally with a
+   * {@code kotlin.Metadata} annotation of the given kind (or without one if {@code kind} is null).
+   */
+  private static byte[] generateClass(Random random, boolean kotlin, Integer kind) {
+    ClassWriter writer = new ClassWriter(0);
+    writer.visit(
+        Opcodes.V17,
+        Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL,
+        "com/example/Generated" + random.nextInt(1000) + "Kt",
+        null,
+        "java/lang/Object",
+        random.nextBoolean() ? new String[] {"java/io/Serializable"} : null);
+
+    if (random.nextBoolean()) {
+      AnnotationVisitor other = writer.visitAnnotation("Lcom/example/Other;", random.nextBoolean());
+      other.visit("k", random.nextInt(10));
+      other.visit("value", "Lkotlin/Metadata;");
+      other.visitEnum("level", "Lcom/example/Level;", "HIGH");
+      AnnotationVisitor nested = other.visitAnnotation("nested", "Lcom/example/Nested;");
+      nested.visit("d", 1.5d);
+      nested.visitEnd();
+      AnnotationVisitor array = other.visitArray("values");
+      array.visit(null, 1L);
+      array.visit(null, "two");
+      array.visitEnd();
+      other.visitEnd();
+    }
+    if (kotlin) {
+      AnnotationVisitor metadata = writer.visitAnnotation("Lkotlin/Metadata;", true);
+      metadata.visit("mv", new int[] {2, 1, 0});
+      if (random.nextBoolean()) {
+        metadata.visit("xi", 48);
+      }
+      if (kind != null) {
+        metadata.visit("k", kind);
+      }
+      AnnotationVisitor d1 = metadata.visitArray("d1");
+      d1.visit(null, "\u0000\u0006\n\u0002\u0010\u0002");
+      d1.visitEnd();
+      AnnotationVisitor d2 = metadata.visitArray("d2");
+      d2.visit(null, "topLevelFunction");
+      d2.visitEnd();
+      metadata.visitEnd();
+    }
+
+    for (int i = random.nextInt(4); i > 0; i--) {
+      FieldVisitor field =
+          writer.visitField(
+              Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL,
+              "field" + i,
+              random.nextBoolean() ? "J" : "D",
+              null,
+              random.nextBoolean() ? (Object) random.nextLong() : (Object) random.nextDouble());
+      field.visitAnnotation("Lorg/jetbrains/annotations/NotNull;", false).visitEnd();
+      field.visitEnd();
+    }
+    for (int i = random.nextInt(4); i > 0; i--) {
+      MethodVisitor method =
+          writer.visitMethod(
+              Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC,
+              "method" + i,
+              "()Ljava/lang/String;",
+              null,
+              null);
+      method.visitCode();
+      method.visitLdcInsn(random.nextBoolean() ? "k" : "Lkotlin/Metadata;");
+      method.visitInsn(Opcodes.ARETURN);
+      method.visitMaxs(1, 0);
+      method.visitEnd();
+    }
+
+    writer.visitEnd();
+    return writer.toByteArray();
+  }
+
+  /** What ASM makes of the class, which is what the pre-filter has to agree with. */
+  private static boolean isFacadeOrPart(byte[] bytes) {
+    int[] kind = {0};
+    new ClassReader(bytes)
+        .accept(
+            new ClassVisitor(Opcodes.ASM9) {
+              @Override
+              public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+                if (!"Lkotlin/Metadata;".equals(descriptor)) {
+                  return null;
+                }
+                kind[0] = 1;
+                return new AnnotationVisitor(Opcodes.ASM9) {
+                  @Override
+                  public void visit(String name, Object value) {
+                    if ("k".equals(name)) {
+                      kind[0] = (Integer) value;
+                    }
+                  }
+                };
+              }
+            },
+            ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+    return kind[0] == 2 || kind[0] == 5;
+  }
+}
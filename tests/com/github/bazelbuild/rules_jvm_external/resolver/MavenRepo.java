@@ -52,6 +52,11 @@ public class MavenRepo {
     }
   }
 
+  /** Creates a repository in an existing directory, such as a resolver's local cache. */
+  public static MavenRepo createIn(Path root) {
+    return new MavenRepo(root);
+  }
+
   public MavenRepo add(Model item, Coordinates... deps) {
     // The coordinates we use need not be terribly complicated
     Coordinates coords =
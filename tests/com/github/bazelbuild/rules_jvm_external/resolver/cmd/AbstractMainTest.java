@@ -0,0 +1,222 @@
+// Copyright 2026 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.resolver.cmd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.github.bazelbuild.rules_jvm_external.Coordinates;
+import com.github.bazelbuild.rules_jvm_external.resolver.DependencyInfo;
+import com.github.bazelbuild.rules_jvm_external.resolver.MavenRepo;
+import com.github.bazelbuild.rules_jvm_external.resolver.OfflineResolutionException;
+import com.github.bazelbuild.rules_jvm_external.resolver.ResolutionRequest;
+import com.github.bazelbuild.rules_jvm_external.resolver.ResolutionResult;
+import com.github.bazelbuild.rules_jvm_external.resolver.Resolver;
+import com.github.bazelbuild.rules_jvm_external.resolver.remote.LocalCacheManager;
+import com.github.bazelbuild.rules_jvm_external.resolver.ui.NullListener;
+import com.google.common.graph.GraphBuilder;
+import com.google.common.graph.MutableGraph;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.junit.Test;
+
+public class AbstractMainTest {
+
+  private final Coordinates root = new Coordinates("com.example:root:1.0");
+  private final Coordinates present = new Coordinates("com.example:present:1.0");
+  private final Coordinates missingOne = new Coordinates("com.example:missing-one:1.0");
+  private final Coordinates missingTwo = new Coordinates("com.example:missing-two:1.0");
+
+  @Test
+  public void shouldFetchEveryNodeOfTheResolution() throws IOException, InterruptedException {
+    Path repo = MavenRepo.create().add(root).add(present).getPath();
+
+    Set<DependencyInfo> infos =
+        AbstractMain.fulfillDependencyInfos(
+            new FixedResolver(),
+            new NullListener(),
+            config(repo),
+            resolution(root, present));
+
+    Set<Coordinates> fetched =
+        infos.stream().map(DependencyInfo::getCoordinates).collect(Collectors.toSet());
+    assertEquals(Set.of(root, present), fetched);
+  }
+
+  @Test
+  public void shouldFetchSourcesAlongsideTheMainArtifacts()
+      throws IOException, InterruptedException {
+    Coordinates presentSources = present.setClassifier("sources").setExtension("jar");
+    Path repo =
+        MavenRepo.create()
+            .add(root)
+            .add(present)
+            .addArtifactOnly(root.setClassifier("sources").setExtension("jar"))
+            .addArtifactOnly(presentSources)
+            .getPath();
+
+    Set<DependencyInfo> infos =
+        AbstractMain.fulfillDependencyInfos(
+            new FixedResolver(),
+            new NullListener(),
+            config(repo, "--sources", "--max-threads", "1"),
+            resolution(root, present));
+
+    Set<Coordinates> fetched =
+        infos.stream().map(DependencyInfo::getCoordinates).collect(Collectors.toSet());
+    assertEquals(
+        Set.of(root, present, root.setClassifier("sources").setExtension("jar"), presentSources),
+        fetched);
+  }
+
+  @Test
+  public void shouldThrowRatherThanExitWhenAnArtifactIsMissing()
+      throws IOException, InterruptedException {
+    Path repo = MavenRepo.create().add(root).getPath();
+
+    try {
+      AbstractMain.fulfillDependencyInfos(
+          new FixedResolver(), new NullListener(), config(repo), resolution(root, missingOne));
+      fail("Expected the fetch to fail");
+    } catch (ArtifactFetchException e) {
+      assertEquals(1, e.getFailures().size());
+      assertTrue(e.getMessage(), e.getMessage().contains("root:1.0 -> com.example:missing-one"));
+    }
+  }
+
+  @Test
+  public void shouldReportAllMissingArtifactsWhenAsked() throws IOException, InterruptedException {
+    Path repo = MavenRepo.create().add(root).add(present).getPath();
+
+    try {
+      AbstractMain.fulfillDependencyInfos(
+          new FixedResolver(),
+          new NullListener(),
+          config(repo, "--report-all-missing"),
+          resolution(root, present, missingOne, missingTwo));
+      fail("Expected the fetch to fail");
+    } catch (ArtifactFetchException e) {
+      assertEquals(2, e.getFailures().size());
+      assertTrue(e.getMessage(), e.getMessage().contains("missing-one"));
+      assertTrue(e.getMessage(), e.getMessage().contains("missing-two"));
+    }
+  }
+
+  @Test
+  public void shouldFetchFromTheLocalCacheWhenOffline() throws IOException, InterruptedException {
+    // Nothing is listening here, so any attempt to use the network would fail
+    URI remote = URI.create("http://localhost:1/");
+    ResolverConfig config = config(remote, "--offline");
+    MavenRepo.createIn(config.getResolutionRequest().getLocalCache("maven")).add(root).add(present);
+
+    Set<DependencyInfo> infos =
+        AbstractMain.fulfillDependencyInfos(
+            new FixedResolver(), new NullListener(), config, resolution(root, present));
+
+    Set<Coordinates> fetched =
+        infos.stream().map(DependencyInfo::getCoordinates).collect(Collectors.toSet());
+    assertEquals(Set.of(root, present), fetched);
+    for (DependencyInfo info : infos) {
+      assertEquals(Set.of(remote), info.getRepositories());
+    }
+  }
+
+  @Test
+  public void shouldReportEverythingMissingFromTheLocalCacheWhenOffline()
+      throws IOException, InterruptedException {
+    ResolverConfig config = config(URI.create("http://localhost:1/"), "--offline");
+    MavenRepo.createIn(config.getResolutionRequest().getLocalCache("maven")).add(root).add(present);
+
+    try {
+      AbstractMain.fulfillDependencyInfos(
+          new FixedResolver(),
+          new NullListener(),
+          config,
+          resolution(root, present, missingOne, missingTwo));
+      fail("Expected the fetch to fail");
+    } catch (OfflineResolutionException e) {
+      assertEquals(Set.of(missingOne, missingTwo), e.getMissing());
+    }
+  }
+
+  @Test
+  public void shouldKeepWhatWasUsedWhenTheLocalCacheIsEvicted()
+      throws IOException, InterruptedException {
+    Path repo = MavenRepo.create().add(root).add(present).getPath();
+    ResolverConfig config = config(repo);
+    Path localCache = config.getResolutionRequest().getLocalCache("maven");
+    Coordinates stale = new Coordinates("com.example:stale:1.0");
+    MavenRepo.createIn(localCache).add(stale).add(present);
+
+    Set<DependencyInfo> infos;
+    // Nothing may stay, other than what this pin used
+    try (LocalCacheManager cacheManager = LocalCacheManager.open(localCache, 0)) {
+      infos =
+          AbstractMain.fulfillDependencyInfos(
+              new FixedResolver(),
+              new NullListener(),
+              config,
+              resolution(root, present),
+              cacheManager::recordAccess);
+    }
+
+    assertEquals(2, infos.size());
+    assertTrue(Files.exists(localCache.resolve(root.toRepoPath())));
+    assertTrue(Files.exists(localCache.resolve(present.toRepoPath())));
+    assertFalse(Files.exists(localCache.resolve(stale.toRepoPath())));
+  }
+
+  private ResolverConfig config(Path repo, String... extraArgs) throws IOException {
+    return config(repo.toUri(), extraArgs);
+  }
+
+  private ResolverConfig config(URI repo, String... extraArgs) throws IOException {
+    String[] args = new String[extraArgs.length + 3];
+    args[0] = "--repository";
+    args[1] = repo.toString();
+    args[2] = "--use_isolated_cache";
+    System.arraycopy(extraArgs, 0, args, 3, extraArgs.length);
+    return new ResolverConfig(new NullListener(), args);
+  }
+
+  /** A resolution where {@code from} directly depends on every one of {@code to}. */
+  private ResolutionResult resolution(Coordinates from, Coordinates... to) {
+    MutableGraph<Coordinates> graph = GraphBuilder.directed().build();
+    graph.addNode(from);
+    for (Coordinates dep : to) {
+      graph.putEdge(from, dep);
+    }
+    return new ResolutionResult(graph, Set.of(), Map.of());
+  }
+
+  private static class FixedResolver implements Resolver {
+    @Override
+    public String getName() {
+      return "maven";
+    }
+
+    @Override
+    public ResolutionResult resolve(ResolutionRequest request) {
+      throw new UnsupportedOperationException("The resolution is supplied by the test");
+    }
+  }
+}
@@ -0,0 +1,395 @@
+// Copyright 2026 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.resolver.cmd;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+
+import com.google.gson.Gson;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+public class ArtifactHasherTest {
+
+  @Test
+  public void accumulatorMatchesStringHashCode() {
+    String first = "{\"standard\": {\"version\": \"1.0\"}, \"sha\": ";
+    String second = "\"c0ffee\\n\"}";
+
+    ArtifactHasher.Accumulator whole = new ArtifactHasher.Accumulator();
+    whole.append(first + second);
+    assertEquals((first + second).hashCode(), whole.hash);
+
+    ArtifactHasher.Accumulator head = new ArtifactHasher.Accumulator();
+    head.append(first);
+    ArtifactHasher.Accumulator tail = new ArtifactHasher.Accumulator();
+    tail.append(second);
+    ArtifactHasher.Accumulator joined = new ArtifactHasher.Accumulator(head.fragment());
+    joined.append(tail.fragment());
+    assertEquals((first + second).hashCode(), joined.hash);
+    assertEquals((first + second).length(), joined.length);
+
+    ArtifactHasher.Accumulator numbers = new ArtifactHasher.Accumulator();
+    numbers.append(Integer.MIN_VALUE);
+    numbers.append(0);
+    numbers.append(-42);
+    numbers.append(Integer.MAX_VALUE);
+    assertEquals(
+        ("" + Integer.MIN_VALUE + 0 + -42 + Integer.MAX_VALUE).hashCode(), numbers.hash);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void matchesTheHashesStoredInACheckedInLockFile() throws IOException {
+    String content;
+    try (InputStream is = getClass().getClassLoader().getResourceAsStream("maven_install.json")) {
+      content = new String(is.readAllBytes(), UTF_8);
+    }
+    Map<String, Object> lockFile = new Gson().fromJson(content, Map.class);
+    Map<String, Double> stored = (Map<String, Double>) lockFile.get("__RESOLVED_ARTIFACTS_HASH");
+
+    Map<String, Set<String>> dependencies = new TreeMap<>();
+    ((Map<String, List<String>>) lockFile.get("dependencies"))
+        .forEach((key, deps) -> dependencies.put(key, new TreeSet<>(deps)));
+    lockFile.put("dependencies", dependencies);
+
+    Map<String, Integer> expected = new TreeMap<>();
+    stored.forEach((key, hash) -> expected.put(key, hash.intValue()));
+
+    assertEquals(expected, ArtifactHasher.hash(lockFile));
+    assertEquals(expected, referenceHash(lockFile));
+  }
+
+  @Test
+  public void matchesTheReferenceImplementationOnGeneratedLockFiles() {
+    for (int seed = 0; seed < 200; seed++) {
+      Map<String, Object> lockFile = generateLockFile(new Random(seed), 1 + seed % 40);
+      assertEquals("Seed " + seed, referenceHash(lockFile), ArtifactHasher.hash(lockFile));
+    }
+  }
+
+  @Test
+  public void handlesLongChainsOfDependencies() throws InterruptedException {
+    Map<String, Object> artifacts = new TreeMap<>();
+    Map<String, Set<String>> dependencies = new TreeMap<>();
+    Map<String, Set<String>> repositories = new TreeMap<>();
+    repositories.put("https://repo1.maven.org/maven2/", new TreeSet<>());
+    for (int i = 0; i < 20_000; i++) {
+      String key = "com.example:chain-" + i;
+      artifacts.put(key, artifact("1." + i, Map.of("jar", "sha" + i)));
+      dependencies.put(key, new TreeSet<>(Set.of("com.example:chain-" + (i + 1))));
+      repositories.get("https://repo1.maven.org/maven2/").add(key);
+    }
+    Map<String, Object> lockFile = new LinkedHashMap<>();
+    lockFile.put("artifacts", artifacts);
+    lockFile.put("dependencies", dependencies);
+    lockFile.put("repositories", repositories);
+
+    Map<String, Integer> actual = ArtifactHasher.hash(lockFile);
+
+    // The reference implementation recurses once per link, so give it plenty of stack
+    AtomicReference<Map<String, Integer>> expected = new AtomicReference<>();
+    Thread thread =
+        new Thread(null, () -> expected.set(referenceHash(lockFile)), "reference", 1L << 30);
+    thread.start();
+    thread.join();
+    assertEquals(expected.get(), actual);
+  }
+
+  @Test
+  public void digestsMatchTheOnesCheckedInStarlark() {
+    // The same lock file is used by v3_lock_file_test.bzl
+    Map<String, Object> artifacts = new TreeMap<>();
+    Map<String, String> guavaShasums = new TreeMap<>();
+    guavaShasums.put("jar", "4bf0e2c5af8e4525c96e8fde17a4f7307f97f8478f11c4c8e35a0e3298ae4e90");
+    guavaShasums.put(
+        "sources", "7ee9d6f3b0bcd7a2acfd1e58d0a25b3e4a39fe8b1bc2f4f8d0a4bc0a2fb2f3b1");
+    artifacts.put("com.google.guava:guava", artifact("33.4.0-jre", guavaShasums));
+    artifacts.put(
+        "com.google.guava:failureaccess",
+        artifact(
+            "1.0.2",
+            Map.of("jar", "8ee0a9fbf1c2a4d6e3b1a2c3d4e5f60718293a4b5c6d7e8f9a0b1c2d3e4f5a6b")));
+
+    Map<String, Object> repositories = new LinkedHashMap<>();
+    repositories.put(
+        "https://repo1.maven.org/maven2/",
+        new TreeSet<>(
+            Set.of(
+                "com.google.guava:failureaccess",
+                "com.google.guava:guava",
+                "com.google.guava:guava:jar:sources")));
+    repositories.put("https://maven.google.com/", new TreeSet<>(Set.of("com.google.guava:guava")));
+
+    Map<String, Object> lockFile = new LinkedHashMap<>();
+    lockFile.put("artifacts", artifacts);
+    lockFile.put(
+        "dependencies",
+        Map.of("com.google.guava:guava", new TreeSet<>(Set.of("com.google.guava:failureaccess"))));
+    lockFile.put("repositories", repositories);
+
+    assertEquals(
+        Map.of(
+            "com.google.guava:failureaccess", 1724917135,
+            "com.google.guava:guava", -121982908,
+            "com.google.guava:guava:jar:sources", -1908002871),
+        ArtifactHasher.digest(lockFile));
+  }
+
+  @Test
+  public void digestsMatchTheReferenceImplementationOnGeneratedLockFiles() {
+    for (int seed = 0; seed < 200; seed++) {
+      Map<String, Object> lockFile = generateLockFile(new Random(seed), 1 + seed % 40);
+      assertEquals("Seed " + seed, referenceDigest(lockFile), ArtifactHasher.digest(lockFile));
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> generateLockFile(Random random, int count) {
+    List<String> keys = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      String key = "com.example" + random.nextInt(3) + ":artifact-" + i;
+      if (random.nextInt(5) == 0) {
+        key += ":aar";
+      }
+      keys.add(key);
+    }
+
+    // Unsorted maps, so that the hasher has to put things in order itself
+    Map<String, Object> artifacts = new HashMap<>();
+    Map<String, Set<String>> dependencies = new HashMap<>();
+    Map<String, Object> repositories = new HashMap<>();
+    List<String> repoNames =
+        List.of("https://repo1.maven.org/maven2/", "https://maven.google.com/", "file:///tmp/m2/");
+    repoNames.forEach(repo -> repositories.put(repo, new TreeSet<String>()));
+
+    List<String> names = new ArrayList<>();
+    for (String key : keys) {
+      Map<String, String> shasums = new HashMap<>();
+      shasums.put("jar", random.nextInt(10) == 0 ? null : randomString(random));
+      if (random.nextBoolean()) {
+        shasums.put("sources", randomString(random));
+      }
+      if (random.nextInt(4) == 0) {
+        shasums.put("javadoc", randomString(random));
+      }
+      Map<String, Object> info = artifact(randomString(random), shasums);
+      if (random.nextInt(4) == 0) {
+        Map<String, Object> extra = new HashMap<>();
+        extra.put("zeta", List.of(randomString(random), Map.of("b", 1, "a", true)));
+        extra.put("alpha", random.nextInt());
+        info.put("extra", extra);
+      }
+      artifacts.put(key, info);
+
+      boolean isJarType = key.chars().filter(c -> c == ':').count() == 1;
+      for (String type : shasums.keySet()) {
+        names.add(type.equals("jar") ? key : key + (isJarType ? ":jar:" : ":") + type);
+      }
+    }
+
+    for (String name : names) {
+      Set<String> repos = (Set<String>) repositories.get(repoNames.get(random.nextInt(3)));
+      repos.add(name);
+      if (random.nextInt(3) == 0) {
+        continue;
+      }
+      Set<String> deps;
+      switch (random.nextInt(3)) {
+        case 0:
+          deps = new TreeSet<>();
+          break;
+        case 1:
+          deps = new LinkedHashSet<>();
+          break;
+        default:
+          deps = new HashSet<>();
+      }
+      int depCount = random.nextInt(5);
+      for (int i = 0; i < depCount; i++) {
+        // Sometimes depend on something that isn't in the lock file, which hashes as 0
+        deps.add(
+            random.nextInt(8) == 0
+                ? "com.missing:dep-" + i
+                : names.get(random.nextInt(names.size())));
+      }
+      dependencies.put(name, deps);
+    }
+
+    Map<String, Object> lockFile = new LinkedHashMap<>();
+    lockFile.put("artifacts", artifacts);
+    lockFile.put("dependencies", dependencies);
+    lockFile.put("repositories", repositories);
+    return lockFile;
+  }
+
+  private static Map<String, Object> artifact(String version, Map<String, String> shasums) {
+    Map<String, Object> info = new HashMap<>();
+    info.put("shasums", shasums);
+    info.put("version", version);
+    return info;
+  }
+
+  private static String randomString(Random random) {
+    String alphabet = "abcdef0123456789.-_\"\\\n\r\t\u0001\u001f\u00e9";
+    StringBuilder builder = new StringBuilder();
+    int length = 1 + random.nextInt(12);
+    for (int i = 0; i < length; i++) {
+      builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+    }
+    return builder.toString();
+  }
+
+  // The digests, as v3_lock_file.bzl calculates them
+  @SuppressWarnings("unchecked")
+  private static Map<String, Integer> referenceDigest(Map<String, Object> rendered) {
+    Map<String, List<Object>> repositories = new HashMap<>();
+    ((Map<String, Iterable<String>>) rendered.get("repositories"))
+        .forEach(
+            (repo, artifacts) ->
+                artifacts.forEach(
+                    art -> repositories.computeIfAbsent(art, k -> new ArrayList<>()).add(repo)));
+    Map<String, Object> dependencies = (Map<String, Object>) rendered.get("dependencies");
+
+    Map<String, Integer> digests = new TreeMap<>();
+    StarlarkRepr repr = new StarlarkRepr();
+    ((Map<String, Map<String, Object>>) rendered.get("artifacts"))
+        .forEach(
+            (dep, depInfo) -> {
+              Map<String, Object> commonInfo = new TreeMap<>(depInfo);
+              commonInfo.remove("shasums");
+              String jarSuffix = dep.chars().filter(c -> c == ':').count() == 1 ? ":jar" : "";
+              ((Map<String, String>) depInfo.get("shasums"))
+                  .forEach(
+                      (type, sha) -> {
+                        String key = dep + (!type.equals("jar") ? jarSuffix + ":" + type : "");
+                        List<Object> leaf = new ArrayList<>();
+                        leaf.add(commonInfo);
+                        leaf.add(key);
+                        leaf.add(sha);
+                        leaf.add(repositories.getOrDefault(key, List.of()));
+                        leaf.add(dependencies.getOrDefault(key, List.of()));
+                        digests.put(key, repr.repr(leaf).hashCode());
+                      });
+            });
+    return digests;
+  }
+
+  // What AbstractMain used to do: print each artifact's info using StarlarkRepr and hash that,
+  // recursing into its dependencies first.
+  @SuppressWarnings("unchecked")
+  private static Map<String, Integer> referenceHash(Map<String, Object> rendered) {
+    Map<String, Map<String, Object>> allInfos = new LinkedHashMap<>();
+
+    Map<String, Map<String, Object>> artifacts =
+        sortMapRecursively((Map<?, ?>) rendered.get("artifacts"));
+    for (Map.Entry<String, Map<String, Object>> dep : artifacts.entrySet()) {
+      Map<String, Object> depInfo = dep.getValue();
+      Map<String, String> shasums = (Map<String, String>) depInfo.get("shasums");
+
+      Map<String, Object> commonInfo = new LinkedHashMap<>(depInfo);
+      commonInfo.remove("shasums");
+
+      boolean isJarType = dep.getKey().chars().filter(x -> x == ':').count() == 1;
+
+      for (Map.Entry<String, String> shaEntry : shasums.entrySet()) {
+        String type = shaEntry.getKey();
+        String jarSuffix = isJarType ? ":jar" : "";
+        String suffix = (!type.equals("jar")) ? jarSuffix + ":" + type : "";
+
+        Map<String, Object> typeInfo = new LinkedHashMap<>();
+        typeInfo.put("standard", commonInfo);
+        typeInfo.put("sha", shaEntry.getValue());
+        allInfos.put(dep.getKey() + suffix, typeInfo);
+      }
+    }
+
+    Map<String, Iterable<String>> repositories =
+        sortMapRecursively((Map<?, ?>) rendered.get("repositories"));
+    for (Map.Entry<String, Iterable<String>> repo : repositories.entrySet()) {
+      for (String art : repo.getValue()) {
+        allInfos.get(art).put("repository", repo.getKey());
+      }
+    }
+
+    Map<String, Set<String>> dependencies =
+        sortMapRecursively((Map<?, ?>) rendered.get("dependencies"));
+    for (Map.Entry<String, Set<String>> dep : dependencies.entrySet()) {
+      allInfos.get(dep.getKey()).put("dependencies", dep.getValue());
+    }
+
+    Map<String, Integer> finalHash = new TreeMap<>();
+    allInfos.forEach((k, v) -> referenceFinalHash(k, allInfos, finalHash));
+    return finalHash;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static int referenceFinalHash(
+      String curr, Map<String, Map<String, Object>> allInfos, Map<String, Integer> finalHash) {
+    StarlarkRepr repr = new StarlarkRepr();
+    if (finalHash.containsKey(curr)) {
+      return finalHash.get(curr);
+    }
+    if (!allInfos.containsKey(curr)) {
+      return 0;
+    }
+
+    finalHash.put(curr, repr.repr(allInfos.get(curr)).hashCode());
+
+    Set<String> deps =
+        (Set<String>) allInfos.get(curr).getOrDefault("dependencies", Collections.emptySet());
+    Map<String, Integer> hashedDeps = new TreeMap<>();
+    for (String dep : deps) {
+      hashedDeps.put(dep, referenceFinalHash(dep, allInfos, finalHash));
+    }
+
+    allInfos.get(curr).put("dependency_hashes", hashedDeps);
+    finalHash.put(curr, repr.repr(allInfos.get(curr)).hashCode());
+    return finalHash.get(curr);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> Map<String, T> sortMapRecursively(Map<?, ?> map) {
+    TreeMap<String, T> sorted = new TreeMap<>();
+    for (Map.Entry<?, ?> entry : map.entrySet()) {
+      Object value = entry.getValue();
+      if (value instanceof Map) {
+        value = sortMapRecursively((Map<?, ?>) value);
+      } else if (value instanceof List) {
+        List<Object> sortedList = new ArrayList<>();
+        for (Object item : (List<?>) value) {
+          sortedList.add(item instanceof Map ? sortMapRecursively((Map<?, ?>) item) : item);
+        }
+        value = sortedList;
+      }
+      sorted.put(String.valueOf(entry.getKey()), (T) value);
+    }
+    return sorted;
+  }
+}
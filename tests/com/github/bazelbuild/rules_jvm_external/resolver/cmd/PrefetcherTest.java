@@ -0,0 +1,110 @@
+// Copyright 2026 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.resolver.cmd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.github.bazelbuild.rules_jvm_external.Coordinates;
+import com.github.bazelbuild.rules_jvm_external.resolver.DependencyInfo;
+import com.github.bazelbuild.rules_jvm_external.resolver.MavenRepo;
+import com.github.bazelbuild.rules_jvm_external.resolver.netrc.Netrc;
+import com.github.bazelbuild.rules_jvm_external.resolver.remote.Downloader;
+import com.github.bazelbuild.rules_jvm_external.resolver.ui.NullListener;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PrefetcherTest {
+
+  @Rule public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @Test
+  public void shouldFetchThePreviousArtifactsIntoTheLocalRepository() throws Exception {
+    Coordinates kept = new Coordinates("com.example:kept:1.0");
+    Coordinates dropped = new Coordinates("com.example:dropped:1.0");
+    URI repo = MavenRepo.create().add(kept).add(dropped).getPath().toUri();
+    Path localRepo = tempFolder.newFolder("m2").toPath();
+
+    Prefetcher prefetcher =
+        Prefetcher.start(
+            newDownloader(localRepo, repo), List.of(info(kept, repo), info(dropped, repo)), 2);
+    prefetcher.awaitCompletion();
+    prefetcher.stop();
+
+    assertTrue(Files.exists(localRepo.resolve(kept.toRepoPath())));
+    assertTrue(Files.exists(localRepo.resolve(dropped.toRepoPath())));
+    assertEquals(Set.of(kept, dropped), prefetcher.getPrefetched().keySet());
+    String report = prefetcher.report(Set.of(kept));
+    assertTrue(report, report.contains("2 artifacts from the previous lock file: 1 used"));
+  }
+
+  @Test
+  public void shouldNotCountWhatWasAlreadyCached() throws Exception {
+    Coordinates cached = new Coordinates("com.example:cached:1.0");
+    URI repo = MavenRepo.create().add(cached).getPath().toUri();
+    Path localRepo = tempFolder.newFolder("m2").toPath();
+    Path existing = localRepo.resolve(cached.toRepoPath());
+    Files.createDirectories(existing.getParent());
+    Files.write(existing, new byte[0]);
+
+    Prefetcher prefetcher =
+        Prefetcher.start(newDownloader(localRepo, repo), List.of(info(cached, repo)), 1);
+    prefetcher.awaitCompletion();
+    prefetcher.stop();
+
+    assertTrue(prefetcher.getPrefetched().isEmpty());
+  }
+
+  @Test
+  public void shouldIgnoreArtifactsThatCannotBeFound() throws Exception {
+    Coordinates missing = new Coordinates("com.example:missing:1.0");
+    URI repo = MavenRepo.create().getPath().toUri();
+    Path localRepo = tempFolder.newFolder("m2").toPath();
+
+    Prefetcher prefetcher =
+        Prefetcher.start(newDownloader(localRepo, repo), List.of(info(missing, repo)), 1);
+    prefetcher.awaitCompletion();
+    prefetcher.stop();
+
+    assertTrue(prefetcher.getPrefetched().isEmpty());
+  }
+
+  private static Downloader newDownloader(Path localRepo, URI repo) {
+    return new Downloader(
+        Netrc.fromUserHome(), localRepo, Set.of(repo), new NullListener(), true, Map.of());
+  }
+
+  private static DependencyInfo info(Coordinates coords, URI repo) {
+    return new DependencyInfo(
+        coords,
+        Set.of(repo),
+        Optional.empty(),
+        Optional.of("0000000000000000000000000000000000000000000000000000000000000000"),
+        ImmutableSet.of(),
+        ImmutableSet.of(),
+        ImmutableSet.of(),
+        ImmutableSortedMap.of());
+  }
+}
@@ -0,0 +1,193 @@
+// Copyright 2026 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.resolver.cmd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.github.bazelbuild.rules_jvm_external.Coordinates;
+import com.github.bazelbuild.rules_jvm_external.resolver.DependencyMetadata;
+import com.github.bazelbuild.rules_jvm_external.resolver.MetadataService;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+public class TaskScopeTest {
+
+  private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+  @After
+  public void shutdownExecutor() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void shouldReturnResultsInTheOrderTheyWereAdded() throws InterruptedException {
+    try (TaskScope<String> scope = new TaskScope<>(true)) {
+      scope.add(
+          CompletableFuture.supplyAsync(
+              () -> {
+                try {
+                  Thread.sleep(100);
+                } catch (InterruptedException e) {
+                  throw new IllegalStateException(e);
+                }
+                return "slow";
+              },
+              executor));
+      scope.add(CompletableFuture.completedFuture("fast"));
+
+      assertEquals(List.of("slow", "fast"), scope.join());
+    }
+  }
+
+  @Test
+  public void shouldCancelOutstandingTasksOnFirstFailureWhenFailingFast()
+      throws InterruptedException {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch interrupted = new CountDownLatch(1);
+
+    try (TaskScope<String> scope = new TaskScope<>(true)) {
+      Future<?> running =
+          executor.submit(
+              () -> {
+                started.countDown();
+                try {
+                  Thread.sleep(TimeUnit.MINUTES.toMillis(5));
+                } catch (InterruptedException e) {
+                  interrupted.countDown();
+                }
+              });
+      // Only ever completed by the work it's derived from, which never finishes
+      scope.add(new CompletableFuture<>(), running);
+      assertTrue(started.await(10, TimeUnit.SECONDS));
+      scope.add(CompletableFuture.failedFuture(new IllegalStateException("boom")));
+
+      try {
+        scope.join();
+        fail("Expected join to fail");
+      } catch (ArtifactFetchException e) {
+        assertEquals(1, e.getFailures().size());
+        assertEquals("boom", e.getMessage());
+      }
+    }
+
+    assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void shouldStopOutstandingMetadataLookupsOnFirstFailure() throws Exception {
+    Coordinates slow = new Coordinates("com.example:slow:1.0");
+    Coordinates queued = new Coordinates("com.example:queued:1.0");
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch interrupted = new CountDownLatch(1);
+    List<Coordinates> looked = Collections.synchronizedList(new ArrayList<>());
+    MetadataService service =
+        new MetadataService() {
+          @Override
+          public DependencyMetadata getMetadata(Coordinates coords, Collection<URI> repositories) {
+            looked.add(coords);
+            started.countDown();
+            try {
+              Thread.sleep(TimeUnit.MINUTES.toMillis(5));
+            } catch (InterruptedException e) {
+              interrupted.countDown();
+            }
+            return null;
+          }
+        };
+    // A single thread, so that the second lookup waits for the first
+    ExecutorService single = Executors.newSingleThreadExecutor();
+
+    try (TaskScope<DependencyMetadata> scope = new TaskScope<>(true)) {
+      Map<Coordinates, CompletableFuture<DependencyMetadata>> lookups =
+          service.getAllMetadata(List.of(slow, queued), List.of(), single);
+      for (CompletableFuture<DependencyMetadata> lookup : lookups.values()) {
+        // Derived, as the resolver's own tasks are
+        scope.add(lookup.thenApply(metadata -> metadata), lookup);
+      }
+      assertTrue(started.await(10, TimeUnit.SECONDS));
+      scope.add(CompletableFuture.failedFuture(new IllegalStateException("boom")));
+
+      try {
+        scope.join();
+        fail("Expected join to fail");
+      } catch (ArtifactFetchException e) {
+        assertEquals("boom", e.getMessage());
+      }
+    } finally {
+      single.shutdown();
+    }
+
+    assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+    assertTrue(single.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(List.of(slow), looked);
+  }
+
+  @Test
+  public void shouldReportEveryFailureWhenNotFailingFast() throws InterruptedException {
+    try (TaskScope<String> scope = new TaskScope<>(false)) {
+      scope.add(CompletableFuture.failedFuture(new IllegalStateException("second")));
+      scope.add(CompletableFuture.completedFuture("fine"));
+      scope.add(CompletableFuture.failedFuture(new IllegalStateException("first")));
+
+      try {
+        scope.join();
+        fail("Expected join to fail");
+      } catch (ArtifactFetchException e) {
+        assertEquals(2, e.getFailures().size());
+        assertEquals("Unable to fetch 2 artifacts:\n  * first\n  * second", e.getMessage());
+      }
+    }
+  }
+
+  @Test
+  public void shouldWaitForTasksThatFinishLater() throws InterruptedException {
+    CompletableFuture<String> later = new CompletableFuture<>();
+    try (TaskScope<String> scope = new TaskScope<>(true)) {
+      scope.add(later);
+      scope.add(CompletableFuture.completedFuture("already"));
+      executor.execute(() -> later.complete("later"));
+
+      assertEquals(List.of("later", "already"), scope.join());
+    }
+  }
+
+  @Test
+  public void shouldFailWhenATaskFails() throws InterruptedException {
+    try (TaskScope<String> scope = new TaskScope<>(true)) {
+      scope.add(CompletableFuture.failedFuture(new IllegalStateException("elsewhere")));
+
+      try {
+        scope.join();
+        fail("Expected join to fail");
+      } catch (ArtifactFetchException e) {
+        assertEquals(1, e.getFailures().size());
+      }
+    }
+  }
+}
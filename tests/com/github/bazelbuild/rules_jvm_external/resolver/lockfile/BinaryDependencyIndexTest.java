@@ -0,0 +1,262 @@
+// Copyright 2026 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.resolver.lockfile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.github.bazelbuild.rules_jvm_external.Coordinates;
+import com.github.bazelbuild.rules_jvm_external.resolver.DependencyInfo;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BinaryDependencyIndexTest {
+
+  @Rule public TemporaryFolder temp = new TemporaryFolder();
+
+  private final Set<URI> repos = Set.of(URI.create("http://localhost/m2/repository/"));
+
+  @Test
+  public void shouldFindArtifactsByClass() throws IOException {
+    Set<DependencyInfo> infos =
+        Set.of(
+            info("com.google.guava:guava:33.0.0-jre", "com.google.common.base.Strings"),
+            info(
+                "com.google.code.findbugs:jsr305:3.0.2",
+                "javax.annotation.Nonnull",
+                "javax.annotation.Nullable"),
+            info("org.example:annotations:1.0", "javax.annotation.Nullable", "Unpackaged"),
+            info("org.example:other:1.0", "Unpackaged"));
+
+    BinaryDependencyIndex index = write(infos);
+
+    assertEquals(
+        List.of("com.google.guava:guava"), index.findArtifacts("com.google.common.base.Strings"));
+    assertEquals(
+        List.of("com.google.guava:guava"), index.findArtifacts("com.google.common.base.Joiner"));
+    assertEquals(
+        Optional.of("com.google.guava:guava"),
+        index.findArtifactForPackage("com.google.common.base"));
+    assertEquals(
+        List.of("com.google.code.findbugs:jsr305"),
+        index.findArtifacts("javax.annotation.Nonnull"));
+    assertEquals(
+        List.of("com.google.code.findbugs:jsr305", "org.example:annotations"),
+        index.findArtifacts("javax.annotation.Nullable"));
+    assertEquals(
+        List.of("org.example:annotations", "org.example:other"),
+        index.findArtifacts("Unpackaged"));
+    assertEquals(Optional.empty(), index.findArtifactForPackage("javax.annotation"));
+    assertEquals(List.of(), index.findArtifacts("javax.annotation.Missing"));
+    assertEquals(List.of(), index.findArtifacts("com.example.Missing"));
+    assertEquals(
+        List.of(
+            "com.google.code.findbugs:jsr305",
+            "com.google.guava:guava",
+            "org.example:annotations",
+            "org.example:other"),
+        index.getArtifacts());
+  }
+
+  @Test
+  public void shouldFindNamesOutsideTheBasicMultilingualPlane() throws IOException {
+    // Sorted as strings, the surrogate pairs would come before the ligature, not after it
+    List<String> suffixes = List.of("a", "\ufb01", "\ud835\udc00");
+    Set<DependencyInfo> infos = new HashSet<>();
+    for (int i = 0; i < 20; i++) {
+      List<String> classes = new ArrayList<>();
+      for (String suffix : suffixes) {
+        classes.add("com.example.p" + suffix + i + ".Only");
+        classes.add("com.example.shared.C" + suffix + i);
+      }
+      infos.add(info("com.example:artifact-" + i + ":1.0", classes));
+    }
+    infos.add(info("com.example:everything:1.0", "com.example.shared.Other"));
+
+    BinaryDependencyIndex index = write(infos);
+
+    for (int i = 0; i < 20; i++) {
+      for (String suffix : suffixes) {
+        String artifact = "com.example:artifact-" + i;
+        assertEquals(
+            Optional.of(artifact), index.findArtifactForPackage("com.example.p" + suffix + i));
+        assertEquals(List.of(artifact), index.findArtifacts("com.example.shared.C" + suffix + i));
+      }
+    }
+  }
+
+  @Test
+  public void shouldHandleAnEmptyIndex() throws IOException {
+    BinaryDependencyIndex index = write(Set.of());
+
+    assertEquals(List.of(), index.getArtifacts());
+    assertEquals(List.of(), index.findArtifacts("com.example.Foo"));
+    assertEquals(Optional.empty(), index.findArtifactForPackage("com.example"));
+  }
+
+  @Test
+  public void shouldNotOpenOtherFiles() throws IOException {
+    Path path = temp.newFile("index.bin").toPath();
+    Files.writeString(path, "{\"version\": 1, \"packages\": {}}");
+
+    try {
+      BinaryDependencyIndex.open(path);
+      throw new AssertionError("Should not have opened a JSON index");
+    } catch (IOException expected) {
+      assertTrue(expected.getMessage().contains("Not a binary dependency index"));
+    }
+  }
+
+  @Test
+  public void shouldGiveTheSameAnswersAsTheJsonIndex() throws IOException {
+    for (int seed = 0; seed < 20; seed++) {
+      Random random = new Random(seed);
+      Set<DependencyInfo> infos = new HashSet<>();
+      // Enough of everything to need many blocks, with packages that often turn up in more than
+      // one artifact, and names that share long prefixes
+      for (int i = 0; i < 50 + random.nextInt(250); i++) {
+        List<String> classes = new ArrayList<>();
+        for (int j = random.nextInt(40); j >= 0; j--) {
+          String pkg =
+              random.nextInt(4) == 0
+                  ? "com.example.shared" + random.nextInt(10)
+                  : "com.example.artifact" + i + ".p" + random.nextInt(5);
+          classes.add(pkg + ".Class" + random.nextInt(30) + (random.nextBoolean() ? "$Inner" : ""));
+        }
+        infos.add(info("com.example.group" + (i % 7) + ":artifact-" + i + ":1.0", classes));
+      }
+
+      Map<String, Object> json = parseJson(new DependencyIndex(infos).render());
+      BinaryDependencyIndex index = write(infos);
+
+      // Everything the JSON index says, the binary one says too
+      Map<String, Set<String>> expectedClasses = new TreeMap<>();
+      Set<String> artifacts = new TreeSet<>();
+      Map<?, ?> packages = (Map<?, ?>) json.get("packages");
+      for (Map.Entry<?, ?> entry : packages.entrySet()) {
+        artifacts.add((String) entry.getKey());
+        for (Object pkg : (List<?>) entry.getValue()) {
+          assertEquals(
+              "Seed " + seed,
+              Optional.of(entry.getKey()),
+              index.findArtifactForPackage((String) pkg));
+          assertEquals(
+              "Seed " + seed, List.of(entry.getKey()), index.findArtifacts(pkg + ".AnyClass"));
+        }
+      }
+      Map<?, ?> splitPackages = (Map<?, ?>) json.get("split_package_classes");
+      for (Map.Entry<?, ?> entry : splitPackages.entrySet()) {
+        artifacts.add((String) entry.getKey());
+        for (Map.Entry<?, ?> pkg : ((Map<?, ?>) entry.getValue()).entrySet()) {
+          String pkgName = (String) pkg.getKey();
+          assertEquals("Seed " + seed, Optional.empty(), index.findArtifactForPackage(pkgName));
+          for (Object simpleName : (List<?>) pkg.getValue()) {
+            expectedClasses
+                .computeIfAbsent(pkgName + "." + simpleName, k -> new TreeSet<>())
+                .add((String) entry.getKey());
+          }
+        }
+      }
+      for (Map.Entry<String, Set<String>> entry : expectedClasses.entrySet()) {
+        assertEquals(
+            "Seed " + seed, List.copyOf(entry.getValue()), index.findArtifacts(entry.getKey()));
+      }
+      assertEquals("Seed " + seed, List.copyOf(artifacts), index.getArtifacts());
+
+      // And nothing more
+      assertEquals(List.of(), index.findArtifacts("com.example.shared0.Missing"));
+      assertEquals(List.of(), index.findArtifacts("com.example.artifact0.p9.Class0"));
+      assertEquals(List.of(), index.findArtifacts("a.Before.Everything"));
+      assertEquals(List.of(), index.findArtifacts("z.After.Everything"));
+    }
+  }
+
+  @Test
+  public void shouldBeSmallerThanTheJsonIndex() throws IOException {
+    Set<DependencyInfo> infos = new HashSet<>();
+    for (int i = 0; i < 100; i++) {
+      List<String> classes = new ArrayList<>();
+      for (int j = 0; j < 100; j++) {
+        classes.add("com.example.shared.sub" + (j % 10) + ".FairlyLongClassName" + j + "_" + i);
+      }
+      infos.add(info("com.example:artifact-" + i + ":1.0", classes));
+    }
+
+    Map<String, Object> rendered = new DependencyIndex(infos).render();
+    int jsonSize = new GsonBuilder().setPrettyPrinting().create().toJson(rendered).length();
+    ByteArrayOutputStream binary = new ByteArrayOutputStream();
+    new DependencyIndex(infos).writeBinary(binary);
+
+    assertTrue(binary.size() + " vs " + jsonSize, binary.size() * 2 < jsonSize);
+  }
+
+  private BinaryDependencyIndex write(Set<DependencyInfo> infos) throws IOException {
+    Path path = temp.newFile().toPath();
+    try (OutputStream out = Files.newOutputStream(path)) {
+      new DependencyIndex(infos).writeBinary(out);
+    }
+    BinaryDependencyIndex fromFile = BinaryDependencyIndex.open(path);
+
+    // Reading from the heap should give the same results as reading from a mapped file
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    new DependencyIndex(infos).writeBinary(bytes);
+    assertEquals(
+        new BinaryDependencyIndex(ByteBuffer.wrap(bytes.toByteArray())).getArtifacts(),
+        fromFile.getArtifacts());
+
+    return fromFile;
+  }
+
+  private static Map<String, Object> parseJson(Map<String, Object> rendered) {
+    Gson gson = new Gson();
+    return gson.fromJson(gson.toJson(rendered), new TypeToken<Map<String, Object>>() {}.getType());
+  }
+
+  private DependencyInfo info(String coords, String... classes) {
+    return info(coords, List.of(classes));
+  }
+
+  private DependencyInfo info(String coords, List<String> classes) {
+    return new DependencyInfo(
+        new Coordinates(coords),
+        repos,
+        Optional.empty(),
+        Optional.of("abc123"),
+        Set.of(),
+        Set.of(),
+        new TreeSet<>(classes),
+        new TreeMap<>());
+  }
+}
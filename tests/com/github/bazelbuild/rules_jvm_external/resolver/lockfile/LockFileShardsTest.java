@@ -0,0 +1,253 @@
+// Copyright 2026 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.resolver.lockfile;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.github.bazelbuild.rules_jvm_external.Coordinates;
+import com.github.bazelbuild.rules_jvm_external.resolver.Conflict;
+import com.github.bazelbuild.rules_jvm_external.resolver.DependencyInfo;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LockFileShardsTest {
+
+  private static final Gson GSON = new GsonBuilder().setPrettyPrinting().serializeNulls().create();
+
+  @Rule public TemporaryFolder temp = new TemporaryFolder();
+
+  private final URI central = URI.create("https://repo1.maven.org/maven2/");
+  private final URI google = URI.create("https://maven.google.com/");
+  private final URI unused = URI.create("https://example.com/unused/");
+  private final Set<URI> repos = new LinkedHashSet<>(List.of(google, central, unused));
+
+  @Test
+  public void shouldJoinShardsBackIntoTheSameLockFile() throws IOException {
+    Map<String, Object> contents = render(new V3LockFile(repos, infos(), conflicts(), true));
+
+    Path manifest = temp.getRoot().toPath().resolve("maven_install.json");
+    LockFileShards.write(manifest, contents);
+
+    assertTrue(LockFileShards.isSharded(manifest));
+    assertEquals(parse(GSON.toJson(contents)), LockFileShards.read(manifest));
+  }
+
+  @Test
+  public void shouldReadTheSameArtifactsFromShardsAsFromASingleFile() throws IOException {
+    V3LockFile lockFile = new V3LockFile(repos, infos(), conflicts(), false);
+
+    Path manifest = temp.getRoot().toPath().resolve("maven_install.json");
+    LockFileShards.write(manifest, render(lockFile));
+    V3LockFile fromShards = V3LockFile.create(LockFileShards.read(manifest));
+    V3LockFile fromSingleFile = V3LockFile.create(GSON.toJson(render(lockFile)));
+
+    assertEquals(fromSingleFile.getDependencyInfos(), fromShards.getDependencyInfos());
+    assertEquals(fromSingleFile.getConflicts(), fromShards.getConflicts());
+    assertEquals(
+        List.copyOf(fromSingleFile.getRepositories()), List.copyOf(fromShards.getRepositories()));
+  }
+
+  @Test
+  public void shouldOnlyKeepSmallEntriesInTheManifest() throws IOException {
+    Map<String, Object> contents = render(new V3LockFile(repos, infos(), conflicts(), true));
+    contents.put("__INPUT_ARTIFACTS_HASH", 1234);
+
+    Path manifest = temp.getRoot().toPath().resolve("maven_install.json");
+    LockFileShards.write(manifest, contents);
+    Map<String, Object> read = parse(Files.readString(manifest));
+
+    assertEquals(Map.of(), read.get("artifacts"));
+    assertEquals(Map.of(), read.get("dependencies"));
+    assertEquals(Map.of(), read.get("services"));
+    assertNull(read.get("packages"));
+    assertNull(read.get("conflict_resolution"));
+    assertEquals(1234.0, read.get("__INPUT_ARTIFACTS_HASH"));
+    assertEquals("3", read.get("version"));
+    // The order of the repositories matters, so it's kept even without any artifacts
+    assertEquals(
+        List.of(google.toString(), central.toString(), unused.toString()),
+        List.copyOf(((Map<?, ?>) read.get("repositories")).keySet()));
+
+    Path shards = LockFileShards.getShardDirectory(manifest);
+    assertEquals(temp.getRoot().toPath().resolve("maven_install.shards"), shards);
+    assertTrue(Files.exists(shards.resolve("groups/com.google.guava.json")));
+    assertTrue(Files.exists(shards.resolve("groups/org.example.json")));
+    assertTrue(Files.exists(shards.resolve("packages.json")));
+    assertTrue(Files.exists(shards.resolve("conflict_resolution.json")));
+
+    Map<String, Object> group = parse(Files.readString(shards.resolve("groups/org.example.json")));
+    assertEquals(Set.of("org.example:lib"), ((Map<?, ?>) group.get("artifacts")).keySet());
+    assertEquals(
+        Map.of(google.toString(), List.of("org.example:lib", "org.example:lib:jar:sources")),
+        group.get("repositories"));
+  }
+
+  @Test
+  public void shouldRemoveShardsThatAreNoLongerNeeded() throws IOException {
+    Path manifest = temp.getRoot().toPath().resolve("maven_install.json");
+    LockFileShards.write(manifest, render(new V3LockFile(repos, infos(), conflicts(), true)));
+
+    Set<DependencyInfo> fewer = new HashSet<>();
+    for (DependencyInfo info : infos()) {
+      if (info.getCoordinates().getGroupId().equals("com.google.guava")) {
+        fewer.add(info);
+      }
+    }
+    Map<String, Object> contents = render(new V3LockFile(repos, fewer, Set.of(), true));
+    LockFileShards.write(manifest, contents);
+
+    Path shards = LockFileShards.getShardDirectory(manifest);
+    assertFalse(Files.exists(shards.resolve("groups/org.example.json")));
+    assertFalse(Files.exists(shards.resolve("conflict_resolution.json")));
+    assertEquals(parse(GSON.toJson(contents)), LockFileShards.read(manifest));
+  }
+
+  @Test
+  public void shouldJoinShardsBackIntoTheSameDependencyIndex() throws IOException {
+    Map<String, Object> contents = new DependencyIndex(infos()).render();
+
+    Path manifest = temp.getRoot().toPath().resolve("maven_index.json");
+    LockFileShards.write(manifest, contents);
+
+    Path shards = LockFileShards.getShardDirectory(manifest);
+    assertTrue(Files.exists(shards.resolve("packages.json")));
+    assertTrue(Files.exists(shards.resolve("split_package_classes.json")));
+    assertEquals(parse(GSON.toJson(contents)), LockFileShards.read(manifest));
+  }
+
+  @Test
+  public void shouldReadALockFileWithoutShardsAsItIs() throws IOException {
+    Map<String, Object> contents = render(new V3LockFile(repos, infos(), conflicts(), true));
+    Path lockFile = temp.getRoot().toPath().resolve("maven_install.json");
+    Files.writeString(lockFile, GSON.toJson(contents), UTF_8);
+
+    assertFalse(LockFileShards.isSharded(lockFile));
+    assertEquals(parse(GSON.toJson(contents)), LockFileShards.read(lockFile));
+  }
+
+  @Test
+  public void shouldTellAWholeLockFileApartWithoutReadingAllOfIt() throws IOException {
+    Path lockFile = temp.getRoot().toPath().resolve("maven_install.json");
+    // Anything after the artifacts is never looked at
+    Files.writeString(
+        lockFile,
+        "{\"version\": \"3\", \"artifacts\": {\"com.example:lib\": {}}, \"shards\": [not json",
+        UTF_8);
+    assertFalse(LockFileShards.isSharded(lockFile));
+
+    Path empty = temp.getRoot().toPath().resolve("empty_install.json");
+    Files.writeString(empty, GSON.toJson(render(new V3LockFile(repos, Set.of(), Set.of(), true))));
+    assertFalse(LockFileShards.isSharded(empty));
+  }
+
+  private Set<DependencyInfo> infos() {
+    Coordinates guava = new Coordinates("com.google.guava:guava:33.0.0-jre");
+    Coordinates failureAccess = new Coordinates("com.google.guava:failureaccess:1.0.2");
+    Coordinates lib = new Coordinates("org.example:lib:1.0");
+
+    TreeMap<String, SortedSet<String>> services = new TreeMap<>();
+    services.put("org.example.Service", new TreeSet<>(Set.of("org.example.Impl")));
+
+    Set<DependencyInfo> infos = new HashSet<>();
+    infos.add(
+        info(
+            guava,
+            Set.of(central, google),
+            "abc",
+            Set.of(failureAccess),
+            Set.of("com.google.common.base", "javax.annotation"),
+            Set.of("com.google.common.base.Strings", "javax.annotation.Nullable"),
+            new TreeMap<>()));
+    infos.add(
+        info(
+            failureAccess,
+            Set.of(central),
+            "def",
+            Set.of(),
+            Set.of("com.google.common.util.concurrent.internal"),
+            Set.of("com.google.common.util.concurrent.internal.InternalFutures"),
+            new TreeMap<>()));
+    infos.add(
+        info(
+            lib,
+            Set.of(google),
+            "123",
+            Set.of(guava),
+            Set.of("org.example", "javax.annotation"),
+            Set.of("org.example.Impl", "javax.annotation.Nonnull"),
+            services));
+    infos.add(
+        info(
+            lib.setClassifier("sources"),
+            Set.of(google),
+            "456",
+            Set.of(),
+            Set.of(),
+            Set.of(),
+            new TreeMap<>()));
+    return infos;
+  }
+
+  private Set<Conflict> conflicts() {
+    return Set.of(
+        new Conflict(
+            new Coordinates("com.google.guava:guava:33.0.0-jre"),
+            new Coordinates("com.google.guava:guava:31.1-jre")));
+  }
+
+  private static DependencyInfo info(
+      Coordinates coords,
+      Set<URI> repos,
+      String sha256,
+      Set<Coordinates> deps,
+      Set<String> packages,
+      Set<String> classes,
+      TreeMap<String, SortedSet<String>> services) {
+    return new DependencyInfo(
+        coords, repos, Optional.empty(), Optional.of(sha256), deps, packages, classes, services);
+  }
+
+  // What would be written to a single lock file
+  private static Map<String, Object> render(V3LockFile lockFile) {
+    Map<String, Object> rendered = new TreeMap<>(lockFile.render());
+    rendered.remove("files");
+    return rendered;
+  }
+
+  private static Map<String, Object> parse(String json) {
+    return GSON.fromJson(json, new TypeToken<Map<String, Object>>() {}.getType());
+  }
+}
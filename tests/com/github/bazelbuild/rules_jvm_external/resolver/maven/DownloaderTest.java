@@ -14,22 +14,52 @@
 
 package com.github.bazelbuild.rules_jvm_external.resolver.maven;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import com.github.bazelbuild.rules_jvm_external.Coordinates;
+import com.github.bazelbuild.rules_jvm_external.resolver.ArtifactCache;
 import com.github.bazelbuild.rules_jvm_external.resolver.MavenRepo;
 import com.github.bazelbuild.rules_jvm_external.resolver.netrc.Netrc;
+import com.github.bazelbuild.rules_jvm_external.resolver.remote.ArtifactCaches;
 import com.github.bazelbuild.rules_jvm_external.resolver.remote.DownloadResult;
 import com.github.bazelbuild.rules_jvm_external.resolver.remote.Downloader;
+import com.github.bazelbuild.rules_jvm_external.resolver.remote.RepositoryStats;
 import com.github.bazelbuild.rules_jvm_external.resolver.ui.NullListener;
+import com.google.common.hash.Hashing;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.After;
 import org.junit.Test;
 
 public class DownloaderTest {
+
+  private final byte[] jar = "Pretend this is a jar".getBytes(UTF_8);
+  private final List<HttpServer> servers = new ArrayList<>();
+
+  @After
+  public void stopServers() {
+    servers.forEach(server -> server.stop(0));
+  }
   @Test
   public void downloaderHandleUndeclaredCharacterEntityInPOM() throws IOException {
     Coordinates coords = new Coordinates("com.example:characterentity:1.0");
@@ -69,4 +99,331 @@ public class DownloaderTest {
 
     assertTrue(downloadResult.getPath().isEmpty());
   }
+
+  @Test
+  public void shouldDownloadFromTheFastestRepositoryButAttributeInTheGivenOrder()
+      throws Exception {
+    List<String> slowGets = new ArrayList<>();
+    List<String> fastGets = new ArrayList<>();
+    URI slow = serve(slowGets, 200);
+    URI fast = serve(fastGets, 0);
+    Path localRepo = Files.createTempDirectory("local");
+
+    // The first run has nothing to go on, so uses the order it was given
+    Downloader first = newDownloader(localRepo, List.of(slow, fast), List.of());
+    DownloadResult firstResult = first.download(new Coordinates("com.example:first:1.0"));
+    first.saveRepositoryStats();
+    assertEquals(List.of("/com/example/first/1.0/first-1.0.jar"), slowGets);
+    assertEquals(List.of(slow, fast), List.copyOf(firstResult.getRepositories()));
+
+    // The next knows which repository is quicker
+    Downloader second = newDownloader(localRepo, List.of(slow, fast), List.of());
+    DownloadResult secondResult = second.download(new Coordinates("com.example:second:1.0"));
+    assertEquals(List.of("/com/example/second/1.0/second-1.0.jar"), fastGets);
+    assertEquals(1, slowGets.size());
+    assertEquals(List.of(slow, fast), List.copyOf(secondResult.getRepositories()));
+  }
+
+  @Test
+  public void shouldHedgeSlowDownloadsWithAMirror() throws Exception {
+    URI slow = serve(new ArrayList<>(), 5000);
+    URI fast = serve(new ArrayList<>(), 0);
+    Path localRepo = Files.createTempDirectory("local");
+
+    // Normally the slow repository is very quick indeed
+    RepositoryStats stats = new RepositoryStats();
+    stats.record(slow, RepositoryStats.Kind.ARTIFACT, true, 1);
+    stats.record(fast, RepositoryStats.Kind.ARTIFACT, true, 10);
+    stats.save(localRepo.resolve(".rules_jvm_external/repository-stats"));
+
+    Downloader downloader =
+        newDownloader(localRepo, List.of(slow, fast), List.of(Set.of(slow, fast)));
+    long start = System.nanoTime();
+    DownloadResult result = downloader.download(new Coordinates("com.example:hedged:1.0"));
+    long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+    assertTrue("Took " + elapsedMillis + "ms", elapsedMillis < 4000);
+    assertArrayEquals(jar, Files.readAllBytes(result.getPath().get()));
+    assertEquals(List.of(slow, fast), List.copyOf(result.getRepositories()));
+  }
+
+  @Test
+  public void shouldNotHedgeAJarJustBecauseMetadataComesBackQuickly() throws Exception {
+    List<String> slowGets = new ArrayList<>();
+    List<String> mirrorGets = new ArrayList<>();
+    URI slow = serve(slowGets, 500);
+    URI mirror = serve(mirrorGets, 0);
+    Path localRepo = Files.createTempDirectory("local");
+
+    // POMs come back from the repository in no time, but jars take a while longer
+    RepositoryStats stats = new RepositoryStats();
+    for (int i = 0; i < 20; i++) {
+      stats.record(slow, RepositoryStats.Kind.METADATA, true, 1);
+    }
+    stats.record(slow, RepositoryStats.Kind.ARTIFACT, true, 5000);
+    stats.record(mirror, RepositoryStats.Kind.ARTIFACT, true, 10000);
+    stats.save(localRepo.resolve(".rules_jvm_external/repository-stats"));
+
+    Downloader downloader =
+        newDownloader(localRepo, List.of(slow, mirror), List.of(Set.of(slow, mirror)));
+    DownloadResult result = downloader.download(new Coordinates("com.example:large:1.0"));
+
+    assertArrayEquals(jar, Files.readAllBytes(result.getPath().get()));
+    assertEquals(List.of("/com/example/large/1.0/large-1.0.jar"), slowGets);
+    assertEquals(List.of(), mirrorGets);
+  }
+
+  @Test
+  public void shouldStopDownloadingWhenInterrupted() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch abandoned = new CountDownLatch(1);
+    HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext(
+        "/",
+        exchange -> {
+          exchange.sendResponseHeaders(200, 0);
+          byte[] chunk = new byte[8192];
+          try (OutputStream body = exchange.getResponseBody()) {
+            while (true) {
+              body.write(chunk);
+              body.flush();
+              started.countDown();
+            }
+          } catch (IOException e) {
+            abandoned.countDown();
+          }
+        });
+    server.start();
+    servers.add(server);
+    URI repo = URI.create("http://localhost:" + server.getAddress().getPort() + "/");
+    Downloader downloader =
+        newDownloader(Files.createTempDirectory("local"), List.of(repo), List.of());
+
+    Thread thread =
+        new Thread(
+            () -> {
+              try {
+                downloader.download(new Coordinates("com.example:endless:1.0"));
+              } catch (RuntimeException expected) {
+                // Interrupted
+              }
+            });
+    thread.start();
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+    thread.interrupt();
+
+    assertTrue(abandoned.await(10, TimeUnit.SECONDS));
+    thread.join(10_000);
+  }
+
+  @Test
+  public void shouldOnlyUseTheCoursierCacheWhenDownloadsAreKept() throws Exception {
+    List<String> gets = new ArrayList<>();
+    URI repo = serve(gets, 0);
+    Coordinates coords = new Coordinates("com.example:coursier:1.0");
+    Path coursier = Files.createTempDirectory("coursier");
+    Path cached =
+        coursier
+            .resolve("http")
+            .resolve("localhost%3A" + repo.getPort())
+            .resolve(coords.toRepoPath());
+    Files.createDirectories(cached.getParent());
+    Files.write(cached, jar);
+    Files.write(
+        cached.resolveSibling(cached.getFileName() + ".sha256"),
+        Hashing.sha256().hashBytes(jar).toString().getBytes(UTF_8));
+
+    System.setProperty("coursier.cache", coursier.toString());
+    try {
+      // An isolated run goes to the repository...
+      new Downloader(
+              Netrc.fromUserHome(),
+              Files.createTempDirectory("local"),
+              List.of(repo),
+              new NullListener(),
+              false,
+              Map.of())
+          .download(coords);
+      assertEquals(1, gets.size());
+
+      // ...while one that keeps what it downloads is happy with Coursier's copy
+      DownloadResult result =
+          newDownloader(Files.createTempDirectory("local"), List.of(repo), List.of())
+              .download(coords);
+      assertEquals(1, gets.size());
+      assertEquals(Optional.of(cached), result.getPath());
+    } finally {
+      System.clearProperty("coursier.cache");
+    }
+  }
+
+  @Test
+  public void shouldFetchArtifactsWithAKnownHashFromTheArtifactCache() throws Exception {
+    List<String> gets = new ArrayList<>();
+    URI repo = serve(gets, 0);
+    Path localRepo = Files.createTempDirectory("local");
+    Coordinates coords = new Coordinates("com.example:cached:1.0");
+    String sha256 = Hashing.sha256().hashBytes(jar).toString();
+    InMemoryArtifactCache cache = new InMemoryArtifactCache();
+    cache.contents.put(sha256, jar);
+
+    DownloadResult result =
+        newDownloader(localRepo, List.of(repo), cache, Map.of(coords, sha256)).download(coords);
+
+    assertEquals(List.of(), gets);
+    assertArrayEquals(jar, Files.readAllBytes(result.getPath().get()));
+    assertEquals(Optional.of(sha256), result.getSha256());
+    // We still need to know where it can be downloaded from
+    assertEquals(List.of(repo), List.copyOf(result.getRepositories()));
+  }
+
+  @Test
+  public void shouldAddDownloadedArtifactsToTheArtifactCache() throws Exception {
+    List<String> gets = new ArrayList<>();
+    URI repo = serve(gets, 0);
+    Path localRepo = Files.createTempDirectory("local");
+    Coordinates coords = new Coordinates("com.example:uncached:1.0");
+    // The hash recorded by the last pin won't match what's downloaded now
+    InMemoryArtifactCache cache = new InMemoryArtifactCache();
+
+    newDownloader(localRepo, List.of(repo), cache, Map.of(coords, "0123")).download(coords);
+    ArtifactCaches.awaitUploads();
+
+    assertEquals(List.of("/com/example/uncached/1.0/uncached-1.0.jar"), gets);
+    assertArrayEquals(jar, cache.contents.get(Hashing.sha256().hashBytes(jar).toString()));
+  }
+
+  @Test
+  public void shouldTidyUpAfterMissingTheArtifactCacheWhenDownloadsAreNotKept() throws Exception {
+    URI repo = serve(new ArrayList<>(), 0);
+    Coordinates coords = new Coordinates("com.example:unshared:1.0");
+    // Where the cache was asked to put things. The artifact cache writes beside the destination.
+    List<Path> asked = new ArrayList<>();
+    ArtifactCache cache =
+        new ArtifactCache() {
+          @Override
+          public boolean get(String sha256, Path destination) {
+            asked.add(destination);
+            return false;
+          }
+
+          @Override
+          public void put(String sha256, Path file) {}
+        };
+
+    new Downloader(
+            Netrc.fromUserHome(),
+            Files.createTempDirectory("local"),
+            List.of(repo),
+            new NullListener(),
+            false,
+            false,
+            Map.of(),
+            List.of(),
+            cache,
+            Map.of(coords, "0123"))
+        .download(coords);
+
+    assertEquals(1, asked.size());
+    String part = asked.get(0).getFileName().toString();
+    try (Stream<Path> siblings = Files.list(asked.get(0).getParent())) {
+      assertEquals(
+          List.of(),
+          siblings
+              .filter(sibling -> part.startsWith(sibling.getFileName().toString()))
+              .collect(Collectors.toList()));
+    }
+  }
+
+  private Downloader newDownloader(
+      Path localRepo,
+      List<URI> repositories,
+      ArtifactCache cache,
+      Map<Coordinates, String> knownSha256s) {
+    return new Downloader(
+        Netrc.fromUserHome(),
+        localRepo,
+        repositories,
+        new NullListener(),
+        true,
+        false,
+        Map.of(),
+        List.of(),
+        cache,
+        knownSha256s);
+  }
+
+  private Downloader newDownloader(
+      Path localRepo, List<URI> repositories, List<Set<URI>> mirrorGroups) {
+    return new Downloader(
+        Netrc.fromUserHome(),
+        localRepo,
+        repositories,
+        new NullListener(),
+        true,
+        false,
+        Map.of(),
+        mirrorGroups);
+  }
+
+  /** Serves a jar for any path ending in {@code .jar}, recording each GET and delaying it. */
+  private URI serve(List<String> gets, long delayMillis) throws IOException {
+    HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext(
+        "/",
+        exchange -> {
+          String path = exchange.getRequestURI().getPath();
+          if (!path.endsWith(".jar")) {
+            send(exchange, 404, new byte[0]);
+            return;
+          }
+          if ("GET".equals(exchange.getRequestMethod())) {
+            synchronized (gets) {
+              gets.add(path);
+            }
+            try {
+              Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }
+          send(exchange, 200, jar);
+        });
+    // Let a slow request to one repository proceed alongside requests to another
+    server.setExecutor(Executors.newCachedThreadPool());
+    server.start();
+    servers.add(server);
+    return URI.create("http://localhost:" + server.getAddress().getPort() + "/");
+  }
+
+  private static class InMemoryArtifactCache implements ArtifactCache {
+    private final Map<String, byte[]> contents = new ConcurrentHashMap<>();
+
+    @Override
+    public boolean get(String sha256, Path destination) throws IOException {
+      byte[] content = contents.get(sha256);
+      if (content == null) {
+        return false;
+      }
+      Files.write(destination, content);
+      return true;
+    }
+
+    @Override
+    public void put(String sha256, Path file) throws IOException {
+      contents.put(sha256, Files.readAllBytes(file));
+    }
+  }
+
+  private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+    if ("HEAD".equals(exchange.getRequestMethod())) {
+      exchange.sendResponseHeaders(status, -1);
+    } else {
+      exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    }
+    exchange.close();
+  }
 }
@@ -0,0 +1,131 @@
+// Copyright 2026 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.resolver.maven;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.github.bazelbuild.rules_jvm_external.resolver.ArtifactCache;
+import com.github.bazelbuild.rules_jvm_external.resolver.netrc.Netrc;
+import com.github.bazelbuild.rules_jvm_external.resolver.remote.ArtifactCaches;
+import com.github.bazelbuild.rules_jvm_external.resolver.remote.HttpDownloader;
+import com.github.bazelbuild.rules_jvm_external.resolver.ui.NullListener;
+import com.google.common.hash.Hashing;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.spi.connector.transport.GetTask;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HttpDownloaderTransporterTest {
+
+  private static final String PATH = "com/example/foo/1.0/foo-1.0.jar";
+
+  private final byte[] jar = "Pretend this is a jar".repeat(1000).getBytes(UTF_8);
+  private final String sha256 = Hashing.sha256().hashBytes(jar).toString();
+  private final AtomicInteger requests = new AtomicInteger();
+  private HttpServer server;
+  private RemoteRepository repository;
+
+  @Before
+  public void startServer() throws Exception {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext(
+        "/",
+        exchange -> {
+          exchange.sendResponseHeaders(200, jar.length);
+          try (OutputStream out = exchange.getResponseBody()) {
+            if (requests.incrementAndGet() == 1) {
+              // Give up half way through, so that the download has to start again
+              out.write(jar, 0, jar.length / 2);
+              out.flush();
+              throw new RuntimeException("Connection dropped");
+            }
+            out.write(jar);
+          }
+        });
+    server.start();
+    repository =
+        new RemoteRepository.Builder(
+                "test", "default", "http://localhost:" + server.getAddress().getPort() + "/")
+            .build();
+  }
+
+  @After
+  public void stopServer() {
+    server.stop(0);
+  }
+
+  @Test
+  public void shouldShareWhatWasDownloadedUnderItsOwnHash() throws Exception {
+    InMemoryArtifactCache cache = new InMemoryArtifactCache();
+    Path dest = Files.createTempDirectory("transporter").resolve("foo-1.0.jar");
+    // The hash recorded by the last pin won't match what's downloaded now
+    HttpDownloaderTransporter transporter =
+        new HttpDownloaderTransporter(
+            new HttpDownloader(Netrc.fromUserHome(), new NullListener()),
+            repository,
+            cache,
+            Map.of(PATH, "0123"));
+
+    transporter.get(new GetTask(URI.create(PATH)).setDataFile(dest.toFile()));
+    ArtifactCaches.awaitUploads();
+
+    // The first attempt was abandoned part of the way through, and none of it was kept or hashed
+    assertEquals(2, requests.get());
+    assertArrayEquals(jar, Files.readAllBytes(dest));
+    assertEquals(Set.of(sha256), cache.contents.keySet());
+    assertArrayEquals(jar, cache.contents.get(sha256));
+  }
+
+  @Test
+  public void shouldStartAgainWhenAnInMemoryDownloadIsRetried() throws Exception {
+    HttpDownloaderTransporter transporter =
+        new HttpDownloaderTransporter(
+            new HttpDownloader(Netrc.fromUserHome(), new NullListener()), repository);
+
+    GetTask task = new GetTask(URI.create(PATH));
+    transporter.get(task);
+
+    assertEquals(2, requests.get());
+    assertArrayEquals(jar, task.getDataBytes());
+  }
+
+  private static class InMemoryArtifactCache implements ArtifactCache {
+    private final Map<String, byte[]> contents = new ConcurrentHashMap<>();
+
+    @Override
+    public boolean get(String sha256, Path destination) {
+      return false;
+    }
+
+    @Override
+    public void put(String sha256, Path file) throws IOException {
+      contents.put(sha256, Files.readAllBytes(file));
+    }
+  }
+}
@@ -14,16 +14,27 @@
 
 package com.github.bazelbuild.rules_jvm_external.resolver.maven;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.fail;
 
 import com.github.bazelbuild.rules_jvm_external.Coordinates;
 import com.github.bazelbuild.rules_jvm_external.resolver.MavenRepo;
+import com.github.bazelbuild.rules_jvm_external.resolver.OfflineResolutionException;
+import com.github.bazelbuild.rules_jvm_external.resolver.ResolutionRequest;
 import com.github.bazelbuild.rules_jvm_external.resolver.Resolver;
 import com.github.bazelbuild.rules_jvm_external.resolver.ResolverTestBase;
 import com.github.bazelbuild.rules_jvm_external.resolver.cmd.ResolverConfig;
 import com.github.bazelbuild.rules_jvm_external.resolver.events.EventListener;
 import com.github.bazelbuild.rules_jvm_external.resolver.netrc.Netrc;
+import com.google.common.graph.Graph;
+import java.net.URI;
 import java.nio.file.Path;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.Model;
+import org.eclipse.aether.resolution.VersionRangeResolutionException;
 import org.eclipse.aether.transfer.ArtifactNotFoundException;
 import org.junit.Test;
 
@@ -59,4 +70,70 @@ public class MavenResolverTest extends ResolverTestBase {
       }
     }
   }
+
+  @Test
+  public void shouldResolveOfflineFromThePopulatedLocalCache() {
+    Coordinates main = new Coordinates("com.example:main:1.0");
+    Coordinates dep = new Coordinates("com.example:dep:1.0");
+
+    // Nothing is listening here, so any attempt to use the network would fail
+    ResolutionRequest request =
+        prepareRequestFor(URI.create("http://localhost:1/"), main).useOfflineMode(true);
+    MavenRepo.createIn(request.getLocalCache("maven")).add(dep).add(main, dep);
+
+    Graph<Coordinates> resolved = resolver.resolve(request).getResolution();
+
+    assertEquals(Set.of(main, dep), resolved.nodes());
+  }
+
+  @Test
+  public void shouldReportEverythingMissingFromTheLocalCacheWhenOffline() {
+    Coordinates main = new Coordinates("com.example:main:1.0");
+    Coordinates first = new Coordinates("com.example:first:1.0");
+    Coordinates second = new Coordinates("com.example:second:1.0");
+
+    ResolutionRequest request =
+        prepareRequestFor(URI.create("http://localhost:1/"), main).useOfflineMode(true);
+    MavenRepo.createIn(request.getLocalCache("maven")).add(main, first, second);
+
+    try {
+      resolver.resolve(request);
+      fail("Expected OfflineResolutionException");
+    } catch (OfflineResolutionException e) {
+      Set<String> missing =
+          e.getMissing().stream()
+              .map(c -> c.getGroupId() + ":" + c.getArtifactId() + ":" + c.getVersion())
+              .collect(Collectors.toSet());
+      assertEquals(Set.of(first.toString(), second.toString()), missing);
+    }
+  }
+
+  @Test
+  public void shouldFailOfflineJustAsOnlineForAnythingOtherThanMissingArtifacts() {
+    Coordinates main = new Coordinates("com.example:main:1.0");
+    Model model = createModel(main);
+    Dependency ranged = new Dependency();
+    ranged.setGroupId("com.example");
+    ranged.setArtifactId("ranged");
+    // Nothing in the local cache says which versions there are
+    ranged.setVersion("[2.0,3.0)");
+    model.addDependency(ranged);
+
+    ResolutionRequest request =
+        prepareRequestFor(URI.create("http://localhost:1/"), main).useOfflineMode(true);
+    MavenRepo.createIn(request.getLocalCache("maven")).add(model);
+
+    try {
+      resolver.resolve(request);
+      fail("Expected the resolution to fail");
+    } catch (OfflineResolutionException e) {
+      fail("Expected the failure to be reported as it would be online, not as missing: " + e);
+    } catch (RuntimeException e) {
+      Throwable cause = e;
+      while (cause != null && !(cause instanceof VersionRangeResolutionException)) {
+        cause = cause.getCause();
+      }
+      assertNotNull(e.toString(), cause);
+    }
+  }
 }
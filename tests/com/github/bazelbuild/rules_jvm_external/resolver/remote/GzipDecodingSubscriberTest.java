@@ -0,0 +1,116 @@
+// Copyright 2026 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.resolver.remote;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+import org.junit.Test;
+
+public class GzipDecodingSubscriberTest {
+
+  @Test
+  public void shouldDecodeABodyDeliveredInOneChunk() throws Exception {
+    byte[] content = pom();
+
+    assertArrayEquals(content, decode(gzip(content), Integer.MAX_VALUE));
+  }
+
+  @Test
+  public void shouldDecodeABodyDeliveredOneByteAtATime() throws Exception {
+    byte[] content = pom();
+
+    // Splits the header and trailer across chunks, as well as the compressed data
+    assertArrayEquals(content, decode(gzip(content), 1));
+  }
+
+  @Test
+  public void shouldRejectACorruptBody() throws Exception {
+    byte[] gzipped = gzip(pom());
+    // Flip a bit in the CRC held in the trailer
+    gzipped[gzipped.length - 8] ^= 1;
+
+    try {
+      decode(gzipped, 100);
+      fail("Expected the body to be rejected");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof ZipException);
+    }
+  }
+
+  @Test
+  public void shouldRejectATruncatedBody() throws Exception {
+    byte[] gzipped = gzip(pom());
+    byte[] truncated = new byte[gzipped.length - 4];
+    System.arraycopy(gzipped, 0, truncated, 0, truncated.length);
+
+    try {
+      decode(truncated, 100);
+      fail("Expected the body to be rejected");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof ZipException);
+    }
+  }
+
+  private byte[] decode(byte[] gzipped, int chunkSize) throws Exception {
+    GzipDecodingSubscriber<byte[]> subscriber =
+        new GzipDecodingSubscriber<>(HttpResponse.BodySubscribers.ofByteArray());
+    subscriber.onSubscribe(
+        new Flow.Subscription() {
+          @Override
+          public void request(long n) {}
+
+          @Override
+          public void cancel() {}
+        });
+
+    for (int i = 0; i < gzipped.length; i += chunkSize) {
+      int length = Math.min(chunkSize, gzipped.length - i);
+      subscriber.onNext(List.of(ByteBuffer.wrap(gzipped, i, length)));
+    }
+    subscriber.onComplete();
+
+    return subscriber.getBody().toCompletableFuture().get();
+  }
+
+  private static byte[] pom() {
+    StringBuilder pom = new StringBuilder("<project>\n  <dependencies>\n");
+    for (int i = 0; i < 2000; i++) {
+      pom.append("    <dependency><artifactId>dep-")
+          .append(i)
+          .append("</artifactId></dependency>\n");
+    }
+    return pom.append("  </dependencies>\n</project>\n").toString().getBytes(UTF_8);
+  }
+
+  private static byte[] gzip(byte[] content) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+      out.write(content);
+    }
+    return bytes.toByteArray();
+  }
+}
@@ -0,0 +1,147 @@
+// Copyright 2026 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.resolver.remote;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LocalCacheManagerTest {
+
+  @Rule public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @Test
+  public void shouldParseSizes() {
+    assertEquals(123, LocalCacheManager.parseSize("123"));
+    assertEquals(2048, LocalCacheManager.parseSize("2k"));
+    assertEquals(500L << 20, LocalCacheManager.parseSize("500M"));
+    assertEquals(10L << 30, LocalCacheManager.parseSize("10gb"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectSizesItDoesNotUnderstand() {
+    LocalCacheManager.parseSize("lots");
+  }
+
+  @Test
+  public void shouldDoNothingWithoutALimit() throws IOException {
+    Path root = tempFolder.newFolder("m2").toPath();
+    Path jar = write(root, "com/example/a/1.0/a-1.0.jar", 100, 1000);
+
+    try (LocalCacheManager manager = LocalCacheManager.open(root, -1)) {
+      manager.recordAccess(jar);
+    }
+
+    assertTrue(Files.exists(jar));
+    assertFalse(Files.exists(root.resolve(".rules_jvm_external")));
+  }
+
+  @Test
+  public void shouldEvictTheLeastRecentlyUsedArtifacts() throws IOException {
+    Path root = tempFolder.newFolder("m2").toPath();
+    // Modified in the opposite order to their use, so only the recorded use can get this right
+    Path a = write(root, "com/example/a/1.0/a-1.0.jar", 100, 3000);
+    Path aPom = write(root, "com/example/a/1.0/a-1.0.pom", 10, 3000);
+    Path b = write(root, "com/example/b/1.0/b-1.0.jar", 100, 2000);
+    Path c = write(root, "com/example/c/1.0/c-1.0.jar", 100, 1000);
+
+    try (LocalCacheManager manager = LocalCacheManager.open(root, Long.MAX_VALUE)) {
+      manager.recordAccess(a, 10_000);
+      manager.recordAccess(b, 20_000);
+      manager.recordAccess(c, 30_000);
+    }
+    assertTrue(Files.exists(a));
+
+    LocalCacheManager.open(root, 250).close();
+
+    assertFalse(Files.exists(a));
+    assertFalse(Files.exists(aPom));
+    assertFalse(Files.exists(root.resolve("com/example/a")));
+    assertTrue(Files.exists(b));
+    assertTrue(Files.exists(c));
+  }
+
+  @Test
+  public void shouldTreatArtifactsItHasNotSeenUsedAsLastModified() throws IOException {
+    Path root = tempFolder.newFolder("m2").toPath();
+    Path a = write(root, "com/example/a/1.0/a-1.0.jar", 100, 3000);
+    Path b = write(root, "com/example/b/1.0/b-1.0.jar", 100, 1000);
+
+    LocalCacheManager.open(root, 150).close();
+
+    assertTrue(Files.exists(a));
+    assertFalse(Files.exists(b));
+  }
+
+  @Test
+  public void shouldNotEvictAnythingUsedWhileItWasOpen() throws IOException {
+    Path root = tempFolder.newFolder("m2").toPath();
+    Path a = write(root, "com/example/a/1.0/a-1.0.jar", 100, 1000);
+    Path b = write(root, "com/example/b/1.0/b-1.0.jar", 100, 2000);
+
+    try (LocalCacheManager manager = LocalCacheManager.open(root, 10)) {
+      manager.recordAccess(a, 1);
+    }
+
+    assertTrue(Files.exists(a));
+    assertFalse(Files.exists(b));
+  }
+
+  @Test
+  public void shouldEvictWholeVersionsFromAGradleCache() throws IOException {
+    Path root = tempFolder.newFolder("files-2.1").toPath();
+    String sha1 = "0123456789abcdef0123456789abcdef01234567";
+    String otherSha1 = "fedcba9876543210fedcba9876543210fedcba98";
+    Path jar = write(root, "com.example/a/1.0/" + sha1 + "/a-1.0.jar", 100, 1000);
+    Path pom = write(root, "com.example/a/1.0/" + otherSha1 + "/a-1.0.pom", 10, 1000);
+    Path other = write(root, "com.example/b/1.0/" + sha1 + "/b-1.0.jar", 100, 2000);
+
+    try (LocalCacheManager manager = LocalCacheManager.open(root, 150)) {
+      manager.recordAccess(other, 5000);
+    }
+
+    assertFalse(Files.exists(jar));
+    assertFalse(Files.exists(pom));
+    assertFalse(Files.exists(root.resolve("com.example/a")));
+    assertTrue(Files.exists(other));
+  }
+
+  @Test
+  public void shouldNeverEvictItsOwnState() throws IOException {
+    Path root = tempFolder.newFolder("m2").toPath();
+    Path stats = write(root, ".rules_jvm_external/repository-stats", 100, 1000);
+
+    LocalCacheManager.open(root, 0).close();
+
+    assertTrue(Files.exists(stats));
+  }
+
+  private static Path write(Path root, String path, int size, long modifiedMillis)
+      throws IOException {
+    Path file = root.resolve(path);
+    Files.createDirectories(file.getParent());
+    Files.write(file, new byte[size]);
+    Files.setLastModifiedTime(file, FileTime.fromMillis(modifiedMillis));
+    return file;
+  }
+}
@@ -60,8 +60,191 @@ def _null_shasum_artifacts_do_not_get_synthetic_file_impl(ctx):
 
 null_shasum_artifacts_do_not_get_synthetic_file_test = unittest.make(_null_shasum_artifacts_do_not_get_synthetic_file_impl)
 
+def _digests_lock_file():
+    return {
+        "__RESOLVED_ARTIFACTS_DIGESTS": {
+            "digests": {
+                "com.google.guava:failureaccess": 1724917135,
+                "com.google.guava:guava": -121982908,
+                "com.google.guava:guava:jar:sources": -1908002871,
+            },
+            "version": 1,
+        },
+        "artifacts": {
+            "com.google.guava:failureaccess": {
+                "shasums": {
+                    "jar": "8ee0a9fbf1c2a4d6e3b1a2c3d4e5f60718293a4b5c6d7e8f9a0b1c2d3e4f5a6b",
+                },
+                "version": "1.0.2",
+            },
+            "com.google.guava:guava": {
+                "shasums": {
+                    "jar": "4bf0e2c5af8e4525c96e8fde17a4f7307f97f8478f11c4c8e35a0e3298ae4e90",
+                    "sources": "7ee9d6f3b0bcd7a2acfd1e58d0a25b3e4a39fe8b1bc2f4f8d0a4bc0a2fb2f3b1",
+                },
+                "version": "33.4.0-jre",
+            },
+        },
+        "dependencies": {
+            "com.google.guava:guava": [
+                "com.google.guava:failureaccess",
+            ],
+        },
+        "repositories": {
+            "https://repo1.maven.org/maven2/": [
+                "com.google.guava:failureaccess",
+                "com.google.guava:guava",
+                "com.google.guava:guava:jar:sources",
+            ],
+            "https://maven.google.com/": [
+                "com.google.guava:guava",
+            ],
+        },
+        "version": "3",
+    }
+
+def _digests_match_the_java_resolver_impl(ctx):
+    env = unittest.begin(ctx)
+
+    # The stored digests were calculated by `ArtifactHasher`, and `ArtifactHasherTest` checks the
+    # same lock file
+    lock_file_contents = _digests_lock_file()
+    asserts.equals(
+        env,
+        v3_lock_file.get_lock_file_digests(lock_file_contents),
+        v3_lock_file.compute_lock_file_digests(lock_file_contents),
+    )
+
+    return unittest.end(env)
+
+digests_match_the_java_resolver_test = unittest.make(_digests_match_the_java_resolver_impl)
+
+def _digests_notice_edits_impl(ctx):
+    env = unittest.begin(ctx)
+
+    lock_file_contents = _digests_lock_file()
+    stored = v3_lock_file.get_lock_file_digests(lock_file_contents)
+    lock_file_contents["artifacts"]["com.google.guava:failureaccess"]["version"] = "1.0.3"
+    lock_file_contents["repositories"]["https://maven.google.com/"].append("com.google.guava:guava:jar:sources")
+    computed = v3_lock_file.compute_lock_file_digests(lock_file_contents)
+
+    asserts.equals(env, stored["com.google.guava:guava"], computed["com.google.guava:guava"])
+    asserts.false(env, stored["com.google.guava:failureaccess"] == computed["com.google.guava:failureaccess"])
+    asserts.false(env, stored["com.google.guava:guava:jar:sources"] == computed["com.google.guava:guava:jar:sources"])
+
+    return unittest.end(env)
+
+digests_notice_edits_test = unittest.make(_digests_notice_edits_impl)
+
+def _digests_with_an_unknown_version_are_ignored_impl(ctx):
+    env = unittest.begin(ctx)
+
+    lock_file_contents = _digests_lock_file()
+    lock_file_contents["__RESOLVED_ARTIFACTS_DIGESTS"]["version"] = 2
+    asserts.equals(env, None, v3_lock_file.get_lock_file_digests(lock_file_contents))
+    asserts.equals(env, None, v3_lock_file.get_lock_file_digests({"version": "3"}))
+
+    return unittest.end(env)
+
+digests_with_an_unknown_version_are_ignored_test = unittest.make(_digests_with_an_unknown_version_are_ignored_impl)
+
+def _sharded_lock_file():
+    # How `LockFileShards` would write `_digests_lock_file`, along with some packages
+    files = {
+        "maven_install.shards/groups/com.google.guava.json": json.encode({
+            "artifacts": _digests_lock_file()["artifacts"],
+            "dependencies": _digests_lock_file()["dependencies"],
+            "repositories": {
+                "https://maven.google.com/": [
+                    "com.google.guava:guava",
+                ],
+                "https://repo1.maven.org/maven2/": [
+                    "com.google.guava:failureaccess",
+                    "com.google.guava:guava",
+                    "com.google.guava:guava:jar:sources",
+                ],
+            },
+        }),
+        "maven_install.shards/packages.json": json.encode({
+            "com.google.guava:guava": ["com.google.common.base"],
+        }),
+    }
+    manifest = {
+        "__RESOLVED_ARTIFACTS_DIGESTS": _digests_lock_file()["__RESOLVED_ARTIFACTS_DIGESTS"],
+        "artifacts": {},
+        "dependencies": {},
+        "repositories": {
+            "https://repo1.maven.org/maven2/": [],
+            "https://maven.google.com/": [],
+        },
+        "shards": {
+            "groups": {
+                "com.google.guava": "maven_install.shards/groups/com.google.guava.json",
+            },
+            "sections": {
+                "packages": "maven_install.shards/packages.json",
+            },
+        },
+        "version": "3",
+    }
+    return manifest, files
+
+def _shards_are_loaded_into_the_same_lock_file_impl(ctx):
+    env = unittest.begin(ctx)
+
+    manifest, files = _sharded_lock_file()
+    read = []
+
+    def read_shard(path):
+        read.append(path)
+        return files[path]
+
+    expected = _digests_lock_file()
+    expected["packages"] = {"com.google.guava:guava": ["com.google.common.base"]}
+    loaded = v3_lock_file.load_shards(manifest, read_shard)
+
+    asserts.equals(env, expected, loaded)
+    asserts.equals(env, json.encode(expected["repositories"]), json.encode(loaded["repositories"]))
+    asserts.equals(env, sorted(files.keys()), sorted(read))
+    asserts.equals(
+        env,
+        v3_lock_file.get_lock_file_digests(loaded),
+        v3_lock_file.compute_lock_file_digests(loaded),
+    )
+
+    return unittest.end(env)
+
+shards_are_loaded_into_the_same_lock_file_test = unittest.make(_shards_are_loaded_into_the_same_lock_file_impl)
+
+def _only_the_sections_asked_for_are_loaded_impl(ctx):
+    env = unittest.begin(ctx)
+
+    manifest, files = _sharded_lock_file()
+    read = []
+
+    def read_shard(path):
+        read.append(path)
+        return files[path]
+
+    loaded = v3_lock_file.load_shards(manifest, read_shard, sections = [])
+
+    asserts.equals(env, _digests_lock_file(), loaded)
+    asserts.false(env, "maven_install.shards/packages.json" in read)
+
+    # Lock files without shards are left alone
+    asserts.equals(env, _digests_lock_file(), v3_lock_file.load_shards(_digests_lock_file(), read_shard))
+
+    return unittest.end(env)
+
+only_the_sections_asked_for_are_loaded_test = unittest.make(_only_the_sections_asked_for_are_loaded_impl)
+
 def v3_lock_file_test_suite():
     unittest.suite(
         "v3_lock_file_tests",
         null_shasum_artifacts_do_not_get_synthetic_file_test,
+        digests_match_the_java_resolver_test,
+        digests_notice_edits_test,
+        digests_with_an_unknown_version_are_ignored_test,
+        shards_are_loaded_into_the_same_lock_file_test,
+        only_the_sections_asked_for_are_loaded_test,
     )